@@ -21,6 +21,9 @@ public class Twin
     private static final String DESIRED_TAG = "desired";
     private static final String REPORTED_TAG = "reported";
 
+    /* Gson instances are immutable and thread safe, so all twins share the same one. */
+    private static final Gson GSON = new GsonBuilder().disableInnerClassSerialization().create();
+
     protected TwinProperties properties = new TwinProperties();
 
     /**
@@ -254,8 +257,7 @@ public class Twin
                 /* Codes_SRS_TWIN_21_097: [If the provided json have any duplicated `properties`, the updateTwin shall throw IllegalArgumentException.] */
                 /* Codes_SRS_TWIN_21_098: [If the provided json is properties only and contains duplicated `desired` or `reported`, the updateTwin shall throws IllegalArgumentException.] */
                 /* Codes_SRS_TWIN_21_094: [If the provided json have any duplicated `key`, the updateTwin shall use the content of the last one in the String.] */
-                Gson gson = new GsonBuilder().disableInnerClassSerialization().create();
-                jsonTree = (Map<String, Object>) gson.fromJson(json, HashMap.class);
+                jsonTree = (Map<String, Object>) GSON.fromJson(json, HashMap.class);
             }
             catch (Exception e)
             {
@@ -6,7 +6,11 @@ package com.microsoft.azure.sdk.iot.deps.serializer;
 import com.google.gson.*;
 import com.google.gson.internal.LinkedTreeMap;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,6 +35,10 @@ public class TwinProperty
     private static final String LAST_UPDATE_TAG = "$lastUpdated";
     private static final String LAST_UPDATE_VERSION_TAG = "$lastUpdatedVersion";
 
+    /* Gson instances are immutable and thread safe, so all properties share the same one. */
+    private static final Gson GSON = new GsonBuilder().create();
+    private static final TypeAdapter<Object> VALUE_ADAPTER = GSON.getAdapter(Object.class);
+
     private Object lock = new Object();
 
     private class Property
@@ -233,7 +241,6 @@ public class TwinProperty
     protected JsonElement toJsonElement()
     {
         /* Codes_SRS_TWIN_21_017: [The toJsonElement shall return a JsonElement with information in the Twin using json format.] */
-        Gson gson = new GsonBuilder().create();
         Map<String, Object> map = new HashMap<>();
         Map<String, TwinMetadata> metadata = new HashMap<>();
 
@@ -260,7 +267,7 @@ public class TwinProperty
             map.put(VERSION_TAG, version);
         }
 
-        return gson.toJsonTree(map);
+        return GSON.toJsonTree(map);
     }
 
     protected void update(LinkedTreeMap<String, Object> jsonTree,
@@ -329,8 +336,7 @@ public class TwinProperty
         {
             /* Codes_SRS_TWIN_21_095: [If the provided json have any duplicated `key`, the updateReportedProperty shall throws IllegalArgumentException.] */
             /* Codes_SRS_TWIN_21_096: [If the provided json have any duplicated `key`, the updateDesiredProperty shall throws IllegalArgumentException.] */
-            Gson gson = new GsonBuilder().create();
-            newValues = (LinkedTreeMap<String, Object>) gson.fromJson(json, LinkedTreeMap.class);
+            newValues = readPatch(json);
         }
         catch (Exception e)
         {
@@ -339,54 +345,79 @@ public class TwinProperty
         update(newValues, onCallback);
     }
 
-    private void updateVersion(LinkedTreeMap<String, Object> jsonTree)
+    /*
+     * Reads the first level of the json patch with a JsonReader, using the shared Gson
+     * adapter only for the values. The whole patch is read before anything is applied,
+     * so a malformed patch does not change the database.
+     */
+    private static LinkedTreeMap<String, Object> readPatch(String json) throws IOException
     {
-        for (Map.Entry<String, Object> entry : jsonTree.entrySet())
+        /* Codes_SRS_TWIN_21_099: [The updateDesiredProperty and the updateReportedProperty shall read the json with a streaming parser, without creating a new Gson.] */
+        LinkedTreeMap<String, Object> newValues = new LinkedTreeMap<>();
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+
+        reader.beginObject();
+        while (reader.hasNext())
         {
-            if (entry.getKey().equals(VERSION_TAG))
+            String key = reader.nextName();
+            if (newValues.containsKey(key))
             {
-                version = new Integer( (int) ((double) entry.getValue()));
-                break;
+                throw new IllegalArgumentException("Duplicated key " + key);
             }
+            newValues.put(key, VALUE_ADAPTER.read(reader));
+        }
+        reader.endObject();
+
+        if (reader.peek() != JsonToken.END_DOCUMENT)
+        {
+            throw new IllegalArgumentException("Json document was not fully consumed");
+        }
+
+        return newValues;
+    }
+
+    private void updateVersion(LinkedTreeMap<String, Object> jsonTree)
+    {
+        Object versionValue = jsonTree.get(VERSION_TAG);
+        if (versionValue != null)
+        {
+            version = new Integer( (int) ((double) versionValue));
         }
     }
 
     private Map<String, Object>  updateMetadata(LinkedTreeMap<String, Object> jsonTree)
     {
         Map<String, Object> diff = new HashMap<>();
-        for (Map.Entry<String, Object> entry : jsonTree.entrySet())
+        if (jsonTree.containsKey(METADATA_TAG))
         {
-            if(entry.getKey().equals(METADATA_TAG))
+            LinkedTreeMap<String, Object> metadataTree = (LinkedTreeMap<String, Object>)jsonTree.get(METADATA_TAG);
+            for (LinkedTreeMap.Entry<String, Object> item : metadataTree.entrySet())
             {
-                LinkedTreeMap<String, Object> metadataTree = (LinkedTreeMap<String, Object>)entry.getValue();
-                for (LinkedTreeMap.Entry<String, Object> item : metadataTree.entrySet())
+                synchronized (lock)
                 {
-                    synchronized (lock)
+                    if (property.containsKey(item.getKey()))
                     {
-                        if (property.containsKey(item.getKey()))
+                        LinkedTreeMap<String, Object> itemTree = (LinkedTreeMap<String, Object>) item.getValue();
+                        String lastUpdated = null;
+                        Integer lastUpdatedVersion = null;
+                        for (LinkedTreeMap.Entry<String, Object> metadataItem : itemTree.entrySet())
                         {
-                            LinkedTreeMap<String, Object> itemTree = (LinkedTreeMap<String, Object>) item.getValue();
-                            String lastUpdated = null;
-                            Integer lastUpdatedVersion = null;
-                            for (LinkedTreeMap.Entry<String, Object> metadataItem : itemTree.entrySet())
+                            if (metadataItem.getKey().equals(LAST_UPDATE_TAG))
                             {
-                                if (metadataItem.getKey().equals(LAST_UPDATE_TAG))
-                                {
-                                    lastUpdated = metadataItem.getValue().toString();
-                                }
-                                else if (metadataItem.getKey().equals(LAST_UPDATE_VERSION_TAG))
-                                {
-                                    lastUpdatedVersion = (int) ((double) metadataItem.getValue());
-                                }
+                                lastUpdated = metadataItem.getValue().toString();
                             }
-                            if (property.get(item.getKey()).metadata.update(lastUpdated, lastUpdatedVersion))
+                            else if (metadataItem.getKey().equals(LAST_UPDATE_VERSION_TAG))
                             {
-                                diff.put(item.getKey(), item.getValue().toString());
+                                lastUpdatedVersion = (int) ((double) metadataItem.getValue());
                             }
                         }
+                        if (property.get(item.getKey()).metadata.update(lastUpdated, lastUpdatedVersion))
+                        {
+                            diff.put(item.getKey(), item.getValue().toString());
+                        }
                     }
                 }
-                break;
             }
         }
         return diff;
@@ -2529,4 +2529,75 @@ public class TwinTest {
 
         // Assert
     }
+
+    /* Tests_SRS_TWIN_21_099: [The updateDesiredProperty and the updateReportedProperty shall read the json with a streaming parser, without creating a new Gson.] */
+    @Test
+    public void updateDesiredProperty_json_manyProperties_succeed()
+    {
+        // Arrange
+        OnDesiredCallback onDesiredCallback = new OnDesiredCallback();
+        Twin twin = new Twin();
+        twin.setDesiredCallback(onDesiredCallback);
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < 1000; i++)
+        {
+            json.append("\"key").append(i).append("\":").append(i).append(",");
+        }
+        json.append("\"$version\":5}");
+
+        // Act
+        twin.updateDesiredProperty(json.toString());
+
+        // Assert
+        assertThat(onDesiredCallback.diff.size(), is(1000));
+        assertThat(twin.getDesiredPropertyMap().size(), is(1000));
+        assertThat(twin.getDesiredPropertyMap().get("key999").toString(), is("999.0"));
+        assertThat(twin.getDesiredPropertyVersion(), is(5));
+    }
+
+    /* Tests_SRS_TWIN_21_092: [If the provided json is not valid, the updateDesiredProperty shall throws IllegalArgumentException.] */
+    /* Tests_SRS_TWIN_21_099: [The updateDesiredProperty and the updateReportedProperty shall read the json with a streaming parser, without creating a new Gson.] */
+    @Test
+    public void updateDesiredProperty_json_truncated_failed()
+    {
+        // Arrange
+        OnDesiredCallback onDesiredCallback = new OnDesiredCallback();
+        Twin twin = new Twin();
+        twin.setDesiredCallback(onDesiredCallback);
+        Map<String, Object> newValues = new HashMap<>();
+        newValues.put("key1", "value1");
+        twin.updateDesiredProperty(newValues);
+
+        String json = "{\"key1\":\"value4\",\"key2\":";
+
+        // Act
+        try
+        {
+            twin.updateDesiredProperty(json);
+            assert(false);
+        }
+        catch (IllegalArgumentException expected)
+        {
+            //Expected behavior, don't do anything
+        }
+
+        // Assert
+        assertNull(onDesiredCallback.diff);
+        assertThat(twin.getDesiredPropertyMap().get("key1").toString(), is("value1"));
+    }
+
+    /* Tests_SRS_TWIN_21_093: [If the provided json is not valid, the updateReportedProperty shall throws IllegalArgumentException.] */
+    @Test (expected = IllegalArgumentException.class)
+    public void updateReportedProperty_json_trailingContent_failed()
+    {
+        // Arrange
+        Twin twin = new Twin();
+
+        String json = "{\"key1\":\"value1\"}{\"key2\":\"value2\"}";
+
+        // Act
+        twin.updateReportedProperty(json);
+
+        // Assert
+    }
 }
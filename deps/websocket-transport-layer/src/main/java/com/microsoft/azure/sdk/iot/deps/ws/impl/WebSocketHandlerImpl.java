@@ -7,10 +7,9 @@ package com.microsoft.azure.sdk.iot.deps.ws.impl;
 import com.microsoft.azure.sdk.iot.deps.ws.WebSocketHandler;
 import com.microsoft.azure.sdk.iot.deps.ws.WebSocketHeader;
 
-import java.io.*;
-
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import java.security.SecureRandom;
 
@@ -18,6 +17,12 @@ import java.util.*;
 
 public class WebSocketHandlerImpl implements WebSocketHandler
 {
+    private static final int MASKING_KEY_LENGTH = 4;
+    private static final int MASKING_WORD_LENGTH = 8;
+
+    // SecureRandom is thread safe, and seeding a new one for every frame is expensive
+    private static final SecureRandom MASKING_KEY_GENERATOR = new SecureRandom();
+
     private WebSocketUpgrade _webSocketUpgrade = null;
 
     @Override
@@ -94,14 +99,18 @@ public class WebSocketHandlerImpl implements WebSocketHandler
             // Get data length
             final int DATA_LENGTH = srcBuffer.remaining();
 
-            // Auto growing buffer for the WS frame, initialized to minimum size
-            ByteArrayOutputStream webSocketFrame = new ByteArrayOutputStream(WebSocketHeader.MIN_HEADER_LENGTH_MASKED + DATA_LENGTH);
+            // Check the destination buffer before consuming the source buffer
+            dstBuffer.clear();
+            if (dstBuffer.capacity() < calculateHeaderSize(DATA_LENGTH) + DATA_LENGTH)
+            {
+                throw new OutOfMemoryError("insufficient output buffer size");
+            }
 
             // Create the first byte
             // We always send final WebSocket frame
             // We always send binary message (AMQP)
             byte firstByte = (byte) (WebSocketHeader.FINBIT_MASK | WebSocketHeader.OPCODE_BINARY);
-            webSocketFrame.write(firstByte);
+            dstBuffer.put(firstByte);
 
             // Create the second byte
             // RFC: "client MUST mask all frames that it sends to the server"
@@ -111,65 +120,92 @@ public class WebSocketHandlerImpl implements WebSocketHandler
             if (DATA_LENGTH <= WebSocketHeader.PAYLOAD_SHORT_MAX)
             {
                 secondByte = (byte) (secondByte | DATA_LENGTH);
-                webSocketFrame.write(secondByte);
+                dstBuffer.put(secondByte);
             }
             // RFC: If 126, the following 2 bytes interpreted as a 16-bit unsigned integer are the payload length
             else if (DATA_LENGTH <= WebSocketHeader.PAYLOAD_MEDIUM_MAX)
             {
                 // Create payload byte
                 secondByte = (byte) (secondByte | WebSocketHeader.PAYLOAD_EXTENDED_16);
-                webSocketFrame.write(secondByte);
+                dstBuffer.put(secondByte);
 
                 // Create extended length bytes
-                webSocketFrame.write((byte) (DATA_LENGTH >>> 8));
-                webSocketFrame.write((byte) (DATA_LENGTH));
+                dstBuffer.put((byte) (DATA_LENGTH >>> 8));
+                dstBuffer.put((byte) (DATA_LENGTH));
             }
             // RFC: If 127, the following 8 bytes interpreted as a 64-bit unsigned integer (the most significant bit MUST be 0) are the payload length.
             // No need for "else if" because if it is longer than what 8 byte length can hold... all bets are off anyway
             else
             {
                 secondByte = (byte) (secondByte | WebSocketHeader.PAYLOAD_EXTENDED_64);
-                webSocketFrame.write(secondByte);
-
-                webSocketFrame.write((byte) (DATA_LENGTH >>> 56));
-                webSocketFrame.write((byte) (DATA_LENGTH >>> 48));
-                webSocketFrame.write((byte) (DATA_LENGTH >>> 40));
-                webSocketFrame.write((byte) (DATA_LENGTH >>> 32));
-                webSocketFrame.write((byte) (DATA_LENGTH >>> 24));
-                webSocketFrame.write((byte) (DATA_LENGTH >>> 16));
-                webSocketFrame.write((byte) (DATA_LENGTH >>> 8));
-                webSocketFrame.write((byte) (DATA_LENGTH));
+                dstBuffer.put(secondByte);
+
+                dstBuffer.put((byte) (DATA_LENGTH >>> 56));
+                dstBuffer.put((byte) (DATA_LENGTH >>> 48));
+                dstBuffer.put((byte) (DATA_LENGTH >>> 40));
+                dstBuffer.put((byte) (DATA_LENGTH >>> 32));
+                dstBuffer.put((byte) (DATA_LENGTH >>> 24));
+                dstBuffer.put((byte) (DATA_LENGTH >>> 16));
+                dstBuffer.put((byte) (DATA_LENGTH >>> 8));
+                dstBuffer.put((byte) (DATA_LENGTH));
             }
 
             // Write mask
-            webSocketFrame.write(MASKING_KEY[0]);
-            webSocketFrame.write(MASKING_KEY[1]);
-            webSocketFrame.write(MASKING_KEY[2]);
-            webSocketFrame.write(MASKING_KEY[3]);
+            dstBuffer.put(MASKING_KEY, 0, MASKING_KEY_LENGTH);
 
             // Write masked data
-            for (int i = 0; i < DATA_LENGTH; i++)
+            maskPayload(srcBuffer, dstBuffer, MASKING_KEY, DATA_LENGTH);
+        }
+        else
+        {
+            dstBuffer.clear();
+        }
+    }
+
+    /**
+     * Copies the payload from the source to the destination buffer, applying the masking key.
+     * The payload is masked eight bytes at a time while both buffers use the same byte order,
+     * which keeps every word aligned with the four bytes of the key; the remaining bytes are
+     * masked one at a time.
+     */
+    private static void maskPayload(ByteBuffer srcBuffer, ByteBuffer dstBuffer, byte[] maskingKey, int dataLength)
+    {
+        int i = 0;
+
+        if (srcBuffer.order() == dstBuffer.order())
+        {
+            long maskingWord = createMaskingWord(maskingKey, srcBuffer.order());
+            for (; i + MASKING_WORD_LENGTH <= dataLength; i += MASKING_WORD_LENGTH)
             {
-                byte nextByte = srcBuffer.get();
-                nextByte ^= MASKING_KEY[i % 4];
-                webSocketFrame.write(nextByte);
+                dstBuffer.putLong(srcBuffer.getLong() ^ maskingWord);
             }
+        }
 
-            // Copy frame to destination buffer
-            dstBuffer.clear();
-            if (dstBuffer.capacity() >= webSocketFrame.size())
+        for (; i < dataLength; i++)
+        {
+            byte nextByte = srcBuffer.get();
+            nextByte ^= maskingKey[i % MASKING_KEY_LENGTH];
+            dstBuffer.put(nextByte);
+        }
+    }
+
+    private static long createMaskingWord(byte[] maskingKey, ByteOrder order)
+    {
+        long maskingWord = 0;
+        for (int i = 0; i < MASKING_WORD_LENGTH; i++)
+        {
+            long nextByte = maskingKey[i % MASKING_KEY_LENGTH] & 0xFFL;
+            if (order == ByteOrder.BIG_ENDIAN)
             {
-                dstBuffer.put(webSocketFrame.toByteArray());
+                maskingWord |= nextByte << (8 * (MASKING_WORD_LENGTH - 1 - i));
             }
             else
             {
-                throw new OutOfMemoryError("insufficient output buffer size");
+                maskingWord |= nextByte << (8 * i);
             }
         }
-        else
-        {
-            dstBuffer.clear();
-        }
+
+        return maskingWord;
     }
 
     @Override
@@ -267,9 +303,8 @@ public class WebSocketHandlerImpl implements WebSocketHandler
 
     protected byte[] createRandomMaskingKey()
     {
-        final byte[] maskingKey = new byte[4];
-        Random random = new SecureRandom();
-        random.nextBytes(maskingKey);
+        final byte[] maskingKey = new byte[MASKING_KEY_LENGTH];
+        MASKING_KEY_GENERATOR.nextBytes(maskingKey);
 
         return maskingKey;
     }
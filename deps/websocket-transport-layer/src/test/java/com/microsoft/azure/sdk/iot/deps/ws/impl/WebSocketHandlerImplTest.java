@@ -26,6 +26,7 @@ import org.junit.Test;
 
 import javax.xml.bind.DatatypeConverter;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.SecureRandom;
 import java.util.*;
 
@@ -961,6 +962,104 @@ public class WebSocketHandlerImplTest
         spyWebSocketHandler.wrapBuffer(srcBuffer, dstBuffer);
     }
 
+    @Test
+    public void testWrapBuffer_unaligned_payload_little_endian()
+    {
+        WebSocketHandlerImpl webSocketHandler = new WebSocketHandlerImpl();
+        WebSocketHandlerImpl spyWebSocketHandler = spy(webSocketHandler);
+
+        int payloadLength = 1003;
+        int messageLength = payloadLength + WebSocketHeader.MED_HEADER_LENGTH_MASKED;
+
+        byte[] maskingKey = new byte[]{(byte) 0x81, 0x02, (byte) 0xF3, 0x04};
+
+        byte[] data = new byte[payloadLength];
+        Random random = new SecureRandom();
+        random.nextBytes(data);
+
+        ByteBuffer srcBuffer = ByteBuffer.allocate(messageLength).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer dstBuffer = ByteBuffer.allocate(messageLength).order(ByteOrder.LITTLE_ENDIAN);
+        srcBuffer.put(data);
+        srcBuffer.flip();
+
+        doReturn(maskingKey).when(spyWebSocketHandler).createRandomMaskingKey();
+
+        spyWebSocketHandler.wrapBuffer(srcBuffer, dstBuffer);
+        dstBuffer.flip();
+
+        assertEquals("invalid content length", messageLength, dstBuffer.limit());
+        byte[] actual = dstBuffer.array();
+        for (int i = 0; i < payloadLength; i++)
+        {
+            assertEquals("payload byte mismatch " + i, (byte) (data[i] ^ maskingKey[i % 4]), actual[i + WebSocketHeader.MED_HEADER_LENGTH_MASKED]);
+        }
+    }
+
+    @Test
+    public void testWrapBuffer_mixed_byte_order()
+    {
+        WebSocketHandlerImpl webSocketHandler = new WebSocketHandlerImpl();
+        WebSocketHandlerImpl spyWebSocketHandler = spy(webSocketHandler);
+
+        int payloadLength = 20;
+        int messageLength = payloadLength + WebSocketHeader.MIN_HEADER_LENGTH_MASKED;
+
+        byte[] maskingKey = new byte[]{0x01, 0x02, 0x03, 0x04};
+        byte[] data = new byte[payloadLength];
+        Random random = new SecureRandom();
+        random.nextBytes(data);
+
+        ByteBuffer srcBuffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer dstBuffer = ByteBuffer.allocate(messageLength);
+
+        doReturn(maskingKey).when(spyWebSocketHandler).createRandomMaskingKey();
+
+        spyWebSocketHandler.wrapBuffer(srcBuffer, dstBuffer);
+
+        byte[] actual = dstBuffer.array();
+        for (int i = 0; i < payloadLength; i++)
+        {
+            assertEquals("payload byte mismatch " + i, (byte) (data[i] ^ maskingKey[i % 4]), actual[i + WebSocketHeader.MIN_HEADER_LENGTH_MASKED]);
+        }
+    }
+
+    @Test
+    public void testWrapBuffer_dst_buffer_small_src_not_consumed()
+    {
+        WebSocketHandlerImpl webSocketHandler = new WebSocketHandlerImpl();
+
+        int messageLength = 10;
+        ByteBuffer srcBuffer = ByteBuffer.allocate(messageLength);
+        ByteBuffer dstBuffer = ByteBuffer.allocate(messageLength);
+
+        try
+        {
+            webSocketHandler.wrapBuffer(srcBuffer, dstBuffer);
+        }
+        catch (OutOfMemoryError expected)
+        {
+            // expected
+        }
+
+        assertEquals("source buffer consumed", 0, srcBuffer.position());
+    }
+
+    @Test
+    public void testCreateRandomMaskingKey()
+    {
+        WebSocketHandlerImpl webSocketHandler = new WebSocketHandlerImpl();
+
+        Set<String> maskingKeys = new HashSet<>();
+        for (int i = 0; i < 10; i++)
+        {
+            byte[] maskingKey = webSocketHandler.createRandomMaskingKey();
+            assertEquals("invalid masking key length", 4, maskingKey.length);
+            maskingKeys.add(Arrays.toString(maskingKey));
+        }
+
+        assertTrue("masking keys are not random", maskingKeys.size() > 1);
+    }
+
     @Test
     public void testUnwrapBuffer_opcode_ping()
     {
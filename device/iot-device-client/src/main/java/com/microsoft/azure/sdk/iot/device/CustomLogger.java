@@ -7,8 +7,17 @@ import org.apache.log4j.*;
 
 public class CustomLogger {
 
+    /**
+     * Placeholder for the name of the method calling the logger. Pass it as a
+     * parameter instead of {@link #getMethodName()} so the stack is only walked
+     * when the message is actually logged.
+     */
+    public static final Object METHOD_NAME = new Object();
+
     private Logger logger;
     private static final int CALLING_METHOD_NAME_DEPTH = 2;
+    // Thread.getStackTrace, format, the Log method, and then its caller.
+    private static final int LOG_CALLER_DEPTH = 3;
 
     public CustomLogger(Class<?> clazz)
     {
@@ -19,7 +28,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.INFO))
         {
-            logger.info(String.format(message, params));
+            logger.info(format(message, params));
         }
     }
 
@@ -27,7 +36,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.DEBUG))
         {
-            logger.debug(String.format(message, params));
+            logger.debug(format(message, params));
         }
     }
 
@@ -35,7 +44,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.TRACE))
         {
-            logger.trace(String.format(message, params));
+            logger.trace(format(message, params));
         }
     }
 	
@@ -43,7 +52,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.WARN))
         {
-            logger.warn(String.format(message, params));
+            logger.warn(format(message, params));
         }
     }
 	
@@ -51,7 +60,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.FATAL))
         {
-            logger.fatal(String.format(message, params));
+            logger.fatal(format(message, params));
         }
     }
 
@@ -59,7 +68,7 @@ public class CustomLogger {
     {
         if(logger.isEnabledFor(Level.ERROR))
         {
-            logger.error(String.format(message, params));
+            logger.error(format(message, params));
         }
     }
 
@@ -71,8 +80,34 @@ public class CustomLogger {
         }
     }
 	
+    public boolean isInfoEnabled()
+    {
+        return logger.isEnabledFor(Level.INFO);
+    }
+
+    public boolean isDebugEnabled()
+    {
+        return logger.isEnabledFor(Level.DEBUG);
+    }
+
     public String getMethodName()
     {
         return Thread.currentThread().getStackTrace()[CALLING_METHOD_NAME_DEPTH].getMethodName();
     }
+
+    /*
+     * Only called by the Log methods, once they know the message is enabled, so the
+     * caller of the Log method is always at the same depth of the stack.
+     */
+    private static String format(String message, Object[] params)
+    {
+        for (int i = 0; i < params.length; i++)
+        {
+            if (params[i] == METHOD_NAME)
+            {
+                params[i] = Thread.currentThread().getStackTrace()[LOG_CALLER_DEPTH].getMethodName();
+            }
+        }
+        return String.format(message, params);
+    }
 }
@@ -7,7 +7,7 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.*;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
-import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 
@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -55,15 +56,24 @@ public final class DeviceClient implements Closeable
     protected final static String SET_MINIMUM_POLLING_INTERVAL = "SetMinimumPollingInterval";
     protected final static String SET_CERTIFICATE_PATH = "SetCertificatePath";
     protected final static String SET_SAS_TOKEN_EXPIRY_TIME = "SetSASTokenExpiryTime";
+    protected final static String SET_MAX_IN_FLIGHT_MESSAGES = "SetMaxInFlightMessages";
+    protected final static String SET_MAX_RECEIVED_MESSAGES = "SetMaxReceivedMessages";
+    protected final static String SET_MESSAGE_CALLBACK_THREADS = "SetMessageCallbackThreads";
+    protected final static String SET_TASK_SCHEDULER = "SetTaskScheduler";
+    protected final static String SET_BASE64_BATCH_ENCODING = "SetBase64BatchEncoding";
+    protected final static String SET_MAX_IN_FLIGHT_BATCHES = "SetMaxInFlightBatches";
+    protected final static String SET_SAS_TOKEN_RENEWAL_RATIO = "SetSasTokenRenewalRatio";
 
     /**
-     * The number of milliseconds the transport will wait between
-     * sending out messages.
+     * The number of milliseconds the transport will wait before trying to
+     * send again, while messages are waiting for their acknowledgement or
+     * for a retry. New messages are sent as soon as they are queued.
      */
     public static long SEND_PERIOD_MILLIS = 10l;
     /**
      * The number of milliseconds the transport will wait between
-     * polling for messages.
+     * polling for messages. Only HTTPS polls; MQTT and AMQPS invoke the
+     * message callback as soon as a message arrives.
      */
     public static long RECEIVE_PERIOD_MILLIS_AMQPS = 10l;
     public static long RECEIVE_PERIOD_MILLIS_MQTT = 10l;
@@ -90,6 +100,9 @@ public final class DeviceClient implements Closeable
     protected DeviceTwin deviceTwin;
 
     protected ScheduledExecutorService taskScheduler;
+    protected boolean ownsTaskScheduler;
+    protected IotHubSendDispatcher sendDispatcher;
+    protected ScheduledFuture<?> receiveTaskFuture;
     protected IotHubClientState state;
     protected long RECEIVE_PERIOD_MILLIS;
     protected CustomLogger logger;
@@ -161,7 +174,7 @@ public final class DeviceClient implements Closeable
 
         initIotHubClient(hostname, deviceId, sharedAccessKey, sharedAccessToken, protocol);
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("DeviceClient object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("DeviceClient object is created successfully, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -183,19 +196,34 @@ public final class DeviceClient implements Closeable
         // Codes_SRS_DEVICECLIENT_11_036: [If an error occurs in opening the transport, the function shall throw an IOException.]
         this.transport.open();
 
-        IotHubSendTask sendTask = new IotHubSendTask(this.transport);
-        IotHubReceiveTask receiveTask = new IotHubReceiveTask(this.transport);
+        boolean pollsTransport = (this.transport.getClass() == HttpsTransport.class);
+
+        // Codes_SRS_DEVICECLIENT_21_064: [If a task scheduler was set with "SetTaskScheduler", the function shall
+        // run the send and receive tasks on it instead of creating threads of its own.]
+        this.taskScheduler = this.config.getTaskScheduler();
+        this.ownsTaskScheduler = (this.taskScheduler == null);
+        if (this.ownsTaskScheduler)
+        {
+            this.taskScheduler = Executors.newScheduledThreadPool(pollsTransport ? 2 : 1);
+        }
 
-        this.taskScheduler = Executors.newScheduledThreadPool(2);
-        // the scheduler waits until each execution is finished before
-        // scheduling the next one, so executions of a given task
-        // will never overlap.
-        // Codes_SRS_DEVICECLIENT_11_023: [The function shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.]
-        this.taskScheduler.scheduleAtFixedRate(sendTask, 0,
-                SEND_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
-        // Codes_SRS_DEVICECLIENT_11_024: [The function shall schedule receive tasks to run every RECEIVE_PERIOD_MILLIS milliseconds.]
-        this.taskScheduler.scheduleAtFixedRate(receiveTask, 0,
-                RECEIVE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        // the dispatcher never runs the send task twice at the same time,
+        // so executions of a given task will never overlap.
+        // Codes_SRS_DEVICECLIENT_21_062: [The function shall send the messages as soon as they are added to the
+        // transport, and run the send task again every SEND_PERIOD_MILLIS milliseconds while the transport is not empty.]
+        this.sendDispatcher = new IotHubSendDispatcher(this.transport, this.taskScheduler, SEND_PERIOD_MILLIS);
+        // messages buffered by a previous connection go out right away.
+        this.sendDispatcher.messageQueued();
+
+        // Codes_SRS_DEVICECLIENT_21_061: [The MQTT and AMQPS transports shall dispatch the received messages
+        // as they arrive, so only the HTTPS transport is polled.]
+        if (pollsTransport)
+        {
+            // Codes_SRS_DEVICECLIENT_11_024: [The function shall schedule receive tasks to run every RECEIVE_PERIOD_MILLIS milliseconds.]
+            IotHubReceiveTask receiveTask = new IotHubReceiveTask(this.transport);
+            this.receiveTaskFuture = this.taskScheduler.scheduleAtFixedRate(receiveTask, 0,
+                    RECEIVE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
 
         this.state = IotHubClientState.OPEN;
     }
@@ -223,7 +251,17 @@ public final class DeviceClient implements Closeable
         {
 
         }
-        this.taskScheduler.shutdown();
+        this.sendDispatcher.close();
+        if (this.receiveTaskFuture != null)
+        {
+            this.receiveTaskFuture.cancel(false);
+            this.receiveTaskFuture = null;
+        }
+        // Codes_SRS_DEVICECLIENT_21_065: [The function shall not shut down a task scheduler set with "SetTaskScheduler".]
+        if (this.ownsTaskScheduler)
+        {
+            this.taskScheduler.shutdown();
+        }
         // Codes_SRS_DEVICECLIENT_11_037: [The function shall close the transport.]
         this.transport.close();
         this.state = IotHubClientState.CLOSED;
@@ -260,9 +298,11 @@ public final class DeviceClient implements Closeable
             throw new IllegalArgumentException("Cannot send message 'null'.");
         }
 
-        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
+        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), CustomLogger.METHOD_NAME);
         // Codes_SRS_DEVICECLIENT_11_006: [The function shall add the message, with its associated callback and callback context, to the transport.]
         transport.addMessage(message, callback, callbackContext);
+        // Codes_SRS_DEVICECLIENT_21_063: [The function shall signal the send dispatcher, so the message is sent right away.]
+        this.sendDispatcher.messageQueued();
     }
 
     /**
@@ -509,7 +549,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetMinimumPollingInterval(Object value)
     {
-        logger.LogInfo("Setting MinimumPollingInterval as %s milliseconds, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting MinimumPollingInterval as %s milliseconds, method name is %s ", value, CustomLogger.METHOD_NAME);
         if (!value.equals(null)) {
             if (this.state != IotHubClientState.CLOSED) {
                 throw new IllegalStateException("setOption " + SET_MINIMUM_POLLING_INTERVAL +
@@ -530,7 +570,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetCertificatePath(Object value)
     {
-        logger.LogInfo("Setting CertificatePath as %s, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting CertificatePath as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
         if (this.state != IotHubClientState.CLOSED) {
             throw new IllegalStateException("setOption " + SET_CERTIFICATE_PATH +
                     "only works when the transport is closed");
@@ -545,7 +585,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetSASTokenExpiryTime(Object value)
     {
-        logger.LogInfo("Setting SASTokenExpiryTime as %s seconds, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting SASTokenExpiryTime as %s seconds, method name is %s ", value, CustomLogger.METHOD_NAME);
         if (!value.equals(null)) {
             //**Codes_SRS_DEVICECLIENT_25_009: [**"SetSASTokenExpiryTime" should have value type long**.]**
             long validTimeInSeconds;
@@ -599,6 +639,118 @@ public final class DeviceClient implements Closeable
 
 
 
+    private void setOption_SetMaxInFlightMessages(Object value)
+    {
+        logger.LogInfo("Setting MaxInFlightMessages as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        if (this.state != IotHubClientState.CLOSED) {
+            throw new IllegalStateException("setOption " + SET_MAX_IN_FLIGHT_MESSAGES +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_056: ["SetMaxInFlightMessages" should have value type int.]
+        if (value instanceof Integer) {
+            this.config.setMaxInFlightMessages((int) value);
+        } else {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetMaxReceivedMessages(Object value)
+    {
+        logger.LogInfo("Setting MaxReceivedMessages as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        if (this.state != IotHubClientState.CLOSED) {
+            throw new IllegalStateException("setOption " + SET_MAX_RECEIVED_MESSAGES +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_058: ["SetMaxReceivedMessages" should have value type int.]
+        if (value instanceof Integer) {
+            this.config.setMaxReceivedMessages((int) value);
+        } else {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetMessageCallbackThreads(Object value)
+    {
+        logger.LogInfo("Setting MessageCallbackThreads as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        if (this.state != IotHubClientState.CLOSED) {
+            throw new IllegalStateException("setOption " + SET_MESSAGE_CALLBACK_THREADS +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_060: ["SetMessageCallbackThreads" should have value type int.]
+        if (value instanceof Integer) {
+            this.config.setMessageCallbackThreads((int) value);
+        } else {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetTaskScheduler(Object value)
+    {
+        logger.LogInfo("Setting TaskScheduler as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        if (this.state != IotHubClientState.CLOSED) {
+            throw new IllegalStateException("setOption " + SET_TASK_SCHEDULER +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_067: ["SetTaskScheduler" should have value type ScheduledExecutorService.]
+        if (value instanceof ScheduledExecutorService) {
+            this.config.setTaskScheduler((ScheduledExecutorService) value);
+        } else {
+            throw new IllegalArgumentException("value is not ScheduledExecutorService = " + value);
+        }
+    }
+
+    private void setOption_SetBase64BatchEncoding(Object value)
+    {
+        logger.LogInfo("Setting Base64BatchEncoding as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        if (this.state != IotHubClientState.CLOSED) {
+            throw new IllegalStateException("setOption " + SET_BASE64_BATCH_ENCODING +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_069: ["SetBase64BatchEncoding" should have value type boolean.]
+        if (value instanceof Boolean) {
+            this.config.setBase64BatchEncoding((boolean) value);
+        } else {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetMaxInFlightBatches(Object value)
+    {
+        logger.LogInfo("Setting MaxInFlightBatches as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        if (this.state != IotHubClientState.CLOSED) {
+            throw new IllegalStateException("setOption " + SET_MAX_IN_FLIGHT_BATCHES +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_071: ["SetMaxInFlightBatches" should have value type int.]
+        if (value instanceof Integer) {
+            this.config.setMaxInFlightBatches((int) value);
+        } else {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetSasTokenRenewalRatio(Object value)
+    {
+        logger.LogInfo("Setting SasTokenRenewalRatio as %s, method name is %s ", value, CustomLogger.METHOD_NAME);
+        if (this.state != IotHubClientState.CLOSED) {
+            throw new IllegalStateException("setOption " + SET_SAS_TOKEN_RENEWAL_RATIO +
+                    " only works when the transport is closed");
+        }
+
+        // Codes_SRS_DEVICECLIENT_21_073: ["SetSasTokenRenewalRatio" should have value type double.]
+        if (value instanceof Double) {
+            this.config.setSasTokenRenewalRatio((double) value);
+        } else {
+            throw new IllegalArgumentException("value is not double = " + value);
+        }
+    }
+
     /**
      * Sets a runtime option identified by parameter {@code optionName}
      * to {@code value}.
@@ -618,6 +770,51 @@ public final class DeviceClient implements Closeable
      *         SASToken expires. If the transport is already open then setting this
      *         option will restart the transport with the updated expiry time. The
      *         value is expected to be of type {@code long}.
+     *      - <b>SetMaxInFlightMessages</b> - this option is applicable only
+     *         when the transport configured with this client is MQTT. This
+     *         option specifies how many messages may be sent without waiting
+     *         for their acknowledgement, up to 10. It only works when the
+     *         client is closed. The value is expected to be of type {@code int}.
+     *      - <b>SetMaxReceivedMessages</b> - this option is applicable only
+     *         when the transport configured with this client is MQTT. This
+     *         option specifies how many received messages of each kind may wait
+     *         to be handled. A message arriving when the limit is reached is
+     *         acknowledged to the IoT Hub and lost, and an error is logged. It only works when the
+     *         client is closed. The value is expected to be of type {@code int}.
+     *      - <b>SetMessageCallbackThreads</b> - this option is applicable
+     *         when the transport configured with this client is AMQP or MQTT.
+     *         This option specifies how many message callbacks may run at the
+     *         same time; with more than one, they may run out of order. It only
+     *         works when the client is closed. The value is expected to be of
+     *         type {@code int}.
+     *      - <b>SetTaskScheduler</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT. This option specifies a scheduler, shared by many
+     *         clients, that sends their messages and invokes their message
+     *         callbacks instead of threads owned by each client. The client
+     *         never shuts it down. It only works when the client is closed.
+     *         The value is expected to be of type {@code ScheduledExecutorService}.
+     *      - <b>SetBase64BatchEncoding</b> - this option is applicable only
+     *         when the transport configured with this client is HTTP. This
+     *         option specifies whether the message bodies in a batch are
+     *         Base64-encoded, which lets binary bodies be sent in batches. It
+     *         only works when the client is closed. The value is expected to be
+     *         of type {@code boolean}.
+     *      - <b>SetMaxInFlightBatches</b> - this option is applicable only
+     *         when the transport configured with this client is HTTP. This
+     *         option specifies the number of batches, between 1 and 5, sent at
+     *         the same time, each one over its own kept-alive connection. The
+     *         messages in a batch keep their order, but batches sent at the same
+     *         time may reach the IoT Hub in any order. The callback of each
+     *         message is invoked once the response for its batch is received.
+     *         It only works when the client is closed. The value is expected to
+     *         be of type {@code int}.
+     *      - <b>SetSasTokenRenewalRatio</b> - this option is applicable for
+     *         HTTP/AMQP/MQTT. This option specifies the fraction, bigger than 0
+     *         and at most 1, of the SAS token expiry time after which the client
+     *         renews its token. HTTP requests reuse the same token until then;
+     *         AMQP and MQTT connections reconnect with a new token at that time,
+     *         so they do not drop when the token expires. It only works when the
+     *         client is closed. The value is expected to be of type {@code double}.
      *
      * @param optionName the option name to modify
      * @param value an object of the appropriate type for the option's value
@@ -638,7 +835,7 @@ public final class DeviceClient implements Closeable
                         setOption_SetMinimumPollingInterval(value);
 
                     } else {
-                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), CustomLogger.METHOD_NAME);
                         // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option
                         // handled by the client, then it shall throw IllegalArgumentException.]
                         throw new IllegalArgumentException("optionName is unknown = " + optionName
@@ -656,7 +853,7 @@ public final class DeviceClient implements Closeable
                         setOption_SetCertificatePath(value);
 
                     } else {
-                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), CustomLogger.METHOD_NAME);
                         // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
                         // client, then it shall throw IllegalArgumentException.]
                         throw new IllegalArgumentException("optionName is unknown = " + optionName +
@@ -673,7 +870,21 @@ public final class DeviceClient implements Closeable
                         setOption_SetSASTokenExpiryTime(value);
 
                     } else {
-                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), logger.getMethodName());
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), CustomLogger.METHOD_NAME);
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_055: [**"SetMaxInFlightMessages" - number of messages sent without waiting for their acknowledgement, available only for MQTT.**]**
+                case SET_MAX_IN_FLIGHT_MESSAGES: {
+                    if (this.transport.getClass() == MqttTransport.class)
+                    {
+                        setOption_SetMaxInFlightMessages(value);
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), CustomLogger.METHOD_NAME);
                         // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
                         // client, then it shall throw IllegalArgumentException.]
                         throw new IllegalArgumentException("optionName is unknown = " + optionName +
@@ -681,6 +892,77 @@ public final class DeviceClient implements Closeable
                     }
                     break;
                 }
+                //**Codes_SRS_DEVICECLIENT_21_057: [**"SetMaxReceivedMessages" - number of received messages of each kind waiting to be handled, available only for MQTT.**]**
+                case SET_MAX_RECEIVED_MESSAGES: {
+                    if (this.transport.getClass() == MqttTransport.class)
+                    {
+                        setOption_SetMaxReceivedMessages(value);
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), CustomLogger.METHOD_NAME);
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+                //**Codes_SRS_DEVICECLIENT_21_059: [**"SetMessageCallbackThreads" - number of message callbacks invoked at the same time, available only for AMQP and MQTT.**]**
+                case SET_MESSAGE_CALLBACK_THREADS: {
+                    if (this.transport.getClass() == AmqpsTransport.class ||
+                            this.transport.getClass() == MqttTransport.class)
+                    {
+                        setOption_SetMessageCallbackThreads(value);
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), CustomLogger.METHOD_NAME);
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+
+                //**Codes_SRS_DEVICECLIENT_21_066: [**"SetTaskScheduler" - scheduler shared by many clients to send messages and dispatch the received ones.**]**
+                case SET_TASK_SCHEDULER: {
+                    setOption_SetTaskScheduler(value);
+                    break;
+                }
+
+                //**Codes_SRS_DEVICECLIENT_21_068: [**"SetBase64BatchEncoding" - whether the message bodies in a batch are Base64-encoded, available only for HTTP.**]**
+                case SET_BASE64_BATCH_ENCODING: {
+                    if (this.transport.getClass() == HttpsTransport.class)
+                    {
+                        setOption_SetBase64BatchEncoding(value);
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), CustomLogger.METHOD_NAME);
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+
+                //**Codes_SRS_DEVICECLIENT_21_070: [**"SetMaxInFlightBatches" - number of batches sent at the same time, available only for HTTP.**]**
+                case SET_MAX_IN_FLIGHT_BATCHES: {
+                    if (this.transport.getClass() == HttpsTransport.class)
+                    {
+                        setOption_SetMaxInFlightBatches(value);
+                    } else {
+                        logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.transport.getClass(), CustomLogger.METHOD_NAME);
+                        // Codes_SRS_DEVICECLIENT_02_001: [If optionName is null or not an option handled by the
+                        // client, then it shall throw IllegalArgumentException.]
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName +
+                                " for " + this.transport.getClass());
+                    }
+                    break;
+                }
+
+                //**Codes_SRS_DEVICECLIENT_21_072: [**"SetSasTokenRenewalRatio" - fraction of the SAS token expiry time after which the token is renewed.**]**
+                case SET_SAS_TOKEN_RENEWAL_RATIO: {
+                    setOption_SetSasTokenRenewalRatio(value);
+                    break;
+                }
 
                 default:
                     throw new IllegalArgumentException("optionName is unknown = " + optionName);
@@ -5,6 +5,7 @@ package com.microsoft.azure.sdk.iot.device;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Configuration settings for an IoT Hub client. Validates all user-defined
@@ -25,6 +26,69 @@ public final class DeviceClientConfig
     public static final int DEFAULT_READ_TIMEOUT_MILLIS = 240000;
     /** The default value for messageLockTimeoutSecs. */
     public static final int DEFAULT_MESSAGE_LOCK_TIMEOUT_SECS = 180;
+    /** The default value for maxInFlightMessages. */
+    public static final int DEFAULT_MAX_IN_FLIGHT_MESSAGES = 10;
+    /** The largest window of unacknowledged MQTT messages supported by the MQTT client. */
+    public static final int MAX_IN_FLIGHT_MESSAGES_LIMIT = 10;
+    /** The default value for maxReceivedMessages. */
+    public static final int DEFAULT_MAX_RECEIVED_MESSAGES = 1000;
+    /** The default value for messageCallbackThreads. */
+    public static final int DEFAULT_MESSAGE_CALLBACK_THREADS = 1;
+    /** The default value for maxInFlightBatches. */
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 1;
+    /**
+     * The largest number of HTTPS batches sent at the same time. The JDK keeps
+     * at most 5 idle connections per host alive by default (http.maxConnections),
+     * so every batch request can reuse a kept-alive connection.
+     */
+    public static final int MAX_IN_FLIGHT_BATCHES_LIMIT = 5;
+    /** The default value for sasTokenRenewalRatio. */
+    public static final double DEFAULT_SAS_TOKEN_RENEWAL_RATIO = 0.75;
+
+    /**
+     * The number of messages that may be sent over MQTT without waiting for their
+     * acknowledgement. Use {@link #getMaxInFlightMessages()} to read it.
+     */
+    private int maxInFlightMessages = DEFAULT_MAX_IN_FLIGHT_MESSAGES;
+
+    /**
+     * The number of messages received over MQTT that may wait to be consumed, for
+     * each kind of message (cloud-to-device, twin, methods). Use
+     * {@link #getMaxReceivedMessages()} to read it.
+     */
+    private int maxReceivedMessages = DEFAULT_MAX_RECEIVED_MESSAGES;
+
+    /**
+     * The number of threads that may invoke the message callback at the same time
+     * for messages received over MQTT or AMQPS. Use {@link #getMessageCallbackThreads()}
+     * to read it.
+     */
+    private int messageCallbackThreads = DEFAULT_MESSAGE_CALLBACK_THREADS;
+
+    /**
+     * The scheduler shared with other clients to send messages and dispatch the
+     * received ones, or {@code null} if the client uses threads of its own. Use
+     * {@link #getTaskScheduler()} to read it.
+     */
+    private ScheduledExecutorService taskScheduler = null;
+
+    /**
+     * Whether the message bodies in HTTPS batches are Base64-encoded, which
+     * lets binary bodies be batched. Use {@link #isBase64BatchEncoding()} to read it.
+     */
+    private boolean base64BatchEncoding = false;
+
+    /**
+     * The number of HTTPS batch requests that may be waiting for their response
+     * at the same time. Use {@link #getMaxInFlightBatches()} to read it.
+     */
+    private int maxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+
+    /**
+     * The fraction of tokenValidSecs after which a SAS token is renewed. Use
+     * {@link #getSasTokenRenewalRatio()} to read it.
+     */
+    private double sasTokenRenewalRatio = DEFAULT_SAS_TOKEN_RENEWAL_RATIO;
 
     protected final String iotHubHostname;
     protected final String iotHubName;
@@ -88,7 +152,7 @@ public final class DeviceClientConfig
         // Codes_SRS_DEVICECLIENTCONFIG_25_017: [**The constructor shall save sharedAccessToken.**] **
         this.sharedAccessToken = sharedAccessToken;
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("DeviceClientConfig object is created successfully with IotHubName=%s, deviceID=%s , method name is %s ", this.iotHubName, this.deviceId, logger.getMethodName());
+        logger.LogInfo("DeviceClientConfig object is created successfully with IotHubName=%s, deviceID=%s , method name is %s ", this.iotHubName, this.deviceId, CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -285,6 +349,224 @@ public final class DeviceClientConfig
         return DEFAULT_MESSAGE_LOCK_TIMEOUT_SECS;
     }
 
+    /**
+     * Getter for the number of messages that may be sent over MQTT without
+     * waiting for their acknowledgement.
+     *
+     * @return the maximum number of unacknowledged messages.
+     */
+    public int getMaxInFlightMessages()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_034: [The function shall return the value of maxInFlightMessages.]
+        return this.maxInFlightMessages;
+    }
+
+    /**
+     * Setter for the number of messages that may be sent over MQTT without
+     * waiting for their acknowledgement.
+     *
+     * @param maxInFlightMessages the maximum number of unacknowledged messages,
+     * between 1 and {@link #MAX_IN_FLIGHT_MESSAGES_LIMIT}.
+     *
+     * @throws IllegalArgumentException if the value is out of range.
+     */
+    public void setMaxInFlightMessages(int maxInFlightMessages)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_035: [If the value is smaller than 1 or bigger than
+        // MAX_IN_FLIGHT_MESSAGES_LIMIT, the function shall throw an IllegalArgumentException.]
+        if (maxInFlightMessages < 1 || maxInFlightMessages > MAX_IN_FLIGHT_MESSAGES_LIMIT)
+        {
+            throw new IllegalArgumentException("maxInFlightMessages shall be between 1 and " + MAX_IN_FLIGHT_MESSAGES_LIMIT);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_036: [The function shall set the value of maxInFlightMessages.]
+        this.maxInFlightMessages = maxInFlightMessages;
+    }
+
+    /**
+     * Getter for the number of messages received over MQTT that may wait to be
+     * consumed, for each kind of message.
+     *
+     * @return the maximum number of queued received messages.
+     */
+    public int getMaxReceivedMessages()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_037: [The function shall return the value of maxReceivedMessages.]
+        return this.maxReceivedMessages;
+    }
+
+    /**
+     * Setter for the number of messages received over MQTT that may wait to be
+     * consumed, for each kind of message. A message arriving when the limit is
+     * reached is acknowledged to the IoT Hub and lost, and an error is logged.
+     *
+     * @param maxReceivedMessages the maximum number of queued received messages.
+     *
+     * @throws IllegalArgumentException if the value is smaller than 1.
+     */
+    public void setMaxReceivedMessages(int maxReceivedMessages)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_038: [If the value is smaller than 1, the function shall throw an IllegalArgumentException.]
+        if (maxReceivedMessages < 1)
+        {
+            throw new IllegalArgumentException("maxReceivedMessages shall be positive");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_039: [The function shall set the value of maxReceivedMessages.]
+        this.maxReceivedMessages = maxReceivedMessages;
+    }
+
+    /**
+     * Getter for the number of threads that may invoke the message callback at
+     * the same time, for messages received over MQTT or AMQPS.
+     *
+     * @return the maximum number of concurrent message callbacks.
+     */
+    public int getMessageCallbackThreads()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_040: [The function shall return the value of messageCallbackThreads.]
+        return this.messageCallbackThreads;
+    }
+
+    /**
+     * Setter for the number of threads that may invoke the message callback at
+     * the same time, for messages received over MQTT or AMQPS. With more than
+     * one thread, the callbacks may run out of order.
+     *
+     * @param messageCallbackThreads the maximum number of concurrent message callbacks.
+     *
+     * @throws IllegalArgumentException if the value is smaller than 1.
+     */
+    public void setMessageCallbackThreads(int messageCallbackThreads)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_041: [If the value is smaller than 1, the function shall throw an IllegalArgumentException.]
+        if (messageCallbackThreads < 1)
+        {
+            throw new IllegalArgumentException("messageCallbackThreads shall be positive");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_042: [The function shall set the value of messageCallbackThreads.]
+        this.messageCallbackThreads = messageCallbackThreads;
+    }
+
+    /**
+     * Getter for the scheduler shared with other clients to send messages and
+     * dispatch the received ones.
+     *
+     * @return the shared scheduler, or {@code null} if the client uses threads of its own.
+     */
+    public ScheduledExecutorService getTaskScheduler()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_043: [The function shall return the value of taskScheduler.]
+        return this.taskScheduler;
+    }
+
+    /**
+     * Setter for the scheduler shared with other clients to send messages and
+     * dispatch the received ones. The client never shuts it down.
+     *
+     * @param taskScheduler the shared scheduler, or {@code null} to let the
+     * client use threads of its own.
+     */
+    public void setTaskScheduler(ScheduledExecutorService taskScheduler)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_044: [The function shall set the value of taskScheduler.]
+        this.taskScheduler = taskScheduler;
+    }
+
+    /**
+     * Getter for whether the message bodies in HTTPS batches are Base64-encoded.
+     *
+     * @return {@code true} if the batched message bodies are Base64-encoded.
+     */
+    public boolean isBase64BatchEncoding()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_045: [The function shall return the value of base64BatchEncoding.]
+        return this.base64BatchEncoding;
+    }
+
+    /**
+     * Setter for whether the message bodies in HTTPS batches are Base64-encoded.
+     * Binary bodies can only be batched when they are; text bodies are smaller
+     * when they are not.
+     *
+     * @param base64BatchEncoding {@code true} to Base64-encode the batched message bodies.
+     */
+    public void setBase64BatchEncoding(boolean base64BatchEncoding)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_046: [The function shall set the value of base64BatchEncoding.]
+        this.base64BatchEncoding = base64BatchEncoding;
+    }
+
+    /**
+     * Getter for the number of HTTPS batch requests that may be waiting for
+     * their response at the same time.
+     *
+     * @return the maximum number of concurrent batch requests.
+     */
+    public int getMaxInFlightBatches()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_047: [The function shall return the value of maxInFlightBatches.]
+        return this.maxInFlightBatches;
+    }
+
+    /**
+     * Setter for the number of HTTPS batch requests that may be waiting for
+     * their response at the same time.
+     *
+     * @param maxInFlightBatches the maximum number of concurrent batch requests,
+     * between 1 and {@link #MAX_IN_FLIGHT_BATCHES_LIMIT}.
+     *
+     * @throws IllegalArgumentException if the value is out of range.
+     */
+    public void setMaxInFlightBatches(int maxInFlightBatches)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_048: [If the value is smaller than 1 or bigger than
+        // MAX_IN_FLIGHT_BATCHES_LIMIT, the function shall throw an IllegalArgumentException.]
+        if (maxInFlightBatches < 1 || maxInFlightBatches > MAX_IN_FLIGHT_BATCHES_LIMIT)
+        {
+            throw new IllegalArgumentException("maxInFlightBatches shall be between 1 and " + MAX_IN_FLIGHT_BATCHES_LIMIT);
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_049: [The function shall set the value of maxInFlightBatches.]
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    /**
+     * Getter for the fraction of the SAS token lifetime after which the client
+     * renews its token.
+     *
+     * @return the fraction of tokenValidSecs after which a SAS token is renewed.
+     */
+    public double getSasTokenRenewalRatio()
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_050: [The function shall return the value of sasTokenRenewalRatio.]
+        return this.sasTokenRenewalRatio;
+    }
+
+    /**
+     * Setter for the fraction of the SAS token lifetime after which the client
+     * renews its token. HTTPS requests reuse a token until then, and MQTT and
+     * AMQPS connections reconnect with a new token at that time.
+     *
+     * @param sasTokenRenewalRatio the fraction of tokenValidSecs after which a
+     * SAS token is renewed, bigger than 0 and at most 1.
+     *
+     * @throws IllegalArgumentException if the value is out of range.
+     */
+    public void setSasTokenRenewalRatio(double sasTokenRenewalRatio)
+    {
+        // Codes_SRS_DEVICECLIENTCONFIG_21_051: [If the value is not bigger than 0 or is bigger than 1, the function
+        // shall throw an IllegalArgumentException.]
+        if (!(sasTokenRenewalRatio > 0) || sasTokenRenewalRatio > 1)
+        {
+            throw new IllegalArgumentException("sasTokenRenewalRatio shall be bigger than 0 and at most 1");
+        }
+
+        // Codes_SRS_DEVICECLIENTCONFIG_21_052: [The function shall set the value of sasTokenRenewalRatio.]
+        this.sasTokenRenewalRatio = sasTokenRenewalRatio;
+    }
+
     /**
      * Getter for the path to the certificate.
      *
@@ -5,9 +5,11 @@ package com.microsoft.azure.sdk.iot.device;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Message
 {
@@ -15,6 +17,15 @@ public class Message
 
     public static final Charset DEFAULT_IOTHUB_MESSAGE_CHARSET = StandardCharsets.UTF_8;
 
+    /** The length of the generated messageId and correlationId. */
+    private static final int GENERATED_ID_LENGTH = 127;
+
+    /** The characters a generated ID is made of. */
+    private static final char[] VALID_ID_CHARACTERS =
+            "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ-:.+%_#*?!(),=@;$'".toCharArray();
+
+    private static final CustomLogger logger = new CustomLogger(Message.class);
+
 
     // ----- Data Fields -----
 
@@ -26,6 +37,9 @@ public class Message
      */
     private String messageId;
 
+    /** Whether messageId was generated or set, so it is generated only if it is read before being set. Guarded by this. */
+    private boolean messageIdInitialized;
+
     /// <summary>
     /// Destination of the message
     /// </summary>
@@ -36,16 +50,14 @@ public class Message
     /// </summary>
     private long expiryTime;
 
-    /// <summary>
-    /// Used by receiver to Abandon, Reject or Complete the message
-    /// </summary>
-    private String lockToken;
-
     /// <summary>
     /// Used in message responses and feedback
     /// </summary>
     private String correlationId;
 
+    /** Whether correlationId was generated or set, so it is generated only if it is read before being set. Guarded by this. */
+    private boolean correlationIdInitialized;
+
     /// <summary>
     /// [Required in feedback messages] Used to specify the entity creating the message.
     /// </summary>
@@ -117,12 +129,6 @@ public class Message
     /// </summary>
     private byte[] body;
 
-    /**
-     * Stream that will provide the bytes for the body of the
-     */
-    private ByteArrayInputStream bodyStream;
-    private CustomLogger logger;
-
     // ----- Constructors -----
 
     /**
@@ -138,7 +144,36 @@ public class Message
      */
     public Message(ByteArrayInputStream stream)
     {
+        // Codes_SRS_MESSAGE_21_040: [If the stream is null, the constructor shall throw an IllegalArgumentException.]
+        if (stream == null) {
+            throw new IllegalArgumentException("Message body stream cannot be 'null'.");
+        }
+
         initialize();
+
+        // Codes_SRS_MESSAGE_21_041: [The constructor shall read the remaining bytes of the stream as the message body.]
+        byte[] streamBody = new byte[stream.available()];
+        int length = stream.read(streamBody, 0, streamBody.length);
+        this.body = (length == streamBody.length) ? streamBody : Arrays.copyOf(streamBody, Math.max(length, 0));
+    }
+
+    /**
+     * Constructor.
+     * @param body A buffer whose remaining bytes are the body of the new Message instance. The buffer
+     * position is not changed.
+     */
+    public Message(ByteBuffer body) {
+        // Codes_SRS_MESSAGE_21_042: [If the buffer is null, the constructor shall throw an IllegalArgumentException.]
+        if (body == null) {
+            throw new IllegalArgumentException("Message body cannot be 'null'.");
+        }
+
+        initialize();
+
+        // Codes_SRS_MESSAGE_21_043: [The constructor shall copy the remaining bytes of the buffer as the message
+        // body, without changing the buffer position.]
+        this.body = new byte[body.remaining()];
+        body.duplicate().get(this.body);
     }
 
     /**
@@ -174,11 +209,36 @@ public class Message
 
     // ----- Public Methods -----
 
-    /// <summary>
-    /// The stream content of the body.
-    /// </summary>
+    /**
+     * The stream content of the body.
+     * @return A stream holding a copy of this Message body, or {@code null} if the Message has no body.
+     */
     public ByteArrayOutputStream getBodyStream() {
-        return null;
+        // Codes_SRS_MESSAGE_21_044: [The function shall return a stream holding a copy of the message body, or null
+        // if the message has no body.]
+        if (this.body == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream bodyStream = new ByteArrayOutputStream(this.body.length);
+        bodyStream.write(this.body, 0, this.body.length);
+        return bodyStream;
+    }
+
+    /**
+     * A read-only view of the body, which does not copy it. The transports use it
+     * to look at the body without copying large payloads.
+     * @return A read-only buffer over this Message body, or {@code null} if the Message has no body.
+     */
+    public ByteBuffer getByteBuffer()
+    {
+        // Codes_SRS_MESSAGE_21_045: [The function shall return a read-only view of the message body without copying
+        // it, or null if the message has no body.]
+        if (this.body == null) {
+            return null;
+        }
+
+        return ByteBuffer.wrap(this.body).asReadOnlyBuffer();
     }
 
     /**
@@ -253,7 +313,7 @@ public class Message
             this.properties.remove(messageProperty);
         }
 
-        logger.LogInfo("Setting message property with name=%s and value=%s, method name is %s ", name, value, logger.getMethodName());
+        logger.LogInfo("Setting message property with name=%s and value=%s, method name is %s ", name, value, CustomLogger.METHOD_NAME);
         this.properties.add(new MessageProperty(name, value));
     }
 
@@ -273,13 +333,11 @@ public class Message
      * Internal initializer method for a new Message instance.
      */
     private void initialize() {
-        this.lockToken = UUID.randomUUID().toString();
-        this.messageId = generateId(127); // 1 in 2.03035346985252E-242 chances of collision. Might be safe enough...
-        this.correlationId = generateId(127);
+        // Codes_SRS_MESSAGE_21_037: [The constructor shall not generate the messageId and the correlationId; each
+        // one is generated the first time it is read, unless it was set before.]
         this.feedbackStatusCode = FeedbackStatusCodeEnum.none;
         this.ack = FeedbackStatusCodeEnum.none;
         this.properties = new ArrayList<MessageProperty>();
-        this.logger = new CustomLogger(this.getClass());
     }
 
     /**
@@ -287,17 +345,16 @@ public class Message
      * @param length Length of the string to be generated.
      * @return A string containing valid ID chars.
      */
-    private String generateId(int length)
+    private static String generateId(int length)
     {
-        String validCharacters = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ-:.+%_#*?!(),=@;$'";
-
         char[] charSequence = new char[length];
 
-        Random random = new Random();
+        // Codes_SRS_MESSAGE_21_039: [The IDs shall be generated with the random number generator of the calling thread.]
+        Random random = ThreadLocalRandom.current();
 
         for (int i = 0; i < length; i++)
         {
-            charSequence[i] = validCharacters.charAt(random.nextInt(validCharacters.length()));
+            charSequence[i] = VALID_ID_CHARACTERS[random.nextInt(VALID_ID_CHARACTERS.length)];
         }
 
         return new String(charSequence);
@@ -322,7 +379,7 @@ public class Message
             long currentTime = System.currentTimeMillis();
             if (currentTime > expiryTime)
             {
-                logger.LogWarn("The message with messageid %s expired on %s, method name is %s ", this.getMessageId(), new Date(), logger.getMethodName());
+                logger.LogWarn("The message with messageid %s expired on %s, method name is %s ", this.getMessageId(), new Date(), CustomLogger.METHOD_NAME);
                 messageExpired = true;
             }
             else
@@ -338,8 +395,18 @@ public class Message
      * Getter for the messageId property
      * @return The property value
      */
-    public String getMessageId()
+    public synchronized String getMessageId()
     {
+        // Codes_SRS_MESSAGE_21_038: [If the ID was not set, the getter shall generate a random ID of 127 valid
+        // characters the first time it is called, and return the same ID afterwards.]
+        // Codes_SRS_MESSAGE_21_046: [The getters and setters of the IDs shall be synchronized, so that threads
+        // reading an ID for the first time at the same time get the same generated ID.]
+        if (!this.messageIdInitialized)
+        {
+            this.messageId = generateId(GENERATED_ID_LENGTH); // 1 in 2.03035346985252E-242 chances of collision. Might be safe enough...
+            this.messageIdInitialized = true;
+        }
+
         return messageId;
     }
 
@@ -347,17 +414,28 @@ public class Message
      * Setter for the messageId property
      * @param messageId The string containing the property value
      */
-    public void setMessageId(String messageId)
+    public synchronized void setMessageId(String messageId)
     {
         this.messageId = messageId;
+        this.messageIdInitialized = true;
     }
 
     /**
      * Getter for the correlationId property
      * @return The property value
      */
-    public String getCorrelationId()
+    public synchronized String getCorrelationId()
     {
+        // Codes_SRS_MESSAGE_21_038: [If the ID was not set, the getter shall generate a random ID of 127 valid
+        // characters the first time it is called, and return the same ID afterwards.]
+        // Codes_SRS_MESSAGE_21_046: [The getters and setters of the IDs shall be synchronized, so that threads
+        // reading an ID for the first time at the same time get the same generated ID.]
+        if (!this.correlationIdInitialized)
+        {
+            this.correlationId = generateId(GENERATED_ID_LENGTH);
+            this.correlationIdInitialized = true;
+        }
+
         return correlationId;
     }
 
@@ -365,9 +443,10 @@ public class Message
      * Setter for the correlationId property
      * @param correlationId The string containing the property value
      */
-    public void setCorrelationId(String correlationId)
+    public synchronized void setCorrelationId(String correlationId)
     {
         this.correlationId = correlationId;
+        this.correlationIdInitialized = true;
     }
 
     /**
@@ -378,7 +457,7 @@ public class Message
     {
         long currentTime = System.currentTimeMillis();
         this.expiryTime = currentTime + timeOut;
-        logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), timeOut, new Date(this.expiryTime), logger.getMethodName());
+        logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), timeOut, new Date(this.expiryTime), CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -7,6 +7,7 @@ package com.microsoft.azure.sdk.iot.device;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** An IoT Hub message property. */
 public final class MessageProperty {
@@ -38,11 +39,27 @@ public final class MessageProperty {
         RESERVED_PROPERTY_NAMES = Collections.unmodifiableSet(reservedPropertyNames);
     }
 
+    /** The largest character code allowed in a property name or value (US-ASCII). */
+    private static final char MAX_VALID_CHAR = 0x7F;
+
+    /**
+     * The maximum number of application property names remembered as valid.
+     * Applications reuse a small set of names, so the cache stops growing
+     * instead of holding every name ever seen.
+     */
+    private static final int MAX_VALID_NAMES_CACHED = 256;
+
+    /** Application property names already known to be valid. */
+    private static final Set<String> VALID_APP_PROPERTY_NAMES =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static final CustomLogger logger = new CustomLogger(MessageProperty.class);
+
     /** The property name. */
     protected final String name;
     /** The property value. */
     protected final String value;
-    protected CustomLogger logger;
+
     /**
      * Constructor.
      *
@@ -54,35 +71,40 @@ public final class MessageProperty {
      * A message property name cannot be one of the reserved property names.
      */
     public MessageProperty(String name, String value) {
-        this.logger = new CustomLogger(this.getClass());
         if (name == null) {
-            logger.LogError("Property argument 'name' cannot be null, method name is %s ", logger.getMethodName());
+            logger.LogError("Property argument 'name' cannot be null, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalArgumentException("Property argument 'name' cannot be null.");
         }
 
         if (value == null) {
-            logger.LogError("Property argument 'value' cannot be null, method name is %s ", logger.getMethodName());
+            logger.LogError("Property argument 'value' cannot be null, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalArgumentException("Property argument 'value' cannot be null.");
         }
 
-        // Codes_SRS_MESSAGEPROPERTY_11_002: [If the name contains a character that is not in US-ASCII, the function shall throw an IllegalArgumentException.]
-        if (!usesValidChars(name)) {
-            logger.LogError("%s is not a valid IoT Hub message property name, method name is %s ", name, logger.getMethodName());
-			String errMsg = String.format("%s is not a valid IoT Hub message property name.\n", name);
-            throw new IllegalArgumentException(errMsg);
-        }
-
-        // Codes_SRS_MESSAGEPROPERTY_11_008: [If the name is a reserved property name, the function shall throw an IllegalArgumentException.]
-        if (RESERVED_PROPERTY_NAMES.contains(name)) {
-            logger.LogError("%s is a reserved IoT Hub message property name, method name is %s ", name, logger.getMethodName());
-			String errMsg = String.format("%s is a reserved IoT Hub message property name.\n", name);
-            throw new IllegalArgumentException(errMsg);
+        // Codes_SRS_MESSAGEPROPERTY_21_009: [The name shall be validated only the first time it is used, until
+        // the maximum number of cached names is reached.]
+        if (!VALID_APP_PROPERTY_NAMES.contains(name)) {
+            // Codes_SRS_MESSAGEPROPERTY_11_002: [If the name contains a character that is not in US-ASCII, the function shall throw an IllegalArgumentException.]
+            if (!usesValidChars(name)) {
+                logger.LogError("%s is not a valid IoT Hub message property name, method name is %s ", name, CustomLogger.METHOD_NAME);
+                String errMsg = String.format("%s is not a valid IoT Hub message property name.\n", name);
+                throw new IllegalArgumentException(errMsg);
+            }
+
+            // Codes_SRS_MESSAGEPROPERTY_11_008: [If the name is a reserved property name, the function shall throw an IllegalArgumentException.]
+            if (RESERVED_PROPERTY_NAMES.contains(name)) {
+                logger.LogError("%s is a reserved IoT Hub message property name, method name is %s ", name, CustomLogger.METHOD_NAME);
+                String errMsg = String.format("%s is a reserved IoT Hub message property name.\n", name);
+                throw new IllegalArgumentException(errMsg);
+            }
+
+            rememberValidName(name);
         }
 
         // Codes_SRS_MESSAGEPROPERTY_11_003: [If the value contains a character that is not in US-ASCII, the function shall throw an IllegalArgumentException.]
         if (!usesValidChars(value))
         {
-            logger.LogError("%s is a reserved IoT Hub message property name, method name is %s ", name, logger.getMethodName());
+            logger.LogError("%s is a reserved IoT Hub message property name, method name is %s ", name, CustomLogger.METHOD_NAME);
             String errMsg = String.format("%s is not a valid IoT Hub message property value.\n", value);
             throw new IllegalArgumentException(errMsg);
         }
@@ -143,9 +165,15 @@ public final class MessageProperty {
         boolean propertyIsValid = false;
 
         // Codes_SRS_MESSAGEPROPERTY_11_007: [The function shall return true if and only if the name and value only use characters in US-ASCII and the name is not a reserved property name.]
-        if (!RESERVED_PROPERTY_NAMES.contains(name)
+        // Codes_SRS_MESSAGEPROPERTY_21_009: [The name shall be validated only the first time it is used, until
+        // the maximum number of cached names is reached.]
+        if (VALID_APP_PROPERTY_NAMES.contains(name)) {
+            propertyIsValid = usesValidChars(value);
+        }
+        else if (!RESERVED_PROPERTY_NAMES.contains(name)
                 && usesValidChars(name)
                 && usesValidChars(value)) {
+            rememberValidName(name);
             propertyIsValid = true;
         }
 
@@ -160,14 +188,20 @@ public final class MessageProperty {
      * @return whether the string only uses US-ASCII 
      */
     protected static boolean usesValidChars(String s) {
-        boolean isValid = false;
-
-        if (s.matches("\\p{ASCII}*"))
-        {
-            isValid = true;
+        // Codes_SRS_MESSAGEPROPERTY_21_010: [The characters shall be checked without a regular expression.]
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > MAX_VALID_CHAR) {
+                return false;
+            }
         }
 
-        return isValid;
+        return true;
+    }
+
+    private static void rememberValidName(String name) {
+        if (VALID_APP_PROPERTY_NAMES.size() < MAX_VALID_NAMES_CACHED) {
+            VALID_APP_PROPERTY_NAMES.add(name);
+        }
     }
 
     protected MessageProperty() {
@@ -0,0 +1,70 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.auth;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+
+/**
+ * Provides the SAS token of a device, reusing the same token until a fraction
+ * of its lifetime, given by {@link DeviceClientConfig#getSasTokenRenewalRatio()},
+ * has elapsed. Signing a token is much more expensive than sending it.
+ */
+public final class IotHubSasTokenProvider
+{
+    private final DeviceClientConfig config;
+
+    /** The current token, or {@code null} if no token was built yet. */
+    private String sasToken = null;
+    /** The tokenValidSecs the current token was built with. */
+    private long tokenValidSecs = 0;
+    /** The time, in milliseconds since the epoch, after which the current token is renewed. */
+    private long renewalTimeMillis = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param config the device client config.
+     *
+     * @throws IllegalArgumentException if the config is {@code null}.
+     */
+    public IotHubSasTokenProvider(DeviceClientConfig config)
+    {
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_21_001: [If the config is null, the constructor shall throw an IllegalArgumentException.]
+        if (config == null)
+        {
+            throw new IllegalArgumentException("config cannot be null");
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_21_002: [The constructor shall save the config.]
+        this.config = config;
+    }
+
+    /**
+     * Returns the SAS token of the device, building a new one if there is
+     * none yet, if the current one should be renewed, or if the token
+     * lifetime changed since it was built.
+     *
+     * @return the string representation of the SAS token.
+     */
+    public synchronized String getSasToken()
+    {
+        long now = System.currentTimeMillis();
+        long validSecs = this.config.getTokenValidSecs();
+
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_21_004: [The function shall build a new token if there is no token yet, if
+        // the renewal time of the current token has come, or if tokenValidSecs changed since it was built.]
+        if ((this.sasToken == null) || (now >= this.renewalTimeMillis) || (validSecs != this.tokenValidSecs))
+        {
+            // Codes_SRS_IOTHUBSASTOKENPROVIDER_21_005: [The new token shall expire tokenValidSecs seconds from now.]
+            this.sasToken = new IotHubSasToken(this.config, now / 1000l + validSecs + 1l).toString();
+            this.tokenValidSecs = validSecs;
+            // Codes_SRS_IOTHUBSASTOKENPROVIDER_21_006: [The new token shall be renewed after sasTokenRenewalRatio
+            // of tokenValidSecs has elapsed.]
+            this.renewalTimeMillis = now + (long) (validSecs * 1000l * this.config.getSasTokenRenewalRatio());
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENPROVIDER_21_003: [The function shall return the current token.]
+        return this.sasToken;
+    }
+}
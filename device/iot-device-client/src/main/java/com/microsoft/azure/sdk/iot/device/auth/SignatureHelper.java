@@ -26,6 +26,31 @@ public final class SignatureHelper
     /** The charset used for the raw and hashed signature. */
     public static final Charset SIGNATURE_CHARSET = StandardCharsets.UTF_8;
 
+    /** The signature encryption algorithm. */
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    /**
+     * The HMAC-SHA256 algorithm of each thread. Looking up the algorithm is
+     * much more expensive than initializing it with a new key, so each thread
+     * looks it up once.
+     */
+    private static final ThreadLocal<Mac> HMAC_SHA256_MAC = new ThreadLocal<Mac>()
+    {
+        @Override
+        protected Mac initialValue()
+        {
+            try
+            {
+                return Mac.getInstance(HMAC_SHA256);
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                // should never happen, since the algorithm is hard-coded.
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     /**
      * Builds the raw signature.
      *
@@ -66,23 +91,19 @@ public final class SignatureHelper
     public static byte[] encryptSignatureHmacSha256(byte[] sig,
             byte[] deviceKey)
     {
-        String hmacSha256 = "HmacSHA256";
-
         // Codes_SRS_SIGNATUREHELPER_11_005: [The function shall use the device key as the secret for the algorithm.]
-        SecretKeySpec secretKey = new SecretKeySpec(deviceKey, hmacSha256);
+        SecretKeySpec secretKey = new SecretKeySpec(deviceKey, HMAC_SHA256);
 
         byte[] encryptedSig = null;
         try
         {
             // Codes_SRS_SIGNATUREHELPER_11_004: [The function shall encrypt the signature using the HMAC-SHA256 algorithm.]
-            Mac hMacSha256 = Mac.getInstance(hmacSha256);
+            // Codes_SRS_SIGNATUREHELPER_21_001: [The function shall reuse the HMAC-SHA256 algorithm instance of the
+            // calling thread, initialized with the device key.]
+            Mac hMacSha256 = HMAC_SHA256_MAC.get();
             hMacSha256.init(secretKey);
             encryptedSig = hMacSha256.doFinal(sig);
         }
-        catch (NoSuchAlgorithmException e)
-        {
-            // should never happen, since the algorithm is hard-coded.
-        }
         catch (InvalidKeyException e)
         {
             // should never happen, since the input key type is hard-coded.
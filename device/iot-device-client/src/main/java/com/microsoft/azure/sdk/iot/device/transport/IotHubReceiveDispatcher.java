@@ -0,0 +1,176 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Invokes the message callback as soon as the transport signals that a message
+ * arrived, instead of polling the transport at a fixed rate. Each signal runs
+ * one {@link IotHubReceiveTask}, on at most {@code maxConcurrency} threads at
+ * the same time. The threads come from a pool owned by the dispatcher, or from
+ * an executor shared with other clients.
+ */
+public final class IotHubReceiveDispatcher
+{
+    protected final IotHubReceiveTask receiveTask;
+    protected final int maxConcurrency;
+    protected final ExecutorService executor;
+    protected final boolean ownsExecutor;
+    protected volatile boolean closed = false;
+
+    /** Messages signaled by the transport and not yet handled. */
+    protected final AtomicInteger pendingMessages = new AtomicInteger(0);
+
+    /** Threads currently handling the pending messages. */
+    protected final AtomicInteger activeDrainers = new AtomicInteger(0);
+
+    private final Runnable drainer = new Runnable()
+    {
+        public void run()
+        {
+            do
+            {
+                while (takePendingMessage())
+                {
+                    receiveTask.run();
+                }
+                activeDrainers.decrementAndGet();
+                // a message signaled while all the drainers looked busy must not be left behind.
+            } while ((pendingMessages.get() > 0) && reserveDrainer());
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport whose received messages are handled.
+     * @param maxConcurrency the maximum number of message callbacks invoked at the same time.
+     * @throws IllegalArgumentException if the transport is {@code null} or maxConcurrency is smaller than 1.
+     */
+    public IotHubReceiveDispatcher(IotHubTransport transport, int maxConcurrency) throws IllegalArgumentException
+    {
+        this(transport, maxConcurrency, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport whose received messages are handled.
+     * @param maxConcurrency the maximum number of message callbacks invoked at the same time.
+     * @param executor the executor shared with other clients, which is not shut down
+     * by this dispatcher, or {@code null} to use a pool of its own.
+     * @throws IllegalArgumentException if the transport is {@code null} or maxConcurrency is smaller than 1.
+     */
+    public IotHubReceiveDispatcher(IotHubTransport transport, int maxConcurrency, ExecutorService executor)
+            throws IllegalArgumentException
+    {
+        // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_001: [If the transport is null, the constructor shall throw an IllegalArgumentException.]
+        if (transport == null)
+        {
+            throw new IllegalArgumentException("transport cannot be null");
+        }
+
+        // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_002: [If maxConcurrency is smaller than 1, the constructor shall throw an IllegalArgumentException.]
+        if (maxConcurrency < 1)
+        {
+            throw new IllegalArgumentException("maxConcurrency shall be at least 1");
+        }
+
+        // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_003: [The constructor shall create a receive task for the transport
+        // and a pool of maxConcurrency threads to run it.]
+        this.receiveTask = new IotHubReceiveTask(transport);
+        this.maxConcurrency = maxConcurrency;
+        if (executor == null)
+        {
+            this.executor = Executors.newFixedThreadPool(maxConcurrency);
+            this.ownsExecutor = true;
+        }
+        else
+        {
+            // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_008: [If an executor is provided, the constructor shall run
+            // the receive task in it instead of creating a thread pool.]
+            this.executor = executor;
+            this.ownsExecutor = false;
+        }
+    }
+
+    /**
+     * Signals that the transport received one message.
+     */
+    public void messageArrived()
+    {
+        // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_006: [If the dispatcher is closed, the function shall do nothing.]
+        if (this.closed)
+        {
+            return;
+        }
+
+        // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_004: [The function shall count the message as pending.]
+        this.pendingMessages.incrementAndGet();
+
+        // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_005: [If less than maxConcurrency threads are handling the pending
+        // messages, the function shall start one more, which runs the receive task once per pending message.]
+        if (reserveDrainer())
+        {
+            try
+            {
+                this.executor.execute(this.drainer);
+            }
+            catch (RejectedExecutionException e)
+            {
+                this.activeDrainers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stops dispatching messages. The callbacks already running are not interrupted.
+     */
+    public void close()
+    {
+        this.closed = true;
+        // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_007: [The function shall shut down the thread pool.]
+        // Codes_SRS_IOTHUBRECEIVEDISPATCHER_21_009: [The function shall not shut down an executor provided to the constructor.]
+        if (this.ownsExecutor)
+        {
+            this.executor.shutdown();
+        }
+    }
+
+    private boolean reserveDrainer()
+    {
+        while (true)
+        {
+            int active = this.activeDrainers.get();
+            if (active >= this.maxConcurrency)
+            {
+                return false;
+            }
+            if (this.activeDrainers.compareAndSet(active, active + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    private boolean takePendingMessage()
+    {
+        while (true)
+        {
+            int pending = this.pendingMessages.get();
+            if (pending <= 0)
+            {
+                return false;
+            }
+            if (this.pendingMessages.compareAndSet(pending, pending - 1))
+            {
+                return true;
+            }
+        }
+    }
+}
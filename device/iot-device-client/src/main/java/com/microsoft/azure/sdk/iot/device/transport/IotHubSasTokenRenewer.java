@@ -0,0 +1,169 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renews the SAS token of a long-lived connection before it expires. Once a
+ * fraction of the token lifetime, given by
+ * {@link DeviceClientConfig#getSasTokenRenewalRatio()}, has elapsed, the
+ * renewal provided by the transport is run; a failed renewal is retried with
+ * the same back-off used to reconnect.
+ */
+public final class IotHubSasTokenRenewer
+{
+    /** Renews the SAS token of a connection, typically by reconnecting with a new one. */
+    public interface Renewal
+    {
+        /**
+         * Renews the SAS token.
+         *
+         * @throws IOException if the token could not be renewed.
+         */
+        void renew() throws IOException;
+    }
+
+    protected final DeviceClientConfig config;
+    protected final Renewal renewal;
+    protected final ScheduledExecutorService scheduler;
+    protected final boolean ownsScheduler;
+
+    /** The number of consecutive failed renewals. */
+    protected int failedAttempts = 0;
+    protected ScheduledFuture<?> pendingRenewal = null;
+    protected boolean closed = false;
+
+    private final Runnable renewalTask = new Runnable()
+    {
+        public void run()
+        {
+            renewNow();
+        }
+    };
+
+    /**
+     * Constructor. The renewals run on the task scheduler of the config or, if
+     * there is none, on a thread owned by the renewer.
+     *
+     * @param config the device client config.
+     * @param renewal the renewal to run before the token expires.
+     *
+     * @throws IllegalArgumentException if the config or the renewal is {@code null}.
+     */
+    public IotHubSasTokenRenewer(DeviceClientConfig config, Renewal renewal)
+    {
+        // Codes_SRS_IOTHUBSASTOKENRENEWER_21_001: [If the config or the renewal is null, the constructor shall throw an IllegalArgumentException.]
+        if (config == null || renewal == null)
+        {
+            throw new IllegalArgumentException("config and renewal cannot be null");
+        }
+
+        this.config = config;
+        this.renewal = renewal;
+
+        // Codes_SRS_IOTHUBSASTOKENRENEWER_21_002: [The constructor shall use the task scheduler of the config, or
+        // create a single thread scheduler if there is none.]
+        ScheduledExecutorService taskScheduler = config.getTaskScheduler();
+        this.ownsScheduler = (taskScheduler == null);
+        this.scheduler = this.ownsScheduler ? Executors.newSingleThreadScheduledExecutor() : taskScheduler;
+    }
+
+    /**
+     * Schedules the first renewal, after sasTokenRenewalRatio of the token
+     * lifetime.
+     */
+    public synchronized void start()
+    {
+        // Codes_SRS_IOTHUBSASTOKENRENEWER_21_003: [The function shall schedule the renewal after sasTokenRenewalRatio
+        // of tokenValidSecs has elapsed.]
+        schedule(getRenewalPeriodMillis());
+    }
+
+    /**
+     * Stops renewing the token, and shuts down the thread owned by the renewer.
+     */
+    public synchronized void close()
+    {
+        // Codes_SRS_IOTHUBSASTOKENRENEWER_21_006: [The function shall cancel the pending renewal.]
+        this.closed = true;
+        if (this.pendingRenewal != null)
+        {
+            this.pendingRenewal.cancel(false);
+            this.pendingRenewal = null;
+        }
+
+        // Codes_SRS_IOTHUBSASTOKENRENEWER_21_007: [The function shall shut down the scheduler created by the
+        // constructor, but not the task scheduler of the config.]
+        if (this.ownsScheduler)
+        {
+            this.scheduler.shutdown();
+        }
+    }
+
+    private void renewNow()
+    {
+        synchronized (this)
+        {
+            if (this.closed)
+            {
+                return;
+            }
+            this.pendingRenewal = null;
+        }
+
+        long delayMillis;
+        try
+        {
+            this.renewal.renew();
+            // Codes_SRS_IOTHUBSASTOKENRENEWER_21_004: [After a renewal, the function shall schedule the next one after
+            // sasTokenRenewalRatio of tokenValidSecs has elapsed.]
+            this.failedAttempts = 0;
+            delayMillis = getRenewalPeriodMillis();
+        }
+        catch (IOException e)
+        {
+            // Codes_SRS_IOTHUBSASTOKENRENEWER_21_005: [If the renewal throws an IOException, the function shall
+            // retry it after the sleep interval of the number of failed attempts.]
+            this.failedAttempts++;
+            delayMillis = TransportUtils.generateSleepInterval(this.failedAttempts);
+        }
+
+        synchronized (this)
+        {
+            schedule(delayMillis);
+        }
+    }
+
+    private void schedule(long delayMillis)
+    {
+        if (this.closed)
+        {
+            return;
+        }
+
+        try
+        {
+            this.pendingRenewal = this.scheduler.schedule(this.renewalTask, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the shared scheduler was shut down, so the token is not renewed anymore.
+            this.pendingRenewal = null;
+        }
+    }
+
+    private long getRenewalPeriodMillis()
+    {
+        long periodMillis = (long) (this.config.getTokenValidSecs() * 1000l * this.config.getSasTokenRenewalRatio());
+        return Math.max(periodMillis, 1l);
+    }
+}
@@ -0,0 +1,151 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the messages of a transport as soon as they are queued, instead of
+ * polling the transport at a fixed rate. Messages queued while a send is in
+ * progress go out together on the next one. While the transport still has
+ * work to do (messages waiting for their acknowledgement, failed sends to
+ * retry, or callbacks to invoke), the send task is run again every retry
+ * period; an idle transport costs no thread time, so many transports may
+ * share one small scheduler.
+ */
+public final class IotHubSendDispatcher
+{
+    protected final IotHubTransport transport;
+    protected final IotHubSendTask sendTask;
+    protected final ScheduledExecutorService scheduler;
+    protected final long retryPeriodMillis;
+
+    /** Set when the transport has something to send that the drainer has not seen yet. */
+    protected final AtomicBoolean sendRequested = new AtomicBoolean(false);
+
+    /** Set while the drainer is queued on, or running in, the scheduler. */
+    protected final AtomicBoolean drainerScheduled = new AtomicBoolean(false);
+
+    /** Set while a retry is pending in the scheduler. */
+    protected final AtomicBoolean retryScheduled = new AtomicBoolean(false);
+
+    protected volatile boolean closed = false;
+
+    private final Runnable drainer = new Runnable()
+    {
+        public void run()
+        {
+            do
+            {
+                while (sendRequested.getAndSet(false))
+                {
+                    sendTask.run();
+                }
+                drainerScheduled.set(false);
+                // a message queued while the drainer was finishing must not be left behind.
+            } while (sendRequested.get() && drainerScheduled.compareAndSet(false, true));
+
+            scheduleRetry();
+        }
+    };
+
+    private final Runnable retry = new Runnable()
+    {
+        public void run()
+        {
+            retryScheduled.set(false);
+            messageQueued();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param transport the transport whose messages are sent.
+     * @param scheduler the scheduler that runs the send task. It may be shared
+     * with other dispatchers, and is not shut down by this one.
+     * @param retryPeriodMillis the number of milliseconds to wait before running
+     * the send task again, while the transport still has work to do.
+     * @throws IllegalArgumentException if the transport or the scheduler is
+     * {@code null}, or the retry period is not positive.
+     */
+    public IotHubSendDispatcher(IotHubTransport transport, ScheduledExecutorService scheduler, long retryPeriodMillis)
+            throws IllegalArgumentException
+    {
+        // Codes_SRS_IOTHUBSENDDISPATCHER_21_001: [If the transport or the scheduler is null, the constructor shall throw an IllegalArgumentException.]
+        if (transport == null || scheduler == null)
+        {
+            throw new IllegalArgumentException("transport and scheduler cannot be null");
+        }
+
+        // Codes_SRS_IOTHUBSENDDISPATCHER_21_002: [If retryPeriodMillis is not positive, the constructor shall throw an IllegalArgumentException.]
+        if (retryPeriodMillis <= 0)
+        {
+            throw new IllegalArgumentException("retryPeriodMillis shall be positive");
+        }
+
+        // Codes_SRS_IOTHUBSENDDISPATCHER_21_003: [The constructor shall create a send task for the transport.]
+        this.transport = transport;
+        this.sendTask = new IotHubSendTask(transport);
+        this.scheduler = scheduler;
+        this.retryPeriodMillis = retryPeriodMillis;
+    }
+
+    /**
+     * Signals that a message was added to the transport queue.
+     */
+    public void messageQueued()
+    {
+        // Codes_SRS_IOTHUBSENDDISPATCHER_21_004: [If the dispatcher is closed, the function shall do nothing.]
+        if (this.closed)
+        {
+            return;
+        }
+
+        // Codes_SRS_IOTHUBSENDDISPATCHER_21_005: [The function shall run the send task in the scheduler, unless it
+        // is already waiting to run, so the messages queued in the meantime are sent together.]
+        this.sendRequested.set(true);
+        if (this.drainerScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                this.scheduler.execute(this.drainer);
+            }
+            catch (RejectedExecutionException e)
+            {
+                this.drainerScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Stops sending messages. The messages still in the transport are sent only
+     * if the dispatcher is signaled again, which a closed dispatcher ignores.
+     */
+    public void close()
+    {
+        // Codes_SRS_IOTHUBSENDDISPATCHER_21_007: [The function shall stop running the send task, without shutting down the scheduler.]
+        this.closed = true;
+    }
+
+    private void scheduleRetry()
+    {
+        // Codes_SRS_IOTHUBSENDDISPATCHER_21_006: [After running the send task, if the transport is not empty, the function
+        // shall run it again after retryPeriodMillis milliseconds.]
+        if (!this.closed && !this.transport.isEmpty() && this.retryScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                this.scheduler.schedule(this.retry, this.retryPeriodMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                this.retryScheduled.set(false);
+            }
+        }
+    }
+}
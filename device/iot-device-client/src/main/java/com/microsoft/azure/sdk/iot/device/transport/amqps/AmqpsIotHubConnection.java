@@ -9,6 +9,7 @@ import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubMessageResult;
 import com.microsoft.azure.sdk.iot.device.ObjectLock;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 //import com.microsoft.azure.sdk.iot
@@ -17,6 +18,8 @@ import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.amqp.messaging.Source;
 import org.apache.qpid.proton.amqp.messaging.Target;
 import org.apache.qpid.proton.amqp.transport.DeliveryState;
@@ -45,6 +48,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 
@@ -57,7 +61,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
 {
     private int maxWaitTimeForOpeningClosingConnection = 3*60*1000;
     private int maxWaitTimeForTerminateExecutor = 30;
-    protected State state;
+    protected volatile State state;
 
     private static final String sendTag = "sender";
     private static final String receiveTag = "receiver";
@@ -67,7 +71,19 @@ public final class AmqpsIotHubConnection extends BaseHandler
     private static final String receiveEndpointFormat = "/devices/%s/messages/devicebound";
     private final String receiveEndpoint;
 
-    private int linkCredit = -1;
+    private volatile int linkCredit = -1;
+
+    /** Room for the header, properties and application properties of a message, on top of its body. */
+    private static final int ENCODE_OVERHEAD_BYTES = 1024;
+    /** The buffer the messages are encoded in. Only grows, so it fits the largest message sent so far. */
+    private byte[] encodeBuffer = new byte[ENCODE_OVERHEAD_BYTES];
+
+    /** Messages waiting for the reactor thread to send them. */
+    private final Queue<OutboundMessage> outboundMessages = new LinkedBlockingQueue<>();
+    /** Acknowledgements waiting for the reactor thread to settle the deliveries of their messages. */
+    private final Queue<MessageResult> messageResults = new LinkedBlockingQueue<>();
+    /** The id of the next message queued by {@link #sendMessage(Message)}. */
+    private int nextSendId = 0;
     /** The {@link Delivery} tag. */
     private long nextTag = 0;
     private static final String versionIdentifierKey = "com.microsoft:client-version";
@@ -87,6 +103,8 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
     private final Boolean useWebSockets;
     protected DeviceClientConfig config;
+    /** Provides the SAS token of each connection, reusing it until it should be renewed. */
+    private final IotHubSasTokenProvider sasTokenProvider;
 
     private List<ServerListener> listeners = new ArrayList<>();
     private ExecutorService executorService;
@@ -94,9 +112,11 @@ public final class AmqpsIotHubConnection extends BaseHandler
     private ObjectLock openLock = new ObjectLock();
     private ObjectLock closeLock = new ObjectLock();
 
-    private Reactor reactor;
+    private volatile Reactor reactor;
 
     private Boolean reconnectCall = false;
+    /** Set by {@link #renewSasToken()}; the reactor thread reconnects when it sees it. */
+    private volatile boolean sasTokenRenewalRequested = false;
     private int currentReconnectionAttempt = 1;
     protected CustomLogger logger;
 
@@ -135,6 +155,9 @@ public final class AmqpsIotHubConnection extends BaseHandler
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_002: [The constructor shall save the configuration into private member variables.]
         this.config = config;
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_016: [The constructor shall create a SAS token provider for the
+        // configuration, shared by all the connections opened by this instance.]
+        this.sasTokenProvider = new IotHubSasTokenProvider(config);
 
         String deviceId = this.config.getDeviceId();
         String iotHubName = this.config.getIotHubName();
@@ -175,14 +198,14 @@ public final class AmqpsIotHubConnection extends BaseHandler
             logger.LogError(e);
             throw new IOException("Could not create Proton reactor");
         }
-        logger.LogInfo("AmqpsIotHubConnection object is created successfully using port %s in %s method ", useWebSockets ? amqpWebSocketPort : amqpPort, logger.getMethodName());
+        logger.LogInfo("AmqpsIotHubConnection object is created successfully using port %s in %s method ", useWebSockets ? amqpWebSocketPort : amqpPort, CustomLogger.METHOD_NAME);
     }
 
     /**
      * Opens the {@link AmqpsIotHubConnection}.
      * <p>
      *     If the current connection is not open, this method
-     *     will create a new {@link IotHubSasToken}. This method will
+     *     will get an {@link IotHubSasToken} from the token provider. This method will
      *     start the {@link Reactor}, set the connection to open and make it ready for sending.
      * </p>
      *
@@ -248,7 +271,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         }
 
         if (this.executorService != null) {
-            logger.LogInfo("Shutdown of executor service has started, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Shutdown of executor service has started, method name is %s ", CustomLogger.METHOD_NAME);
             this.executorService.shutdown();
             try {
                 // Wait a while for existing tasks to terminate
@@ -264,18 +287,17 @@ public final class AmqpsIotHubConnection extends BaseHandler
                 // (Re-)Cancel if current thread also interrupted
                 this.executorService.shutdownNow();
             }
-            logger.LogInfo("Shutdown of executor service completed, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Shutdown of executor service completed, method name is %s ", CustomLogger.METHOD_NAME);
         }
     }
 
     private void openAsync() throws IOException
     {
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_008: [The function shall create a new sasToken valid for the duration
-        // specified in config to be used for the communication with IoTHub.]
-        this.sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000L +
-                this.config.getTokenValidSecs() + 1L).toString();
-				
-        logger.LogInfo("SAS Token is created successfully, method name is %s ", logger.getMethodName());
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_008: [The function shall get the sasToken from the SAS token provider,
+        // which creates a new one valid for the duration specified in config only if the current one should be renewed.]
+        this.sasToken = this.sasTokenProvider.getSasToken();
+
+        logger.LogInfo("SAS Token is obtained successfully, method name is %s ", CustomLogger.METHOD_NAME);
 
         if (this.reactor == null)
         {
@@ -290,7 +312,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         IotHubReactor iotHubReactor = new IotHubReactor(reactor);
         ReactorRunner reactorRunner = new ReactorRunner(iotHubReactor);
         executorService.submit(reactorRunner);
-        logger.LogInfo("Reactor is assigned to executor service, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Reactor is assigned to executor service, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     private void closeAsync()
@@ -299,6 +321,14 @@ public final class AmqpsIotHubConnection extends BaseHandler
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_012: [The function shall set the status of the AMQPS connection to CLOSED.]
         this.state = State.CLOSED;
 
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_009: [The function shall drop the messages queued for the reactor; the
+        // listeners send them again after the connection is reestablished.]
+        this.outboundMessages.clear();
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_015: [The function shall drop the acknowledgements queued for the
+        // reactor, since the deliveries of the closed link cannot be settled; the IoT Hub sends their messages again.]
+        this.messageResults.clear();
+
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_013: [The function shall close the AMQPS sender and receiver links,
         // the AMQPS session and the AMQPS connection.]
         if (this.sender != null)
@@ -313,73 +343,155 @@ public final class AmqpsIotHubConnection extends BaseHandler
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_014: [The function shall stop the Proton reactor.]
 
         this.reactor.stop();
-        logger.LogInfo("Proton reactor has been stopped, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Proton reactor has been stopped, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
-     * Creates a binary message using the given content and messageId. Sends the created message using the sender link.
-     * @param message The message to be sent.
-     * @return An {@link Integer} representing the hash of the message, or -1 if the connection is closed.
+     * Queues the message to be sent by the reactor thread, which owns the sender link. The message is sent
+     * as soon as the reactor wakes up, while the sender link has credit.
+     * @param message The message to be sent. It shall not be changed after the call.
+     * @return An {@link Integer} identifying the message in {@link ServerListener#messageSent(Integer, Boolean)},
+     * or -1 if the connection is closed or the link credit is used up by the messages already queued.
      */
-    public Integer sendMessage(Message message)
+    public synchronized Integer sendMessage(Message message)
     {
-        Integer deliveryHash;
+        Integer sendId;
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is CLOSED or there is not enough
         // credit, the function shall return -1.]
-        if (this.state == State.CLOSED || this.linkCredit <= 0)
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_003: [If the messages queued for the reactor already use all the link
+        // credit, the function shall return -1.]
+        if (this.state == State.CLOSED || this.linkCredit <= 0 || this.outboundMessages.size() >= this.linkCredit)
         {
-            deliveryHash = -1;
+            sendId = -1;
         }
         else
         {
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_004: [The function shall queue the message for the reactor thread,
+            // wake up the reactor, and return a non-negative id for the message.]
+            sendId = this.nextSendId;
+            this.nextSendId = (this.nextSendId + 1) & Integer.MAX_VALUE;
+            this.outboundMessages.add(new OutboundMessage(sendId, message));
+
+            Reactor currentReactor = this.reactor;
+            if (currentReactor != null)
+            {
+                currentReactor.wakeup();
+            }
+        }
+
+        return sendId;
+    }
+
+    /**
+     * Settles the deliveries of the queued acknowledgements. Shall only be called from the reactor thread.
+     */
+    private void settleMessageResults()
+    {
+        MessageResult messageResult;
+        while ((messageResult = this.messageResults.poll()) != null)
+        {
+            try
+            {
+                messageResult.message.acknowledge(messageResult.ackType);
+            }
+            catch (Exception e)
+            {
+                // the IoT Hub sends the message again once its lock expires.
+                logger.LogError(e);
+            }
+        }
+    }
+
+    /**
+     * Sends the queued messages using the sender link, while it has credit. Shall only be called
+     * from the reactor thread.
+     */
+    private void sendOutboundMessages()
+    {
+        while (this.sender != null && this.sender.getCredit() > 0)
+        {
+            OutboundMessage outboundMessage = this.outboundMessages.poll();
+            if (outboundMessage == null)
+            {
+                break;
+            }
+            Message message = outboundMessage.message;
 
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_016: [The function shall encode the message and copy the contents to the byte buffer.]
-            byte[] msgData = new byte[1024];
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_001: [The function shall encode the message in a buffer kept between
+            // calls, grown before encoding to fit the message body, so that the message is usually encoded only once.]
+            int estimatedLength = estimateEncodedLength(message);
+            if (this.encodeBuffer.length < estimatedLength)
+            {
+                this.encodeBuffer = new byte[estimatedLength];
+            }
             int length;
 
-            logger.LogInfo("Started encoding of message - entering in while loop, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Started encoding of message - entering in while loop, method name is %s ", CustomLogger.METHOD_NAME);
             while (true)
             {
                 try
                 {
-                    length = message.encode(msgData, 0, msgData.length);
-                    logger.LogInfo("Completed encoding of message, length is %s - breaking the while loop to come out, method name is %s ", length, logger.getMethodName());
+                    length = message.encode(this.encodeBuffer, 0, this.encodeBuffer.length);
+                    logger.LogInfo("Completed encoding of message, length is %s - breaking the while loop to come out, method name is %s ", length, CustomLogger.METHOD_NAME);
                     break;
                 }
                 catch (BufferOverflowException e)
                 {
-                    logger.LogError(e);
-                    msgData = new byte[msgData.length * 2];
+                    // Codes_SRS_AMQPSIOTHUBCONNECTION_21_002: [If the message does not fit in the buffer, the function
+                    // shall double the buffer and encode the message again.]
+                    logger.LogDebug("Encode buffer of %s bytes is too small, growing it, method name is %s ", this.encodeBuffer.length, CustomLogger.METHOD_NAME);
+                    this.encodeBuffer = new byte[this.encodeBuffer.length * 2];
                 }
             }
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_017: [The function shall set the delivery tag for the sender.]
-            byte[] tag = String.valueOf(this. nextTag++).getBytes();
-            Delivery dlv = sender.delivery(tag);
+            byte[] tag = String.valueOf(this.nextTag++).getBytes();
+            Delivery dlv = this.sender.delivery(tag);
+
+            // Codes_SRS_AMQPSIOTHUBCONNECTION_21_005: [The function shall attach the id of the message to its delivery.]
+            dlv.setContext(outboundMessage.sendId);
 
-            logger.LogInfo("Attempting to send the message using the sender link, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Attempting to send the message using the sender link, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_018: [The function shall attempt to send the message using the sender link.]
-            sender.send(msgData, 0, length);
-            
-            logger.LogInfo("Advancing the sender link, method name is %s ", logger.getMethodName());
+            this.sender.send(this.encodeBuffer, 0, length);
+
+            logger.LogInfo("Advancing the sender link, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_019: [The function shall advance the sender link.]
-            sender.advance();
+            this.sender.advance();
+        }
 
-            // Codes_SRS_AMQPSIOTHUBCONNECTION_15_020: [The function shall set the delivery hash to the value returned by the sender link.]
-            deliveryHash = dlv.hashCode();
-            logger.LogInfo("Delivery hash returned by the sender link %s, method name is %s ", deliveryHash, logger.getMethodName());
+        if (this.sender != null)
+        {
+            this.linkCredit = this.sender.getCredit();
         }
+    }
 
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_021: [The function shall return the delivery hash.]
-        return deliveryHash;
+    /**
+     * Estimates the number of bytes needed to encode the message, as the size of
+     * its body plus room for the message sections around it.
+     *
+     * @param message the message to be encoded.
+     * @return the estimated encoded length of the message.
+     */
+    private static int estimateEncodedLength(Message message)
+    {
+        Section body = message.getBody();
+        if (body instanceof Data && ((Data) body).getValue() != null)
+        {
+            return ((Data) body).getValue().getLength() + ENCODE_OVERHEAD_BYTES;
+        }
+        return ENCODE_OVERHEAD_BYTES;
     }
 
     /**
-     * Sends the message result for the previously received message.
+     * Queues the message result for the previously received message, to be sent by the reactor
+     * thread, which owns the receiver link. The result is sent as soon as the reactor wakes up.
      *
      * @param message the message to be acknowledged.
      * @param result the message result (one of {@link IotHubMessageResult#COMPLETE},
      *               {@link IotHubMessageResult#ABANDON}, or {@link IotHubMessageResult#REJECT}).
+     * @return {@code true} if the result was queued, {@code false} if the connection is closed.
      */
     public Boolean sendMessageResult(AmqpsMessage message, IotHubMessageResult result)
     {
@@ -389,27 +501,37 @@ public final class AmqpsIotHubConnection extends BaseHandler
         {
             try
             {
-                logger.LogInfo("Acknowledgement for received message is %s, method name is %s ", result.name(), logger.getMethodName());
+                logger.LogInfo("Acknowledgement for received message is %s, method name is %s ", result.name(), CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_023: [If the message result is COMPLETE, ABANDON, or REJECT,
                 // the function shall acknowledge the last message with acknowledgement type COMPLETE, ABANDON, or REJECT respectively.]
+                AmqpsMessage.ACK_TYPE ackType;
                 switch (result)
                 {
                     case COMPLETE:
-                        message.acknowledge(AmqpsMessage.ACK_TYPE.COMPLETE);
+                        ackType = AmqpsMessage.ACK_TYPE.COMPLETE;
                         break;
                     case REJECT:
-                        message.acknowledge(AmqpsMessage.ACK_TYPE.REJECT);
+                        ackType = AmqpsMessage.ACK_TYPE.REJECT;
                         break;
                     case ABANDON:
-                        message.acknowledge(AmqpsMessage.ACK_TYPE.ABANDON);
+                        ackType = AmqpsMessage.ACK_TYPE.ABANDON;
                         break;
                     default:
                         // should never happen.
-                        logger.LogError("Invalid IoT Hub message result (%s), method name is %s ", result.name(), logger.getMethodName());
+                        logger.LogError("Invalid IoT Hub message result (%s), method name is %s ", result.name(), CustomLogger.METHOD_NAME);
                         throw new IllegalStateException("Invalid IoT Hub message result.");
                 }
 
-                // Codes_SRS_AMQPSIOTHUBCONNECTION_15_024: [The function shall return true after the message was acknowledged.]
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_013: [The function shall queue the acknowledgement for the
+                // reactor thread, which owns the receiver link, and wake up the reactor.]
+                this.messageResults.add(new MessageResult(message, ackType));
+                Reactor currentReactor = this.reactor;
+                if (currentReactor != null)
+                {
+                    currentReactor.wakeup();
+                }
+
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_15_024: [The function shall return true after the acknowledgement was queued.]
                 ackResult = true;
             }
             catch (Exception e)
@@ -428,7 +550,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onConnectionInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_025: [The event handler shall get the Connection (Proton) object from the event handler and set the host name on the connection.]
         this.connection = event.getConnection();
         this.connection.setHostname(this.hostName);
@@ -451,7 +573,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
         this.session.open();
         receiver.open();
         sender.open();
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -461,7 +583,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onConnectionBound(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_030: [The event handler shall get the Transport (Proton) object from the event.]
         Transport transport = event.getConnection().getTransport();
         if(transport != null){
@@ -484,15 +606,15 @@ public final class AmqpsIotHubConnection extends BaseHandler
         {
             openLock.notifyLock();
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     @Override
     public void onConnectionUnbound(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         this.state = State.CLOSED;
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -502,7 +624,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onReactorInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_033: [The event handler shall set the current handler to handle the connection events.]
         if(this.useWebSockets)
         {
@@ -513,13 +635,51 @@ public final class AmqpsIotHubConnection extends BaseHandler
         {
             event.getReactor().connectionToHost(this.config.getIotHubHostname(), amqpPort, this);
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
+    }
+
+    /**
+     * Event handler for the reactor quiesced event, raised when the reactor has handled all its events,
+     * including the wakeups from {@link #sendMessage(Message)}, {@link #sendMessageResult(AmqpsMessage, IotHubMessageResult)}
+     * and {@link #renewSasToken()}. Settles the queued acknowledgements, then reconnects if a SAS token
+     * renewal was requested, otherwise sends the queued messages.
+     * @param event Proton Event object
+     */
+    @Override
+    public void onReactorQuiesced(Event event)
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_014: [The event handler shall first settle the deliveries of the
+        // queued acknowledgements, so they are sent before the connection is closed for a renewal.]
+        if (this.state == State.OPEN)
+        {
+            settleMessageResults();
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_012: [If a SAS token renewal was requested, the event handler shall
+        // notify the listeners that the connection was lost, and close the connection so the reactor opens it again
+        // with a new SAS token.]
+        if (this.sasTokenRenewalRequested)
+        {
+            this.sasTokenRenewalRequested = false;
+            if (this.state == State.OPEN)
+            {
+                reconnectToRenewSasToken();
+                return;
+            }
+        }
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_008: [The event handler shall send the queued messages while the sender
+        // link has credit.]
+        if (this.state == State.OPEN)
+        {
+            sendOutboundMessages();
+        }
     }
 
     @Override
     public void onReactorFinal(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         synchronized (closeLock)
         {
             closeLock.notifyLock();
@@ -539,7 +699,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
                 e.printStackTrace();
             }
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -549,29 +709,29 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onDelivery(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         if(event.getLink().getName().equals(receiveTag))
         {
-            logger.LogInfo("Reading the receiver link, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Reading the receiver link, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_034: [If this link is the Receiver link, the event handler shall get the Receiver and Delivery (Proton) objects from the event.]
             Receiver receiveLink = (Receiver) event.getLink();
             Delivery delivery = receiveLink.current();
             if (delivery.isReadable() && !delivery.isPartial()) {
-                logger.LogInfo("Reading the received buffer, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Reading the received buffer, method name is %s ", CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_035: [The event handler shall read the received buffer.]
                 int size = delivery.pending();
                 byte[] buffer = new byte[size];
                 int read = receiveLink.recv(buffer, 0, buffer.length);
                 receiveLink.advance();
-                logger.LogInfo("Reading the received buffer completed, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Reading the received buffer completed, method name is %s ", CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_036: [The event handler shall create an AmqpsMessage object from the decoded buffer.]
                 AmqpsMessage msg = new AmqpsMessage();
 
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_037: [The event handler shall set the AmqpsMessage Deliver (Proton) object.]
                 msg.setDelivery(delivery);
-                logger.LogInfo("Decoding the received message , method name is %s ", logger.getMethodName());
+                logger.LogInfo("Decoding the received message , method name is %s ", CustomLogger.METHOD_NAME);
                 msg.decode(buffer, 0, read);
-                logger.LogInfo("Decoding the received message completed , method name is %s ", logger.getMethodName());
+                logger.LogInfo("Decoding the received message completed , method name is %s ", CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_049: [All the listeners shall be notified that a message was received from the server.]
                 this.messageReceivedFromServer(msg);
             }
@@ -581,37 +741,48 @@ public final class AmqpsIotHubConnection extends BaseHandler
             //Sender specific section for dispositions it receives
             if(event.getType() == Event.Type.DELIVERY)
             {
-                logger.LogInfo("Reading the delivery event in Sender link, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Reading the delivery event in Sender link, method name is %s ", CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_038: [If this link is the Sender link and the event type is DELIVERY, the event handler shall get the Delivery (Proton) object from the event.]
                 Delivery d = event.getDelivery();
                 DeliveryState remoteState = d.getRemoteState();
 
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the Delivery (Proton) hash code to inform the AmqpsIotHubConnection of the message receipt.]
                 boolean state = remoteState.equals(Accepted.getInstance());
-                logger.LogInfo("Is state of remote Delivery COMPLETE ? %s, method name is %s ", state, logger.getMethodName());
-                logger.LogInfo("Inform listener that a message has been sent to IoT Hub along with remote state, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Is state of remote Delivery COMPLETE ? %s, method name is %s ", state, CustomLogger.METHOD_NAME);
+                logger.LogInfo("Inform listener that a message has been sent to IoT Hub along with remote state, method name is %s ", CustomLogger.METHOD_NAME);
                 //let any listener know that the message was received by the server
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_21_006: [The event handler shall identify the message by the id attached
+                // to its delivery.]
+                Integer sendId = (Integer) d.getContext();
                 for(ServerListener listener : listeners)
                 {
-                    listener.messageSent(d.hashCode(), state);
+                    listener.messageSent(sendId, state);
                 }
             }
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
-     * Event handler for the link flow event. Handles sending a single message.
+     * Event handler for the link flow event. Sends the queued messages that the new credit allows.
      * @param event The Proton Event object.
      */
     @Override
     public void onLinkFlow(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit.]
-        this.linkCredit = event.getLink().getCredit();
-		logger.LogDebug("The link credit value is %s, method name is %s", this.linkCredit, logger.getMethodName());
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        Link link = event.getLink();
+        this.linkCredit = link.getCredit();
+		logger.LogDebug("The link credit value is %s, method name is %s", this.linkCredit, CustomLogger.METHOD_NAME);
+
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_007: [The event handler shall send the queued messages while the sender
+        // link has credit.]
+        if (link.getName().equals(sendTag))
+        {
+            sendOutboundMessages();
+        }
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -622,14 +793,14 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onLinkRemoteOpen(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_041: [The connection state shall be considered OPEN when the sender link is open remotely.]
         Link link = event.getLink();
         if (link.getName().equals(sendTag))
         {
             this.state = State.OPEN;
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -641,17 +812,17 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onLinkRemoteClose(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         this.state = State.CLOSED;
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_042 [The event handler shall attempt to startReconnect to the IoTHub.]
         if (event.getLink().getName().equals(sendTag))
         {
-            logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSIOTHUBCONNECTION_15_048: [The event handler shall attempt to startReconnect to IoTHub.]
             startReconnect();
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -661,7 +832,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onLinkInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         Link link = event.getLink();
         if(link.getName().equals(sendTag))
         {
@@ -684,7 +855,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
             // Codes_SRS_AMQPSIOTHUBCONNECTION_14_047: [If the link is the Receiver link, the event handler shall set its source to the created Source (Proton) object.]
             link.setSource(source);
         }
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -694,12 +865,12 @@ public final class AmqpsIotHubConnection extends BaseHandler
     @Override
     public void onTransportError(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", CustomLogger.METHOD_NAME);
         this.state = State.CLOSED;
-        logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Starting to reconnect to IotHub, method name is %s ", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_048: [The event handler shall attempt to startReconnect to IoTHub.]
         startReconnect();
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -711,6 +882,47 @@ public final class AmqpsIotHubConnection extends BaseHandler
         listeners.add(listener);
     }
 
+    /**
+     * Requests a reconnection to the IoT Hub, so the connection authenticates with a new SAS token
+     * before the current one expires. The reconnection is done by the reactor thread, which owns the
+     * Proton objects: the listeners are notified that the connection was lost, so they send the
+     * messages in progress again once it is reestablished.
+     * If the connection is not open, the function does nothing.
+     */
+    public synchronized void renewSasToken()
+    {
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_010: [If the AMQPS connection is not open, the function shall do nothing.]
+        if (this.state != State.OPEN)
+        {
+            return;
+        }
+
+        logger.LogInfo("Requesting a reconnection to renew the SAS token, method name is %s ", CustomLogger.METHOD_NAME);
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_21_011: [The function shall request the renewal and wake up the reactor,
+        // without changing the Proton objects, so the reactor thread reconnects with a new SAS token.]
+        this.sasTokenRenewalRequested = true;
+        Reactor currentReactor = this.reactor;
+        if (currentReactor != null)
+        {
+            currentReactor.wakeup();
+        }
+    }
+
+    /**
+     * Closes the connection so the reactor opens it again with a new SAS token. Shall only be called
+     * from the reactor thread.
+     */
+    private void reconnectToRenewSasToken()
+    {
+        logger.LogInfo("Reconnecting to renew the SAS token, method name is %s ", CustomLogger.METHOD_NAME);
+        reconnectCall = true;
+        for (ServerListener listener : listeners)
+        {
+            listener.connectionLost();
+        }
+        closeAsync();
+    }
+
     /**
      * Notifies all listeners that the connection was lost and attempts to startReconnect to the IoTHub
      * using an exponential backoff interval.
@@ -728,7 +940,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
             currentReconnectionAttempt = 0;
 
         System.out.println("Lost connection to the server. Reconnection attempt " + currentReconnectionAttempt++ + "...");
-        logger.LogInfo("Lost connection to the server. Reconnection attempt %s, method name is %s ", currentReconnectionAttempt, logger.getMethodName());
+        logger.LogInfo("Lost connection to the server. Reconnection attempt %s, method name is %s ", currentReconnectionAttempt, CustomLogger.METHOD_NAME);
         try
         {
             Thread.sleep(TransportUtils.generateSleepInterval(currentReconnectionAttempt));
@@ -746,7 +958,7 @@ public final class AmqpsIotHubConnection extends BaseHandler
      */
     private void messageReceivedFromServer(AmqpsMessage msg)
     {
-        logger.LogInfo("All the listeners are informed that a message has been received, method name is %s ", logger.getMethodName());
+        logger.LogInfo("All the listeners are informed that a message has been received, method name is %s ", CustomLogger.METHOD_NAME);
         for(ServerListener listener : listeners)
         {
             listener.messageReceived(msg);
@@ -919,5 +1131,30 @@ public final class AmqpsIotHubConnection extends BaseHandler
             return null;
         }
     }
-}
 
+    /** A received message queued by {@link #sendMessageResult(AmqpsMessage, IotHubMessageResult)}, with its acknowledgement. */
+    private static final class MessageResult
+    {
+        private final AmqpsMessage message;
+        private final AmqpsMessage.ACK_TYPE ackType;
+
+        private MessageResult(AmqpsMessage message, AmqpsMessage.ACK_TYPE ackType)
+        {
+            this.message = message;
+            this.ackType = ackType;
+        }
+    }
+
+    /** A message queued by {@link #sendMessage(Message)}, with the id returned for it. */
+    private static final class OutboundMessage
+    {
+        private final Integer sendId;
+        private final Message message;
+
+        private OutboundMessage(Integer sendId, Message message)
+        {
+            this.sendId = sendId;
+            this.message = message;
+        }
+    }
+}
@@ -7,6 +7,8 @@ import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveDispatcher;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSasTokenRenewer;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.CustomLogger;
@@ -19,8 +21,6 @@ import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
@@ -37,6 +37,21 @@ import java.util.concurrent.*;
  */
 public final class AmqpsTransport implements IotHubTransport, ServerListener
 {
+    /** The names of the IoT Hub message properties copied from the Proton message properties. */
+    private static final String PROTON_MESSAGE_ID = "messageId";
+    private static final String PROTON_USER_ID = "userId";
+    private static final String PROTON_TO = "to";
+    private static final String PROTON_SUBJECT = "subject";
+    private static final String PROTON_REPLY_TO = "replyTo";
+    private static final String PROTON_CORRELATION_ID = "correlationId";
+    private static final String PROTON_CONTENT_TYPE = "contentType";
+    private static final String PROTON_CONTENT_ENCODING = "contentEncoding";
+    private static final String PROTON_ABSOLUTE_EXPIRY_TIME = "absoluteExpiryTime";
+    private static final String PROTON_CREATION_TIME = "creationTime";
+    private static final String PROTON_GROUP_ID = "groupId";
+    private static final String PROTON_GROUP_SEQUENCE = "groupSequence";
+    private static final String PROTON_REPLY_TO_GROUP_ID = "replyToGroupId";
+
     /** The state of the AMQPS transport. */
     private State state;
 
@@ -59,6 +74,12 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
 
     private final Boolean useWebSockets;
 
+    /** Invokes the message callback when a message arrives. */
+    private IotHubReceiveDispatcher receiveDispatcher;
+
+    /** Reconnects with a new SAS token before the current one expires, or {@code null} if the token is not renewed. */
+    private IotHubSasTokenRenewer sasTokenRenewer;
+
     private CustomLogger logger;
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
@@ -92,9 +113,15 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         {
             return;
         }
-        logger.LogInfo("Opening the connection..., method name is %s ", logger.getMethodName());
+        logger.LogInfo("Opening the connection..., method name is %s ", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSTRANSPORT_15_004: [The function shall open an AMQPS connection with the IoT Hub given in the configuration.]
         this.connection = new AmqpsIotHubConnection(this.config, this.useWebSockets);
+        // Codes_SRS_AMQPSTRANSPORT_21_040: [The function shall dispatch the received messages on up to the
+        // message callback threads of the configuration.]
+        // Codes_SRS_AMQPSTRANSPORT_21_043: [The function shall dispatch the received messages on the task scheduler
+        // of the configuration, if one is set.]
+        this.receiveDispatcher = new IotHubReceiveDispatcher(this, this.config.getMessageCallbackThreads(),
+                this.config.getTaskScheduler());
         try
         {
             // Codes_SRS_AMQPSTRANSPORT_15_005: [The function shall add the transport to the list of listeners subscribed to the connection events.]
@@ -104,13 +131,29 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         }
         catch (Exception e)
         {
+            this.receiveDispatcher.close();
             logger.LogError(e);
             throw new IOException(e);
         }
 
         // Codes_SRS_AMQPSTRANSPORT_15_006: [If the connection was opened successfully, the transport state shall be set to OPEN.]
         this.state = State.OPEN;
-        logger.LogInfo("Connection has been opened, method name is %s ", logger.getMethodName());
+
+        // Codes_SRS_AMQPSTRANSPORT_21_046: [If the configuration has a device key, the function shall start renewing
+        // the SAS token before it expires, by reconnecting with a new one.]
+        if (this.config.getDeviceKey() != null)
+        {
+            final AmqpsIotHubConnection openConnection = this.connection;
+            this.sasTokenRenewer = new IotHubSasTokenRenewer(this.config, new IotHubSasTokenRenewer.Renewal()
+            {
+                public void renew()
+                {
+                    openConnection.renewSasToken();
+                }
+            });
+            this.sasTokenRenewer.start();
+        }
+        logger.LogInfo("Connection has been opened, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -125,17 +168,27 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_007: [If the AMQPS connection is closed, the function shall do nothing.]
         if (this.state == State.CLOSED)
         {
-            logger.LogInfo("The connection is already in closed state, method name is %s ", logger.getMethodName());
+            logger.LogInfo("The connection is already in closed state, method name is %s ", CustomLogger.METHOD_NAME);
             return;
         }
 
-        logger.LogInfo("Starting to close the connection..., method name is %s ", logger.getMethodName());
+        logger.LogInfo("Starting to close the connection..., method name is %s ", CustomLogger.METHOD_NAME);
+        // Codes_SRS_AMQPSTRANSPORT_21_047: [The function shall stop renewing the SAS token.]
+        if (this.sasTokenRenewer != null)
+        {
+            this.sasTokenRenewer.close();
+            this.sasTokenRenewer = null;
+        }
+
         // Codes_SRS_AMQPSTRANSPORT_15_008: [The function shall close an AMQPS connection with the IoT Hub given in the configuration.]
         this.connection.close();
 
+        // Codes_SRS_AMQPSTRANSPORT_21_042: [The function shall stop dispatching the received messages.]
+        this.receiveDispatcher.close();
+
         // Codes_SRS_AMQPSTRANSPORT_15_009: [The function shall set the transport state to CLOSED.]
         this.state = State.CLOSED;
-        logger.LogInfo("Connection has been closed, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Connection has been closed, method name is %s ", CustomLogger.METHOD_NAME);
     }
 
     /**
@@ -152,7 +205,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_010: [If the AMQPS session is closed, the function shall throw an IllegalStateException.]
         if (this.state == State.CLOSED)
         {
-            logger.LogError("Cannot add a message when the AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            logger.LogError("Cannot add a message when the AMQPS transport is closed, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalStateException("Cannot add a message when the AMQPS transport is closed.");
         }
 
@@ -177,7 +230,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_012: [If the AMQPS session is closed, the function shall throw an IllegalStateException.]
         if (this.state == State.CLOSED)
         {
-            logger.LogError("Cannot send messages when the AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            logger.LogError("Cannot send messages when the AMQPS transport is closed, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalStateException("Cannot send messages when the AMQPS transport is closed.");
         }
 
@@ -192,25 +245,27 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_014: [The function shall attempt to send every message on its waiting list, one at a time.]
         while (!this.waitingMessages.isEmpty())
         {
-           logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ", logger.getMethodName());
+           logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ", CustomLogger.METHOD_NAME);
            IotHubOutboundPacket packet = this.waitingMessages.remove();
 
             Message message = packet.getMessage();
 
             // Codes_SRS_AMQPSTRANSPORT_15_015: [The function shall skip messages with null or empty body.]
-            if (message != null && message.getBytes().length > 0)
+            // Codes_SRS_AMQPSTRANSPORT_21_048: [The function shall check the message body without copying it.]
+            ByteBuffer messageBody = (message != null) ? message.getByteBuffer() : null;
+            if (messageBody != null && messageBody.hasRemaining())
             {
                 // Codes_SRS_AMQPSTRANSPORT_15_039: [If the message is expired, the function shall create a callback
                 // with the MESSAGE_EXPIRED status and add it to the callback list.]
                 if (message.isExpired())
                 {
-                    logger.LogInfo("Creating a callback for the expired message with MESSAGE_EXPIRED status, method name is %s ", logger.getMethodName());
+                    logger.LogInfo("Creating a callback for the expired message with MESSAGE_EXPIRED status, method name is %s ", CustomLogger.METHOD_NAME);
                     IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.MESSAGE_EXPIRED, packet.getCallback(), packet.getContext());
                     this.callbackList.add(callbackPacket);
                 }
                 else
                 {
-                    logger.LogInfo("Converting the IoT Hub message into AmqpsMessage, method name is %s ", logger.getMethodName());
+                    logger.LogInfo("Converting the IoT Hub message into AmqpsMessage, method name is %s ", CustomLogger.METHOD_NAME);
                     // Codes_SRS_AMQPSTRANSPORT_15_036: [The function shall create a new Proton message from the IoTHub message.]
                     MessageImpl protonMessage = iotHubMessageToProtonMessage(message);
 
@@ -244,7 +299,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_019: [If the transport closed, the function shall throw an IllegalStateException.]
         if (this.state == State.CLOSED)
         {
-            logger.LogError("Cannot invoke callbacks when AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            logger.LogError("Cannot invoke callbacks when AMQPS transport is closed, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalStateException("Cannot invoke callbacks when AMQPS transport is closed.");
         }
 
@@ -257,7 +312,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             IotHubEventCallback callback = packet.getCallback();
             Object context = packet.getContext();
             
-            logger.LogInfo("Invoking the callback function for sent message, IoT Hub responded to message with status %s, method name is %s ", status.name(), logger.getMethodName());
+            logger.LogInfo("Invoking the callback function for sent message, IoT Hub responded to message with status %s, method name is %s ", status.name(), CustomLogger.METHOD_NAME);
             callback.execute(status, context);
         }
     }
@@ -277,37 +332,31 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         // Codes_SRS_AMQPSTRANSPORT_15_021: [If the transport is closed, the function shall throw an IllegalStateException.]
         if (this.state == State.CLOSED)
         {
-            logger.LogError("Cannot handle messages when AMQPS transport is closed, method name is %s ", logger.getMethodName());
+            logger.LogError("Cannot handle messages when AMQPS transport is closed, method name is %s ", CustomLogger.METHOD_NAME);
             throw new IllegalStateException("Cannot handle messages when AMQPS transport is closed.");
         }
         
-        logger.LogInfo("Get the callback function for the received message, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Get the callback function for the received message, method name is %s ", CustomLogger.METHOD_NAME);
         MessageCallback callback = this.config.getMessageCallback();
 
         // Codes_SRS_AMQPSTRANSPORT_15_025: [If no callback is defined, the list of received messages is cleared.]
         if (callback == null)
         {
-            logger.LogError("Callback is not defined therefore response to IoT Hub cannot be generated. All received messages will be removed from receive message queue, method name is %s ", logger.getMethodName());
+            logger.LogError("Callback is not defined therefore response to IoT Hub cannot be generated. All received messages will be removed from receive message queue, method name is %s ", CustomLogger.METHOD_NAME);
             this.receivedMessages.clear();
             return;
         }
 
         // Codes_SRS_AMQPSTRANSPORT_15_023: [The function shall attempt to consume a message from the IoT Hub.]
         // Codes_SRS_AMQPSTRANSPORT_15_024: [If no message was received from IotHub, the function shall return.]
-        if (this.receivedMessages.size() > 0)
+        AmqpsMessage receivedMessage = this.receivedMessages.poll();
+        if (receivedMessage != null)
         {
-            logger.LogInfo("Consuming a message received from IoT Hub using receive message queue, method name is %s ", logger.getMethodName());
-            AmqpsMessage receivedMessage = this.receivedMessages.remove();
-            logger.LogInfo("Converting the AmqpsMessage to IoT Hub message, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Consuming a message received from IoT Hub using receive message queue, method name is %s ", CustomLogger.METHOD_NAME);
+            logger.LogInfo("Converting the AmqpsMessage to IoT Hub message, method name is %s ", CustomLogger.METHOD_NAME);
             Message message = protonMessageToIoTHubMessage(receivedMessage);
 
-			// set  messageId from messageId property if it exists. Fix for GitHub issue #990
-            if (message.getProperty("messageId") !=null)
-			{
-			  message.setMessageId(message.getProperty("messageId"));
-			}
-                    
-            logger.LogInfo("Executing the callback function for received message, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Executing the callback function for received message, method name is %s ", CustomLogger.METHOD_NAME);
             // Codes_SRS_AMQPSTRANSPORT_15_026: [The function shall invoke the callback on the message.]
             IotHubMessageResult result = callback.execute(message, this.config.getMessageContext());
 
@@ -316,8 +365,16 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             // Codes_SRS_AMQPSTRANSPORT_15_028: [If the result could not be sent to IoTHub, the message shall be put back in the received messages queue to be processed again.]
             if (!ackResult)
             {
-                logger.LogWarn("Callback did not return a response for IoT Hub. Message has been added in the queue to be processed again, method name is %s", logger.getMethodName());
+                logger.LogWarn("Callback did not return a response for IoT Hub. Message has been added in the queue to be processed again, method name is %s", CustomLogger.METHOD_NAME);
                 receivedMessages.add(receivedMessage);
+
+                // Codes_SRS_AMQPSTRANSPORT_21_049: [The function shall signal the receive dispatcher for the message
+                // put back, so it is handled again without waiting for another message to arrive.]
+                IotHubReceiveDispatcher dispatcher = this.receiveDispatcher;
+                if (dispatcher != null)
+                {
+                    dispatcher.messageArrived();
+                }
             }
         }
     }
@@ -337,14 +394,14 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
             IotHubOutboundPacket packet = inProgressMessages.remove(messageHash);
             if (deliveryState)
             {
-                logger.LogInfo("Message with messageid %s has been successfully delivered to IoTHub, adding a callback to callbacklist with IotHubStatusCode.OK_EMPTY, method name is %s ", packet.getMessage().getMessageId(), logger.getMethodName());
+                logger.LogInfo("Message with messageid %s has been successfully delivered to IoTHub, adding a callback to callbacklist with IotHubStatusCode.OK_EMPTY, method name is %s ", packet.getMessage().getMessageId(), CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSTRANSPORT_15_030: [If the message was successfully delivered,
                 // its callback is added to the list of callbacks to be executed.]
                 IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, packet.getCallback(), packet.getContext());
                 this.callbackList.add(callbackPacket);
             } else
             {
-                logger.LogInfo("Message with messageid %s was not delivered to IoTHub, it is buffered to be sent again, method name is %s ", packet.getMessage().getMessageId(), logger.getMethodName());
+                logger.LogInfo("Message with messageid %s was not delivered to IoTHub, it is buffered to be sent again, method name is %s ", packet.getMessage().getMessageId(), CustomLogger.METHOD_NAME);
                 // Codes_SRS_AMQPSTRANSPORT_15_031: [If the message was not delivered successfully, it is buffered to be sent again.]
                 waitingMessages.add(packet);
             }
@@ -356,7 +413,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      */
     public void connectionLost()
     {
-        logger.LogInfo("The messages in progress are buffered to be sent again due to a connection loss, method name is %s ", logger.getMethodName());
+        logger.LogInfo("The messages in progress are buffered to be sent again due to a connection loss, method name is %s ", CustomLogger.METHOD_NAME);
         // Codes_SRS_AMQPSTRANSPORT_15_032: [The messages in progress are buffered to be sent again.]
         for (Map.Entry<Integer, IotHubOutboundPacket> entry : inProgressMessages.entrySet())
         {
@@ -373,9 +430,20 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      */
     public void messageReceived(AmqpsMessage message)
     {
-        logger.LogInfo("Message with hashcode %s is received from IotHub on %s, method name is %s ", message.hashCode(), new Date(), logger.getMethodName());
+        if (logger.isInfoEnabled())
+        {
+            logger.LogInfo("Message with hashcode %s is received from IotHub on %s, method name is %s ", message.hashCode(), new Date(), CustomLogger.METHOD_NAME);
+        }
         // Codes_SRS_AMQPSTRANSPORT_15_034: [The message received is added to the list of messages to be processed.]
         this.receivedMessages.add(message);
+
+        // Codes_SRS_AMQPSTRANSPORT_21_041: [The function shall signal the arrival of the message to the receive dispatcher,
+        // which calls handleMessage to invoke the message callback.]
+        IotHubReceiveDispatcher dispatcher = this.receiveDispatcher;
+        if (dispatcher != null)
+        {
+            dispatcher.messageArrived();
+        }
     }
 
     /**
@@ -402,7 +470,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      */
     private Message protonMessageToIoTHubMessage(MessageImpl protonMsg)
     {
-        logger.LogInfo("Started converting AmpqsMessage into IoT Hub message, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Started converting AmpqsMessage into IoT Hub message, method name is %s ", CustomLogger.METHOD_NAME);
         Data d = (Data) protonMsg.getBody();
         Binary b = d.getValue();
         byte[] msgBody = new byte[b.getLength()];
@@ -410,38 +478,38 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         buffer.get(msgBody);
 
         Message msg = new Message(msgBody);
-        logger.LogInfo("Content of received message is %s, method name is %s ", new String(msg.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET), logger.getMethodName());
+        if (logger.isInfoEnabled())
+        {
+            logger.LogInfo("Content of received message is %s, method name is %s ", new String(msgBody, Message.DEFAULT_IOTHUB_MESSAGE_CHARSET), CustomLogger.METHOD_NAME);
+        }
+        // Codes_SRS_AMQPSTRANSPORT_21_044: [The function shall copy each Proton message property that is set
+        // into the IoT Hub message property of the same name, using the property getters directly.]
         Properties properties = protonMsg.getProperties();
-        //Call all of the getters for the Proton message Properties and set those properties
-        //in the IoT Hub message properties if they exist.
-        for (Method m : properties.getClass().getMethods())
+        if (properties != null)
         {
-            if (m.getName().startsWith("get"))
+            copyProtonProperty(msg, PROTON_MESSAGE_ID, properties.getMessageId());
+            copyProtonProperty(msg, PROTON_USER_ID, properties.getUserId());
+            copyProtonProperty(msg, PROTON_TO, properties.getTo());
+            copyProtonProperty(msg, PROTON_SUBJECT, properties.getSubject());
+            copyProtonProperty(msg, PROTON_REPLY_TO, properties.getReplyTo());
+            copyProtonProperty(msg, PROTON_CORRELATION_ID, properties.getCorrelationId());
+            copyProtonProperty(msg, PROTON_CONTENT_TYPE, properties.getContentType());
+            copyProtonProperty(msg, PROTON_CONTENT_ENCODING, properties.getContentEncoding());
+            copyProtonProperty(msg, PROTON_ABSOLUTE_EXPIRY_TIME, properties.getAbsoluteExpiryTime());
+            copyProtonProperty(msg, PROTON_CREATION_TIME, properties.getCreationTime());
+            copyProtonProperty(msg, PROTON_GROUP_ID, properties.getGroupId());
+            copyProtonProperty(msg, PROTON_GROUP_SEQUENCE, properties.getGroupSequence());
+            copyProtonProperty(msg, PROTON_REPLY_TO_GROUP_ID, properties.getReplyToGroupId());
+
+            // Codes_SRS_AMQPSTRANSPORT_21_045: [The function shall set the message id and the correlation id of the
+            // IoT Hub message from the Proton message properties, if they are set.]
+            if (properties.getMessageId() != null)
             {
-                try
-                {
-                    String propertyName = Character.toLowerCase(m.getName().charAt(3)) + m.getName().substring(4);
-                    Object value = m.invoke(properties);
-                    if (value != null && !propertyName.equals("class"))
-                    {
-                        String val = value.toString();
-
-                        if (MessageProperty.isValidAppProperty(propertyName, val))
-                        {
-                            msg.setProperty(propertyName, val);
-                        }
-                    }
-                }
-                catch (IllegalAccessException e)
-                {
-                    logger.LogError(e);
-                    System.err.println("Attempted to access private or protected member of class during message conversion.");
-                }
-                catch (InvocationTargetException e)
-                {
-                   logger.LogError(e); 
-                   System.err.println("Exception thrown while attempting to get member variable. See: " + e.getMessage());
-                }
+                msg.setMessageId(properties.getMessageId().toString());
+            }
+            if (properties.getCorrelationId() != null)
+            {
+                msg.setCorrelationId(properties.getCorrelationId().toString());
             }
         }
 
@@ -458,10 +526,30 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
                 }
             }
         }
-        logger.LogInfo("Completed the conversion of AmpqsMessage into IoT Hub message, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Completed the conversion of AmpqsMessage into IoT Hub message, method name is %s ", CustomLogger.METHOD_NAME);
         return msg;
     }
 
+    /**
+     * Sets a Proton message property in the IoT Hub message, if the property
+     * is set and its value is a valid application property value.
+     *
+     * @param msg the IoT Hub message.
+     * @param name the IoT Hub property name.
+     * @param value the Proton property value, or {@code null} if it is not set.
+     */
+    private static void copyProtonProperty(Message msg, String name, Object value)
+    {
+        if (value != null)
+        {
+            String val = value.toString();
+            if (MessageProperty.isValidAppProperty(name, val))
+            {
+                msg.setProperty(name, val);
+            }
+        }
+    }
+
     /**
      * Creates a proton message from the IoTHub message.
      * @param message the IoTHub input message.
@@ -469,9 +557,12 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
      */
     private MessageImpl iotHubMessageToProtonMessage(com.microsoft.azure.sdk.iot.device.Message message)
     {
-        logger.LogInfo("Started converting IoT Hub message into AmpqsMessage, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Started converting IoT Hub message into AmpqsMessage, method name is %s ", CustomLogger.METHOD_NAME);
         MessageImpl outgoingMessage = (MessageImpl) Proton.message();
-        logger.LogInfo("Content of message is %s, method name is %s ", new String(message.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET), logger.getMethodName());
+        if (logger.isInfoEnabled())
+        {
+            logger.LogInfo("Content of message is %s, method name is %s ", new String(message.getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET), CustomLogger.METHOD_NAME);
+        }
         Properties properties = new Properties();
         if(message.getMessageId() != null)
         {
@@ -480,16 +571,16 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         outgoingMessage.setProperties(properties);
 
         // Codes_SRS_AMQPSTRANSPORT_15_038: [The function shall add all user properties to the application properties of the Proton message.]
-        if (message.getProperties().length > 0)
+        MessageProperty[] messageProperties = message.getProperties();
+        if (messageProperties.length > 0)
         {
-            Map<String, String> userProperties = new HashMap<>(message.getProperties().length);
-            for(MessageProperty messageProperty : message.getProperties())
+            Map<String, String> userProperties = new HashMap<>(messageProperties.length);
+            for (MessageProperty messageProperty : messageProperties)
             {
                 if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
                 {
                     userProperties.put(messageProperty.getName(), messageProperty.getValue());
                 }
-
             }
 
             ApplicationProperties applicationProperties = new ApplicationProperties(userProperties);
@@ -499,7 +590,7 @@ public final class AmqpsTransport implements IotHubTransport, ServerListener
         Binary binary = new Binary(message.getBytes());
         Section section = new Data(binary);
         outgoingMessage.setBody(section);
-        logger.LogInfo("Started converting IoT Hub message into AmpqsMessage, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Completed the conversion of IoT Hub message into AmpqsMessage, method name is %s ", CustomLogger.METHOD_NAME);
         return outgoingMessage;
     }
 }
\ No newline at end of file
@@ -5,9 +5,11 @@ package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
+import org.apache.commons.codec.binary.Base64;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import javax.naming.SizeLimitExceededException;
 
@@ -32,16 +34,43 @@ public final class HttpsBatchMessage implements HttpsMessage
      */
     public static Charset BATCH_CHARSET = StandardCharsets.UTF_8;
 
-    /** The current batched message body. */
-    protected String batchBody;
+    /** The initial capacity of the batch body buffer, grown as messages are added. */
+    private static final int INITIAL_BODY_CAPACITY = 1024;
+
+    /**
+     * The UTF-8 encoded batch body, as the opening bracket of the JSON array
+     * followed by the messages added so far. The closing bracket is added by
+     * {@link #getBody()}.
+     */
+    protected byte[] batchBody;
+    /** The number of bytes used in {@code batchBody}. */
+    protected int batchBodyLength;
     /** The current number of messages in the batch. */
     protected int numMsgs;
+    /** The complete batch body returned by {@link #getBody()}, until a message is added. */
+    private byte[] completeBody;
+    /** Whether the message bodies are Base64-encoded in the batch. */
+    protected final boolean base64Encode;
 
     /** Constructor. Initializes the batch body as an empty JSON array. */
     public HttpsBatchMessage()
+    {
+        this(false);
+    }
+
+    /**
+     * Constructor. Initializes the batch body as an empty JSON array.
+     *
+     * @param base64Encode whether the message bodies are Base64-encoded in the
+     * batch, which lets binary bodies be batched.
+     */
+    public HttpsBatchMessage(boolean base64Encode)
     {
         // Codes_SRS_HTTPSBATCHMESSAGE_11_001: [The constructor shall initialize the batch message with the body as an empty JSON array.]
-        this.batchBody = "[]";
+        this.base64Encode = base64Encode;
+        this.batchBody = new byte[INITIAL_BODY_CAPACITY];
+        this.batchBody[0] = '[';
+        this.batchBodyLength = 1;
         this.numMsgs = 0;
     }
 
@@ -57,22 +86,35 @@ public final class HttpsBatchMessage implements HttpsMessage
     public void addMessage(HttpsSingleMessage msg)
             throws SizeLimitExceededException
     {
-        String jsonMsg = msgToJson(msg);
-        // Codes_SRS_HTTPSBATCHMESSAGE_11_002: [The function shall add the message as a JSON object appended to the current JSON array.]
-        String newBatchBody = addJsonObjToArray(jsonMsg, this.batchBody);
+        // Codes_SRS_HTTPSBATCHMESSAGE_21_001: [The function shall encode the message once, and compute the size of
+        // the batch from the size of the encoded message, without encoding the messages already in the batch again.]
+        byte[] jsonMsg = msgToJson(msg, this.base64Encode).getBytes(BATCH_CHARSET);
+        int separatorLength = (this.numMsgs > 0) ? 1 : 0;
+        int newBatchBodyLength = this.batchBodyLength + separatorLength + jsonMsg.length;
 
         // Codes_SRS_HTTPSBATCHMESSAGE_11_008: [If adding the message causes the batched message to exceed 256 kb in size, the function shall throw a SizeLimitExceededException.]
         // Codes_SRS_HTTPSBATCHMESSAGE_11_009: [If the function throws a SizeLimitExceedException, the batched message shall remain as if the message was never added.]
-        byte[] newBatchBodyBytes = newBatchBody.getBytes(BATCH_CHARSET);
-
-        if (newBatchBodyBytes.length > SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES) {
+        // the closing bracket of the JSON array counts towards the limit.
+        if (newBatchBodyLength + 1 > SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES) {
             String errMsg = String.format("Service-bound message size (%d bytes) cannot exceed %d bytes.\n",
-                    newBatchBodyBytes.length, SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES);
+                    newBatchBodyLength + 1, SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES);
             throw new SizeLimitExceededException(errMsg);
         }
 
-        this.batchBody = newBatchBody;
+        // Codes_SRS_HTTPSBATCHMESSAGE_11_002: [The function shall add the message as a JSON object appended to the current JSON array.]
+        if (newBatchBodyLength + 1 > this.batchBody.length)
+        {
+            int newCapacity = Math.max(newBatchBodyLength + 1, this.batchBody.length * 2);
+            this.batchBody = Arrays.copyOf(this.batchBody, Math.min(newCapacity, SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES));
+        }
+        if (separatorLength > 0)
+        {
+            this.batchBody[this.batchBodyLength] = ',';
+        }
+        System.arraycopy(jsonMsg, 0, this.batchBody, this.batchBodyLength + separatorLength, jsonMsg.length);
+        this.batchBodyLength = newBatchBodyLength;
         this.numMsgs++;
+        this.completeBody = null;
     }
 
     /**
@@ -84,7 +126,12 @@ public final class HttpsBatchMessage implements HttpsMessage
     {
         // Codes_SRS_HTTPSBATCHMESSAGE_11_006: [The function shall return the current batch message body.]
         // Codes_SRS_HTTPSBATCHMESSAGE_11_007: [The batch message body shall be encoded using UTF-8.]
-        return this.batchBody.getBytes(BATCH_CHARSET);
+        if (this.completeBody == null)
+        {
+            this.completeBody = Arrays.copyOf(this.batchBody, this.batchBodyLength + 1);
+            this.completeBody[this.batchBodyLength] = ']';
+        }
+        return this.completeBody;
     }
 
     /**
@@ -125,18 +172,31 @@ public final class HttpsBatchMessage implements HttpsMessage
      * format.
      *
      * @param msg the message to be converted to a corresponding JSON object.
+     * @param base64Encode whether to Base64-encode the message body.
      *
      * @return the JSON string representation of the message.
      */
-    protected static String msgToJson(HttpsSingleMessage msg)
+    protected static String msgToJson(HttpsSingleMessage msg, boolean base64Encode)
     {
         StringBuilder jsonMsg = new StringBuilder("{");
         // Codes_SRS_HTTPSBATCHMESSAGE_11_003: [The JSON object shall have the field "body" set to the raw message.]
+        // Codes_SRS_HTTPSBATCHMESSAGE_21_002: [If the batch Base64-encodes the bodies, the field "body" shall be set
+        // to the Base64 encoding of the raw message, unless the message is already Base64-encoded.]
+        boolean bodyBase64Encoded = msg.isBase64Encoded();
         jsonMsg.append("\"body\":");
-        jsonMsg.append("\"" + msg.getBodyAsString() + "\",");
+        if (base64Encode && !bodyBase64Encoded)
+        {
+            jsonMsg.append('"').append(Base64.encodeBase64String(msg.getBody())).append('"');
+            bodyBase64Encoded = true;
+        }
+        else
+        {
+            appendJsonString(jsonMsg, msg.getBodyAsString());
+        }
+        jsonMsg.append(",");
         // Codes_SRS_HTTPSBATCHMESSAGE_11_004: [The JSON object shall have the field "base64Encoded" set to whether the raw message was Base64-encoded.]
         jsonMsg.append("\"base64Encoded\":");
-        jsonMsg.append(Boolean.toString(msg.isBase64Encoded()));
+        jsonMsg.append(Boolean.toString(bodyBase64Encoded));
         // Codes_SRS_HTTPSBATCHMESSAGE_11_005: [The JSON object shall have the field "properties" set to a JSON object which has the field "content-type" set to the content type of the raw message.]
         MessageProperty[] properties = msg.getProperties();
         int numProperties = properties.length;
@@ -145,17 +205,16 @@ public final class HttpsBatchMessage implements HttpsMessage
             jsonMsg.append(",");
             jsonMsg.append("\"properties\":");
             jsonMsg.append("{");
-            for (int i = 0; i < numProperties - 1; ++i)
+            for (int i = 0; i < numProperties; ++i)
             {
+                if (i > 0)
+                {
+                    jsonMsg.append(",");
+                }
                 MessageProperty property = properties[i];
-                jsonMsg.append("\"" + property.getName() + "\":");
-                jsonMsg.append("\"" + property.getValue() + "\",");
-            }
-            if (numProperties > 0)
-            {
-                MessageProperty property = properties[numProperties - 1];
-                jsonMsg.append("\"" + property.getName() + "\":");
-                jsonMsg.append("\"" + property.getValue() + "\"");
+                appendJsonString(jsonMsg, property.getName());
+                jsonMsg.append(":");
+                appendJsonString(jsonMsg, property.getValue());
             }
             jsonMsg.append("}");
         }
@@ -165,24 +224,54 @@ public final class HttpsBatchMessage implements HttpsMessage
     }
 
     /**
-     * Adds a JSON object to a JSON array.
+     * Appends a string to the JSON text as a JSON string literal.
      *
-     * @param jsonObj the object to be added to the JSON array.
-     * @param jsonArray the JSON array.
-     *
-     * @return the JSON string representation of the JSON array with the object
-     * added.
+     * @param json the JSON text.
+     * @param value the string to be appended.
      */
-    protected static String addJsonObjToArray(String jsonObj, String jsonArray)
+    protected static void appendJsonString(StringBuilder json, String value)
     {
-        if (jsonArray.equals("[]"))
+        // Codes_SRS_HTTPSBATCHMESSAGE_21_003: [The function shall escape the quotation marks, reverse solidi and
+        // control characters in the body, if it is not Base64-encoded, and in the property names and values.]
+        json.append('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++)
         {
-            return "[" + jsonObj + "]";
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\b':
+                    json.append("\\b");
+                    break;
+                case '\f':
+                    json.append("\\f");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        json.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        json.append(c);
+                    }
+            }
         }
-
-        // removes the closing brace of the JSON array.
-        String openJsonArray = jsonArray.substring(0, jsonArray.length() - 1);
-
-        return openJsonArray + "," + jsonObj + "]";
+        json.append('"');
     }
 }
@@ -7,7 +7,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ProtocolException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +29,9 @@ import javax.net.ssl.HttpsURLConnection;
  */
 public class HttpsConnection
 {
+    /** The size of the chunks read from a response stream whose length is unknown. */
+    private static final int READ_CHUNK_SIZE = 8192;
+
     /** The underlying HTTPS connection. */
     protected final HttpsURLConnection connection;
 
@@ -191,13 +193,32 @@ public class HttpsConnection
         // Codes_SRS_HTTPSCONNECTION_11_011: [The function shall read from the input stream (response stream) and return the response.]
         // Codes_SRS_HTTPSCONNECTION_11_012: [The function shall throw an IOException if the input stream could not be accessed.]
         InputStream inputStream = this.connection.getInputStream();
-        byte[] input = readInputStream(inputStream);
+        // Codes_SRS_HTTPSCONNECTION_21_001: [The function shall read the stream in chunks, into a buffer sized from the
+        // response content length if it is known.]
+        byte[] input = readInputStream(inputStream, this.connection.getContentLength());
         // Codes_SRS_HTTPSCONNECTION_11_019: [The function shall close the input stream after it has been completely read.]
         inputStream.close();
 
         return input;
     }
 
+    /**
+     * Returns the input stream (response stream), so that a large response can
+     * be parsed while it is read instead of being copied by {@link #readInput()}.
+     * The caller shall read the stream completely and close it, so that the
+     * underlying connection can be reused.
+     *
+     * @return the input stream.
+     *
+     * @throws IOException if the input stream could not be accessed, for
+     * example if the server could not be reached.
+     */
+    public InputStream getInputStream() throws IOException
+    {
+        // Codes_SRS_HTTPSCONNECTION_21_002: [The function shall return the input stream (response stream) without reading it.]
+        return this.connection.getInputStream();
+    }
+
     /**
      * Reads from the error stream and returns the error reason.
      *
@@ -216,7 +237,7 @@ public class HttpsConnection
         // if there is no error reason, getErrorStream() returns null.
         if (errorStream != null)
         {
-            error = readInputStream(errorStream);
+            error = readInputStream(errorStream, this.connection.getContentLength());
             // Codes_SRS_HTTPSCONNECTION_11_020: [The function shall close the error stream after it has been completely read.]
             errorStream.close();
         }
@@ -255,34 +276,49 @@ public class HttpsConnection
     }
 
     /**
-     * Reads the input stream until the stream is empty.
+     * Reads the input stream until the stream is empty. The stream is read in
+     * chunks into a buffer sized from the content length, which only grows if
+     * the stream is longer than announced.
      *
      * @param stream the input stream.
+     * @param contentLength the number of bytes in the stream, or -1 if it is unknown.
      *
      * @return the content of the input stream.
      *
      * @throws IOException if the input stream could not be read from.
      */
-    protected static byte[] readInputStream(InputStream stream)
+    protected static byte[] readInputStream(InputStream stream, int contentLength)
             throws IOException
     {
-        ArrayList<Byte> byteBuffer = new ArrayList<>();
-        int nextByte = -1;
-        // read(byte[]) reads the byte into the buffer and returns the number
-        // of bytes read, or -1 if the end of the stream has been reached.
-        while ((nextByte = stream.read()) > -1)
+        byte[] buffer = new byte[contentLength >= 0 ? contentLength : READ_CHUNK_SIZE];
+        int length = 0;
+        while (true)
         {
-            byteBuffer.add((byte) nextByte);
-        }
+            if (length == buffer.length)
+            {
+                // the buffer is full: look for one more byte before growing it,
+                // so an exact content length never causes a copy.
+                int nextByte = stream.read();
+                if (nextByte < 0)
+                {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, READ_CHUNK_SIZE));
+                buffer[length++] = (byte) nextByte;
+            }
 
-        int bufferSize = byteBuffer.size();
-        byte[] byteArray = new byte[bufferSize];
-        for (int i = 0; i < bufferSize; ++i)
-        {
-            byteArray[i] = byteBuffer.get(i);
+            // read(byte[], int, int) reads up to the given number of bytes into
+            // the buffer and returns the number of bytes read, or -1 if the end
+            // of the stream has been reached.
+            int bytesRead = stream.read(buffer, length, buffer.length - length);
+            if (bytesRead < 0)
+            {
+                break;
+            }
+            length += bytesRead;
         }
 
-        return byteArray;
+        return (length == buffer.length) ? buffer : Arrays.copyOf(buffer, length);
     }
 
     protected HttpsConnection()
@@ -4,7 +4,7 @@
 package com.microsoft.azure.sdk.iot.device.transport.https;
 
 import com.microsoft.azure.sdk.iot.device.*;
-import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
 import com.microsoft.azure.sdk.iot.device.net.*;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 
@@ -13,15 +13,22 @@ import java.net.URL;
 
 /**
  * An HTTPS connection between a device and an IoT Hub. Contains functionality
- * for synchronously connecting to the different IoT Hub resource URIs.
+ * for synchronously connecting to the different IoT Hub resource URIs. Event
+ * messages may be sent from many threads at the same time; each request uses a
+ * connection kept alive by the JDK, if one is idle.
  */
 public class HttpsIotHubConnection
 {
-    /** The HTTPS connection lock. */
+    /**
+     * The HTTPS connection lock. Serializes receiving a message and sending its
+     * result, which share the message e-tag.
+     */
     protected static final Object HTTPS_CONNECTION_LOCK = new Object();
 
     /** The client configuration. */
     protected final DeviceClientConfig config;
+    /** Provides the SAS token of each request, reusing it until it should be renewed. */
+    protected final IotHubSasTokenProvider sasTokenProvider;
     /**
      * The message e-tag. Obtained when the device receives a
      * message and used when sending a message result back to
@@ -41,6 +48,9 @@ public class HttpsIotHubConnection
         {
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_001: [The constructor shall save the client configuration.]
             this.config = config;
+            // Codes_SRS_HTTPSIOTHUBCONNECTION_21_002: [The constructor shall create a SAS token provider for the
+            // configuration, shared by all requests.]
+            this.sasTokenProvider = new IotHubSasTokenProvider(config);
         }
     }
 
@@ -55,44 +65,42 @@ public class HttpsIotHubConnection
      */
     public IotHubStatusCode sendEvent(HttpsMessage msg) throws IOException
     {
-        synchronized (HTTPS_CONNECTION_LOCK)
-        {
-            String iotHubHostname = this.config.getIotHubHostname();
-            String deviceId = this.config.getDeviceId();
-            int readTimeoutMillis = this.config.getReadTimeoutMillis();
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_21_001: [The function shall not hold the connection lock, so many event
+        // requests can be in flight at the same time.]
+        String iotHubHostname = this.config.getIotHubHostname();
+        String deviceId = this.config.getDeviceId();
+        int readTimeoutMillis = this.config.getReadTimeoutMillis();
 
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_002: [The function shall send a request to the URL 'https://[iotHubHostname]/devices/[deviceId]/messages/events?api-version=2016-02-03'.]
-            IotHubEventUri eventUri = new IotHubEventUri(iotHubHostname, deviceId);
-            URL eventUrl = new URL("https://" + eventUri.toString());
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000l +
-                    this.config.getTokenValidSecs() + 1l);
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_002: [The function shall send a request to the URL 'https://[iotHubHostname]/devices/[deviceId]/messages/events?api-version=2016-02-03'.]
+        IotHubEventUri eventUri = new IotHubEventUri(iotHubHostname, deviceId);
+        URL eventUrl = new URL("https://" + eventUri.toString());
+        String sasToken = this.sasTokenProvider.getSasToken();
 
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_003: [The function shall send a POST request.]
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_004: [The function shall set the request body to the message body.]
-            HttpsRequest request =
-                    new HttpsRequest(eventUrl, HttpsMethod.POST, msg.getBody());
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_005: [The function shall write each message property as a request header.]
-            for (MessageProperty property : msg.getProperties())
-            {
-                request.setHeaderField(property.getName(),
-                        property.getValue());
-            }
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_006: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
-            request.setReadTimeoutMillis(readTimeoutMillis).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_007: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
-                            setHeaderField("authorization", sasToken.toString()).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_008: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/events'.]
-                            setHeaderField("iothub-to", eventUri.getPath()).
-                    // Codes_SRS_HTTPSIOTHUBCONNECTION_11_009: [The function shall set the header field 'content-type' to be the message content type.]
-                            setHeaderField("content-type", msg.getContentType());
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_003: [The function shall send a POST request.]
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_004: [The function shall set the request body to the message body.]
+        HttpsRequest request =
+                new HttpsRequest(eventUrl, HttpsMethod.POST, msg.getBody());
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_005: [The function shall write each message property as a request header.]
+        for (MessageProperty property : msg.getProperties())
+        {
+            request.setHeaderField(property.getName(),
+                    property.getValue());
+        }
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_006: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
+        request.setReadTimeoutMillis(readTimeoutMillis).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_007: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
+                        setHeaderField("authorization", sasToken).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_008: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/events'.]
+                        setHeaderField("iothub-to", eventUri.getPath()).
+                // Codes_SRS_HTTPSIOTHUBCONNECTION_11_009: [The function shall set the header field 'content-type' to be the message content type.]
+                        setHeaderField("content-type", msg.getContentType());
 
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_012: [If the IoT Hub could not be reached, the function shall throw an IOException.]
-            HttpsResponse response = request.send();
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_012: [If the IoT Hub could not be reached, the function shall throw an IOException.]
+        HttpsResponse response = request.send();
 
-            // Codes_SRS_HTTPSIOTHUBCONNECTION_11_010: [The function shall return the IoT Hub status code included in the response.]
-            return IotHubStatusCode.getIotHubStatusCode(
-                    response.getStatus());
-        }
+        // Codes_SRS_HTTPSIOTHUBCONNECTION_11_010: [The function shall return the IoT Hub status code included in the response.]
+        return IotHubStatusCode.getIotHubStatusCode(
+                response.getStatus());
     }
 
     /**
@@ -115,8 +123,7 @@ public class HttpsIotHubConnection
             IotHubMessageUri messageUri = new IotHubMessageUri(iotHubHostname, deviceId);
             URL messageUrl = new URL("https://" + messageUri.toString());
 
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000l +
-                    this.config.getTokenValidSecs() + 1l);
+            String sasToken = this.sasTokenProvider.getSasToken();
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_014: [The function shall send a GET request.]
             HttpsRequest request =
@@ -125,7 +132,7 @@ public class HttpsIotHubConnection
                                     setReadTimeoutMillis(readTimeoutMillis).
                             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_016: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
                                     setHeaderField("authorization",
-                                    sasToken.toString()).
+                                    sasToken).
                             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_017: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/devicebound'.]
                                     setHeaderField("iothub-to",
                                     messageUri.getPath()).
@@ -235,13 +242,12 @@ public class HttpsIotHubConnection
                             "Invalid message result specified.");
             }
 
-            IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000l +
-                                    this.config.getTokenValidSecs() + 1l);
+            String sasToken = this.sasTokenProvider.getSasToken();
 
             // Codes_SRS_HTTPSIOTHUBCONNECTION_11_033: [The function shall set the request read timeout to be the configuration parameter readTimeoutMillis.]
             request.setReadTimeoutMillis(readTimeoutMillis).
                     // Codes_SRS_HTTPSIOTHUBCONNECTION_11_034: [The function shall set the header field 'authorization' to be a valid SAS token generated from the configuration parameters.]
-                            setHeaderField("authorization", sasToken.toString()).
+                            setHeaderField("authorization", sasToken).
                     setHeaderField("iothub-to", resultPath).
                     // Codes_SRS_HTTPSIOTHUBCONNECTION_11_035: [The function shall set the header field 'if-match' to be the e-tag saved when receiveMessage() was previously called.]
                             setHeaderField("if-match", this.messageEtag);
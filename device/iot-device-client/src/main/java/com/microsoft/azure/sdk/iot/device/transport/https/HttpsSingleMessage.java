@@ -32,8 +32,8 @@ public final class HttpsSingleMessage implements HttpsMessage
         HttpsSingleMessage httpsMsg = new HttpsSingleMessage();
 
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_001: [The parsed HttpsSingleMessage shall have a copy of the original message body as its body.]
-        byte[] msgBody = message.getBytes();
-        httpsMsg.body = Arrays.copyOf(msgBody, msgBody.length);
+        // the message already returns a copy of its body.
+        httpsMsg.body = message.getBytes();
 
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_003: [The parsed HttpsSingleMessage shall add the prefix 'iothub-app-' to each of the message properties.]
         MessageProperty[] msgProperties = message.getProperties();
@@ -10,10 +10,16 @@ import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.naming.SizeLimitExceededException;
 
@@ -28,6 +34,12 @@ import javax.naming.SizeLimitExceededException;
  * The transport can also poll an IoT Hub for messages and invoke a
  * user-defined message callback if a message and callback is found.
  * </p>
+ * <p>
+ * If the configuration allows more than one batch in flight, the transport
+ * sends that many batches at the same time. The messages in a batch keep their
+ * order, but batches sent at the same time may reach the IoT Hub in any order,
+ * and a batch whose request failed is sent again after the later ones.
+ * </p>
  */
 public final class HttpsTransport implements IotHubTransport
 {
@@ -44,13 +56,21 @@ public final class HttpsTransport implements IotHubTransport
 
     /** Messages waiting to be sent to an IoT Hub. */
     protected final Queue<IotHubOutboundPacket> waitingList;
-    /** Messages that are waiting for a response from an IoT Hub. */
-    protected final Queue<IotHubOutboundPacket> inProgressList;
+    /**
+     * Requests that are waiting for a response from an IoT Hub, in the order the
+     * messages were added. A request is sent again if it fails.
+     */
+    protected final Queue<InProgressRequest> inProgressList;
     /** Messages whose callbacks that are waiting to be invoked. */
     protected final Queue<IotHubCallbackPacket> callbackList;
 
     protected final DeviceClientConfig config;
 
+    /** The number of requests that may be waiting for a response at the same time. */
+    protected int maxInFlightBatches;
+    /** Sends the requests beyond the first one, if more than one may be in flight. */
+    protected volatile ExecutorService sendExecutor;
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -87,6 +107,14 @@ public final class HttpsTransport implements IotHubTransport
         // Codes_SRS_HTTPSTRANSPORT_11_023: [If the transport is already closed, the function shall throw an IllegalStateException.]
         // Codes_SRS_HTTPSTRANSPORT_11_021: [The function shall establish an HTTPS connection with the IoT Hub given in the configuration.]
         this.connection = new HttpsIotHubConnection(this.config);
+
+        // Codes_SRS_HTTPSTRANSPORT_21_003: [If the configuration allows more than one batch in flight, the
+        // function shall create a pool of maxInFlightBatches - 1 threads to send the batches beyond the first one.]
+        this.maxInFlightBatches = Math.max(1, this.config.getMaxInFlightBatches());
+        if (this.maxInFlightBatches > 1)
+        {
+            this.sendExecutor = Executors.newFixedThreadPool(this.maxInFlightBatches - 1);
+        }
         this.state = HttpsTransportState.OPEN;
     }
 
@@ -103,6 +131,13 @@ public final class HttpsTransport implements IotHubTransport
         // that needs to be explicitly destroyed.
         // Codes_SRS_HTTPSTRANSPORT_11_035: [The function shall mark the transport as being closed.]
         this.state = HttpsTransportState.CLOSED;
+
+        // Codes_SRS_HTTPSTRANSPORT_21_006: [The function shall shut down the pool of threads sending the batches.]
+        if (this.sendExecutor != null)
+        {
+            this.sendExecutor.shutdown();
+            this.sendExecutor = null;
+        }
     }
 
     /**
@@ -150,7 +185,9 @@ public final class HttpsTransport implements IotHubTransport
 
         // Codes_SRS_HTTPSTRANSPORT_11_004: [If no previous send request had failed while in progress, the function shall batch as many messages as possible such that the batched message body is of size at most 256 kb.]
         // Codes_SRS_HTTPSTRANSPORT_11_012: [If a previous send request had failed while in progress, the function shall resend the request.]
-        if (this.inProgressList.size() <= 0)
+        // Codes_SRS_HTTPSTRANSPORT_21_004: [The function shall batch the waiting messages into as many requests as
+        // may be in flight at the same time, including the requests that had failed.]
+        while (this.inProgressList.size() < this.maxInFlightBatches && !this.waitingList.isEmpty())
         {
             this.moveWaitingListToInProgressList();
         }
@@ -159,28 +196,98 @@ public final class HttpsTransport implements IotHubTransport
             return;
         }
 
-        HttpsMessage msg;
-        try
+        // Codes_SRS_HTTPSTRANSPORT_21_005: [The function shall send the requests at the same time, and wait for
+        // all of their responses before returning.]
+        // close() may shut down the pool at any time, so it is read once.
+        ExecutorService executor = this.sendExecutor;
+        List<InProgressRequest> requests = new ArrayList<>(this.inProgressList);
+        List<Future<IotHubStatusCode>> responses = new ArrayList<>(requests.size());
+        boolean rejected = false;
+        for (int i = 1; i < requests.size(); i++)
         {
-            // Codes_SRS_HTTPSTRANSPORT_11_013: [If no messages fit using the batch format, the function shall send a single message without the batch format.] 
-            msg = this.inProgressListToMessage();
+            final HttpsMessage msg = requests.get(i).message;
+            try
+            {
+                if (executor == null)
+                {
+                    rejected = true;
+                    break;
+                }
+                responses.add(executor.submit(new Callable<IotHubStatusCode>()
+                {
+                    @Override
+                    public IotHubStatusCode call() throws IOException
+                    {
+                        return connection.sendEvent(msg);
+                    }
+                }));
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Codes_SRS_HTTPSTRANSPORT_21_007: [If the transport is closed while the requests are sent, the function
+                // shall leave the requests it could not send in the in-progress list, wait for the responses of the
+                // requests already sent, and throw an IllegalStateException.]
+                rejected = true;
+                break;
+            }
         }
-        catch (SizeLimitExceededException e)
+
+        IOException sendException = null;
+        if (!rejected)
         {
-            // should never happen, since inProgressList is populated with
-            // either a single message to be sent in unbatched format or
-            // multiple messages that fit in a batch.
-            throw new IllegalStateException(e);
+            try
+            {
+                // Codes_SRS_HTTPSTRANSPORT_11_008: [The request shall be sent to the IoT Hub given in the configuration from the constructor.]
+                // Codes_SRS_HTTPSTRANSPORT_11_005: [The function shall configure a valid HTTPS request and send it to the IoT Hub.]
+                // Codes_SRS_HTTPSTRANSPORT_11_014: [If the send request fails while in progress, the function shall throw an IOException.]
+                // Codes_SRS_HTTPSTRANSPORT_11_017: [If an invalid URI is generated from the configuration given in the constructor, the function shall throw a URISyntaxException.]
+                IotHubStatusCode status = this.connection.sendEvent(requests.get(0).message);
+
+                // Codes_SRS_HTTPSTRANSPORT_11_006: [The function shall add a packet containing the callbacks, contexts, and response for all sent messages to the callback queue.]
+                this.moveInProgressRequestToCallbackList(requests.get(0), status);
+            }
+            catch (IOException e)
+            {
+                sendException = e;
+            }
         }
 
-        // Codes_SRS_HTTPSTRANSPORT_11_008: [The request shall be sent to the IoT Hub given in the configuration from the constructor.]
-        // Codes_SRS_HTTPSTRANSPORT_11_005: [The function shall configure a valid HTTPS request and send it to the IoT Hub.]
-        // Codes_SRS_HTTPSTRANSPORT_11_014: [If the send request fails while in progress, the function shall throw an IOException.]
-        // Codes_SRS_HTTPSTRANSPORT_11_017: [If an invalid URI is generated from the configuration given in the constructor, the function shall throw a URISyntaxException.]
-        IotHubStatusCode status = this.connection.sendEvent(msg);
+        for (int i = 1; i <= responses.size(); i++)
+        {
+            try
+            {
+                IotHubStatusCode status = responses.get(i - 1).get();
+                this.moveInProgressRequestToCallbackList(requests.get(i), status);
+            }
+            catch (ExecutionException e)
+            {
+                if (!(e.getCause() instanceof IOException))
+                {
+                    throw new IllegalStateException(e.getCause());
+                }
+                if (sendException == null)
+                {
+                    sendException = (IOException) e.getCause();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                if (sendException == null)
+                {
+                    sendException = new IOException("Interrupted while waiting for the response of a batch.", e);
+                }
+            }
+        }
 
-        // Codes_SRS_HTTPSTRANSPORT_11_006: [The function shall add a packet containing the callbacks, contexts, and response for all sent messages to the callback queue.]
-        this.moveInProgressListToCallbackList(status);
+        if (rejected)
+        {
+            throw new IllegalStateException("Cannot send messages from an HTTPS transport that is closed.");
+        }
+        if (sendException != null)
+        {
+            throw sendException;
+        }
     }
 
     /**
@@ -275,13 +382,16 @@ public final class HttpsTransport implements IotHubTransport
 
     /**
      * Moves as many messages as can be sent in one HTTPS request from the
-     * waiting list to the in-progress list. If a single message is moved to the
-     * in-progress list, this indicates that the message is to be sent in the
-     * un-batched message format.
+     * waiting list to a new request in the in-progress list. If the request
+     * contains a single message, the message is sent in the un-batched message
+     * format.
      */
     protected void moveWaitingListToInProgressList()
     {
-        HttpsBatchMessage batch = new HttpsBatchMessage();
+        // Codes_SRS_HTTPSTRANSPORT_21_002: [The function shall Base64-encode the batched message bodies if the
+        // configuration enables the Base64 batch encoding.]
+        HttpsBatchMessage batch = new HttpsBatchMessage(this.config.isBase64BatchEncoding());
+        List<IotHubOutboundPacket> packets = new ArrayList<>();
         while (!this.waitingList.isEmpty())
         {
             IotHubOutboundPacket packet = this.waitingList.peek();
@@ -298,70 +408,43 @@ public final class HttpsTransport implements IotHubTransport
             }
 
             this.waitingList.remove();
-            this.inProgressList.add(packet);
+            packets.add(packet);
         }
 
         if (!this.waitingList.isEmpty() && batch.numMessages() <= 0)
         {
             IotHubOutboundPacket packet = this.waitingList.remove();
-            this.inProgressList.add(packet);
+            packets.add(packet);
         }
-    }
 
-    /**
-     * Generates the message, possibly batched, to be sent using the messages in
-     * the in-progress list.
-     *
-     * @return the message to be sent.
-     *
-     * @throws SizeLimitExceededException if the messages in {@code inProgressList}
-     * exceed the service-bound message size limit of 255 kb.
-     * @throws NoSuchElementException if {@code inProgressList} is empty.
-     */
-    protected HttpsMessage inProgressListToMessage()
-            throws SizeLimitExceededException
-    {
-        HttpsMessage msg = null;
-        int inProgressListSize = this.inProgressList.size();
-        if (inProgressListSize < 1)
-        {
-            throw new NoSuchElementException(
-                    "Cannot convert an empty in progress list to a message.");
-        }
-        if (inProgressListSize == 1)
+        HttpsMessage msg;
+        if (packets.size() == 1)
         {
-            msg = HttpsSingleMessage.parseHttpsMessage(
-                    this.inProgressList.peek().getMessage());
+            // Codes_SRS_HTTPSTRANSPORT_11_013: [If no messages fit using the batch format, the function shall send a single message without the batch format.]
+            msg = HttpsSingleMessage.parseHttpsMessage(packets.get(0).getMessage());
         }
-        else if (this.inProgressList.size() > 1)
+        else
         {
-            HttpsBatchMessage batch = new HttpsBatchMessage();
-            for (IotHubOutboundPacket packet : this.inProgressList)
-            {
-                HttpsSingleMessage httpsMsg =
-                        HttpsSingleMessage.parseHttpsMessage(
-                                packet.getMessage());
-                batch.addMessage(httpsMsg);
-            }
-
+            // Codes_SRS_HTTPSTRANSPORT_21_001: [The function shall send the batch built while moving the messages to the
+            // in-progress list, instead of building it again.]
             msg = batch;
         }
 
-        return msg;
+        this.inProgressList.add(new InProgressRequest(packets, msg));
     }
 
     /**
-     * Moves messages from the in progress list to the callback list, updating
-     * the message packets with the status code from the response.
+     * Moves the messages of a request from the in progress list to the callback
+     * list, updating the message packets with the status code from the response.
      *
+     * @param request the request that received a response.
      * @param status the status code returned by the IoT Hub.
      */
-    protected void moveInProgressListToCallbackList(IotHubStatusCode status)
+    protected void moveInProgressRequestToCallbackList(InProgressRequest request, IotHubStatusCode status)
     {
-        while (!this.inProgressList.isEmpty())
+        this.inProgressList.remove(request);
+        for (IotHubOutboundPacket packet : request.packets)
         {
-            IotHubOutboundPacket packet = this.inProgressList.remove();
-
             IotHubEventCallback callback = packet.getCallback();
             if (callback != null)
             {
@@ -374,4 +457,17 @@ public final class HttpsTransport implements IotHubTransport
             }
         }
     }
+
+    /** The messages sent in one HTTPS request, and the message they are sent as. */
+    protected static final class InProgressRequest
+    {
+        final List<IotHubOutboundPacket> packets;
+        final HttpsMessage message;
+
+        InProgressRequest(List<IotHubOutboundPacket> packets, HttpsMessage message)
+        {
+            this.packets = packets;
+            this.message = message;
+        }
+    }
 }
@@ -3,6 +3,7 @@
 
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import org.eclipse.paho.client.mqttv3.*;
@@ -10,21 +11,42 @@ import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 abstract public class Mqtt implements MqttCallback
 {
+    // paho mqtt only supports 10 messages in flight at the same time
+    public static final int DEFAULT_MAX_IN_FLIGHT_COUNT = 10;
+    public static final int DEFAULT_MAX_RECEIVED_MESSAGES = 1000;
+
+    /** The maximum time publish waits for a PUBACK to release an in flight slot. */
+    public static final long IN_FLIGHT_WAIT_TIME_MILLISECONDS = 1000;
 
     abstract String parseTopic() throws IOException;
     abstract byte[] parsePayload(String topic) throws IOException;
 
-     /*
-     Variables which apply to all the concrete classes as well as to Mqtt and are to be instantiated only once
-     in lifetime.
+    /*
+     Variables which apply to all the concrete classes sharing one connection, so that many
+     connections can live in the same process.
      */
-    private static MqttConnectionInfo info ;
-    protected static ConcurrentSkipListMap<String, byte[]> allReceivedMessages;
-    private static Object MQTT_LOCK;
+    private MqttConnectionInfo info;
+    private Object mqttLock;
+
+    /*
+     Messages received for this concrete class, in arrival order, as (topic, payload) entries.
+     */
+    protected BlockingQueue<Map.Entry<String, byte[]>> receivedMessages;
+
+    private final CustomLogger logger = new CustomLogger(this.getClass());
 
     /*
       Inner class which holds the basic information related to Mqtt Client Async.
@@ -41,12 +63,24 @@ abstract public class Mqtt implements MqttCallback
         private static final int qos = 1;
         private static final int MAX_WAIT_TIME = 1000;
 
-        // paho mqtt only supports 10 messages in flight at the same time
-        private static final int maxInFlightCount = 10;
+        // bounds the number of published messages waiting for their PUBACK
+        private final Semaphore inFlightSemaphore;
+        private final int maxInFlightCount;
+        // slots held by publishers and by messages waiting for their PUBACK, so no slot is released twice
+        private final AtomicInteger inFlightSlotsHeld = new AtomicInteger(0);
+        private MqttDeliveryListener deliveryListener = null;
+        private MqttMessageListener messageListener = null;
 
+        // routes each arriving message, by topic prefix, to the queue of the concrete class consuming it
+        private final List<Map.Entry<String, BlockingQueue<Map.Entry<String, byte[]>>>> receiveRoutes =
+                new CopyOnWriteArrayList<Map.Entry<String, BlockingQueue<Map.Entry<String, byte[]>>>>();
+        private final int maxReceivedMessages;
 
-        MqttConnectionInfo(String serverURI, String clientId, String userName, String password) throws IOException
+        MqttConnectionInfo(String serverURI, String clientId, String userName, String password, int maxInFlightCount, int maxReceivedMessages) throws IOException
         {
+            this.maxInFlightCount = maxInFlightCount;
+            this.maxReceivedMessages = maxReceivedMessages;
+            this.inFlightSemaphore = new Semaphore(maxInFlightCount);
             try
             {
 
@@ -79,41 +113,90 @@ abstract public class Mqtt implements MqttCallback
             this.connectionOptions.setUserName(userName);
             this.connectionOptions.setPassword(userPassword.toCharArray());
         }
-    }
 
-    private void setMqttInfo(String serverURI, String clientId, String userName, String password) throws IOException
-    {
-        /*
-        **Codes_SRS_Mqtt_25_003: [**The constructor shall use the configuration to instantiate an instance of the inner class MqttConnectionInfo if not already created.**]**
-         */
-        /*
-        ** Codes_SRS_Mqtt_25_004: [**If an instance of the inner class MqttConnectionInfo is already created than it shall return doing nothing.**]**
-         */
-        if (Mqtt.info == null)
+        private boolean tryAcquireInFlightSlot(long timeoutMilliseconds) throws InterruptedException
+        {
+            if (!this.inFlightSemaphore.tryAcquire(timeoutMilliseconds, TimeUnit.MILLISECONDS))
+            {
+                return false;
+            }
+            this.inFlightSlotsHeld.incrementAndGet();
+            return true;
+        }
+
+        private void releaseInFlightSlot()
         {
-            Mqtt.info = new MqttConnectionInfo(serverURI, clientId, userName, password);
-            Mqtt.allReceivedMessages = new ConcurrentSkipListMap<String, byte[]>();
-            Mqtt.MQTT_LOCK = new Object();
+            // a PUBACK or a failure reported after the slots were reset does not hold a slot anymore.
+            int held;
+            do
+            {
+                held = this.inFlightSlotsHeld.get();
+                if (held <= 0)
+                {
+                    return;
+                }
+            } while (!this.inFlightSlotsHeld.compareAndSet(held, held - 1));
+            this.inFlightSemaphore.release();
         }
 
+        private void resetInFlightSlots()
+        {
+            this.inFlightSlotsHeld.set(0);
+            this.inFlightSemaphore.drainPermits();
+            this.inFlightSemaphore.release(this.maxInFlightCount);
+        }
     }
 
+    /*
+      Paho reports publish failures through this listener. The successful deliveries are
+      reported by deliveryComplete once the PUBACK arrives.
+     */
+    private final IMqttActionListener publishListener = new IMqttActionListener()
+    {
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken)
+        {
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception)
+        {
+            /*
+            **Codes_SRS_Mqtt_21_054: [**If the publish fails, the function shall release the in flight slot and notify the delivery listener that the message was not delivered.**]**
+             */
+            deliveryFinished(asyncActionToken.getUserContext(), false);
+        }
+    };
 
     /**
-     * Constructor to instantiate mqtt broker connection.
+     * Constructor to share the mqtt broker connection of another instance.
      *
+     * @param mqttConnection the instance which owns the mqtt broker connection.
      */
 
-    public Mqtt() throws IOException
+    public Mqtt(Mqtt mqttConnection)
     {
         /*
-        ** Codes_SRS_Mqtt_25_001: [**The constructor shall instantiate MQTT lock for using base class.**]**
-        */
-        if (Mqtt.MQTT_LOCK == null)
+        **Codes_SRS_Mqtt_21_049: [**The constructor shall throw InvalidParameter Exception if the given Mqtt instance is null.**]**
+         */
+        if (mqttConnection == null)
         {
-            Mqtt.MQTT_LOCK = new Object();
+            throw new InvalidParameterException("Mqtt connection cannot be null");
         }
 
+        /*
+        ** Codes_SRS_Mqtt_25_001: [**The constructor shall share the MqttConnectionInfo and MQTT lock of the given Mqtt instance.**]**
+        */
+        this.info = mqttConnection.info;
+        this.mqttLock = mqttConnection.mqttLock;
+
+        /*
+        **Codes_SRS_Mqtt_21_056: [**The constructor shall create a received messages queue owned by this instance, bounded by the maxReceivedMessages of the connection.**]**
+         */
+        if (this.info != null)
+        {
+            this.receivedMessages = new LinkedBlockingQueue<Map.Entry<String, byte[]>>(this.info.maxReceivedMessages);
+        }
     }
 
     /**
@@ -126,6 +209,22 @@ abstract public class Mqtt implements MqttCallback
      */
 
     public Mqtt(String serverURI, String clientId, String userName, String userPassword) throws IOException
+    {
+        this(serverURI, clientId, userName, userPassword, DEFAULT_MAX_IN_FLIGHT_COUNT, DEFAULT_MAX_RECEIVED_MESSAGES);
+    }
+
+    /**
+     * Constructor to instantiate mqtt broker connection.
+     *
+     * @param serverURI the server uri associated with this mqtt broker connection
+     * @param clientId the client Id associated with this mqtt broker connection.
+     * @param userName the user name for the mqtt broker connection.
+     * @param userPassword the user password for the mqtt broker connection.
+     * @param maxInFlightCount the maximum number of published messages waiting for their PUBACK.
+     * @param maxReceivedMessages the maximum number of received messages queued for each concrete class.
+     */
+
+    public Mqtt(String serverURI, String clientId, String userName, String userPassword, int maxInFlightCount, int maxReceivedMessages) throws IOException
     {
         /*
          ** Codes_SRS_Mqtt_25_002: [**The constructor shall throw InvalidParameter Exception if any of the parameters are null or empty .**]**
@@ -140,24 +239,32 @@ abstract public class Mqtt implements MqttCallback
             throw new InvalidParameterException();
         }
 
-        try
+        /*
+         ** Codes_SRS_Mqtt_21_050: [**The constructor shall throw InvalidParameter Exception if maxInFlightCount is not positive.**]**
+         */
+        if (maxInFlightCount <= 0)
         {
-            /*
-            **Codes_SRS_Mqtt_25_003: [**The constructor shall use the configuration to instantiate an instance of the inner class MqttConnectionInfo if not already created.**]**
-             */
-            setMqttInfo(serverURI, clientId, userName, userPassword);
+            throw new InvalidParameterException("maxInFlightCount shall be positive");
         }
-        catch (IOException e)
+
+        /*
+         ** Codes_SRS_Mqtt_21_057: [**The constructor shall throw InvalidParameter Exception if maxReceivedMessages is not positive.**]**
+         */
+        if (maxReceivedMessages <= 0)
         {
-            /*
-            **Codes_SRS_Mqtt_25_045: [**The constructor throws IOException if MqttException is thrown and doesn't instantiate this instance.**]**
-             */
-            Mqtt.info = null;
-            Mqtt.allReceivedMessages = null;
-            Mqtt.MQTT_LOCK = null;
-            throw new IOException(e.getMessage());
+            throw new InvalidParameterException("maxReceivedMessages shall be positive");
         }
 
+        /*
+        **Codes_SRS_Mqtt_25_003: [**The constructor shall use the configuration to instantiate a new instance of the inner class MqttConnectionInfo, received messages queue and MQTT lock owned by this connection.**]**
+         */
+        /*
+        **Codes_SRS_Mqtt_25_045: [**The constructor throws IOException if MqttException is thrown and doesn't instantiate this instance.**]**
+         */
+        this.info = new MqttConnectionInfo(serverURI, clientId, userName, userPassword, maxInFlightCount, maxReceivedMessages);
+        this.receivedMessages = new LinkedBlockingQueue<Map.Entry<String, byte[]>>(maxReceivedMessages);
+        this.mqttLock = new Object();
+
     }
 
     /**
@@ -168,17 +275,10 @@ abstract public class Mqtt implements MqttCallback
     public void restartBaseMqtt()
     {
         /*
-            As this is abstract class, if we ever want to restart application
-            in the current scope to create a new instance of this base class,
-            we have to unset all its static variables.
-        */
-
-        /*
-        ** Codes_SRS_Mqtt_25_046: [**restartBaseMqtt shall unset all the static variables.**]**
+        ** Codes_SRS_Mqtt_25_046: [**restartBaseMqtt shall unset the connection state of this instance only, leaving other connections untouched.**]**
          */
-        Mqtt.MQTT_LOCK = null;
-        Mqtt.allReceivedMessages = null;
-        Mqtt.info = null;
+        this.receivedMessages = null;
+        this.info = null;
 
     }
 
@@ -189,11 +289,11 @@ abstract public class Mqtt implements MqttCallback
 
     protected void connect() throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
             try
             {
-                if (Mqtt.info == null)
+                if (this.info == null)
                 {
                     /*
                     ** Codes_SRS_Mqtt_25_006: [**If the inner class MqttConnectionInfo has not been instantiated then the function shall throw IOException.**]**
@@ -204,12 +304,12 @@ abstract public class Mqtt implements MqttCallback
                 /*
                 **Codes_SRS_Mqtt_25_008: [**If the MQTT connection is already open, the function shall do nothing.**]**
                  */
-                if (!Mqtt.info.mqttAsyncClient.isConnected())
+                if (!this.info.mqttAsyncClient.isConnected())
                 {
                     /*
                     **Codes_SRS_Mqtt_25_005: [**The function shall establish an MQTT connection with an IoT Hub using the provided host name, user name, device ID, and sas token.**]**
                      */
-                    IMqttToken connectToken = Mqtt.info.mqttAsyncClient.connect(Mqtt.info.connectionOptions);
+                    IMqttToken connectToken = this.info.mqttAsyncClient.connect(this.info.connectionOptions);
                     connectToken.waitForCompletion();
                 }
             }
@@ -231,22 +331,27 @@ abstract public class Mqtt implements MqttCallback
 
     protected void disconnect() throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
             try
             {
                 /*
                 **Codes_SRS_Mqtt_25_010: [**If the MQTT connection is closed, the function shall do nothing.**]**
                  */
-                if (Mqtt.info.mqttAsyncClient.isConnected())
+                if (this.info.mqttAsyncClient.isConnected())
                 {
                     /*
                     ** Codes_SRS_Mqtt_25_009: [**The function shall close the MQTT connection.**]**
                      */
-                    IMqttToken disconnectToken = Mqtt.info.mqttAsyncClient.disconnect();
+                    IMqttToken disconnectToken = this.info.mqttAsyncClient.disconnect();
                     disconnectToken.waitForCompletion();
                 }
-                Mqtt.info.mqttAsyncClient = null;
+                this.info.mqttAsyncClient = null;
+
+                /*
+                **Codes_SRS_Mqtt_21_055: [**The function shall reset the in flight slots to exactly maxInFlightCount, releasing the publishers waiting for one so they fail instead of waiting for a PUBACK that will never arrive, and ignoring the PUBACKs and failures of the messages published before.**]**
+                 */
+                this.info.resetInFlightSlots();
             }
             catch (MqttException e)
             {
@@ -266,17 +371,52 @@ abstract public class Mqtt implements MqttCallback
      */
     protected void publish(String publishTopic, byte[] payload) throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        publish(publishTopic, payload, null);
+    }
+
+    /**
+     * Method to publish to mqtt broker connection. The function returns as soon as the message
+     * is handed to the mqtt client, the delivery listener is notified when the PUBACK arrives.
+     *
+     * @param publishTopic the topic to publish on mqtt broker connection.
+     * @param payload   the payload to publish on publishTopic of mqtt broker connection.
+     * @param context the context given back to the delivery listener, can be {@code null}.
+     * @throws IllegalStateException if no in flight slot was released within IN_FLIGHT_WAIT_TIME_MILLISECONDS.
+     */
+    protected void publish(String publishTopic, byte[] payload, Object context) throws IOException
+    {
+        MqttConnectionInfo connectionInfo = this.info;
+        boolean inFlight = false;
+        try
         {
-            try
+            if (connectionInfo == null)
             {
-                if (Mqtt.info == null)
-                {
-                    System.out.println("Mqtt client should be initialised atleast once before using it");
-                    throw new InvalidParameterException();
-                }
+                throw new InvalidParameterException("Mqtt client should be initialised atleast once before using it");
+            }
+
+            if (publishTopic == null || publishTopic.length() == 0 || payload == null)
+            {
+                /*
+                **Codes_SRS_Mqtt_25_013: [**If the either publishTopic is null or empty or if payload is null, the function shall throw an IOException.**]**
+                */
+                throw new IOException("Cannot publish on null or empty publish topic");
+            }
+
+            /*
+            **Codes_SRS_Mqtt_25_048: [**publish shall wait, without holding the MQTT lock, up to IN_FLIGHT_WAIT_TIME_MILLISECONDS for one of the maxInFlightCount in flight slots of the connection to be released by a PUBACK.**]**
+            */
+            if (!connectionInfo.tryAcquireInFlightSlot(IN_FLIGHT_WAIT_TIME_MILLISECONDS))
+            {
+                /*
+                **Codes_SRS_Mqtt_21_066: [**If no in flight slot was released in time, the function shall throw an IllegalStateException without publishing the message, so the caller sends it again later.**]**
+                */
+                throw new IllegalStateException("No in flight slot was released within " + IN_FLIGHT_WAIT_TIME_MILLISECONDS + " milliseconds");
+            }
+            inFlight = true;
 
-                if (!Mqtt.info.mqttAsyncClient.isConnected())
+            synchronized (this.mqttLock)
+            {
+                if (connectionInfo.mqttAsyncClient == null || !connectionInfo.mqttAsyncClient.isConnected())
                 {
                     /*
                     ** Codes_SRS_Mqtt_25_012: [**If the MQTT connection is closed, the function shall throw an IOException.**]**
@@ -284,52 +424,173 @@ abstract public class Mqtt implements MqttCallback
                     throw new IOException("Cannot publish when mqtt client is disconnected");
                 }
 
-                if (publishTopic == null || publishTopic.length() == 0 || payload == null)
-                {
-                    /*
-                    **Codes_SRS_Mqtt_25_013: [**If the either publishTopic is null or empty or if payload is null, the function shall throw an IOException.**]**
-                    */
-                    throw new IOException("Cannot publish on null or empty publish topic");
-                }
-
-                while (Mqtt.info.mqttAsyncClient.getPendingDeliveryTokens().length >= Mqtt.info.maxInFlightCount)
-                {
-                    /*
-                    **Codes_SRS_Mqtt_25_048: [**publish shall check for pending publish tokens by calling getPendingDeliveryTokens.
-                    * And if there are pending tokens publish shall sleep until the number of pending tokens are less than 10 as per paho limitations**]**
-                    */
-                    Thread.sleep(10);
-                }
-
                 MqttMessage mqttMessage = (payload.length == 0) ? new MqttMessage() : new MqttMessage(payload);
 
-                mqttMessage.setQos(Mqtt.info.qos);
+                mqttMessage.setQos(connectionInfo.qos);
 
                 /*
                 **Codes_SRS_Mqtt_25_014: [**The function shall publish message payload on the publishTopic specified to the IoT Hub given in the configuration.**]**
                  */
-
-                IMqttDeliveryToken publishToken = Mqtt.info.mqttAsyncClient.publish(publishTopic, mqttMessage);
-
+                connectionInfo.mqttAsyncClient.publish(publishTopic, mqttMessage, context, this.publishListener);
+                inFlight = false;
             }
-            catch (MqttException e)
+        }
+        catch (MqttException e)
+        {
+            /*
+            **Codes_SRS_Mqtt_25_047: [**If the Mqtt Client Async throws MqttException, the function shall throw an IOException with the message.**]**
+             */
+            throw new IOException("Unable to publish message on topic : " + publishTopic + " because " + e.getCause() + e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted, Unable to publish message on topic : " + publishTopic);
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IOException("Unable to publish message on topic : " + publishTopic + " " + e.getCause() + e.getMessage());
+        }
+        finally
+        {
+            if (inFlight)
             {
                 /*
-                **Codes_SRS_Mqtt_25_047: [**If the Mqtt Client Async throws MqttException, the function shall throw an IOException with the message.**]**
+                **Codes_SRS_Mqtt_21_051: [**If the message could not be handed to the mqtt client, the function shall release its in flight slot.**]**
                  */
-                throw new IOException("Unable to publish message on topic : " + publishTopic + " because " + e.getCause() + e.getMessage());
-            }
-            catch (InterruptedException e)
-            {
-                throw new IOException("Interrupted, Unable to publish message on topic : " + publishTopic);
-            }
-            catch (Exception e)
-            {
-                throw new IOException("Unable to publish message on topic : " + publishTopic + " " + e.getCause() + e.getMessage());
+                connectionInfo.releaseInFlightSlot();
             }
+        }
+    }
+
+    /**
+     * Routes the messages arriving on topics starting with the given prefix to the received
+     * messages queue of this instance.
+     *
+     * @param topicPrefix the prefix of the topics consumed by this concrete class.
+     */
+    protected void routeReceivedMessages(String topicPrefix)
+    {
+        if (this.info == null)
+        {
+            throw new InvalidParameterException("Mqtt client should be initialised atleast once before using it");
+        }
+
+        if (topicPrefix == null || topicPrefix.length() == 0)
+        {
+            throw new InvalidParameterException("topicPrefix cannot be null or empty");
+        }
+
+        /*
+        **Codes_SRS_Mqtt_21_058: [**The function shall route the messages arriving on topics with the given prefix to the received messages queue of this instance.**]**
+         */
+        this.info.receiveRoutes.add(new AbstractMap.SimpleImmutableEntry<String, BlockingQueue<Map.Entry<String, byte[]>>>(topicPrefix, this.receivedMessages));
+    }
+
+    /**
+     * Returns the queue of the messages received for this instance and not consumed yet. The queue
+     * keeps its messages after the connection is stopped.
+     *
+     * @return the received messages queue, or {@code null} if the connection was restarted.
+     */
+    protected Queue<Map.Entry<String, byte[]>> getReceivedMessages()
+    {
+        /*
+        **Codes_SRS_Mqtt_21_063: [**The function shall return the received messages queue of this instance.**]**
+         */
+        return this.receivedMessages;
+    }
+
+    /**
+     * Moves the messages received on a previous connection, and not consumed yet, to the received
+     * messages queue of this instance, ahead of the messages arriving on this connection.
+     *
+     * @param previousMessages the messages of the previous connection, in arrival order.
+     * @return the number of messages moved.
+     */
+    protected int restoreReceivedMessages(Queue<Map.Entry<String, byte[]>> previousMessages)
+    {
+        if (this.receivedMessages == null)
+        {
+            throw new InvalidParameterException("Mqtt client should be initialised atleast once before using it");
+        }
+
+        /*
+        **Codes_SRS_Mqtt_21_064: [**The function shall move the given messages, in order, to the received messages queue of this instance while it has room, leaving the other messages in the given queue.**]**
+         */
+        int restored = 0;
+        Map.Entry<String, byte[]> message;
+        while (previousMessages != null && (message = previousMessages.peek()) != null && this.receivedMessages.offer(message))
+        {
+            previousMessages.poll();
+            restored++;
+        }
+        return restored;
+    }
+
+    /**
+     * Sets the listener notified when the messages published on this connection are acknowledged.
+     *
+     * @param deliveryListener the listener, shared by all the concrete classes of this connection.
+     */
+    protected void setDeliveryListener(MqttDeliveryListener deliveryListener) throws IOException
+    {
+        if (this.info == null)
+        {
+            throw new IOException("Mqtt client should be initialised atleast once before using it");
+        }
+
+        /*
+        **Codes_SRS_Mqtt_21_052: [**The function shall save the delivery listener for all the concrete classes of this connection.**]**
+         */
+        this.info.deliveryListener = deliveryListener;
+    }
 
+    /**
+     * Sets the listener notified when a received message is queued on this connection.
+     *
+     * @param messageListener the listener, shared by all the concrete classes of this connection.
+     */
+    protected void setMessageListener(MqttMessageListener messageListener) throws IOException
+    {
+        if (this.info == null)
+        {
+            throw new IOException("Mqtt client should be initialised atleast once before using it");
         }
 
+        /*
+        **Codes_SRS_Mqtt_21_061: [**The function shall save the message listener for all the concrete classes of this connection.**]**
+         */
+        this.info.messageListener = messageListener;
+    }
+
+    /**
+     * Notifies the delivery listener of this connection, if any, that an operation completed.
+     *
+     * @param context the context given when the operation started, ignored if {@code null}.
+     * @param delivered {@code true} if the operation succeeded, {@code false} otherwise.
+     */
+    protected void notifyDeliveryListener(Object context, boolean delivered)
+    {
+        MqttConnectionInfo connectionInfo = this.info;
+        if (connectionInfo != null && connectionInfo.deliveryListener != null && context != null)
+        {
+            connectionInfo.deliveryListener.messageSent(context, delivered);
+        }
+    }
+
+    private void deliveryFinished(Object context, boolean delivered)
+    {
+        MqttConnectionInfo connectionInfo = this.info;
+        if (connectionInfo != null)
+        {
+            connectionInfo.releaseInFlightSlot();
+        }
+        notifyDeliveryListener(context, delivered);
     }
 
     /**
@@ -339,11 +600,11 @@ abstract public class Mqtt implements MqttCallback
      */
     protected void subscribe(String topic) throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
             try
             {
-                if (Mqtt.info == null)
+                if (this.info == null)
                 {
                     throw new IOException("Mqtt client should be initialised atleast once before using it");
                 }
@@ -355,7 +616,7 @@ abstract public class Mqtt implements MqttCallback
                     throw new InvalidParameterException("Topic cannot be null");
 
                 }
-                else if (!Mqtt.info.mqttAsyncClient.isConnected())
+                else if (!this.info.mqttAsyncClient.isConnected())
                 {
                     /*
                     **Codes_SRS_Mqtt_25_015: [**If the MQTT connection is closed, the function shall throw an IOexception with message.**]**
@@ -365,8 +626,8 @@ abstract public class Mqtt implements MqttCallback
                 /*
                 **Codes_SRS_Mqtt_25_017: [**The function shall subscribe to subscribeTopic specified to the IoT Hub given in the configuration.**]**
                  */
-                IMqttToken subToken = Mqtt.info.mqttAsyncClient.subscribe(topic, Mqtt.info.qos);
-                subToken.waitForCompletion(Mqtt.info.MAX_WAIT_TIME);
+                IMqttToken subToken = this.info.mqttAsyncClient.subscribe(topic, this.info.qos);
+                subToken.waitForCompletion(this.info.MAX_WAIT_TIME);
             }
             catch (MqttException e)
             {
@@ -388,11 +649,11 @@ abstract public class Mqtt implements MqttCallback
 
     protected void unsubscribe(String topic) throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
             try
             {
-                if (!Mqtt.info.mqttAsyncClient.isConnected())
+                if (!this.info.mqttAsyncClient.isConnected())
                 {
                     /*
                     **Codes_SRS_Mqtt_25_018: [**If the MQTT connection is closed, the function shall throw an IOException with message.**]**
@@ -403,7 +664,7 @@ abstract public class Mqtt implements MqttCallback
                 /*
                 **Codes_SRS_Mqtt_25_020: [**The function shall unsubscribe from subscribeTopic specified to the IoT Hub given in the configuration.**]**
                  */
-                IMqttToken subToken = Mqtt.info.mqttAsyncClient.unsubscribe(topic);
+                IMqttToken subToken = this.info.mqttAsyncClient.unsubscribe(topic);
                 subToken.waitForCompletion();
 
             }
@@ -420,11 +681,11 @@ abstract public class Mqtt implements MqttCallback
 
     protected boolean isConnected() throws IOException
     {
-        if (Mqtt.info == null || Mqtt.info.mqttAsyncClient == null)
+        if (this.info == null || this.info.mqttAsyncClient == null)
         {
             throw new InvalidParameterException("Mqtt client should be initialised atleast once before using it");
         }
-        return Mqtt.info.mqttAsyncClient.isConnected();
+        return this.info.mqttAsyncClient.isConnected();
 
     }
 
@@ -433,9 +694,9 @@ abstract public class Mqtt implements MqttCallback
      */
     public Message receive() throws IOException
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
-            if (Mqtt.info == null)
+            if (this.info == null)
             {
                 throw new InvalidParameterException("Mqtt client should be initialised atleast once before using it");
             }
@@ -485,13 +746,13 @@ abstract public class Mqtt implements MqttCallback
     @Override
     public void connectionLost(Throwable throwable)
     {
-        synchronized (Mqtt.MQTT_LOCK)
+        synchronized (this.mqttLock)
         {
 
-            if (Mqtt.info != null && Mqtt.info.mqttAsyncClient != null)
+            if (this.info != null && this.info.mqttAsyncClient != null)
             {
                 int currentReconnectionAttempt = 0;
-                while (!Mqtt.info.mqttAsyncClient.isConnected())
+                while (!this.info.mqttAsyncClient.isConnected())
                 {
                     System.out.println("Lost connection to the server. Reconnecting " + currentReconnectionAttempt + " time.");
                     try
@@ -535,21 +796,60 @@ abstract public class Mqtt implements MqttCallback
     @Override
     public void messageArrived(String topic, MqttMessage mqttMessage)
     {
+        MqttConnectionInfo connectionInfo = this.info;
+        if (connectionInfo == null || topic == null)
+        {
+            return;
+        }
+
         /*
-        **Codes_SRS_Mqtt_25_030: [**The payload of the message and the topic is added to the received messages queue .**]**
+        **Codes_SRS_Mqtt_25_030: [**The payload of the message and the topic is added to the received messages queue of the concrete class whose topic prefix matches the topic.**]**
+         */
+        for (Map.Entry<String, BlockingQueue<Map.Entry<String, byte[]>>> route : connectionInfo.receiveRoutes)
+        {
+            if (topic.startsWith(route.getKey()))
+            {
+                /*
+                **Codes_SRS_Mqtt_21_059: [**The function shall not wait for room in the received messages queue, so the callback thread of the mqtt client, which also delivers the PUBACKs, is never blocked.**]**
+                 */
+                boolean queued = route.getValue().offer(new AbstractMap.SimpleImmutableEntry<String, byte[]>(topic, mqttMessage.getPayload()));
+
+                if (!queued)
+                {
+                    /*
+                    **Codes_SRS_Mqtt_21_065: [**If the received messages queue is full, the function shall drop the message and log an error.**]**
+                     */
+                    logger.LogError("Dropped a message received on topic %s because its queue of %s messages is full, method name is %s ",
+                            topic, connectionInfo.maxReceivedMessages, CustomLogger.METHOD_NAME);
+                }
+                else if (connectionInfo.messageListener != null)
+                {
+                    /*
+                    **Codes_SRS_Mqtt_21_062: [**If the message was queued, the function shall notify the message listener.**]**
+                     */
+                    connectionInfo.messageListener.messageReceived();
+                }
+                return;
+            }
+        }
+
+        /*
+        **Codes_SRS_Mqtt_21_060: [**If no concrete class consumes the topic, the function shall drop the message.**]**
          */
-        Mqtt.allReceivedMessages.put(topic, mqttMessage.getPayload());
     }
 
     /**
-     * Event fired when the message arrived on the MQTT broker.
+     * Event fired when the PUBACK for a published message arrived from the MQTT broker.
      * @param iMqttDeliveryToken the MqttDeliveryToken for which the message was successfully sent.
      */
 
     @Override
     public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken)
     {
-
+        /*
+        **Codes_SRS_Mqtt_21_053: [**The function shall release the in flight slot of the message and notify the delivery listener that the message was delivered.**]**
+         */
+        deliveryFinished(iMqttDeliveryToken.getUserContext(), true);
     }
 
 }
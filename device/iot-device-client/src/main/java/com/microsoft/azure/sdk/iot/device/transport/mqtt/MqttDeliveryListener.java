@@ -0,0 +1,18 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+/**
+ * Defines the method triggered when the IoT Hub acknowledges a message published over MQTT.
+ */
+public interface MqttDeliveryListener
+{
+    /**
+     * Method executed when a published message was acknowledged by the IoT Hub (PUBACK),
+     * or when the MQTT client failed to deliver it.
+     * @param context The context given when the message was published.
+     * @param delivered {@code true} if the message was acknowledged, {@code false} otherwise.
+     */
+    void messageSent(Object context, boolean delivered);
+}
@@ -21,8 +21,8 @@ public class MqttDeviceMethods extends Mqtt{
         return null;
     }
 
-    public MqttDeviceMethods() throws IOException
+    public MqttDeviceMethods(Mqtt mqttConnection) throws IOException
     {
-        super();
+        super(mqttConnection);
     }
 }
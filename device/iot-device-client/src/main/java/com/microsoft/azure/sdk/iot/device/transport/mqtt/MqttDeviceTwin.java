@@ -47,17 +47,21 @@ public class MqttDeviceTwin extends Mqtt
     private final int DESIRED_TOKEN = 4;
     private final int PATCH_VERSION_TOKEN = 5;
 
-    public MqttDeviceTwin() throws IOException
+    public MqttDeviceTwin(Mqtt mqttConnection) throws IOException
     {
         /*
-        **Codes_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class without any parameters.**]**
+        **Codes_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class sharing the connection of the given Mqtt instance.**]**
          */
-        super();
+        super(mqttConnection);
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_002: [**The constructor shall construct device twin response subscribeTopic.**]**
          */
         this.subscribeTopic = RES + BACKSLASH + POUND;
 
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_21_055: [**The constructor shall route the messages received on the twin topic prefix ($iothub/twin/) to its received messages queue.**]**
+         */
+        this.routeReceivedMessages(TWIN + BACKSLASH);
     }
 
     public void start() throws IOException
@@ -85,9 +89,7 @@ public class MqttDeviceTwin extends Mqtt
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_003: [**parseTopic concrete method shall be implemeted by MqttDeviceTwin concrete class.**]**
          */
-        String topic = null;
-
-        if (allReceivedMessages == null)
+        if (receivedMessages == null)
         {
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_007: [**If receiveMessage queue is null then parseTopic shall throw IOException.**]**
@@ -95,31 +97,14 @@ public class MqttDeviceTwin extends Mqtt
             throw new IOException("Queue cannot be null");
         }
 
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_25_004: [**parseTopic shall return the topic of the oldest message in the received messages queue, which only holds messages on the twin topic($iothub/twin) prefix as per spec.**]**
+         */
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_006: [**If received messages queue is empty then parseTopic shall return null string.**]**
          */
-        if (!allReceivedMessages.isEmpty())
-        {
-
-            for (Map.Entry<String, byte[]> data : allReceivedMessages.entrySet())
-            {
-                String topicFound = data.getKey();
-
-               /*
-               **Codes_SRS_MQTTDEVICETWIN_25_004: [**parseTopic shall look for the twin topic($iothub/twin) prefix from received message queue as per spec.**]**
-                */
-               /*
-                **Codes_SRS_MQTTDEVICETWIN_25_005: [**If none of the topics from the received queue match the twin topic prefix then this method shall return null string .**]**
-                */
-                if (topicFound != null && topicFound.length() > TWIN.length() && topicFound.startsWith(TWIN))
-                {
-                    topic = topicFound;
-                    break;
-                }
-            }
-        }
-        return topic;
-
+        Map.Entry<String, byte[]> oldestMessage = receivedMessages.peek();
+        return (oldestMessage == null) ? null : oldestMessage.getKey();
     }
 
     @Override
@@ -139,7 +124,7 @@ public class MqttDeviceTwin extends Mqtt
              */
             return null;
         }
-        if (allReceivedMessages == null)
+        if (receivedMessages == null)
         {
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_012: [**If receiveMessage queue is null then this method shall throw IOException.**]**
@@ -147,10 +132,14 @@ public class MqttDeviceTwin extends Mqtt
             throw new IOException("Invalid State - topic is not null and could not be found in queue");
         }
 
-        if (!allReceivedMessages.containsKey(topic))
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_21_056: [**parsePayload shall take the oldest message out of the received messages queue with a single poll, and throw IOException if the queue was emptied in the meantime.**]**
+         */
+        Map.Entry<String, byte[]> oldestMessage = receivedMessages.poll();
+        if (oldestMessage == null || !topic.equals(oldestMessage.getKey()))
         {
             /*
-            **Codes_SRS_MQTTDEVICETWIN_25_011: [**If the topic is non-null and received messagesqueue could not locate the payload then this method shall throw IOException**]**
+            **Codes_SRS_MQTTDEVICETWIN_25_011: [**If the topic is non-null and is not the topic of the oldest message in the received messages queue then this method shall throw IOException**]**
              */
             throw new IOException("Topic should be present in received queue at this point");
         }
@@ -158,15 +147,10 @@ public class MqttDeviceTwin extends Mqtt
         /*
         **Codes_SRS_MQTTDEVICETWIN_25_009: [**This parsePayload method look for payload for the corresponding topic from the received messagesqueue.**]**
          */
-        if (!allReceivedMessages.isEmpty())
-        {
-            /*
-            **Codes_SRS_MQTTDEVICETWIN_25_013: [**If the topic is found in the message queue then parsePayload shall delete it from the queue.**]**
-             */
-            return allReceivedMessages.remove(topic);
-        }
-
-        return null;
+        /*
+        **Codes_SRS_MQTTDEVICETWIN_25_013: [**If the topic is found in the message queue then parsePayload shall delete it from the queue.**]**
+         */
+        return oldestMessage.getValue();
     }
 
     private String buildTopic(final DeviceTwinMessage message) throws IOException
@@ -271,6 +255,11 @@ public class MqttDeviceTwin extends Mqtt
     }
 
     public void send(final DeviceTwinMessage message) throws IOException
+    {
+        send(message, null);
+    }
+
+    public void send(final DeviceTwinMessage message, Object context) throws IOException
     {
         if (message == null || message.getBytes() == null)
         {
@@ -312,13 +301,18 @@ public class MqttDeviceTwin extends Mqtt
             **Codes_SRS_MQTTDEVICETWIN_25_032: [**send method shall subscribe to desired properties by calling method subscribe() on topic "$iothub/twin/PATCH/properties/desired/#" specified in spec if the operation is DEVICE_TWIN_OPERATION_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST.**]**
              */
             this.subscribe(subscribeTopic.toString());
+
+            /*
+            **Codes_SRS_MQTTDEVICETWIN_21_054: [**send method shall notify the delivery listener that the message was delivered once the subscription completed, as no PUBACK is expected for it.**]**
+             */
+            this.notifyDeliveryListener(context, true);
         }
         else
         {
             /*
             **Codes_SRS_MQTTDEVICETWIN_25_031: [**send method shall publish a message to the IOT Hub on the respective publish topic by calling method publish().**]**
              */
-            this.publish(publishTopic, message.getBytes());
+            this.publish(publishTopic, message.getBytes(), context);
         }
     }
 
@@ -8,12 +8,16 @@ import com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceTwinMessage;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
 import com.microsoft.azure.sdk.iot.device.MessageType;
-import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
 
 
 public class MqttIotHubConnection
@@ -22,6 +26,8 @@ public class MqttIotHubConnection
     protected final Object MQTT_CONNECTION_LOCK = new Object();
 
     protected final DeviceClientConfig config;
+    /** Provides the SAS token of each connection, reusing it until it should be renewed. */
+    protected final IotHubSasTokenProvider sasTokenProvider;
     protected State state = State.CLOSED;
 
     private String iotHubUserName;
@@ -37,6 +43,16 @@ public class MqttIotHubConnection
     private MqttDeviceTwin deviceTwin;
     private MqttDeviceMethods deviceMethods;
 
+    /** Listener notified when the IoT Hub acknowledges a sent message. */
+    private final MqttDeliveryListener deliveryListener;
+
+    /** Listener notified when a message received from the IoT Hub is ready to be consumed. */
+    private final MqttMessageListener messageListener;
+
+    /** Received messages not consumed when the connection was closed, handed to the clients of the next open(). */
+    private final Queue<Map.Entry<String, byte[]>> pendingTwinMessages = new LinkedList<Map.Entry<String, byte[]>>();
+    private final Queue<Map.Entry<String, byte[]>> pendingMessagingMessages = new LinkedList<Map.Entry<String, byte[]>>();
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -44,6 +60,36 @@ public class MqttIotHubConnection
      * @param config the client configuration.
      */
     public MqttIotHubConnection(DeviceClientConfig config) throws IllegalArgumentException
+    {
+        this(config, null);
+    }
+
+    /**
+     * Constructs an instance from the given {@link DeviceClientConfig}
+     * object, reporting the acknowledged messages to the given listener.
+     *
+     * @param config the client configuration.
+     * @param deliveryListener the listener notified when a message sent with a
+     * context is acknowledged by the IoT Hub, can be {@code null}.
+     */
+    public MqttIotHubConnection(DeviceClientConfig config, MqttDeliveryListener deliveryListener) throws IllegalArgumentException
+    {
+        this(config, deliveryListener, null);
+    }
+
+    /**
+     * Constructs an instance from the given {@link DeviceClientConfig}
+     * object, reporting the acknowledged and the received messages to the
+     * given listeners.
+     *
+     * @param config the client configuration.
+     * @param deliveryListener the listener notified when a message sent with a
+     * context is acknowledged by the IoT Hub, can be {@code null}.
+     * @param messageListener the listener notified when a received message is
+     * ready to be consumed by {@link #receiveMessage()}, can be {@code null}.
+     */
+    public MqttIotHubConnection(DeviceClientConfig config, MqttDeliveryListener deliveryListener,
+                                MqttMessageListener messageListener) throws IllegalArgumentException
     {
         synchronized (MQTT_CONNECTION_LOCK)
         {
@@ -74,6 +120,13 @@ public class MqttIotHubConnection
 
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_001: [The constructor shall save the configuration.]
             this.config = config;
+            // Codes_SRS_MQTTIOTHUBCONNECTION_21_030: [The constructor shall create a SAS token provider for the
+            // configuration, shared by all the connections opened by this instance.]
+            this.sasTokenProvider = new IotHubSasTokenProvider(config);
+            // Codes_SRS_MQTTIOTHUBCONNECTION_21_018: [The constructor shall save the delivery listener.]
+            this.deliveryListener = deliveryListener;
+            // Codes_SRS_MQTTIOTHUBCONNECTION_21_022: [The constructor shall save the message listener.]
+            this.messageListener = messageListener;
             this.deviceMessaging = null;
             this.deviceMethods = null;
             this.deviceTwin = null;
@@ -101,25 +154,56 @@ public class MqttIotHubConnection
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_004: [The function shall establish an MQTT connection
             // with an IoT Hub using the provided host name, user name, device ID, and sas token.]
             try {
-                IotHubSasToken sasToken = new IotHubSasToken(this.config, System.currentTimeMillis() / 1000l +
-                        this.config.getTokenValidSecs() + 1l);
-                this.iotHubUserPassword = sasToken.toString();
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_031: [The function shall use the SAS token of the SAS token
+                // provider as the password, so a reconnection reuses the token until it should be renewed.]
+                this.iotHubUserPassword = this.sasTokenProvider.getSasToken();
 
                 String clientIdentifier = "DeviceClientType=" + URLEncoder.encode(TransportUtils.javaDeviceClientIdentifier + TransportUtils.clientVersion, "UTF-8");
                 this.iotHubUserName = this.config.getIotHubHostname() + "/" + this.config.getDeviceId() + "/" + TWIN_API_VERSION + "/" + clientIdentifier;
 
 
                 this.deviceMessaging = new MqttMessaging(sslPrefix + this.config.getIotHubHostname() + sslPortSuffix,
-                        this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword);
-                this.deviceMethods = new MqttDeviceMethods();
-                this.deviceTwin = new MqttDeviceTwin();
+                        this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword,
+                        this.config.getMaxInFlightMessages(), this.config.getMaxReceivedMessages());
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_019: [The function shall bound the messages waiting for their
+                // acknowledgement by the max in flight messages of the configuration, and report the acknowledgements
+                // to the delivery listener.]
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_021: [The function shall bound the received messages queued
+                // for each messaging client by the max received messages of the configuration.]
+                this.deviceMessaging.setDeliveryListener(this.deliveryListener);
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_023: [The function shall notify the message listener every time
+                // a received message is ready to be consumed.]
+                this.deviceMessaging.setMessageListener(this.messageListener);
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_017: [The function shall create the device methods and device twin
+                // clients on the same MQTT connection as the device messaging client, so each connection owns its own state.]
+                this.deviceMethods = new MqttDeviceMethods(this.deviceMessaging);
+                this.deviceTwin = new MqttDeviceTwin(this.deviceMessaging);
+
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_026: [The function shall queue the received messages kept by
+                // the previous close() ahead of the messages arriving on the new connection, and notify the message
+                // listener once for each of them after the connection is open.]
+                int restoredMessages = this.deviceTwin.restoreReceivedMessages(this.pendingTwinMessages)
+                        + this.deviceMessaging.restoreReceivedMessages(this.pendingMessagingMessages);
 
                 this.deviceMessaging.start();
                 this.state = State.OPEN;
+
+                for (int i = 0; this.messageListener != null && i < restoredMessages; i++)
+                {
+                    this.messageListener.messageReceived();
+                }
             }
             catch (Exception e)
             {
                 this.state = State.CLOSED;
+                if (this.deviceTwin != null)
+                {
+                    moveAll(this.deviceTwin.getReceivedMessages(), this.pendingTwinMessages);
+                }
+                if (this.deviceMessaging != null)
+                {
+                    moveAll(this.deviceMessaging.getReceivedMessages(), this.pendingMessagingMessages);
+                }
                 // Codes_SRS_MQTTIOTHUBCONNECTION_15_005: [If an MQTT connection is unable to be established
                 // for any reason, the function shall throw an IOException.]
                 if (this.deviceTwin != null )
@@ -153,6 +237,9 @@ public class MqttIotHubConnection
 
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_006: [**The function shall close the MQTT connection.]
 
+            // the clients release their queues when stopped, so hold them until the last messages arrived.
+            Queue<Map.Entry<String, byte[]>> twinMessages = this.deviceTwin.getReceivedMessages();
+            Queue<Map.Entry<String, byte[]>> messagingMessages = this.deviceMessaging.getReceivedMessages();
             try
             {
                 this.deviceMethods = null;
@@ -170,6 +257,20 @@ public class MqttIotHubConnection
                 this.state = State.CLOSED;
             }
 
+            // Codes_SRS_MQTTIOTHUBCONNECTION_21_025: [The function shall keep the received messages not consumed yet,
+            // so the next open() hands them to the new messaging clients.]
+            moveAll(twinMessages, this.pendingTwinMessages);
+            moveAll(messagingMessages, this.pendingMessagingMessages);
+
+        }
+    }
+
+    private static void moveAll(Queue<Map.Entry<String, byte[]>> from, Queue<Map.Entry<String, byte[]>> to)
+    {
+        Map.Entry<String, byte[]> message;
+        while (from != null && (message = from.poll()) != null)
+        {
+            to.add(message);
         }
     }
 
@@ -184,50 +285,94 @@ public class MqttIotHubConnection
      */
     public IotHubStatusCode sendEvent(Message message) throws IllegalStateException
     {
-        synchronized (MQTT_CONNECTION_LOCK)
+        return sendEvent(message, null);
+    }
+
+    /**
+     * Sends an event message without waiting for its acknowledgement. If the
+     * message was published, the delivery listener is notified with the given
+     * context when the IoT Hub acknowledges it.
+     *
+     * @param message the event message.
+     * @param context the context given back to the delivery listener, can be {@code null}.
+     *
+     * @return the status code from publishing the event message.
+     *
+     * @throws IllegalStateException if the MqttIotHubConnection is not open, or if the
+     * in flight window stayed full, so the message shall be sent again later
+     */
+    public IotHubStatusCode sendEvent(Message message, Object context) throws IllegalStateException
+    {
+        // Codes_SRS_MQTTIOTHUBCONNECTION_15_010: [If the message is null or empty,
+        // the function shall return status code BAD_FORMAT.]
+        // Codes_SRS_MQTTIOTHUBCONNECTION_21_024: [The function shall check the message body without copying it.]
+        ByteBuffer messageBody = (message != null) ? message.getByteBuffer() : null;
+        if (messageBody == null || (message.getMessageType() != MessageType.DeviceTwin && !messageBody.hasRemaining()))
         {
-            // Codes_SRS_MQTTIOTHUBCONNECTION_15_010: [If the message is null or empty,
-            // the function shall return status code BAD_FORMAT.]
-            if (message == null || message.getBytes() == null || (message.getMessageType() != MessageType.DeviceTwin && message.getBytes().length == 0))
-            {
-                return IotHubStatusCode.BAD_FORMAT;
-            }
+            return IotHubStatusCode.BAD_FORMAT;
+        }
 
+        MqttMessaging messaging;
+        MqttDeviceTwin twin;
+        synchronized (MQTT_CONNECTION_LOCK)
+        {
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_013: [If the MQTT connection is closed,
             // the function shall throw an IllegalStateException.]
             if (this.state == State.CLOSED)
             {
                 throw new IllegalStateException("Cannot send event using a closed MQTT connection");
             }
+            messaging = this.deviceMessaging;
+            twin = this.deviceTwin;
+        }
 
-            // Codes_SRS_MQTTIOTHUBCONNECTION_15_008: [The function shall send an event message
-            // to the IoT Hub given in the configuration.]
-            // Codes_SRS_MQTTIOTHUBCONNECTION_15_011: [If the message was successfully received by the service,
-            // the function shall return status code OK_EMPTY.]
-            IotHubStatusCode result = IotHubStatusCode.OK_EMPTY;
+        // Codes_SRS_MQTTIOTHUBCONNECTION_15_008: [The function shall send an event message
+        // to the IoT Hub given in the configuration.]
+        // Codes_SRS_MQTTIOTHUBCONNECTION_15_011: [If the message was successfully received by the service,
+        // the function shall return status code OK_EMPTY.]
+        IotHubStatusCode result = IotHubStatusCode.OK_EMPTY;
 
-            try
+        // Codes_SRS_MQTTIOTHUBCONNECTION_21_027: [The function shall publish the message without holding the
+        // connection lock, so close() does not wait for a publisher blocked on an in flight slot.]
+        try
+        {
+            // Codes_SRS_MQTTIOTHUBCONNECTION_15_009: [The function shall send the message payload.]
+            if (message.getMessageType() == MessageType.DeviceTwin)
             {
-                // Codes_SRS_MQTTIOTHUBCONNECTION_15_009: [The function shall send the message payload.]
-                if (message.getMessageType() == MessageType.DeviceTwin)
-                {
-                    this.deviceTwin.start();
-                    this.deviceTwin.send((DeviceTwinMessage) message);
-                }
-                else
+                twin.start();
+                twin.send((DeviceTwinMessage) message, context);
+            }
+            else
+            {
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_020: [The function shall pass the context to the messaging
+                // client, so the delivery listener is notified with it when the message is acknowledged.]
+                messaging.send(message, context);
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            // Codes_SRS_MQTTIOTHUBCONNECTION_21_029: [If no in flight slot was released in time, the function shall
+            // throw the IllegalStateException, so the message is sent again once a PUBACK frees a slot.]
+            throw e;
+        }
+        catch (Exception e)
+        {
+            synchronized (MQTT_CONNECTION_LOCK)
+            {
+                // Codes_SRS_MQTTIOTHUBCONNECTION_21_028: [If the MQTT connection was closed while the message was
+                // published, the function shall throw an IllegalStateException, so the message is sent again.]
+                if (this.deviceMessaging != messaging)
                 {
-                    this.deviceMessaging.send(message);
+                    throw new IllegalStateException("The MQTT connection was closed while sending the event");
                 }
             }
+
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_012: [If the message was not successfully
             // received by the service, the function shall return status code ERROR.]
-            catch (Exception e)
-            {
-                result = IotHubStatusCode.ERROR;
-            }
-
-            return result;
+            result = IotHubStatusCode.ERROR;
         }
+
+        return result;
     }
 
     /**
@@ -0,0 +1,16 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+/**
+ * Defines the method triggered when a message received over MQTT is queued to be consumed.
+ */
+public interface MqttMessageListener
+{
+    /**
+     * Method executed every time a received message is added to the received
+     * messages queue of one of the MQTT clients.
+     */
+    void messageReceived();
+}
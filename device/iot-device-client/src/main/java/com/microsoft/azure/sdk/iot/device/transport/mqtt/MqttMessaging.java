@@ -8,7 +8,6 @@ import com.microsoft.azure.sdk.iot.device.MessageProperty;
 
 import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
 
 public class MqttMessaging extends Mqtt
 {
@@ -22,9 +21,7 @@ public class MqttMessaging extends Mqtt
         /*
         **Codes_SRS_MqttMessaging_25_004: [**parseTopic concrete method shall be implemeted by MqttMessaging concrete class.**]**
          */
-        String topic = null;
-
-        if (allReceivedMessages == null)
+        if (receivedMessages == null)
         {
             /*
             **Codes_SRS_MqttMessaging_25_008: [**If receiveMessage queue is null then parseTopic shall throw IOException.**]**
@@ -32,30 +29,14 @@ public class MqttMessaging extends Mqtt
             throw new IOException("Queue cannot be null");
         }
 
-        if(!allReceivedMessages.isEmpty())
-        {
-
-           for ( Map.Entry<String, byte[]> data : allReceivedMessages.entrySet())
-           {
-               String topicFound = data.getKey();
-
-               /*
-               **Codes_SRS_MqttMessaging_25_005: [**parseTopic shall look for the subscribe topic prefix from received message queue.**]**
-                */
-               /*
-               **Codes_SRS_MqttMessaging_25_006: [**If none of the topics from the received queue match the subscribe topic prefix then this method shall return null string .**]**
-                */
-               /*
-               **Codes_SRS_MqttMessaging_25_007: [**If received messages queue is empty then parseTopic shall return null string.**]**
-                */
-               if (topicFound != null && topicFound.length() > parseTopic.length() && topicFound.startsWith(parseTopic))
-               {
-                   topic = topicFound;
-                   break;
-               }
-           }
-        }
-        return topic;
+        /*
+        **Codes_SRS_MqttMessaging_25_005: [**parseTopic shall return the topic of the oldest message in the received messages queue, which only holds messages on the subscribe topic prefix.**]**
+         */
+        /*
+        **Codes_SRS_MqttMessaging_25_007: [**If received messages queue is empty then parseTopic shall return null string.**]**
+         */
+        Map.Entry<String, byte[]> oldestMessage = receivedMessages.peek();
+        return (oldestMessage == null) ? null : oldestMessage.getKey();
     }
 
     @Override
@@ -75,7 +56,7 @@ public class MqttMessaging extends Mqtt
              */
             return null;
         }
-        if (allReceivedMessages == null)
+        if (receivedMessages == null)
         {
             /*
             **Codes_SRS_MqttMessaging_25_013: [**If receiveMessage queue is null then this method shall throw IOException.**]**
@@ -83,10 +64,14 @@ public class MqttMessaging extends Mqtt
             throw new IOException("Invalid State - topic is not null and could not be found in queue");
         }
 
-        if (!allReceivedMessages.containsKey(topic))
+        /*
+        **Codes_SRS_MqttMessaging_21_030: [**parsePayload shall take the oldest message out of the received messages queue with a single poll, and throw IOException if the queue was emptied in the meantime.**]**
+         */
+        Map.Entry<String, byte[]> oldestMessage = receivedMessages.poll();
+        if (oldestMessage == null || !topic.equals(oldestMessage.getKey()))
         {
             /*
-            **Codes_SRS_MqttMessaging_25_012: [**If the topic is non-null and received messagesqueue could not locate the payload then this method shall throw IOException**]**
+            **Codes_SRS_MqttMessaging_25_012: [**If the topic is non-null and is not the topic of the oldest message in the received messages queue then this method shall throw IOException**]**
              */
             throw new IOException("Topic is should be present in received queue at this point");
         }
@@ -94,19 +79,18 @@ public class MqttMessaging extends Mqtt
         /*
         **Codes_SRS_MqttMessaging_25_010: [**This parsePayload method look for payload for the corresponding topic from the received messagesqueue.**]**
          */
-        if(!allReceivedMessages.isEmpty())
-        {
-            /*
-            **Codes_SRS_MqttMessaging_25_014: [**If the topic is found in the message queue then parsePayload shall delete it from the queue.**]**
-             */
-            return allReceivedMessages.remove(topic);
-        }
-
-        return null;
-
+        /*
+        **Codes_SRS_MqttMessaging_25_014: [**If the topic is found in the message queue then parsePayload shall delete it from the queue.**]**
+         */
+        return oldestMessage.getValue();
     }
 
     public MqttMessaging(String serverURI, String deviceId, String userName, String password) throws IOException
+    {
+        this(serverURI, deviceId, userName, password, DEFAULT_MAX_IN_FLIGHT_COUNT, DEFAULT_MAX_RECEIVED_MESSAGES);
+    }
+
+    public MqttMessaging(String serverURI, String deviceId, String userName, String password, int maxInFlightCount, int maxReceivedMessages) throws IOException
     {
         /*
         **Codes_SRS_MqttMessaging_25_001: [**The constructor shall throw InvalidParameter Exception if any of the parameters are null or empty .**]**
@@ -114,7 +98,7 @@ public class MqttMessaging extends Mqtt
         /*
         **Codes_SRS_MqttMessaging_25_002: [**The constructor shall use the configuration to instantiate super class and passing the parameters.**]**
          */
-        super(serverURI, deviceId, userName, password);
+        super(serverURI, deviceId, userName, password, maxInFlightCount, maxReceivedMessages);
         /*
         **Codes_SRS_MqttMessaging_25_003: [**The constructor construct publishTopic and subscribeTopic from deviceId.**]**
          */
@@ -122,6 +106,11 @@ public class MqttMessaging extends Mqtt
         this.subscribeTopic = "devices/" + deviceId + "/messages/devicebound/#";
         this.parseTopic = "devices/" + deviceId + "/messages/devicebound/";
 
+        /*
+        **Codes_SRS_MqttMessaging_21_028: [**The constructor shall route the messages received on the devicebound topic prefix to its received messages queue.**]**
+         */
+        this.routeReceivedMessages(this.parseTopic);
+
     }
 
     public void start() throws IOException
@@ -149,8 +138,8 @@ public class MqttMessaging extends Mqtt
        finally
        {
             /*
-            As MQTT connection is controlled by this class, it is important to restart
-            base class on exit from this class.
+            As MQTT connection is owned by this class, release its state on exit
+            from this class.
             */
            this.restartBaseMqtt();
        }
@@ -160,7 +149,14 @@ public class MqttMessaging extends Mqtt
 
     public void send(Message message) throws IOException
     {
-        if (message == null || message.getBytes() == null)
+        send(message, null);
+    }
+
+    public void send(Message message, Object context) throws IOException
+    {
+        // Codes_SRS_MqttMessaging_21_029: [send method shall copy the message body only once.]
+        byte[] messageBody = (message != null) ? message.getBytes() : null;
+        if (messageBody == null)
         {
             /*
             **Codes_SRS_MqttMessaging_25_025: [**send method shall throw an exception if the message is null.**]**
@@ -198,7 +194,10 @@ public class MqttMessaging extends Mqtt
         /*
         **Codes_SRS_MqttMessaging_25_024: [**send method shall publish a message to the IOT Hub on the publish topic by calling method publish().**]**
          */
-        this.publish(messagePublishTopic, message.getBytes());
+        /*
+        **Codes_SRS_MqttMessaging_21_027: [**send method shall pass the context to publish, so the delivery listener is notified with it when the PUBACK arrives.**]**
+         */
+        this.publish(messagePublishTopic, messageBody, context);
 
     }
 
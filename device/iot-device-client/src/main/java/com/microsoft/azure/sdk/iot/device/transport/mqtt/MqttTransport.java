@@ -6,11 +6,17 @@ package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveDispatcher;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSasTokenRenewer;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 
 /**
@@ -21,30 +27,41 @@ import java.util.concurrent.LinkedBlockingDeque;
  * parameters: IoT Hub name, device ID, device key, and message valid seconds.
  * </p>
  * <p>
- * The transport can also poll an IoT Hub for messages and invoke a
- * user-defined message callback if a message and callback is found.
+ * The transport also invokes a user-defined message callback, if one is
+ * found, as soon as a message arrives from the IoT Hub.
  * </p>
  */
 
-public final class MqttTransport implements IotHubTransport
+public final class MqttTransport implements IotHubTransport, MqttDeliveryListener, MqttMessageListener
 {
     /** The MQTT connection lock. */
     protected final Object sendMessagesLock = new Object();
     protected final Object handleMessageLock = new Object();
+    /** Serializes the senders, so the messages are published in order. */
+    private final Object sendingLock = new Object();
 
-    protected State state;
+    protected volatile State state;
 
     /** The MQTT connection.*/
     protected MqttIotHubConnection mqttIotHubConnection;
 
     /** Messages waiting to be sent. */
-    protected final Queue<IotHubOutboundPacket> waitingList;
+    protected final Deque<IotHubOutboundPacket> waitingList;
+
+    /** Messages published and waiting for their acknowledgement. */
+    protected final Set<IotHubOutboundPacket> inProgressList;
 
     /** Messages whose callbacks that are waiting to be invoked. */
     protected final Queue<IotHubCallbackPacket> callbackList;
 
     protected final DeviceClientConfig config;
 
+    /** Invokes the message callback when a message arrives. */
+    protected IotHubReceiveDispatcher receiveDispatcher;
+
+    /** Reconnects with a new SAS token before the current one expires, or {@code null} if the token is not renewed. */
+    protected IotHubSasTokenRenewer sasTokenRenewer;
+
     /**
      * Constructs an instance from the given {@link DeviceClientConfig}
      * object.
@@ -59,6 +76,9 @@ public final class MqttTransport implements IotHubTransport
         // Codes_SRS_MQTTTRANSPORT_15_002: [The constructor shall initialize an empty queue
         // for completed messages whose callbacks are waiting to be invoked.]
         this.callbackList = new LinkedBlockingDeque<>();
+        // Codes_SRS_MQTTTRANSPORT_21_020: [The constructor shall initialize an empty set
+        // for the messages waiting for their acknowledgement.]
+        this.inProgressList = Collections.newSetFromMap(new ConcurrentHashMap<IotHubOutboundPacket, Boolean>());
         this.config = config;
         this.state = State.CLOSED;
     }
@@ -79,10 +99,39 @@ public final class MqttTransport implements IotHubTransport
 
         // Codes_SRS_MQTTTRANSPORT_15_003: [The function shall establish an MQTT connection
         // with the IoT Hub given in the configuration.]
-        this.mqttIotHubConnection = new MqttIotHubConnection(this.config);
-        this.mqttIotHubConnection.open();
+        // Codes_SRS_MQTTTRANSPORT_21_021: [The function shall register itself as the delivery listener of the MQTT connection.]
+        // Codes_SRS_MQTTTRANSPORT_21_027: [The function shall register itself as the message listener of the MQTT connection,
+        // dispatching the received messages on up to the message callback threads of the configuration.]
+        // Codes_SRS_MQTTTRANSPORT_21_031: [The function shall dispatch the received messages on the task scheduler
+        // of the configuration, if one is set.]
+        this.receiveDispatcher = new IotHubReceiveDispatcher(this, this.config.getMessageCallbackThreads(),
+                this.config.getTaskScheduler());
+        this.mqttIotHubConnection = new MqttIotHubConnection(this.config, this, this);
+        try
+        {
+            this.mqttIotHubConnection.open();
+        }
+        catch (IOException e)
+        {
+            this.receiveDispatcher.close();
+            throw e;
+        }
 
         this.state = State.OPEN;
+
+        // Codes_SRS_MQTTTRANSPORT_21_032: [If the configuration has a device key, the function shall start renewing
+        // the SAS token before it expires, by reconnecting with a new one.]
+        if (this.config.getDeviceKey() != null)
+        {
+            this.sasTokenRenewer = new IotHubSasTokenRenewer(this.config, new IotHubSasTokenRenewer.Renewal()
+            {
+                public void renew() throws IOException
+                {
+                    renewSasToken();
+                }
+            });
+            this.sasTokenRenewer.start();
+        }
     }
 
     /**
@@ -98,10 +147,72 @@ public final class MqttTransport implements IotHubTransport
             return;
         }
 
+        // Codes_SRS_MQTTTRANSPORT_21_034: [The function shall stop renewing the SAS token.]
+        if (this.sasTokenRenewer != null)
+        {
+            this.sasTokenRenewer.close();
+            this.sasTokenRenewer = null;
+        }
+
+        // a renewal waiting for the send lock must not open the connection again.
+        this.state = State.CLOSED;
+
         // Codes_SRS_MQTTTRANSPORT_15_005: [The function shall close the MQTT connection
         // with the IoT Hub given in the configuration.]
+        // Codes_SRS_MQTTTRANSPORT_21_035: [The function shall close the MQTT connection before taking the send lock,
+        // so a message waiting for an in flight slot is released instead of blocking the close.]
         this.mqttIotHubConnection.close();
-        this.state = State.CLOSED;
+
+        synchronized (sendMessagesLock)
+        {
+            // Codes_SRS_MQTTTRANSPORT_21_029: [The function shall stop dispatching the received messages.]
+            this.receiveDispatcher.close();
+
+            // Codes_SRS_MQTTTRANSPORT_21_022: [The function shall buffer the messages still waiting for their
+            // acknowledgement to be sent again next time.]
+            bufferInProgressMessages();
+        }
+    }
+
+    /**
+     * Reconnects to the IoT Hub, so the MQTT connection authenticates with a
+     * new SAS token. The messages still waiting for their acknowledgement are
+     * sent again on the new connection.
+     *
+     * @throws IOException if the connection could not be established again.
+     */
+    protected void renewSasToken() throws IOException
+    {
+        if (this.state == State.CLOSED)
+        {
+            return;
+        }
+
+        // Codes_SRS_MQTTTRANSPORT_21_033: [To renew the SAS token, the transport shall close the MQTT connection,
+        // buffer the messages waiting for their acknowledgement, and open the connection again with a new token.]
+        // Codes_SRS_MQTTTRANSPORT_21_035: [The function shall close the MQTT connection before taking the send lock,
+        // so a message waiting for an in flight slot is released instead of blocking the close.]
+        this.mqttIotHubConnection.close();
+
+        synchronized (sendMessagesLock)
+        {
+            if (this.state == State.CLOSED)
+            {
+                return;
+            }
+
+            bufferInProgressMessages();
+            this.mqttIotHubConnection.open();
+        }
+    }
+
+    private void bufferInProgressMessages()
+    {
+        for (IotHubOutboundPacket packet : this.inProgressList)
+        {
+            this.waitingList.add(packet);
+        }
+        this.inProgressList.clear();
     }
 
     /**
@@ -149,46 +260,117 @@ public final class MqttTransport implements IotHubTransport
      */
     public void sendMessages() throws IllegalStateException
     {
-        synchronized (sendMessagesLock)
+        // Codes_SRS_MQTTTRANSPORT_21_036: [The function shall publish the messages without holding the send lock,
+        // so adding messages, invoking callbacks and closing do not wait for a free in flight slot.]
+        synchronized (sendingLock)
         {
-            // Codes_SRS_MQTTTRANSPORT_15_012: [If the MQTT connection is closed,
-            // the function shall throw an IllegalStateException.]
-            if (this.state == State.CLOSED)
+            boolean first = true;
+            while (true)
             {
-                throw new IllegalStateException("MQTT transport is closed.");
-            }
+                IotHubOutboundPacket packet;
+                synchronized (sendMessagesLock)
+                {
+                    if (this.state == State.CLOSED)
+                    {
+                        if (!first)
+                        {
+                            // closed while sending, the remaining messages are sent on the next open.
+                            return;
+                        }
+                        // Codes_SRS_MQTTTRANSPORT_15_012: [If the MQTT connection is closed,
+                        // the function shall throw an IllegalStateException.]
+                        throw new IllegalStateException("MQTT transport is closed.");
+                    }
+                    first = false;
 
-            if (this.waitingList.size() <= 0)
-            {
-                return;
-            }
+                    // Codes_SRS_MQTTTRANSPORT_15_009: [The function shall attempt to send every message
+                    // on its waiting list, one at a time.]
+                    packet = this.waitingList.poll();
+                    if (packet == null)
+                    {
+                        return;
+                    }
 
-            // Codes_SRS_MQTTTRANSPORT_15_009: [The function shall attempt to send every message
-            // on its waiting list, one at a time.]
-            while (!this.waitingList.isEmpty())
-            {
-                IotHubOutboundPacket packet = this.waitingList.remove();
+                    // Codes_SRS_MQTTTRANSPORT_21_023: [The function shall add the message to the in progress list
+                    // before publishing it, so an early acknowledgement finds it.]
+                    this.inProgressList.add(packet);
+                }
 
                 try
                 {
-                    IotHubStatusCode status = this.mqttIotHubConnection.sendEvent(packet.getMessage());
+                    IotHubStatusCode status = this.mqttIotHubConnection.sendEvent(packet.getMessage(), packet);
 
-                    // Codes_SRS_MQTTTRANSPORT_15_010: [For each message being sent, the function shall add
-                    // the IoT Hub status code along with the callback and context to the callback list.]
-                    IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(status, packet.getCallback(), packet.getContext());
-                    this.callbackList.add(callbackPacket);
+                    // Codes_SRS_MQTTTRANSPORT_15_010: [For each message that could not be published, the function
+                    // shall add the IoT Hub status code along with the callback and context to the callback list.]
+                    if (status != IotHubStatusCode.OK_EMPTY && this.inProgressList.remove(packet))
+                    {
+                        IotHubCallbackPacket callbackPacket = new IotHubCallbackPacket(status, packet.getCallback(), packet.getContext());
+                        this.callbackList.add(callbackPacket);
+                    }
                 }
-                // Codes_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached, the message
-                // shall be buffered to be sent again next time.]
+                // Codes_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached, or no in flight slot was
+                // released in time, the message shall be put back at the head of the waiting list to be sent again next time.]
                 catch (IllegalStateException e)
                 {
-                    this.waitingList.add(packet);
+                    synchronized (sendMessagesLock)
+                    {
+                        // a close may already have buffered the message.
+                        if (this.inProgressList.remove(packet))
+                        {
+                            this.waitingList.addFirst(packet);
+                        }
+                    }
+                    // the connection is down or the in flight window is full, so the other messages would fail as well.
+                    return;
                 }
-
             }
         }
     }
 
+    /**
+     * Called by the MQTT connection when a published message is acknowledged
+     * by the IoT Hub, or failed to be delivered.
+     *
+     * @param context the packet given when the message was published.
+     * @param delivered {@code true} if the message was acknowledged, {@code false} otherwise.
+     */
+    public void messageSent(Object context, boolean delivered)
+    {
+        // Codes_SRS_MQTTTRANSPORT_21_024: [If the packet is not in the in progress list, the function shall do nothing.]
+        if (!(context instanceof IotHubOutboundPacket) || !this.inProgressList.remove(context))
+        {
+            return;
+        }
+
+        IotHubOutboundPacket packet = (IotHubOutboundPacket) context;
+        if (delivered)
+        {
+            // Codes_SRS_MQTTTRANSPORT_21_025: [If the message was acknowledged, the function shall add
+            // a callback with status OK_EMPTY to the callback list.]
+            this.callbackList.add(new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, packet.getCallback(), packet.getContext()));
+        }
+        else
+        {
+            // Codes_SRS_MQTTTRANSPORT_21_026: [If the message was not delivered, the function shall buffer it
+            // to be sent again next time.]
+            this.waitingList.add(packet);
+        }
+    }
+
+    /**
+     * Called by the MQTT connection when a received message is ready to be consumed.
+     */
+    public void messageReceived()
+    {
+        // Codes_SRS_MQTTTRANSPORT_21_028: [The function shall signal the arrival of the message to the receive dispatcher,
+        // which calls handleMessage to invoke the message callback.]
+        IotHubReceiveDispatcher dispatcher = this.receiveDispatcher;
+        if (dispatcher != null)
+        {
+            dispatcher.messageArrived();
+        }
+    }
+
     /**
      * Invokes the callbacks for all completed requests.
      *
@@ -233,6 +415,13 @@ public final class MqttTransport implements IotHubTransport
      */
     public void handleMessage() throws IllegalStateException, IOException
     {
+        MessageCallback callback = this.config.getMessageCallback();
+        Object context = this.config.getMessageContext();
+
+        MessageCallback deviceTwinMessageCallback = this.config.getDeviceTwinMessageCallback();
+        Object deviceTwinContext = this.config.getDeviceTwinMessageContext();
+
+        Message message;
         synchronized (handleMessageLock)
         {
             // Codes_SRS_MQTTTRANSPORT_15_018: [If the MQTT connection is closed,
@@ -242,45 +431,31 @@ public final class MqttTransport implements IotHubTransport
                 throw new IllegalStateException("MQTT transport is closed.");
             }
 
-            MessageCallback callback = this.config.getMessageCallback();
-            Object context = this.config.getMessageContext();
-
-            MessageCallback deviceTwinMessageCallback = this.config.getDeviceTwinMessageCallback();
-            Object deviceTwinContext = this.config.getDeviceTwinMessageContext();
-
             if (callback == null && deviceTwinMessageCallback == null)
             {
                 return;
             }
 
-            try
-            {
-                // Codes_SRS_MQTTTRANSPORT_15_016: [The function shall attempt to consume a message from the IoT Hub.]
-                Message message = this.mqttIotHubConnection.receiveMessage();
+            // Codes_SRS_MQTTTRANSPORT_15_016: [The function shall attempt to consume a message from the IoT Hub.]
+            message = this.mqttIotHubConnection.receiveMessage();
+        }
 
-                // Codes_SRS_MQTTTRANSPORT_15_017: [If a message is found and a message callback is registered,
-                // the function shall invoke the callback on the message.]
-                if (message != null)
+        // Codes_SRS_MQTTTRANSPORT_15_017: [If a message is found and a message callback is registered,
+        // the function shall invoke the callback on the message.]
+        // Codes_SRS_MQTTTRANSPORT_21_030: [The function shall invoke the callback outside of the receive lock,
+        // so the callbacks of different messages may run at the same time.]
+        if (message != null)
+        {
+            if (message.getMessageType() == MessageType.DeviceTwin)
+            {
+                if (deviceTwinMessageCallback != null)
                 {
-                    if (message.getMessageType() == MessageType.DeviceTwin)
-                    {
-                        if (deviceTwinMessageCallback != null)
-                        {
-                            deviceTwinMessageCallback.execute(message, deviceTwinContext);
-                        }
-
-                    }
-                    else
-                    {
-                        callback.execute(message, context);
-
-                    }
-
-
+                    deviceTwinMessageCallback.execute(message, deviceTwinContext);
                 }
-            } catch (IllegalStateException e)
+            }
+            else if (callback != null)
             {
-                throw e;
+                callback.execute(message, context);
             }
         }
     }
@@ -296,9 +471,9 @@ public final class MqttTransport implements IotHubTransport
     {
         synchronized (sendMessagesLock)
         {
-            // Codes_SRS_MQTTTRANSPORT_15_019: [The function shall return true if the waiting list
-            // and callback list are all empty, and false otherwise.]
-            if (this.waitingList.isEmpty() && this.callbackList.isEmpty())
+            // Codes_SRS_MQTTTRANSPORT_15_019: [The function shall return true if the waiting list,
+            // in progress list and callback list are all empty, and false otherwise.]
+            if (this.waitingList.isEmpty() && this.inProgressList.isEmpty() && this.callbackList.isEmpty())
             {
                 return true;
             }
@@ -0,0 +1,103 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for CustomLogger. */
+public class CustomLoggerTest
+{
+    @Mocked
+    Logger mockLogger;
+
+    @Test
+    public void logInfoResolvesMethodNameToCaller()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Logger.getLogger((Class) any);
+                result = mockLogger;
+                mockLogger.isEnabledFor(Level.INFO);
+                result = true;
+            }
+        };
+        CustomLogger logger = new CustomLogger(this.getClass());
+
+        logger.LogInfo("value is %s, method name is %s", 5, CustomLogger.METHOD_NAME);
+
+        new Verifications()
+        {
+            {
+                mockLogger.info("value is 5, method name is logInfoResolvesMethodNameToCaller");
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void logInfoDoesNotFormatParametersWhenDisabled()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Logger.getLogger((Class) any);
+                result = mockLogger;
+                mockLogger.isEnabledFor(Level.INFO);
+                result = false;
+            }
+        };
+        final boolean[] formatted = {false};
+        Object param = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                formatted[0] = true;
+                return "param";
+            }
+        };
+        CustomLogger logger = new CustomLogger(this.getClass());
+
+        logger.LogInfo("param is %s, method name is %s", param, CustomLogger.METHOD_NAME);
+
+        assertFalse(formatted[0]);
+        new Verifications()
+        {
+            {
+                mockLogger.info(any);
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void isInfoEnabledAndIsDebugEnabledFollowTheLoggerLevel()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Logger.getLogger((Class) any);
+                result = mockLogger;
+                mockLogger.isEnabledFor(Level.INFO);
+                result = true;
+                mockLogger.isEnabledFor(Level.DEBUG);
+                result = false;
+            }
+        };
+        CustomLogger logger = new CustomLogger(this.getClass());
+
+        assertTrue(logger.isInfoEnabled());
+        assertFalse(logger.isDebugEnabled());
+    }
+}
@@ -4,6 +4,7 @@
 package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
@@ -12,6 +13,7 @@ import mockit.Mocked;
 import org.junit.Test;
 
 import java.net.URISyntaxException;
+import java.util.concurrent.ScheduledExecutorService;
 
 /** Unit tests for IoTHubClientConfig. */
 public class DeviceClientConfigTest
@@ -163,6 +165,216 @@ public class DeviceClientConfigTest
         assertThat(testgetMessageValidSecs, is(expectedMessageValidSecs));
     }
 
+    // Tests_SRS_DEVICECLIENTCONFIG_21_034: [The function shall return the value of maxInFlightMessages.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_036: [The function shall set the value of maxInFlightMessages.]
+    @Test
+    public void getAndSetMaxInFlightMessagesMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        int defaultMaxInFlightMessages = config.getMaxInFlightMessages();
+        config.setMaxInFlightMessages(4);
+
+        assertThat(defaultMaxInFlightMessages, is(DeviceClientConfig.DEFAULT_MAX_IN_FLIGHT_MESSAGES));
+        assertThat(config.getMaxInFlightMessages(), is(4));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_035: [If the value is smaller than 1 or bigger than
+    // MAX_IN_FLIGHT_MESSAGES_LIMIT, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxInFlightMessagesRejectsValueAboveLimit() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setMaxInFlightMessages(DeviceClientConfig.MAX_IN_FLIGHT_MESSAGES_LIMIT + 1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_037: [The function shall return the value of maxReceivedMessages.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_039: [The function shall set the value of maxReceivedMessages.]
+    @Test
+    public void getAndSetMaxReceivedMessagesMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        int defaultMaxReceivedMessages = config.getMaxReceivedMessages();
+        config.setMaxReceivedMessages(50);
+
+        assertThat(defaultMaxReceivedMessages, is(DeviceClientConfig.DEFAULT_MAX_RECEIVED_MESSAGES));
+        assertThat(config.getMaxReceivedMessages(), is(50));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_038: [If the value is smaller than 1, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxReceivedMessagesRejectsZero() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setMaxReceivedMessages(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_040: [The function shall return the value of messageCallbackThreads.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_042: [The function shall set the value of messageCallbackThreads.]
+    @Test
+    public void getAndSetMessageCallbackThreadsMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        int defaultMessageCallbackThreads = config.getMessageCallbackThreads();
+        config.setMessageCallbackThreads(4);
+
+        assertThat(defaultMessageCallbackThreads, is(DeviceClientConfig.DEFAULT_MESSAGE_CALLBACK_THREADS));
+        assertThat(config.getMessageCallbackThreads(), is(4));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_041: [If the value is smaller than 1, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setMessageCallbackThreadsRejectsZero() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setMessageCallbackThreads(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_043: [The function shall return the value of taskScheduler.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_044: [The function shall set the value of taskScheduler.]
+    @Test
+    public void getAndSetTaskSchedulerMatch(
+            @Mocked final ScheduledExecutorService mockScheduler)
+            throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        ScheduledExecutorService defaultTaskScheduler = config.getTaskScheduler();
+        config.setTaskScheduler(mockScheduler);
+
+        assertThat(defaultTaskScheduler, is(nullValue()));
+        assertThat(config.getTaskScheduler(), is(mockScheduler));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_047: [The function shall return the value of maxInFlightBatches.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_049: [The function shall set the value of maxInFlightBatches.]
+    @Test
+    public void getAndSetMaxInFlightBatchesMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        int defaultMaxInFlightBatches = config.getMaxInFlightBatches();
+        config.setMaxInFlightBatches(DeviceClientConfig.MAX_IN_FLIGHT_BATCHES_LIMIT);
+
+        assertThat(defaultMaxInFlightBatches, is(DeviceClientConfig.DEFAULT_MAX_IN_FLIGHT_BATCHES));
+        assertThat(config.getMaxInFlightBatches(), is(DeviceClientConfig.MAX_IN_FLIGHT_BATCHES_LIMIT));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_048: [If the value is smaller than 1 or bigger than
+    // MAX_IN_FLIGHT_BATCHES_LIMIT, the function shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxInFlightBatchesRejectsValueAboveLimit() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setMaxInFlightBatches(DeviceClientConfig.MAX_IN_FLIGHT_BATCHES_LIMIT + 1);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_050: [The function shall return the value of sasTokenRenewalRatio.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_052: [The function shall set the value of sasTokenRenewalRatio.]
+    @Test
+    public void getAndSetSasTokenRenewalRatioMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        double defaultRatio = config.getSasTokenRenewalRatio();
+        config.setSasTokenRenewalRatio(0.5);
+
+        assertThat(defaultRatio, is(DeviceClientConfig.DEFAULT_SAS_TOKEN_RENEWAL_RATIO));
+        assertThat(config.getSasTokenRenewalRatio(), is(0.5));
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_051: [If the value is not bigger than 0 or is bigger than 1, the function
+    // shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setSasTokenRenewalRatioRejectsZero() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setSasTokenRenewalRatio(0);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_051: [If the value is not bigger than 0 or is bigger than 1, the function
+    // shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setSasTokenRenewalRatioRejectsValueAboveOne() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        config.setSasTokenRenewalRatio(1.5);
+    }
+
+    // Tests_SRS_DEVICECLIENTCONFIG_21_045: [The function shall return the value of base64BatchEncoding.]
+    // Tests_SRS_DEVICECLIENTCONFIG_21_046: [The function shall set the value of base64BatchEncoding.]
+    @Test
+    public void getAndSetBase64BatchEncodingMatch() throws URISyntaxException
+    {
+        final String iotHubHostname = "test.iothubhostname";
+        final String deviceId = "test-deviceid";
+        final String deviceKey = "test-devicekey";
+        final String sharedAccessToken = null;
+
+        DeviceClientConfig config = new DeviceClientConfig(iotHubHostname, deviceId, deviceKey, sharedAccessToken);
+        boolean defaultBase64BatchEncoding = config.isBase64BatchEncoding();
+        config.setBase64BatchEncoding(true);
+
+        assertThat(defaultBase64BatchEncoding, is(false));
+        assertThat(config.isBase64BatchEncoding(), is(true));
+    }
+
     // Tests_SRS_DEVICECLIENTCONFIG_11_006: [The function shall set the message callback, with its associated context.]
     // Tests_SRS_DEVICECLIENTCONFIG_11_010: [The function shall return the current message callback.]
     @Test
@@ -10,11 +10,14 @@ import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
 import com.microsoft.azure.sdk.iot.device.transport.https.HttpsTransport;
 
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendDispatcher;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
+import mockit.VerificationsInOrder;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -25,6 +28,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /** Unit tests for DeviceClient. */
@@ -313,19 +317,28 @@ public class DeviceClientTest
         };
     }
 
-    // Tests_SRS_DEVICECLIENT_11_023: [The function shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.]
+    // Tests_SRS_DEVICECLIENT_21_062: [The function shall send the messages as soon as they are added to the
+    // transport, and run the send task again every SEND_PERIOD_MILLIS milliseconds while the transport is not empty.]
     @Test
-    public void openStartsSendTask(
+    public void openStartsSendDispatcher(
             @Mocked final ScheduledExecutorService mockScheduler,
             @Mocked final AmqpsTransport mockTransport,
-            @Mocked final Message mockMsg,
-            @Mocked final IotHubSendTask mockTask)
+            @Mocked final IotHubSendDispatcher mockSendDispatcher)
             throws IOException, URISyntaxException
     {
         final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
 
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                         + "SharedAccessKey=adjkl234j52=";
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTaskScheduler();
+                result = null;
+                Executors.newScheduledThreadPool(anyInt);
+                result = mockScheduler;
+            }
+        };
 
         DeviceClient client = new DeviceClient(connString, protocol);
         client.open();
@@ -334,9 +347,84 @@ public class DeviceClientTest
         new Verifications()
         {
             {
-                mockScheduler.scheduleAtFixedRate((IotHubSendTask) any,
-                        anyLong, expectedSendPeriodMillis,
-                        TimeUnit.MILLISECONDS);
+                new IotHubSendDispatcher((IotHubTransport) any, mockScheduler, expectedSendPeriodMillis);
+                times = 1;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_21_063: [The function shall signal the send dispatcher, so the message is sent right away.]
+    @Test
+    public void sendEventAsyncSignalsSendDispatcher(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final AmqpsTransport mockTransport,
+            @Mocked final IotHubSendDispatcher mockSendDispatcher,
+            @Mocked final Message mockMsg)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                        + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.sendEventAsync(mockMsg, null, null);
+
+        new VerificationsInOrder()
+        {
+            {
+                mockTransport.addMessage(mockMsg, null, null);
+                mockSendDispatcher.messageQueued();
+            }
+        };
+    }
+
+    // Tests_SRS_DEVICECLIENT_21_064: [If a task scheduler was set with "SetTaskScheduler", the function shall
+    // run the send and receive tasks on it instead of creating threads of its own.]
+    // Tests_SRS_DEVICECLIENT_21_065: [The function shall not shut down a task scheduler set with "SetTaskScheduler".]
+    @Test
+    public void openAndCloseUseSharedTaskScheduler(
+            @Mocked final ScheduledExecutorService mockSharedScheduler,
+            @Mocked final ScheduledFuture mockReceiveFuture,
+            @Mocked final HttpsTransport mockTransport,
+            @Mocked final IotHubSendDispatcher mockSendDispatcher,
+            @Mocked final IotHubReceiveTask mockReceiveTask)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                        + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTaskScheduler();
+                result = mockSharedScheduler;
+                mockSharedScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+                result = mockReceiveFuture;
+                mockTransport.isEmpty();
+                result = true;
+            }
+        };
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.close();
+
+        new Verifications()
+        {
+            {
+                Executors.newScheduledThreadPool(anyInt);
+                times = 0;
+                new IotHubSendDispatcher((IotHubTransport) any, mockSharedScheduler, anyLong);
+                times = 1;
+                mockSendDispatcher.close();
+                times = 1;
+                mockReceiveFuture.cancel(false);
+                times = 1;
+                mockSharedScheduler.shutdown();
+                times = 0;
             }
         };
     }
@@ -345,19 +433,28 @@ public class DeviceClientTest
     @Test
     public void openStartsReceiveTask(
             @Mocked final ScheduledExecutorService mockScheduler,
-            @Mocked final AmqpsTransport mockTransport,
+            @Mocked final HttpsTransport mockTransport,
             @Mocked final Message mockMsg,
             @Mocked final IotHubSendTask mockTask)
             throws IOException, URISyntaxException
     {
         final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
                         + "SharedAccessKey=adjkl234j52=";
-        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTaskScheduler();
+                result = null;
+                Executors.newScheduledThreadPool(anyInt);
+                result = mockScheduler;
+            }
+        };
 
         DeviceClient client = new DeviceClient(connString, protocol);
         client.open();
 
-        final long expectedReceivePeriodMillis = 10l;
+        final long expectedReceivePeriodMillis = DeviceClient.RECEIVE_PERIOD_MILLIS_HTTPS;
         new Verifications()
         {
             {
@@ -368,6 +465,32 @@ public class DeviceClientTest
         };
     }
 
+    // Tests_SRS_DEVICECLIENT_21_061: [The MQTT and AMQPS transports shall dispatch the received messages
+    // as they arrive, so only the HTTPS transport is polled.]
+    @Test
+    public void openDoesNotPollAmqpsTransport(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final AmqpsTransport mockTransport,
+            @Mocked final IotHubReceiveTask mockReceiveTask,
+            @Mocked final IotHubSendTask mockTask)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                        + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        new Verifications()
+        {
+            {
+                new IotHubReceiveTask((IotHubTransport) any);
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_DEVICECLIENT_11_036: [If an error occurs in opening the transport, the function shall throw an IOException.]
     @Test(expected = IOException.class)
     public void openThrowsIOExceptionIfTransportOpenFails(
@@ -434,6 +557,10 @@ public class DeviceClientTest
         new NonStrictExpectations()
         {
             {
+                mockConfig.getTaskScheduler();
+                result = null;
+                Executors.newScheduledThreadPool(anyInt);
+                result = mockScheduler;
                 mockTransport.isEmpty();
                 returns(false, false, true);
             }
@@ -1271,6 +1398,411 @@ public class DeviceClientTest
         };
     }
 
+    //Tests_SRS_DEVICECLIENT_21_055: ["SetMaxInFlightMessages" - number of messages sent without waiting for their acknowledgement, available only for MQTT.]
+    @Test
+    public void setOptionMaxInFlightMessagesWithMQTTSucceeds(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxInFlightMessages", 5);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setMaxInFlightMessages(5);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_055: ["SetMaxInFlightMessages" - number of messages sent without waiting for their acknowledgement, available only for MQTT.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaxInFlightMessagesWithAMQPFails(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxInFlightMessages", 5);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_056: ["SetMaxInFlightMessages" should have value type int.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaxInFlightMessagesWithLongFails(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxInFlightMessages", 5L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_055: ["SetMaxInFlightMessages" - number of messages sent without waiting for their acknowledgement, available only for MQTT.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionMaxInFlightMessagesAfterOpenFails(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetMaxInFlightMessages", 5);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_057: ["SetMaxReceivedMessages" - number of received messages of each kind waiting to be handled, available only for MQTT.]
+    @Test
+    public void setOptionMaxReceivedMessagesWithMQTTSucceeds(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxReceivedMessages", 50);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setMaxReceivedMessages(50);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_057: ["SetMaxReceivedMessages" - number of received messages of each kind waiting to be handled, available only for MQTT.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaxReceivedMessagesWithAMQPFails(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxReceivedMessages", 50);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_058: ["SetMaxReceivedMessages" should have value type int.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaxReceivedMessagesWithLongFails(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxReceivedMessages", 50L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_059: ["SetMessageCallbackThreads" - number of message callbacks invoked at the same time, available only for AMQP and MQTT.]
+    @Test
+    public void setOptionMessageCallbackThreadsWithMQTTSucceeds(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMessageCallbackThreads", 4);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setMessageCallbackThreads(4);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_059: ["SetMessageCallbackThreads" - number of message callbacks invoked at the same time, available only for AMQP and MQTT.]
+    @Test
+    public void setOptionMessageCallbackThreadsWithAMQPSucceeds(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMessageCallbackThreads", 4);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setMessageCallbackThreads(4);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_059: ["SetMessageCallbackThreads" - number of message callbacks invoked at the same time, available only for AMQP and MQTT.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMessageCallbackThreadsWithHTTPSFails(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMessageCallbackThreads", 4);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_060: ["SetMessageCallbackThreads" should have value type int.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMessageCallbackThreadsWithLongFails(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMessageCallbackThreads", 4L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_066: ["SetTaskScheduler" - scheduler shared by many clients to send messages and dispatch the received ones.]
+    @Test
+    public void setOptionTaskSchedulerSucceeds(
+            @Mocked final ScheduledExecutorService mockSharedScheduler,
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetTaskScheduler", mockSharedScheduler);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setTaskScheduler(mockSharedScheduler);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_066: ["SetTaskScheduler" - scheduler shared by many clients to send messages and dispatch the received ones.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionTaskSchedulerWhenOpenFails(
+            @Mocked final ScheduledExecutorService mockSharedScheduler,
+            @Mocked final MqttTransport mockTransport,
+            @Mocked final IotHubSendDispatcher mockSendDispatcher)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetTaskScheduler", mockSharedScheduler);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_067: ["SetTaskScheduler" should have value type ScheduledExecutorService.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionTaskSchedulerWithWrongTypeFails(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetTaskScheduler", 2);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_068: ["SetBase64BatchEncoding" - whether the message bodies in a batch are Base64-encoded, available only for HTTP.]
+    @Test
+    public void setOptionBase64BatchEncodingWithHTTPSSucceeds(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetBase64BatchEncoding", true);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setBase64BatchEncoding(true);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_068: ["SetBase64BatchEncoding" - whether the message bodies in a batch are Base64-encoded, available only for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionBase64BatchEncodingWithMQTTFails(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetBase64BatchEncoding", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_068: ["SetBase64BatchEncoding" - whether the message bodies in a batch are Base64-encoded, available only for HTTP.]
+    @Test(expected = IllegalStateException.class)
+    public void setOptionBase64BatchEncodingWhenOpenFails(
+            @Mocked final ScheduledExecutorService mockScheduler,
+            @Mocked final HttpsTransport mockTransport,
+            @Mocked final IotHubSendDispatcher mockSendDispatcher)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.setOption("SetBase64BatchEncoding", true);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_069: ["SetBase64BatchEncoding" should have value type boolean.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionBase64BatchEncodingWithWrongTypeFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetBase64BatchEncoding", "true");
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_070: ["SetMaxInFlightBatches" - number of batches sent at the same time, available only for HTTP.]
+    @Test
+    public void setOptionMaxInFlightBatchesWithHTTPSSucceeds(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxInFlightBatches", 3);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setMaxInFlightBatches(3);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_070: ["SetMaxInFlightBatches" - number of batches sent at the same time, available only for HTTP.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaxInFlightBatchesWithAMQPFails(
+            @Mocked final AmqpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxInFlightBatches", 3);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_071: ["SetMaxInFlightBatches" should have value type int.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionMaxInFlightBatchesWithLongFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetMaxInFlightBatches", 3L);
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_072: ["SetSasTokenRenewalRatio" - fraction of the SAS token expiry time after which the token is renewed.]
+    @Test
+    public void setOptionSasTokenRenewalRatioWithMQTTSucceeds(
+            @Mocked final MqttTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.MQTT;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetSasTokenRenewalRatio", 0.5);
+
+        new Verifications()
+        {
+            {
+                mockConfig.setSasTokenRenewalRatio(0.5);
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_DEVICECLIENT_21_073: ["SetSasTokenRenewalRatio" should have value type double.]
+    @Test(expected = IllegalArgumentException.class)
+    public void setOptionSasTokenRenewalRatioWithStringFails(
+            @Mocked final HttpsTransport mockTransport)
+            throws IOException, URISyntaxException
+    {
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.HTTPS;
+
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.setOption("SetSasTokenRenewalRatio", "0.5");
+    }
+
     //Tests_SRS_DEVICECLIENT_25_009: [**"SetSASTokenExpiryTime" should have value type long.]
     @Test(expected = IllegalArgumentException.class)
     public void setOptionSASTokenExpiryTimeWithStringInsteadOfLongFails(
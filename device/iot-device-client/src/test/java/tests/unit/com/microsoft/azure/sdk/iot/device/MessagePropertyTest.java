@@ -168,4 +168,55 @@ public class MessagePropertyTest
         final boolean expectedIsValidAppProperty = false;
         assertThat(testIsValidAppProperty, is(expectedIsValidAppProperty));
     }
+
+    // Tests_SRS_MESSAGEPROPERTY_11_003: [If the value contains a character that is not in US-ASCII, the function shall throw an IllegalArgumentException.]
+    // Tests_SRS_MESSAGEPROPERTY_21_009: [The name shall be validated only the first time it is used, until the maximum number of cached names is reached.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsInvalidValueForRepeatedName()
+    {
+        final String name = "test-repeated-name";
+
+        new MessageProperty(name, "test-value");
+        new MessageProperty(name, "t\u0130est-value");
+    }
+
+    // Tests_SRS_MESSAGEPROPERTY_21_009: [The name shall be validated only the first time it is used, until the maximum number of cached names is reached.]
+    @Test
+    public void isValidAppPropertyChecksValueForRepeatedName()
+    {
+        final String name = "test-repeated-app-name";
+
+        boolean firstResult = MessageProperty.isValidAppProperty(name, "test-value");
+        boolean secondResult = MessageProperty.isValidAppProperty(name, "t\u0130est-value");
+
+        assertThat(firstResult, is(true));
+        assertThat(secondResult, is(false));
+    }
+
+    // Tests_SRS_MESSAGEPROPERTY_21_009: [The name shall be validated only the first time it is used, until the maximum number of cached names is reached.]
+    @Test
+    public void isValidAppPropertyKeepsRejectingReservedName()
+    {
+        final String reservedName = "iothub-ack";
+
+        MessageProperty.isValidAppProperty(reservedName, "test-value");
+        boolean testIsValid = MessageProperty.isValidAppProperty(reservedName, "test-value");
+
+        assertThat(testIsValid, is(false));
+    }
+
+    // Tests_SRS_MESSAGEPROPERTY_21_010: [The characters shall be checked without a regular expression.]
+    @Test
+    public void isValidAppPropertyAcceptsWholeAsciiRange()
+    {
+        final String name = "test-ascii-range";
+
+        boolean lowestIsValid = MessageProperty.isValidAppProperty(name, "\u0000");
+        boolean highestIsValid = MessageProperty.isValidAppProperty(name, "\u007F");
+        boolean firstNonAsciiIsValid = MessageProperty.isValidAppProperty(name, "\u0080");
+
+        assertThat(lowestIsValid, is(true));
+        assertThat(highestIsValid, is(true));
+        assertThat(firstNonAsciiIsValid, is(false));
+    }
 }
@@ -5,6 +5,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
 
 import com.microsoft.azure.sdk.iot.device.Message;
@@ -14,8 +15,19 @@ import mockit.NonStrictExpectations;
 import mockit.Verifications;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /** Unit tests for Message. */
 public class MessageTest
@@ -260,4 +272,171 @@ public class MessageTest
         boolean expectedResult = false;
         assertThat(expectedResult, is(actualResult));
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_MESSAGE_21_038: [If the ID was not set, the getter shall generate a random ID of 127 valid
+    // characters the first time it is called, and return the same ID afterwards.]
+    // Tests_SRS_MESSAGE_21_039: [The IDs shall be generated with the random number generator of the calling thread.]
+    @Test
+    public void getMessageIdGeneratesIdOnFirstRead()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+
+        Message msg = new Message(body);
+        String messageId = msg.getMessageId();
+        String correlationId = msg.getCorrelationId();
+
+        assertThat(messageId.length(), is(127));
+        assertThat(messageId.matches("[0-9a-zA-Z\\-:.+%_#*?!(),=@;$']*"), is(true));
+        assertThat(msg.getMessageId(), is(messageId));
+        assertThat(correlationId.length(), is(127));
+        assertThat(msg.getCorrelationId(), is(correlationId));
+        assertThat(correlationId, is(not(messageId)));
+    }
+
+    // Tests_SRS_MESSAGE_21_046: [The getters and setters of the IDs shall be synchronized, so that threads
+    // reading an ID for the first time at the same time get the same generated ID.]
+    @Test
+    public void getMessageIdConcurrentFirstReadsReturnSameId() throws Exception
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+        final int threadCount = 8;
+
+        for (int attempt = 0; attempt < 50; attempt++)
+        {
+            final Message msg = new Message(body);
+            final CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            List<Future<String>> messageIds = new ArrayList<Future<String>>();
+            List<Future<String>> correlationIds = new ArrayList<Future<String>>();
+            for (int i = 0; i < threadCount; i++)
+            {
+                messageIds.add(executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        start.await();
+                        return msg.getMessageId();
+                    }
+                }));
+                correlationIds.add(executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        start.await();
+                        return msg.getCorrelationId();
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < threadCount; i++)
+            {
+                assertThat(messageIds.get(i).get(), is(msg.getMessageId()));
+                assertThat(correlationIds.get(i).get(), is(msg.getCorrelationId()));
+            }
+            executor.shutdown();
+        }
+    }
+
+    // Tests_SRS_MESSAGE_21_037: [The constructor shall not generate the messageId and the correlationId; each
+    // one is generated the first time it is read, unless it was set before.]
+    @Test
+    public void setMessageIdBeforeFirstReadIsKept()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+
+        Message msg = new Message(body);
+        msg.setMessageId("test-message-id");
+        msg.setCorrelationId(null);
+
+        assertThat(msg.getMessageId(), is("test-message-id"));
+        assertThat(msg.getCorrelationId(), is((String) null));
+    }
+
+    // Tests_SRS_MESSAGE_21_041: [The constructor shall read the remaining bytes of the stream as the message body.]
+    @Test
+    public void streamConstructorReadsRemainingBytes()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63, 0x64 };
+        ByteArrayInputStream stream = new ByteArrayInputStream(body);
+        stream.read();
+
+        Message msg = new Message(stream);
+
+        assertArrayEquals(new byte[] { 0x62, 0x63, 0x64 }, msg.getBytes());
+    }
+
+    // Tests_SRS_MESSAGE_21_040: [If the stream is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void streamConstructorRejectsNullStream()
+    {
+        new Message((ByteArrayInputStream) null);
+    }
+
+    // Tests_SRS_MESSAGE_21_043: [The constructor shall copy the remaining bytes of the buffer as the message
+    // body, without changing the buffer position.]
+    @Test
+    public void byteBufferConstructorCopiesRemainingBytes()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63, 0x64 };
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        buffer.position(1);
+
+        Message msg = new Message(buffer);
+        body[2] = 0x00;
+
+        assertArrayEquals(new byte[] { 0x62, 0x63, 0x64 }, msg.getBytes());
+        assertThat(buffer.position(), is(1));
+    }
+
+    // Tests_SRS_MESSAGE_21_042: [If the buffer is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void byteBufferConstructorRejectsNullBuffer()
+    {
+        new Message((ByteBuffer) null);
+    }
+
+    // Tests_SRS_MESSAGE_21_044: [The function shall return a stream holding a copy of the message body, or null
+    // if the message has no body.]
+    @Test
+    public void getBodyStreamReturnsCopyOfBody()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+
+        Message msg = new Message(body);
+
+        assertArrayEquals(body, msg.getBodyStream().toByteArray());
+        assertThat(new Message().getBodyStream(), is((ByteArrayOutputStream) null));
+    }
+
+    // Tests_SRS_MESSAGE_21_045: [The function shall return a read-only view of the message body without copying
+    // it, or null if the message has no body.]
+    @Test
+    public void getByteBufferReturnsReadOnlyViewOfBody()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+
+        Message msg = new Message(body);
+        ByteBuffer buffer = msg.getByteBuffer();
+        body[0] = 0x7a;
+
+        assertThat(buffer.isReadOnly(), is(true));
+        assertThat(buffer.remaining(), is(3));
+        assertThat(buffer.get(0), is((byte) 0x7a));
+        assertThat(new Message().getByteBuffer(), is((ByteBuffer) null));
+    }
+
+    // Tests_SRS_MESSAGE_21_045: [The function shall return a read-only view of the message body without copying
+    // it, or null if the message has no body.]
+    @Test(expected = ReadOnlyBufferException.class)
+    public void getByteBufferCannotChangeBody()
+    {
+        final byte[] body = { 0x61, 0x62, 0x63 };
+
+        Message msg = new Message(body);
+
+        msg.getByteBuffer().put(0, (byte) 0x7a);
+    }
+}
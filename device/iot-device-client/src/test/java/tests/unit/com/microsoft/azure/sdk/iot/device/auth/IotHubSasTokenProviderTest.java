@@ -0,0 +1,132 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.auth;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubSasTokenProvider. */
+public class IotHubSasTokenProviderTest
+{
+    @Mocked DeviceClientConfig mockConfig;
+    @Mocked IotHubSasToken mockToken;
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_21_001: [If the config is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorFailsForNullConfig()
+    {
+        new IotHubSasTokenProvider(null);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_21_003: [The function shall return the current token.]
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_21_006: [The new token shall be renewed after sasTokenRenewalRatio
+    // of tokenValidSecs has elapsed.]
+    @Test
+    public void getSasTokenReusesTokenUntilRenewalTime()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTokenValidSecs();
+                result = 3600l;
+                mockConfig.getSasTokenRenewalRatio();
+                result = 0.75;
+                mockToken.toString();
+                result = "first-token";
+                result = "second-token";
+            }
+        };
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+
+        String firstToken = provider.getSasToken();
+        String secondToken = provider.getSasToken();
+
+        assertThat(firstToken, is("first-token"));
+        assertThat(secondToken, is("first-token"));
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_21_004: [The function shall build a new token if there is no token yet, if
+    // the renewal time of the current token has come, or if tokenValidSecs changed since it was built.]
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_21_005: [The new token shall expire tokenValidSecs seconds from now.]
+    @Test
+    public void getSasTokenBuildsNewTokenIfTokenValidSecsChanged()
+    {
+        final long startSecs = System.currentTimeMillis() / 1000l;
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTokenValidSecs();
+                result = 3600l;
+                result = 1800l;
+                mockConfig.getSasTokenRenewalRatio();
+                result = 0.75;
+                mockToken.toString();
+                result = "first-token";
+                result = "second-token";
+            }
+        };
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+
+        provider.getSasToken();
+        String secondToken = provider.getSasToken();
+
+        assertThat(secondToken, is("second-token"));
+        final List<Long> expiryTimes = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, withCapture(expiryTimes));
+                times = 2;
+            }
+        };
+        assertTrue(expiryTimes.get(0) >= startSecs + 3600l);
+        assertTrue(expiryTimes.get(1) >= startSecs + 1800l);
+        assertTrue(expiryTimes.get(1) < startSecs + 3600l);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENPROVIDER_21_004: [The function shall build a new token if there is no token yet, if
+    // the renewal time of the current token has come, or if tokenValidSecs changed since it was built.]
+    @Test
+    public void getSasTokenBuildsNewTokenOnceRenewalTimeHasCome()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTokenValidSecs();
+                result = 0l;
+                mockConfig.getSasTokenRenewalRatio();
+                result = 0.75;
+                mockToken.toString();
+                result = "first-token";
+                result = "second-token";
+            }
+        };
+        IotHubSasTokenProvider provider = new IotHubSasTokenProvider(mockConfig);
+
+        String firstToken = provider.getSasToken();
+        String secondToken = provider.getSasToken();
+
+        assertThat(firstToken, is("first-token"));
+        assertThat(secondToken, is("second-token"));
+    }
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.assertThat;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.anyOf;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
 
 import com.microsoft.azure.sdk.iot.device.auth.SignatureHelper;
 
@@ -69,6 +70,26 @@ public class SignatureHelperTest
         assertThat(testEncryptedSig, is(expectedEncryptedSig));
     }
 
+    // Tests_SRS_SIGNATUREHELPER_21_001: [The function shall reuse the HMAC-SHA256 algorithm instance of the
+    // calling thread, initialized with the device key.]
+    @Test
+    public void encryptSignatureWithAnotherKeyDoesNotReuseThePreviousKey()
+    {
+        final byte[] testSig = "what do ya want for nothing?".getBytes(UTF8);
+        final byte[] deviceKey = "Jefe".getBytes(UTF8);
+        final byte[] otherDeviceKey = "other-key".getBytes(UTF8);
+
+        byte[] firstEncryptedSig =
+                SignatureHelper.encryptSignatureHmacSha256(testSig, deviceKey);
+        byte[] otherEncryptedSig =
+                SignatureHelper.encryptSignatureHmacSha256(testSig, otherDeviceKey);
+        byte[] secondEncryptedSig =
+                SignatureHelper.encryptSignatureHmacSha256(testSig, deviceKey);
+
+        assertThat(secondEncryptedSig, is(firstEncryptedSig));
+        assertThat(otherEncryptedSig, is(not(firstEncryptedSig)));
+    }
+
     // Tests_SRS_SIGNATUREHELPER_11_006: [The function shall encode the signature using Base64.]
     @Test
     public void encodeSignatureUsingBase64()
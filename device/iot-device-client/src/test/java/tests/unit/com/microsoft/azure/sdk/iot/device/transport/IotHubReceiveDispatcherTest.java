@@ -0,0 +1,236 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveDispatcher;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
+import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
+import mockit.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for IotHubReceiveDispatcher. */
+public class IotHubReceiveDispatcherTest
+{
+    @Mocked AmqpsTransport mockTransport;
+    @Mocked IotHubReceiveTask mockReceiveTask;
+    @Mocked Executors mockExecutors;
+    @Mocked ExecutorService mockExecutor;
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_001: [If the transport is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorFailsForNullTransport()
+    {
+        new IotHubReceiveDispatcher(null, 1);
+    }
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_002: [If maxConcurrency is smaller than 1, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorFailsForZeroConcurrency()
+    {
+        new IotHubReceiveDispatcher(mockTransport, 0);
+    }
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_003: [The constructor shall create a receive task for the transport
+    // and a pool of maxConcurrency threads to run it.]
+    @Test
+    public void constructorCreatesReceiveTaskAndThreadPool()
+    {
+        new IotHubReceiveDispatcher(mockTransport, 3);
+
+        new Verifications()
+        {
+            {
+                new IotHubReceiveTask(mockTransport);
+                times = 1;
+                Executors.newFixedThreadPool(3);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_004: [The function shall count the message as pending.]
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_005: [If less than maxConcurrency threads are handling the pending
+    // messages, the function shall start one more, which runs the receive task once per pending message.]
+    @Test
+    public void messageArrivedRunsReceiveTaskOncePerMessage()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Executors.newFixedThreadPool(anyInt);
+                result = mockExecutor;
+            }
+        };
+        IotHubReceiveDispatcher dispatcher = new IotHubReceiveDispatcher(mockTransport, 1);
+
+        dispatcher.messageArrived();
+        dispatcher.messageArrived();
+        dispatcher.messageArrived();
+
+        final List<Runnable> drainers = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockExecutor.execute(withCapture(drainers));
+                times = 1;
+            }
+        };
+        drainers.get(0).run();
+
+        new Verifications()
+        {
+            {
+                mockReceiveTask.run();
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_005: [If less than maxConcurrency threads are handling the pending
+    // messages, the function shall start one more, which runs the receive task once per pending message.]
+    @Test
+    public void messageArrivedStartsUpToMaxConcurrencyDrainers()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Executors.newFixedThreadPool(anyInt);
+                result = mockExecutor;
+            }
+        };
+        IotHubReceiveDispatcher dispatcher = new IotHubReceiveDispatcher(mockTransport, 2);
+
+        dispatcher.messageArrived();
+        dispatcher.messageArrived();
+        dispatcher.messageArrived();
+
+        new Verifications()
+        {
+            {
+                mockExecutor.execute((Runnable) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_005: [If less than maxConcurrency threads are handling the pending
+    // messages, the function shall start one more, which runs the receive task once per pending message.]
+    @Test
+    public void messageArrivedStartsNewDrainerAfterPreviousOneFinished()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Executors.newFixedThreadPool(anyInt);
+                result = mockExecutor;
+            }
+        };
+        IotHubReceiveDispatcher dispatcher = new IotHubReceiveDispatcher(mockTransport, 1);
+        dispatcher.messageArrived();
+        final List<Runnable> drainers = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockExecutor.execute(withCapture(drainers));
+            }
+        };
+        drainers.get(0).run();
+
+        dispatcher.messageArrived();
+
+        new Verifications()
+        {
+            {
+                mockExecutor.execute((Runnable) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_006: [If the dispatcher is closed, the function shall do nothing.]
+    @Test
+    public void messageArrivedDoesNothingIfClosed()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Executors.newFixedThreadPool(anyInt);
+                result = mockExecutor;
+                mockExecutor.execute((Runnable) any);
+                result = new RejectedExecutionException();
+            }
+        };
+        IotHubReceiveDispatcher dispatcher = new IotHubReceiveDispatcher(mockTransport, 1);
+        dispatcher.close();
+
+        dispatcher.messageArrived();
+
+        AtomicInteger activeDrainers = Deencapsulation.getField(dispatcher, "activeDrainers");
+        assertEquals(0, activeDrainers.get());
+        new Verifications()
+        {
+            {
+                mockReceiveTask.run();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_007: [The function shall shut down the thread pool.]
+    @Test
+    public void closeShutsDownThreadPool()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Executors.newFixedThreadPool(anyInt);
+                result = mockExecutor;
+            }
+        };
+        IotHubReceiveDispatcher dispatcher = new IotHubReceiveDispatcher(mockTransport, 1);
+
+        dispatcher.close();
+
+        new Verifications()
+        {
+            {
+                mockExecutor.shutdown();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_008: [If an executor is provided, the constructor shall run
+    // the receive task in it instead of creating a thread pool.]
+    // Tests_SRS_IOTHUBRECEIVEDISPATCHER_21_009: [The function shall not shut down an executor provided to the constructor.]
+    @Test
+    public void sharedExecutorRunsReceiveTaskAndIsNotShutDown()
+    {
+        IotHubReceiveDispatcher dispatcher = new IotHubReceiveDispatcher(mockTransport, 1, mockExecutor);
+
+        dispatcher.messageArrived();
+        dispatcher.close();
+
+        new Verifications()
+        {
+            {
+                Executors.newFixedThreadPool(anyInt);
+                times = 0;
+                mockExecutor.execute((Runnable) any);
+                times = 1;
+                mockExecutor.shutdown();
+                times = 0;
+            }
+        };
+    }
+}
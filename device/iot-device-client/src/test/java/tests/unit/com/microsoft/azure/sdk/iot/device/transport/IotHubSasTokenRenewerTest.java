@@ -0,0 +1,199 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSasTokenRenewer;
+import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
+import mockit.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for IotHubSasTokenRenewer. */
+public class IotHubSasTokenRenewerTest
+{
+    @Mocked DeviceClientConfig mockConfig;
+    @Mocked IotHubSasTokenRenewer.Renewal mockRenewal;
+    @Mocked ScheduledExecutorService mockScheduler;
+    @Mocked ScheduledFuture mockFuture;
+
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_001: [If the config or the renewal is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorFailsForNullConfig()
+    {
+        new IotHubSasTokenRenewer(null, mockRenewal);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_001: [If the config or the renewal is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorFailsForNullRenewal()
+    {
+        new IotHubSasTokenRenewer(mockConfig, null);
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_002: [The constructor shall use the task scheduler of the config, or
+    // create a single thread scheduler if there is none.]
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_007: [The function shall shut down the scheduler created by the
+    // constructor, but not the task scheduler of the config.]
+    @Test
+    public void constructorCreatesSchedulerIfConfigHasNone(@Mocked final Executors mockExecutors)
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTaskScheduler();
+                result = null;
+                Executors.newSingleThreadScheduledExecutor();
+                result = mockScheduler;
+            }
+        };
+
+        IotHubSasTokenRenewer renewer = new IotHubSasTokenRenewer(mockConfig, mockRenewal);
+        renewer.close();
+
+        new Verifications()
+        {
+            {
+                Executors.newSingleThreadScheduledExecutor();
+                times = 1;
+                mockScheduler.shutdown();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_003: [The function shall schedule the renewal after sasTokenRenewalRatio
+    // of tokenValidSecs has elapsed.]
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_004: [After a renewal, the function shall schedule the next one after
+    // sasTokenRenewalRatio of tokenValidSecs has elapsed.]
+    @Test
+    public void startSchedulesRenewalAfterRatioOfTokenLifetime() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTaskScheduler();
+                result = mockScheduler;
+                mockConfig.getTokenValidSecs();
+                result = 100l;
+                mockConfig.getSasTokenRenewalRatio();
+                result = 0.5;
+            }
+        };
+        IotHubSasTokenRenewer renewer = new IotHubSasTokenRenewer(mockConfig, mockRenewal);
+
+        renewer.start();
+
+        final List<Runnable> renewals = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule(withCapture(renewals), 50000l, TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+        renewals.get(0).run();
+        new Verifications()
+        {
+            {
+                mockRenewal.renew();
+                times = 1;
+                mockScheduler.schedule((Runnable) any, 50000l, TimeUnit.MILLISECONDS);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_005: [If the renewal throws an IOException, the function shall
+    // retry it after the sleep interval of the number of failed attempts.]
+    @Test
+    public void failedRenewalIsRetriedWithBackOff() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTaskScheduler();
+                result = mockScheduler;
+                mockConfig.getTokenValidSecs();
+                result = 100l;
+                mockConfig.getSasTokenRenewalRatio();
+                result = 0.5;
+                mockRenewal.renew();
+                result = new IOException();
+            }
+        };
+        IotHubSasTokenRenewer renewer = new IotHubSasTokenRenewer(mockConfig, mockRenewal);
+        renewer.start();
+        final List<Runnable> renewals = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule(withCapture(renewals), anyLong, TimeUnit.MILLISECONDS);
+            }
+        };
+
+        renewals.get(0).run();
+
+        final long retryDelay = TransportUtils.generateSleepInterval(1);
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule((Runnable) any, retryDelay, TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_006: [The function shall cancel the pending renewal.]
+    // Tests_SRS_IOTHUBSASTOKENRENEWER_21_007: [The function shall shut down the scheduler created by the
+    // constructor, but not the task scheduler of the config.]
+    @Test
+    public void closeCancelsPendingRenewalWithoutShuttingDownSharedScheduler() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTaskScheduler();
+                result = mockScheduler;
+                mockConfig.getTokenValidSecs();
+                result = 100l;
+                mockConfig.getSasTokenRenewalRatio();
+                result = 0.5;
+                mockScheduler.schedule((Runnable) any, anyLong, (TimeUnit) any);
+                result = mockFuture;
+            }
+        };
+        IotHubSasTokenRenewer renewer = new IotHubSasTokenRenewer(mockConfig, mockRenewal);
+        renewer.start();
+        final List<Runnable> renewals = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule(withCapture(renewals), anyLong, TimeUnit.MILLISECONDS);
+            }
+        };
+
+        renewer.close();
+        renewals.get(0).run();
+
+        new Verifications()
+        {
+            {
+                mockFuture.cancel(false);
+                times = 1;
+                mockRenewal.renew();
+                times = 0;
+                mockScheduler.shutdown();
+                times = 0;
+            }
+        };
+    }
+}
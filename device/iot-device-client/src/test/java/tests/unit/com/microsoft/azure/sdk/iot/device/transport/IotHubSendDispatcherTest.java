@@ -0,0 +1,226 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendDispatcher;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
+import mockit.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for IotHubSendDispatcher. */
+public class IotHubSendDispatcherTest
+{
+    @Mocked MqttTransport mockTransport;
+    @Mocked IotHubSendTask mockSendTask;
+    @Mocked ScheduledExecutorService mockScheduler;
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_001: [If the transport or the scheduler is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorFailsForNullTransport()
+    {
+        new IotHubSendDispatcher(null, mockScheduler, 10);
+    }
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_001: [If the transport or the scheduler is null, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorFailsForNullScheduler()
+    {
+        new IotHubSendDispatcher(mockTransport, null, 10);
+    }
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_002: [If retryPeriodMillis is not positive, the constructor shall throw an IllegalArgumentException.]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorFailsForZeroRetryPeriod()
+    {
+        new IotHubSendDispatcher(mockTransport, mockScheduler, 0);
+    }
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_003: [The constructor shall create a send task for the transport.]
+    @Test
+    public void constructorCreatesSendTask()
+    {
+        new IotHubSendDispatcher(mockTransport, mockScheduler, 10);
+
+        new Verifications()
+        {
+            {
+                new IotHubSendTask(mockTransport);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_005: [The function shall run the send task in the scheduler, unless it
+    // is already waiting to run, so the messages queued in the meantime are sent together.]
+    @Test
+    public void messageQueuedSendsMessagesQueuedTogetherOnce()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.isEmpty();
+                result = true;
+            }
+        };
+        IotHubSendDispatcher dispatcher = new IotHubSendDispatcher(mockTransport, mockScheduler, 10);
+
+        dispatcher.messageQueued();
+        dispatcher.messageQueued();
+        dispatcher.messageQueued();
+
+        final List<Runnable> drainers = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.execute(withCapture(drainers));
+                times = 1;
+            }
+        };
+        drainers.get(0).run();
+
+        new Verifications()
+        {
+            {
+                mockSendTask.run();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_005: [The function shall run the send task in the scheduler, unless it
+    // is already waiting to run, so the messages queued in the meantime are sent together.]
+    @Test
+    public void messageQueuedRunsSendTaskAgainAfterPreviousRunFinished()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.isEmpty();
+                result = true;
+            }
+        };
+        IotHubSendDispatcher dispatcher = new IotHubSendDispatcher(mockTransport, mockScheduler, 10);
+        dispatcher.messageQueued();
+        final List<Runnable> drainers = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.execute(withCapture(drainers));
+            }
+        };
+        drainers.get(0).run();
+
+        dispatcher.messageQueued();
+
+        new Verifications()
+        {
+            {
+                mockScheduler.execute((Runnable) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_006: [After running the send task, if the transport is not empty, the function
+    // shall run it again after retryPeriodMillis milliseconds.]
+    @Test
+    public void drainerSchedulesRetryWhileTransportIsNotEmpty()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.isEmpty();
+                result = false;
+            }
+        };
+        IotHubSendDispatcher dispatcher = new IotHubSendDispatcher(mockTransport, mockScheduler, 10);
+        dispatcher.messageQueued();
+        final List<Runnable> drainers = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.execute(withCapture(drainers));
+            }
+        };
+
+        drainers.get(0).run();
+
+        final List<Runnable> retries = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule(withCapture(retries), 10, TimeUnit.MILLISECONDS);
+                times = 1;
+            }
+        };
+        retries.get(0).run();
+        new Verifications()
+        {
+            {
+                mockScheduler.execute((Runnable) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_006: [After running the send task, if the transport is not empty, the function
+    // shall run it again after retryPeriodMillis milliseconds.]
+    @Test
+    public void drainerDoesNotScheduleRetryIfTransportIsEmpty()
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockTransport.isEmpty();
+                result = true;
+            }
+        };
+        IotHubSendDispatcher dispatcher = new IotHubSendDispatcher(mockTransport, mockScheduler, 10);
+        dispatcher.messageQueued();
+        final List<Runnable> drainers = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.execute(withCapture(drainers));
+            }
+        };
+
+        drainers.get(0).run();
+
+        new Verifications()
+        {
+            {
+                mockScheduler.schedule((Runnable) any, anyLong, (TimeUnit) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_004: [If the dispatcher is closed, the function shall do nothing.]
+    // Tests_SRS_IOTHUBSENDDISPATCHER_21_007: [The function shall stop running the send task, without shutting down the scheduler.]
+    @Test
+    public void messageQueuedDoesNothingIfClosed()
+    {
+        IotHubSendDispatcher dispatcher = new IotHubSendDispatcher(mockTransport, mockScheduler, 10);
+        dispatcher.close();
+
+        dispatcher.messageQueued();
+
+        new Verifications()
+        {
+            {
+                mockScheduler.execute((Runnable) any);
+                times = 0;
+                mockScheduler.shutdown();
+                times = 0;
+            }
+        };
+    }
+}
@@ -9,6 +9,7 @@ import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubMessageResult;
 import com.microsoft.azure.sdk.iot.device.ObjectLock;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
 import com.microsoft.azure.sdk.iot.device.net.IotHubUri;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsIotHubConnection;
@@ -21,7 +22,9 @@ import com.microsoft.azure.sdk.iot.deps.ws.WebSocketHandler;
 import mockit.*;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.Data;
 import org.apache.qpid.proton.amqp.messaging.Source;
 import org.apache.qpid.proton.amqp.messaging.Target;
 import org.apache.qpid.proton.amqp.transport.SenderSettleMode;
@@ -34,11 +37,18 @@ import org.apache.qpid.proton.reactor.Reactor;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class AmqpsIotHubConnectionTest {
 
@@ -82,6 +92,9 @@ public class AmqpsIotHubConnectionTest {
     @Mocked
     protected IotHubSasToken mockSasToken;
 
+    @Mocked
+    protected IotHubSasTokenProvider mockSasTokenProvider;
+
     @Mocked
     protected Sender mockSender;
 
@@ -307,6 +320,24 @@ public class AmqpsIotHubConnectionTest {
         new AmqpsIotHubConnection(mockConfig, false);
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_016: [The constructor shall create a SAS token provider for the
+    // configuration, shared by all the connections opened by this instance.]
+    @Test
+    public void constructorCreatesSasTokenProvider() throws IOException
+    {
+        baseExpectations();
+
+        new AmqpsIotHubConnection(mockConfig, false);
+
+        new Verifications()
+        {
+            {
+                new IotHubSasTokenProvider(mockConfig);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_002: [The constructor shall save the configuration into private member variables.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_003: [The constructor shall initialize the sender and receiver
     // endpoint private member variables using the send/receiveEndpointFormat constants and device id.]
@@ -378,28 +409,38 @@ public class AmqpsIotHubConnectionTest {
         new Verifications()
         {
             {
-                new IotHubSasToken(mockConfig, anyLong);
+                mockSasTokenProvider.getSasToken();
                 times = 0;
             }
         };
     }
 
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_008: [The function shall create a new sasToken valid for the duration
-    // specified in config to be used for the communication with IoTHub.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_008: [The function shall get the sasToken from the SAS token provider,
+    // which creates a new one valid for the duration specified in config only if the current one should be renewed.]
     @Test
-    public void openCreatesSasToken() throws IOException, InterruptedException
+    public void openGetsSasTokenFromProvider() throws IOException, InterruptedException
     {
+        final String sasToken = "SharedAccessSignature sr=test&sig=test&se=1";
         baseExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockSasTokenProvider.getSasToken();
+                result = sasToken;
+            }
+        };
 
         AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
         connection.open();
 
+        assertEquals(sasToken, Deencapsulation.getField(connection, "sasToken"));
+
         new Verifications()
         {
             {
-                new IotHubSasToken(mockConfig, anyLong);
+                mockSasTokenProvider.getSasToken();
                 times = 1;
             }
         };
@@ -430,7 +471,7 @@ public class AmqpsIotHubConnectionTest {
         new Verifications()
         {
             {
-                new IotHubSasToken(mockConfig, anyLong);
+                mockSasTokenProvider.getSasToken();
                 times = 1;
                 new IotHubReactor((Reactor)any);
                 times = 1;
@@ -617,21 +658,76 @@ public class AmqpsIotHubConnectionTest {
         assertEquals(expectedDeliveryHash, actualDeliveryHash);
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_004: [The function shall queue the message for the reactor thread,
+    // wake up the reactor, and return a non-negative id for the message.]
+    @Test
+    public void sendMessageQueuesMessageForReactor() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+
+        Integer firstSendId = connection.sendMessage(mockProtonMessage);
+        Integer secondSendId = connection.sendMessage(mockProtonMessage);
+
+        assertEquals((Integer) 0, firstSendId);
+        assertEquals((Integer) 1, secondSendId);
+        Queue<?> outboundMessages = Deencapsulation.getField(connection, "outboundMessages");
+        assertEquals(2, outboundMessages.size());
+        new Verifications()
+        {
+            {
+                mockReactor.wakeup();
+                times = 2;
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                times = 0;
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_003: [If the messages queued for the reactor already use all the link
+    // credit, the function shall return -1.]
+    @Test
+    public void sendMessageReturnsMinusOneIfQueuedMessagesUseAllLinkCredit() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 1);
+
+        Integer firstSendId = connection.sendMessage(mockProtonMessage);
+        Integer secondSendId = connection.sendMessage(mockProtonMessage);
+
+        assertEquals((Integer) 0, firstSendId);
+        assertEquals((Integer) (-1), secondSendId);
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_016: [The function shall encode the message and copy the contents to the byte buffer.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_017: [The function shall set the delivery tag for the sender.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_018: [The function shall attempt to send the message using the sender link.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_019: [The function shall advance the sender link.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_020: [The function shall set the delivery hash to the value returned by the sender link.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_021: [The function shall return the delivery hash.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_005: [The function shall attach the id of the message to its delivery.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_008: [The event handler shall send the queued messages while the sender
+    // link has credit.]
     @Test
-    public void sendMessage() throws IOException
+    public void onReactorQuiescedSendsQueuedMessages() throws IOException
     {
         baseExpectations();
 
         new NonStrictExpectations()
         {
             {
-                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                mockSender.getCredit();
+                result = 100;
                 mockSender.delivery((byte[]) any);
                 result = mockDelivery;
             }
@@ -642,11 +738,9 @@ public class AmqpsIotHubConnectionTest {
         Deencapsulation.setField(connection, "state", State.OPEN);
         Deencapsulation.setField(connection, "linkCredit", 100);
         Deencapsulation.setField(connection, "sender", mockSender);
+        final Integer sendId = connection.sendMessage(mockProtonMessage);
 
-        Integer expectedDeliveryHash = mockDelivery.hashCode();
-        Integer actualDeliveryHash = connection.sendMessage(mockProtonMessage);
-
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
+        connection.onReactorQuiesced(mockEvent);
 
         new Verifications()
         {
@@ -655,16 +749,246 @@ public class AmqpsIotHubConnectionTest {
                 times = 1;
                 mockSender.delivery((byte[]) any);
                 times = 1;
+                mockDelivery.setContext(sendId);
+                times = 1;
                 mockSender.send((byte[]) any, anyInt, anyInt);
                 times = 1;
                 mockSender.advance();
                 times = 1;
-                mockDelivery.hashCode();
+            }
+        };
+        Queue<?> outboundMessages = Deencapsulation.getField(connection, "outboundMessages");
+        assertTrue(outboundMessages.isEmpty());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_008: [The event handler shall send the queued messages while the sender
+    // link has credit.]
+    @Test
+    public void onReactorQuiescedDoesNotSendWithoutLinkCredit() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockSender.getCredit();
+                result = 0;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.sendMessage(mockProtonMessage);
+
+        connection.onReactorQuiesced(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+        Queue<?> outboundMessages = Deencapsulation.getField(connection, "outboundMessages");
+        assertEquals(1, outboundMessages.size());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_001: [The function shall encode the message in a buffer kept between
+    // calls, grown before encoding to fit the message body, so that the message is usually encoded only once.]
+    @Test
+    public void sendMessageEncodesLargeMessageOnceInBufferKeptBetweenCalls() throws IOException
+    {
+        baseExpectations();
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        final List<byte[]> sentBuffers = new ArrayList<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockProtonMessage.getBody();
+                result = new Data(new Binary(new byte[100 * 1024]));
+                mockSender.getCredit();
+                result = 100;
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        connection.sendMessage(mockProtonMessage);
+        connection.onReactorQuiesced(mockEvent);
+        connection.sendMessage(mockProtonMessage);
+        connection.onReactorQuiesced(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                times = 2;
+                mockSender.send(withCapture(sentBuffers), 0, anyInt);
+                times = 2;
+            }
+        };
+        assertTrue(sentBuffers.get(0).length >= 100 * 1024);
+        assertSame(sentBuffers.get(0), sentBuffers.get(1));
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_002: [If the message does not fit in the buffer, the function
+    // shall double the buffer and encode the message again.]
+    @Test
+    public void sendMessageGrowsBufferIfMessageDoesNotFit() throws IOException
+    {
+        baseExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                result = new BufferOverflowException();
+                result = 10;
+                mockSender.getCredit();
+                result = 100;
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        final int initialLength = ((byte[]) Deencapsulation.getField(connection, "encodeBuffer")).length;
+
+        connection.sendMessage(mockProtonMessage);
+        connection.onReactorQuiesced(mockEvent);
+
+        final byte[] encodeBuffer = Deencapsulation.getField(connection, "encodeBuffer");
+        assertEquals(initialLength * 2, encodeBuffer.length);
+        new Verifications()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                times = 2;
+                mockSender.send(encodeBuffer, 0, 10);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_009: [The function shall drop the messages queued for the reactor; the
+    // listeners send them again after the connection is reestablished.]
+    @Test
+    public void closeDropsQueuedMessages() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        connection.sendMessage(mockProtonMessage);
+
+        connection.close();
+
+        Queue<?> outboundMessages = Deencapsulation.getField(connection, "outboundMessages");
+        assertTrue(outboundMessages.isEmpty());
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_011: [The function shall request the renewal and wake up the reactor,
+    // without changing the Proton objects, so the reactor thread reconnects with a new SAS token.]
+    @Test
+    public void renewSasTokenWakesUpReactorWithoutClosingConnection() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.addListener(mockServerListener);
+
+        connection.renewSasToken();
+
+        State state = Deencapsulation.getField(connection, "state");
+        Boolean renewalRequested = Deencapsulation.getField(connection, "sasTokenRenewalRequested");
+        assertEquals(State.OPEN, state);
+        assertTrue(renewalRequested);
+        new Verifications()
+        {
+            {
+                mockReactor.wakeup();
+                times = 1;
+                mockServerListener.connectionLost();
+                times = 0;
+                mockSender.close();
+                times = 0;
+                mockReactor.stop();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_012: [If a SAS token renewal was requested, the event handler shall
+    // notify the listeners that the connection was lost, and close the connection so the reactor opens it again
+    // with a new SAS token.]
+    @Test
+    public void onReactorQuiescedReconnectsWhenRenewalWasRequested() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.addListener(mockServerListener);
+        connection.renewSasToken();
+
+        connection.onReactorQuiesced(mockEvent);
+
+        State state = Deencapsulation.getField(connection, "state");
+        Boolean reconnectCall = Deencapsulation.getField(connection, "reconnectCall");
+        Boolean renewalRequested = Deencapsulation.getField(connection, "sasTokenRenewalRequested");
+        assertEquals(State.CLOSED, state);
+        assertTrue(reconnectCall);
+        assertFalse(renewalRequested);
+        new Verifications()
+        {
+            {
+                mockServerListener.connectionLost();
+                times = 1;
+                mockSender.close();
+                times = 1;
+                mockReactor.stop();
                 times = 1;
             }
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_010: [If the AMQPS connection is not open, the function shall do nothing.]
+    @Test
+    public void renewSasTokenDoesNothingIfConnectionIsNotOpen() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.CLOSED);
+        connection.addListener(mockServerListener);
+
+        connection.renewSasToken();
+
+        Boolean reconnectCall = Deencapsulation.getField(connection, "reconnectCall");
+        assertEquals(false, reconnectCall);
+        new Verifications()
+        {
+            {
+                mockServerListener.connectionLost();
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_022: [If the AMQPS Connection is closed, the function shall return false.]
     @Test
     public void sendMessageReturnsFalseIfConnectionIsClosed() throws IOException
@@ -683,19 +1007,14 @@ public class AmqpsIotHubConnectionTest {
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_023: [If the message result is COMPLETE, ABANDON, or REJECT,
     // the function shall acknowledge the last message with acknowledgement type COMPLETE, ABANDON, or REJECT respectively.]
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_024: [The function shall return true after the message was acknowledged.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_024: [The function shall return true after the acknowledgement was queued.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_014: [The event handler shall first settle the deliveries of the queued
+    // acknowledgements, so they are sent before the connection is closed for a renewal.]
     @Test
     public void sendMessageAcknowledgesProperlyBasedOnMessageResult() throws IOException
     {
         baseExpectations();
 
-        new NonStrictExpectations()
-        {
-            {
-                mockAmqpsMessage.acknowledge(AmqpsMessage.ACK_TYPE.COMPLETE);
-            }
-        };
-
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
 
         Deencapsulation.setField(connection, "state", State.OPEN);
@@ -707,6 +1026,8 @@ public class AmqpsIotHubConnectionTest {
 
             assertEquals(expectedResult, actualResult);
 
+            connection.onReactorQuiesced(mockEvent);
+
             new Verifications()
             {
                 {
@@ -717,6 +1038,60 @@ public class AmqpsIotHubConnectionTest {
         }
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_013: [The function shall queue the acknowledgement for the reactor thread,
+    // which owns the receiver link, and wake up the reactor.]
+    @Test
+    public void sendMessageResultQueuesAcknowledgementForReactor() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+
+        Boolean actualResult = connection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+
+        assertTrue(actualResult);
+        Queue<?> messageResults = Deencapsulation.getField(connection, "messageResults");
+        assertEquals(1, messageResults.size());
+        new Verifications()
+        {
+            {
+                mockAmqpsMessage.acknowledge((AmqpsMessage.ACK_TYPE) any);
+                times = 0;
+                mockReactor.wakeup();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_015: [The function shall drop the acknowledgements queued for the reactor,
+    // since the deliveries of the closed link cannot be settled; the IoT Hub sends their messages again.]
+    @Test
+    public void onReactorQuiescedDropsAcknowledgementsWhenReconnecting() throws IOException
+    {
+        baseExpectations();
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        connection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+        Deencapsulation.setField(connection, "state", State.CLOSED);
+
+        connection.onReactorQuiesced(mockEvent);
+        Deencapsulation.invoke(connection, "closeAsync");
+
+        Queue<?> messageResults = Deencapsulation.getField(connection, "messageResults");
+        assertTrue(messageResults.isEmpty());
+        new Verifications()
+        {
+            {
+                mockAmqpsMessage.acknowledge((AmqpsMessage.ACK_TYPE) any);
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_025: [The event handler shall get the Connection (Proton) object from the event handler and set the host name on the connection.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_026: [The event handler shall create a Session (Proton) object from the connection.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_027: [The event handler shall create a Receiver and Sender (Proton) links and set the protocol tag on them to a predefined constant.]
@@ -1009,6 +1384,8 @@ public class AmqpsIotHubConnectionTest {
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_038: [If this link is the Sender link and the event type is DELIVERY, the event handler shall get the Delivery (Proton) object from the event.]
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_039: [The event handler shall note the remote delivery state and use it and the Delivery (Proton) hash code to inform the AmqpsIotHubConnection of the message receipt.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_006: [The event handler shall identify the message by the id attached
+    // to its delivery.]
     @Test
     public void onDeliverySend() throws IOException
     {
@@ -1027,6 +1404,8 @@ public class AmqpsIotHubConnectionTest {
                 result = mockDelivery;
                 mockDelivery.getRemoteState();
                 result = Accepted.getInstance();
+                mockDelivery.getContext();
+                result = 5;
                 mockServerListener.messageSent(anyInt, true);
             }
         };
@@ -1048,7 +1427,7 @@ public class AmqpsIotHubConnectionTest {
                 times = 1;
                 mockDelivery.getRemoteState();
                 times = 1;
-                mockServerListener.messageSent(mockDelivery.hashCode(), true);
+                mockServerListener.messageSent(5, true);
                 times = 1;
             }
         };
@@ -1067,6 +1446,8 @@ public class AmqpsIotHubConnectionTest {
                 result = mockSender;
                 mockSender.getCredit();
                 result = 100;
+                mockSender.getName();
+                result = "receiver";
             }
         };
 
@@ -1089,6 +1470,46 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_21_007: [The event handler shall send the queued messages while the sender
+    // link has credit.]
+    @Test
+    public void onLinkFlowSendsQueuedMessages() throws IOException
+    {
+        baseExpectations();
+
+        new NonStrictExpectations()
+        {
+            {
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getCredit();
+                result = 100;
+                mockSender.getName();
+                result = "sender";
+                mockSender.delivery((byte[]) any);
+                result = mockDelivery;
+            }
+        };
+
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig, false);
+        Deencapsulation.setField(connection, "state", State.OPEN);
+        Deencapsulation.setField(connection, "linkCredit", 100);
+        Deencapsulation.setField(connection, "sender", mockSender);
+        connection.sendMessage(mockProtonMessage);
+
+        connection.onLinkFlow(mockEvent);
+
+        new Verifications()
+        {
+            {
+                mockSender.send((byte[]) any, anyInt, anyInt);
+                times = 1;
+                mockSender.advance();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_041: [The connection state shall be considered OPEN when the sender link is open remotely.]
     @Test
     public void onLinkRemoteOpen() throws IOException
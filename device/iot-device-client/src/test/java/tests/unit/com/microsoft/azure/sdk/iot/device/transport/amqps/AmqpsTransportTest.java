@@ -6,27 +6,38 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.amqps;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveDispatcher;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSasTokenRenewer;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsMessage;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.AmqpsTransport;
 import mockit.*;
 import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Properties;
 import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /** Unit tests for AmqpsTransport. */
@@ -38,6 +49,9 @@ public class AmqpsTransportTest
     @Mocked
     AmqpsIotHubConnection mockConnection;
 
+    @Mocked
+    IotHubReceiveDispatcher mockReceiveDispatcher;
+
     @Mocked
     AmqpsMessage mockAmqpsMessage;
 
@@ -318,6 +332,7 @@ public class AmqpsTransportTest
     // Tests_SRS_AMQPSTRANSPORT_15_014: [The function shall attempt to send every message on its waiting list, one at a time.]
     // Tests_SRS_AMQPSTRANSPORT_15_036: [The function shall create a new Proton message from the IoTHub message.]
     // Tests_SRS_AMQPSTRANSPORT_15_037: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
+    // Tests_SRS_AMQPSTRANSPORT_21_048: [The function shall check the message body without copying it.]
     @Test
     public void sendMessagesSendsAllMessages(
             @Mocked final Message mockMsg,
@@ -338,6 +353,8 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = messageBytes;
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(messageBytes);
             }
         };
 
@@ -427,6 +444,8 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = messageBytes;
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(messageBytes);
                 new MessageImpl();
                 result = mockProtonMessage;
                 mockMsg.getProperties();
@@ -480,6 +499,8 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = new byte[0];
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(new byte[0]);
             }
         };
 
@@ -519,6 +540,8 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = messageBytes;
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(messageBytes);
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
                 returns (1, 2);
             }
@@ -567,6 +590,8 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = messageBytes;
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(messageBytes);
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
                 returns (1, -1);
             }
@@ -619,6 +644,8 @@ public class AmqpsTransportTest
                 result = mockMsg;
                 mockMsg.getBytes();
                 result = messageBytes;
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(messageBytes);
                 mockMsg.isExpired();
                 returns (true, false);
                 mockConnection.sendMessage((org.apache.qpid.proton.message.Message) any);
@@ -903,6 +930,51 @@ public class AmqpsTransportTest
         Assert.assertTrue(receivedTransportMessages.size() == 2);
     }
 
+    // Tests_SRS_AMQPSTRANSPORT_21_049: [The function shall signal the receive dispatcher for the message put back,
+    // so it is handled again without waiting for another message to arrive.]
+    @Test
+    public void handleMessageSignalsDispatcherIfCannotSendResultBackToServer() throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                new AmqpsIotHubConnection(mockConfig, false);
+                result = mockConnection;
+                mockConfig.getMessageCallback();
+                result = mockMessageCallback;
+                mockMessageCallback.execute((Message) any, any);
+                result = IotHubMessageResult.COMPLETE;
+                mockConnection.sendMessageResult(mockAmqpsMessage, IotHubMessageResult.COMPLETE);
+                result = false;
+            }
+        };
+
+        new MockUp<AmqpsTransport>() {
+            @Mock
+            Message protonMessageToIoTHubMessage(MessageImpl protonMessage) {
+                return new Message();
+            }
+        };
+
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        Queue<AmqpsMessage> receivedMessages = new LinkedBlockingQueue<>();
+        receivedMessages.add(mockAmqpsMessage);
+        Deencapsulation.setField(transport, "receivedMessages", receivedMessages);
+
+        transport.handleMessage();
+
+        Assert.assertEquals(1, receivedMessages.size());
+        new Verifications()
+        {
+            {
+                mockReceiveDispatcher.messageArrived();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_15_029: [If the hash cannot be found in the list of keys for the messages in progress, the method returns.]
     @Test
     public void messageSentReturnsIfThereAreNoMessagesInProgress() throws IOException
@@ -1066,6 +1138,212 @@ public class AmqpsTransportTest
         Assert.assertTrue(receivedMessages.size() == 3);
     }
 
+    // Tests_SRS_AMQPSTRANSPORT_21_044: [The function shall copy each Proton message property that is set
+    // into the IoT Hub message property of the same name, using the property getters directly.]
+    // Tests_SRS_AMQPSTRANSPORT_21_045: [The function shall set the message id and the correlation id of the
+    // IoT Hub message from the Proton message properties, if they are set.]
+    @Test
+    public void protonMessageToIoTHubMessageCopiesProtonProperties(@Mocked final Properties mockProperties)
+    {
+        final byte[] body = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockProtonMessage.getBody();
+                result = new Data(new Binary(body));
+                mockProtonMessage.getProperties();
+                result = mockProperties;
+                mockProtonMessage.getApplicationProperties();
+                result = null;
+                mockProperties.getMessageId();
+                result = "message-1";
+                mockProperties.getCorrelationId();
+                result = "correlation-1";
+                mockProperties.getTo();
+                result = "devices/device1";
+                mockProperties.getSubject();
+                result = "subject1";
+                mockProperties.getUserId();
+                result = null;
+                mockProperties.getContentType();
+                result = null;
+                mockProperties.getContentEncoding();
+                result = null;
+                mockProperties.getAbsoluteExpiryTime();
+                result = null;
+                mockProperties.getCreationTime();
+                result = null;
+                mockProperties.getGroupSequence();
+                result = null;
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+
+        Message message = Deencapsulation.invoke(transport, "protonMessageToIoTHubMessage", mockProtonMessage);
+
+        assertArrayEquals(body, message.getBytes());
+        assertEquals("message-1", message.getMessageId());
+        assertEquals("correlation-1", message.getCorrelationId());
+        assertEquals("message-1", message.getProperty("messageId"));
+        assertEquals("correlation-1", message.getProperty("correlationId"));
+        assertEquals("subject1", message.getProperty("subject"));
+        assertNull(message.getProperty("to"));
+        assertNull(message.getProperty("userId"));
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_044: [The function shall copy each Proton message property that is set
+    // into the IoT Hub message property of the same name, using the property getters directly.]
+    @Test
+    public void protonMessageToIoTHubMessageCopiesApplicationPropertiesWithoutProtonProperties()
+    {
+        final Map<String, String> applicationProperties = new HashMap<>();
+        applicationProperties.put("key1", "value1");
+        new NonStrictExpectations()
+        {
+            {
+                mockProtonMessage.getBody();
+                result = new Data(new Binary(new byte[0]));
+                mockProtonMessage.getProperties();
+                result = null;
+                mockProtonMessage.getApplicationProperties();
+                result = new ApplicationProperties(applicationProperties);
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+
+        Message message = Deencapsulation.invoke(transport, "protonMessageToIoTHubMessage", mockProtonMessage);
+
+        assertEquals("value1", message.getProperty("key1"));
+        assertEquals(1, message.getProperties().length);
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_040: [The function shall dispatch the received messages on up to the
+    // message callback threads of the configuration.]
+    // Tests_SRS_AMQPSTRANSPORT_21_043: [The function shall dispatch the received messages on the task scheduler
+    // of the configuration, if one is set.]
+    @Test
+    public void openCreatesReceiveDispatcher(@Mocked final ScheduledExecutorService mockSharedScheduler) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallbackThreads();
+                result = 3;
+                mockConfig.getTaskScheduler();
+                result = mockSharedScheduler;
+            }
+        };
+
+        final AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        new Verifications()
+        {
+            {
+                new IotHubReceiveDispatcher(transport, 3, mockSharedScheduler);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_041: [The function shall signal the arrival of the message to the receive dispatcher,
+    // which calls handleMessage to invoke the message callback.]
+    @Test
+    public void messageReceivedSignalsReceiveDispatcher() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        transport.messageReceived(mockAmqpsMessage);
+
+        new Verifications()
+        {
+            {
+                mockReceiveDispatcher.messageArrived();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_042: [The function shall stop dispatching the received messages.]
+    @Test
+    public void closeClosesReceiveDispatcher() throws IOException
+    {
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        transport.close();
+
+        new Verifications()
+        {
+            {
+                mockReceiveDispatcher.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_046: [If the configuration has a device key, the function shall start renewing
+    // the SAS token before it expires, by reconnecting with a new one.]
+    @Test
+    public void openStartsSasTokenRenewalThatReconnects(@Mocked final IotHubSasTokenRenewer mockRenewer) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = "test-devicekey";
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+        final List<IotHubSasTokenRenewer.Renewal> renewals = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                new IotHubSasTokenRenewer(mockConfig, withCapture(renewals));
+                times = 1;
+                mockRenewer.start();
+                times = 1;
+            }
+        };
+
+        renewals.get(0).renew();
+
+        new Verifications()
+        {
+            {
+                mockConnection.renewSasToken();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSTRANSPORT_21_047: [The function shall stop renewing the SAS token.]
+    @Test
+    public void closeStopsSasTokenRenewal(@Mocked final IotHubSasTokenRenewer mockRenewer) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = "test-devicekey";
+            }
+        };
+        AmqpsTransport transport = new AmqpsTransport(mockConfig, false);
+        transport.open();
+
+        transport.close();
+
+        new Verifications()
+        {
+            {
+                mockRenewer.close();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSTRANSPORT_15_035: [The function shall return true if the waiting list,
     // in progress list and callback list are all empty, and false otherwise.]
     @Test
@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import javax.naming.SizeLimitExceededException;
 
@@ -145,6 +146,7 @@ public class HttpsBatchMessageTest
     {
         final int msgBodySize = SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES / 2 + 1;
         final byte[] msgBodyBytes = new byte[msgBodySize];
+        Arrays.fill(msgBodyBytes, (byte) 'a');
         final String msgBody = new String(msgBodyBytes, UTF8);
         final boolean isBase64Encoded = false;
         new NonStrictExpectations()
@@ -266,4 +268,163 @@ public class HttpsBatchMessageTest
 
         assertThat(httpsBatchMessageSizeLimitVerified, is(true));
     }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_002: [The function shall add the message as a JSON object appended to the current JSON array.]
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_001: [The function shall encode the message once, and compute the size of
+    // the batch from the size of the encoded message, without encoding the messages already in the batch again.]
+    @Test
+    public void addMessageBuildsJsonArrayOfManyMessages(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        final int numMessages = 5000;
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = "msg";
+                mockMsg.isBase64Encoded();
+                result = false;
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        for (int i = 0; i < numMessages; i++)
+        {
+            batchMsg.addMessage(mockMsg);
+        }
+
+        StringBuilder expectedBatchBody = new StringBuilder("[");
+        for (int i = 0; i < numMessages; i++)
+        {
+            if (i > 0)
+            {
+                expectedBatchBody.append(",");
+            }
+            expectedBatchBody.append("{\"body\":\"msg\",\"base64Encoded\":false}");
+        }
+        expectedBatchBody.append("]");
+        assertThat(new String(batchMsg.getBody(), UTF8), is(expectedBatchBody.toString()));
+        assertThat(batchMsg.numMessages(), is(numMessages));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_11_008: [If adding the message causes the batched message to exceed 256 kb in size, the function shall throw a SizeLimitExceededException.]
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_001: [The function shall encode the message once, and compute the size of
+    // the batch from the size of the encoded message, without encoding the messages already in the batch again.]
+    @Test
+    public void addMessageAcceptsBatchOfExactlyTheMaxSize(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        // the batch adds 35 bytes around the body: [{"body":"","base64Encoded":false}]
+        final int maxBodySize = HttpsBatchMessage.SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES - 35;
+        final byte[] maxBody = new byte[maxBodySize];
+        final byte[] tooLargeBody = new byte[maxBodySize + 1];
+        Arrays.fill(maxBody, (byte) 'a');
+        Arrays.fill(tooLargeBody, (byte) 'a');
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                returns(new String(maxBody, UTF8), new String(tooLargeBody, UTF8));
+                mockMsg.isBase64Encoded();
+                result = false;
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        batchMsg.addMessage(mockMsg);
+        assertThat(batchMsg.getBody().length, is(HttpsBatchMessage.SERVICEBOUND_MESSAGE_MAX_SIZE_BYTES));
+
+        boolean sizeLimitExceeded = false;
+        try
+        {
+            new HttpsBatchMessage().addMessage(mockMsg);
+        }
+        catch (SizeLimitExceededException e)
+        {
+            sizeLimitExceeded = true;
+        }
+        assertThat(sizeLimitExceeded, is(true));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_002: [If the batch Base64-encodes the bodies, the field "body" shall be set
+    // to the Base64 encoding of the raw message, unless the message is already Base64-encoded.]
+    @Test
+    public void addMessageBase64EncodesBinaryBody(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        final byte[] msgBody = {0x00, (byte) 0xff, 0x22};
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBody();
+                result = msgBody;
+                mockMsg.isBase64Encoded();
+                result = false;
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage(true);
+        batchMsg.addMessage(mockMsg);
+
+        assertThat(new String(batchMsg.getBody(), UTF8), is("[{\"body\":\"AP8i\",\"base64Encoded\":true}]"));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_002: [If the batch Base64-encodes the bodies, the field "body" shall be set
+    // to the Base64 encoding of the raw message, unless the message is already Base64-encoded.]
+    @Test
+    public void addMessageDoesNotBase64EncodeBodyTwice(
+            @Mocked final HttpsSingleMessage mockMsg) throws
+            SizeLimitExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = "AP8i";
+                mockMsg.isBase64Encoded();
+                result = true;
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage(true);
+        batchMsg.addMessage(mockMsg);
+
+        assertThat(new String(batchMsg.getBody(), UTF8), is("[{\"body\":\"AP8i\",\"base64Encoded\":true}]"));
+    }
+
+    // Tests_SRS_HTTPSBATCHMESSAGE_21_003: [The function shall escape the quotation marks, reverse solidi and
+    // control characters in the body, if it is not Base64-encoded, and in the property names and values.]
+    @Test
+    public void addMessageEscapesBodyAndProperties(
+            @Mocked final HttpsSingleMessage mockMsg,
+            @Mocked final MessageProperty mockProperty) throws
+            SizeLimitExceededException
+    {
+        final MessageProperty[] properties = { mockProperty };
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBodyAsString();
+                result = "say \"hi\"\\\n\u0001";
+                mockMsg.isBase64Encoded();
+                result = false;
+                mockMsg.getProperties();
+                result = properties;
+                mockProperty.getName();
+                result = "iothub-app-\"name\"";
+                mockProperty.getValue();
+                result = "a\\b";
+            }
+        };
+
+        HttpsBatchMessage batchMsg = new HttpsBatchMessage();
+        batchMsg.addMessage(mockMsg);
+
+        final String expectedBatchBody = "[{\"body\":\"say \\\"hi\\\"\\\\\\n\\u0001\",\"base64Encoded\":false,"
+                + "\"properties\":{\"iothub-app-\\\"name\\\"\":\"a\\\\b\"}}]";
+        assertThat(new String(batchMsg.getBody(), UTF8), is(expectedBatchBody));
+    }
 }
@@ -14,9 +14,11 @@ import mockit.NonStrictExpectations;
 import mockit.Verifications;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -370,8 +372,7 @@ public class HttpsConnectionTest
 
     // Tests_SRS_HTTPSCONNECTION_11_011: [The function shall read from the input stream (response stream) and return the response.]
     @Test
-    public void readInputCompletelyReadsInputStream(
-            @Mocked final InputStream mockIs)
+    public void readInputCompletelyReadsInputStream()
             throws IOException
     {
         final HttpsMethod httpsMethod = HttpsMethod.GET;
@@ -385,9 +386,7 @@ public class HttpsConnectionTest
                 mockUrlConn.getRequestMethod();
                 result = httpsMethod.name();
                 mockUrlConn.getInputStream();
-                result = mockIs;
-                mockIs.read();
-                returns(1, 2, 3, -1);
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
             }
         };
         HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
@@ -460,8 +459,7 @@ public class HttpsConnectionTest
 
     // Tests_SRS_HTTPSCONNECTION_11_013: [The function shall read from the error stream and return the response.]
     @Test
-    public void readErrorCompletelyReadsErrorStream(
-            @Mocked final InputStream mockIs)
+    public void readErrorCompletelyReadsErrorStream()
             throws IOException
     {
         final HttpsMethod httpsMethod = HttpsMethod.GET;
@@ -475,9 +473,7 @@ public class HttpsConnectionTest
                 mockUrlConn.getRequestMethod();
                 result = httpsMethod.name();
                 mockUrlConn.getErrorStream();
-                result = mockIs;
-                mockIs.read();
-                returns(1, 2, 3, -1);
+                result = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
             }
         };
         HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
@@ -703,4 +699,94 @@ public class HttpsConnectionTest
 
         conn.getResponseHeaders();
     }
+
+    // Tests_SRS_HTTPSCONNECTION_21_001: [The function shall read the stream in chunks, into a buffer sized from the
+    // response content length if it is known.]
+    @Test
+    public void readInputReadsStreamLongerThanOneChunk() throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        final byte[] expectedResponse = new byte[20000];
+        Arrays.fill(expectedResponse, (byte) 7);
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getContentLength();
+                result = -1;
+                mockUrlConn.getInputStream();
+                result = new ByteArrayInputStream(expectedResponse);
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+        byte[] testResponse = conn.readInput();
+        assertThat(testResponse, is(expectedResponse));
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_21_001: [The function shall read the stream in chunks, into a buffer sized from the
+    // response content length if it is known.]
+    @Test
+    public void readInputReadsWholeStreamIfLongerThanContentLength() throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        final byte[] expectedResponse = { 1, 2, 3, 4, 5 };
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getContentLength();
+                result = 3;
+                mockUrlConn.getInputStream();
+                result = new ByteArrayInputStream(expectedResponse);
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+        byte[] testResponse = conn.readInput();
+        assertThat(testResponse, is(expectedResponse));
+    }
+
+    // Tests_SRS_HTTPSCONNECTION_21_002: [The function shall return the input stream (response stream) without reading it.]
+    @Test
+    public void getInputStreamReturnsUnreadInputStream(@Mocked final InputStream mockIs) throws IOException
+    {
+        final HttpsMethod httpsMethod = HttpsMethod.GET;
+        new NonStrictExpectations()
+        {
+            {
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.openConnection();
+                result = mockUrlConn;
+                mockUrlConn.getRequestMethod();
+                result = httpsMethod.name();
+                mockUrlConn.getInputStream();
+                result = mockIs;
+            }
+        };
+        HttpsConnection conn = new HttpsConnection(mockUrl, httpsMethod);
+        conn.connect();
+        InputStream testStream = conn.getInputStream();
+        assertThat(testStream, is(mockIs));
+        new Verifications()
+        {
+            {
+                mockIs.read((byte[]) any, anyInt, anyInt);
+                times = 0;
+                mockIs.close();
+                times = 0;
+            }
+        };
+    }
 }
@@ -228,6 +228,40 @@ public class HttpsIotHubConnectionTest
         };
     }
 
+    // Tests_SRS_HTTPSIOTHUBCONNECTION_21_002: [The constructor shall create a SAS token provider for the
+    // configuration, shared by all requests.]
+    @Test
+    public void sendEventReusesSasTokenUntilItShouldBeRenewed(@Mocked final IotHubEventUri mockUri) throws IOException
+    {
+        final String tokenStr = "test-token-str";
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getTokenValidSecs();
+                result = 3600l;
+                mockConfig.getSasTokenRenewalRatio();
+                result = 0.75;
+                mockToken.toString();
+                result = tokenStr;
+            }
+        };
+
+        HttpsIotHubConnection conn = new HttpsIotHubConnection(mockConfig);
+        conn.sendEvent(mockMsg);
+        conn.sendEvent(mockMsg);
+
+        final String expectedTokenStr = tokenStr;
+        new Verifications()
+        {
+            {
+                new IotHubSasToken(mockConfig, anyLong);
+                times = 1;
+                mockRequest.setHeaderField(withMatch("(?i)authorization"), expectedTokenStr);
+                times = 2;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSIOTHUBCONNECTION_11_008: [The function shall set the header field 'iothub-to' to be '/devices/[deviceId]/messages/events'.]
     @Test
     public void sendEventSetsIotHubToToPath(@Mocked final IotHubEventUri mockUri) throws IOException
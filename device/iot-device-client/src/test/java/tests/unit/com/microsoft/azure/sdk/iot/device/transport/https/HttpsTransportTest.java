@@ -29,6 +29,10 @@ import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.naming.SizeLimitExceededException;
 
@@ -189,7 +193,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyBoolean);
                 result = mockBatch;
             }
         };
@@ -229,7 +233,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyBoolean);
                 result = mockBatch;
                 mockConn.sendEvent((HttpsMessage) any);
                 result = new IOException();
@@ -267,6 +271,341 @@ public class HttpsTransportTest
         };
     }
 
+    // Tests_SRS_HTTPSTRANSPORT_21_001: [The function shall send the batch built while moving the messages to the
+    // in-progress list, instead of building it again.]
+    @Test
+    public void sendMessagesBuildsBatchOnce(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                new HttpsBatchMessage(anyBoolean);
+                result = mockBatch;
+                mockConn.sendEvent((HttpsMessage) any);
+                result = new IOException();
+                result = mockStatus;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        try
+        {
+            transport.sendMessages();
+            throw new AssertionFailedError();
+        }
+        catch (IOException e)
+        {
+
+        }
+        transport.sendMessages();
+
+        final HttpsMessage expectedMsg = mockBatch;
+        new Verifications()
+        {
+            {
+                mockBatch.addMessage(mockHttpsMsg);
+                times = 2;
+                mockConn.sendEvent(expectedMsg);
+                times = 2;
+            }
+        };
+        new Verifications()
+        {
+            {
+                new HttpsBatchMessage(anyBoolean);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_002: [The function shall Base64-encode the batched message bodies if the
+    // configuration enables the Base64 batch encoding.]
+    @Test
+    public void sendMessagesBase64EncodesBatchIfConfigured(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final IotHubStatusCode mockStatus)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isBase64BatchEncoding();
+                result = true;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+
+        new Verifications()
+        {
+            {
+                new HttpsBatchMessage(true);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_004: [The function shall batch the waiting messages into as many requests as
+    // may be in flight at the same time, including the requests that had failed.]
+    // Tests_SRS_HTTPSTRANSPORT_21_005: [The function shall send the requests at the same time, and wait for
+    // all of their responses before returning.]
+    @Test
+    public void sendMessagesSendsMaxInFlightBatchesAtTheSameTime(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final Object context1 = new Object();
+        final Object context2 = new Object();
+        final Object context3 = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMaxInFlightBatches();
+                result = 2;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                mockBatch.addMessage((HttpsSingleMessage) any);
+                result = new SizeLimitExceededException();
+                mockConn.sendEvent((HttpsMessage) any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context1);
+        transport.addMessage(mockMsg, mockCallback, context2);
+        transport.addMessage(mockMsg, mockCallback, context3);
+        transport.sendMessages();
+        transport.invokeCallbacks();
+        transport.close();
+
+        new Verifications()
+        {
+            {
+                mockConn.sendEvent(mockHttpsMsg);
+                times = 2;
+            }
+        };
+        new VerificationsInOrder()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.OK_EMPTY, context1);
+                mockCallback.execute(IotHubStatusCode.OK_EMPTY, context2);
+            }
+        };
+        assertThat(transport.isEmpty(), is(false));
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_11_012: [If a previous send request had failed while in progress, the function shall resend the request.]
+    // Tests_SRS_HTTPSTRANSPORT_21_005: [The function shall send the requests at the same time, and wait for
+    // all of their responses before returning.]
+    @Test
+    public void sendMessagesKeepsOnlyFailedBatchInProgress(
+            @Mocked final Message mockMsg1,
+            @Mocked final Message mockMsg2,
+            @Mocked final HttpsSingleMessage mockHttpsMsg1,
+            @Mocked final HttpsSingleMessage mockHttpsMsg2,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        final Object context1 = new Object();
+        final Object context2 = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMaxInFlightBatches();
+                result = 2;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg1);
+                result = mockHttpsMsg1;
+                HttpsSingleMessage.parseHttpsMessage(mockMsg2);
+                result = mockHttpsMsg2;
+                mockBatch.addMessage((HttpsSingleMessage) any);
+                result = new SizeLimitExceededException();
+                mockConn.sendEvent(mockHttpsMsg1);
+                result = new IOException();
+                result = IotHubStatusCode.OK_EMPTY;
+                mockConn.sendEvent(mockHttpsMsg2);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg1, mockCallback, context1);
+        transport.addMessage(mockMsg2, mockCallback, context2);
+        boolean exceptionThrown = false;
+        try
+        {
+            transport.sendMessages();
+        }
+        catch (IOException e)
+        {
+            exceptionThrown = true;
+        }
+        transport.invokeCallbacks();
+        transport.sendMessages();
+        transport.close();
+
+        assertThat(exceptionThrown, is(true));
+        new Verifications()
+        {
+            {
+                mockCallback.execute(IotHubStatusCode.OK_EMPTY, context2);
+                times = 1;
+                mockCallback.execute((IotHubStatusCode) any, context1);
+                times = 0;
+                mockConn.sendEvent(mockHttpsMsg1);
+                times = 2;
+                mockConn.sendEvent(mockHttpsMsg2);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_007: [If the transport is closed while the requests are sent, the function
+    // shall leave the requests it could not send in the in-progress list, wait for the responses of the
+    // requests already sent, and throw an IllegalStateException.]
+    @Test
+    public void sendMessagesKeepsBatchesInProgressIfClosedWhileSending(
+            @Mocked final Message mockMsg,
+            @Mocked final HttpsSingleMessage mockHttpsMsg,
+            @Mocked final IotHubEventCallback mockCallback,
+            @Mocked final HttpsBatchMessage mockBatch,
+            @Mocked final Executors mockExecutors,
+            @Mocked final ExecutorService mockExecutor)
+            throws URISyntaxException, IOException, SizeLimitExceededException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMaxInFlightBatches();
+                result = 2;
+                Executors.newFixedThreadPool(anyInt);
+                result = mockExecutor;
+                mockExecutor.submit((Callable) any);
+                result = new RejectedExecutionException();
+                HttpsSingleMessage.parseHttpsMessage(mockMsg);
+                result = mockHttpsMsg;
+                mockBatch.addMessage((HttpsSingleMessage) any);
+                result = new SizeLimitExceededException();
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, new Object());
+        transport.addMessage(mockMsg, mockCallback, new Object());
+        boolean exceptionThrown = false;
+        try
+        {
+            transport.sendMessages();
+        }
+        catch (IllegalStateException e)
+        {
+            exceptionThrown = true;
+        }
+
+        assertThat(exceptionThrown, is(true));
+        assertThat(transport.isEmpty(), is(false));
+        new Verifications()
+        {
+            {
+                mockConn.sendEvent((HttpsMessage) any);
+                times = 0;
+                mockCallback.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_003: [If the configuration allows more than one batch in flight, the
+    // function shall create a pool of maxInFlightBatches - 1 threads to send the batches beyond the first one.]
+    // Tests_SRS_HTTPSTRANSPORT_21_006: [The function shall shut down the pool of threads sending the batches.]
+    @Test
+    public void openCreatesSendPoolAndCloseShutsItDown(
+            @Mocked final Executors mockExecutors,
+            @Mocked final ExecutorService mockExecutor)
+            throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMaxInFlightBatches();
+                result = 3;
+                Executors.newFixedThreadPool(anyInt);
+                result = mockExecutor;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+        transport.close();
+
+        new Verifications()
+        {
+            {
+                Executors.newFixedThreadPool(2);
+                times = 1;
+                mockExecutor.shutdown();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_HTTPSTRANSPORT_21_003: [If the configuration allows more than one batch in flight, the
+    // function shall create a pool of maxInFlightBatches - 1 threads to send the batches beyond the first one.]
+    @Test
+    public void openDoesNotCreateSendPoolForOneBatchInFlight(
+            @Mocked final Executors mockExecutors)
+            throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMaxInFlightBatches();
+                result = 1;
+            }
+        };
+
+        HttpsTransport transport = new HttpsTransport(mockConfig);
+        transport.open();
+
+        new Verifications()
+        {
+            {
+                Executors.newFixedThreadPool(anyInt);
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_HTTPSTRANSPORT_11_013: [If no messages fit using the batch format, the function shall send a single message without the batch format.]
     @Test
     public void sendMessagesSendsSingleMesssageIfBatchFormatExceedsMaxSize(
@@ -283,7 +622,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyBoolean);
                 result = mockBatch;
                 mockBatch.addMessage(mockHttpsMsg);
                 result = new SizeLimitExceededException();
@@ -322,7 +661,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyBoolean);
                 result = mockBatch;
                 mockConn.sendEvent((HttpsMessage) any);
                 result = new IOException();
@@ -356,7 +695,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyBoolean);
                 result = mockBatch;
                 mockConn.sendEvent((HttpsMessage) any);
                 result = iotHubStatus;
@@ -424,7 +763,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyBoolean);
                 result = mockBatch;
                 mockCallbackPacket.getStatus();
                 result = iotHubStatus;
@@ -627,7 +966,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyBoolean);
                 result = mockBatch;
             }
         };
@@ -660,7 +999,7 @@ public class HttpsTransportTest
             {
                 HttpsSingleMessage.parseHttpsMessage(mockMsg);
                 result = mockHttpsMsg;
-                new HttpsBatchMessage();
+                new HttpsBatchMessage(anyBoolean);
                 result = mockBatch;
             }
         };
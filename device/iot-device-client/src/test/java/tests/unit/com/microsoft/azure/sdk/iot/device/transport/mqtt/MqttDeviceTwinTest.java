@@ -15,9 +15,11 @@ import mockit.Verifications;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 
 import static com.microsoft.azure.sdk.iot.device.DeviceTwin.DeviceTwinOperations.*;
@@ -36,7 +38,7 @@ public class MqttDeviceTwinTest
     IOException mockIOException;
 
     /*
-    **Tests_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class without any parameters.**]**
+    **Tests_SRS_MQTTDEVICETWIN_25_001: [**The constructor shall instantiate super class sharing the connection of the given Mqtt instance.**]**
     **Tests_SRS_MQTTDEVICETWIN_25_002: [**The constructor shall construct device twin response subscribeTopic.**]**
      */
     @Test
@@ -46,7 +48,7 @@ public class MqttDeviceTwinTest
 
 
         //act
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
         //assert
         String actualSubscribeTopic = Deencapsulation.getField(testTwin, "subscribeTopic");
         assertNotNull(actualSubscribeTopic);
@@ -61,7 +63,7 @@ public class MqttDeviceTwinTest
     {
         //arrange
 
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
         //act
 
         testTwin.start();
@@ -86,6 +88,8 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
+
             new StrictExpectations()
             {
                 {
@@ -94,7 +98,6 @@ public class MqttDeviceTwinTest
                 }
             };
 
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
 
             //act
             testTwin.start();
@@ -114,7 +117,7 @@ public class MqttDeviceTwinTest
     {
         //arrange
 
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
         //act
 
         testTwin.stop();
@@ -138,6 +141,8 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
+
             new StrictExpectations()
             {
                 {
@@ -146,7 +151,6 @@ public class MqttDeviceTwinTest
                 }
             };
 
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
 
             //act
             testTwin.stop();
@@ -159,18 +163,18 @@ public class MqttDeviceTwinTest
         }
     }
     /*
-    **Tests_SRS_MQTTDEVICETWIN_25_004: [**parseTopic shall look for the twin topic($iothub/twin) prefix from received message queue as per spec.**]**
+    **Tests_SRS_MQTTDEVICETWIN_25_004: [**parseTopic shall return the topic of the oldest message in the received messages queue, which only holds messages on the twin topic($iothub/twin) prefix as per spec.**]**
      */
     @Test
     public void parseTopicLooksForDeviceTwinTopic(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
 
         String insertTopic = "$iothub/twin/res";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, "DataData".getBytes()));
+        Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
         //act
 
@@ -182,25 +186,22 @@ public class MqttDeviceTwinTest
 
     }
     /*
-    **Tests_SRS_MQTTDEVICETWIN_25_005: [**If none of the topics from the received queue match the twin topic prefix then this method shall return null string .**]**
+    **Tests_SRS_MQTTDEVICETWIN_21_055: [**The constructor shall route the messages received on the twin topic prefix ($iothub/twin/) to its received messages queue.**]**
      */
     @Test
-    public void parseTopicReturnsNullIfNoDeviceTwinTopicFound(@Mocked final Mqtt mockMqtt) throws IOException
+    public void constructorRoutesDeviceTwinTopicToItsQueue(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
-
-        String insertTopic = "$iothub/Nottwin/res";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
-
         //act
-        String parsedTopic = testTwin.parseTopic();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
 
         //assert
-        assertNull(parsedTopic);
-
+        new Verifications()
+        {
+            {
+                mockMqtt.routeReceivedMessages("$iothub/twin/");
+                times = 1;
+            }
+        };
     }
     /*
     **Tests_SRS_MQTTDEVICETWIN_25_006: [**If received messages queue is empty then parseTopic shall return null string.**]**
@@ -209,9 +210,9 @@ public class MqttDeviceTwinTest
     public void parseTopicReturnsNullIfRecevedQueueIsEmpty(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
         //act
         String parsedTopic = testTwin.parseTopic();
@@ -226,9 +227,9 @@ public class MqttDeviceTwinTest
     public void parseTopicThrowsExceptionIfQueueIsNull(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
-        ConcurrentSkipListMap<String, byte[]> testMap = null;
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
+        Queue<Map.Entry<String, byte[]>> testQueue = null;
+        Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
         //act
         String parsedTopic = testTwin.parseTopic();
@@ -244,7 +245,7 @@ public class MqttDeviceTwinTest
     public void parsePayloadReturnNullIfTopicIsNull(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
 
         //act
         byte[] parsedPayload = testTwin.parsePayload(null);
@@ -261,9 +262,9 @@ public class MqttDeviceTwinTest
     {
 
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
-        ConcurrentSkipListMap<String, byte[]> testMap = null;
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
+        Queue<Map.Entry<String, byte[]>> testQueue = null;
+        Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
         //act
         byte[] parsedPayload = testTwin.parsePayload(resTopic);
@@ -272,20 +273,20 @@ public class MqttDeviceTwinTest
 
     }
     /*
-    **Tests_SRS_MQTTDEVICETWIN_25_011: [**If the topic is non-null and received messagesqueue could not locate the payload then this method shall throw IOException**]**
+    **Tests_SRS_MQTTDEVICETWIN_25_011: [**If the topic is non-null and is not the topic of the oldest message in the received messages queue then this method shall throw IOException**]**
      */
     @Test (expected = IOException.class)
     public void parsePayloadThrowsExceptionTopicIsNotFound(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
 
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
 
         String insertTopic = "$iothub/twin/res";
         String notTwinTopic = "$iothub/NotTwin/res";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, "DataData".getBytes()));
+        Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
         //act
         byte[] parsedPayload = testTwin.parsePayload(notTwinTopic);
@@ -300,13 +301,13 @@ public class MqttDeviceTwinTest
     public void parsePayloadReturnsBytesForSpecifiedTopic(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
 
         String insertTopic = "$iothub/twin/"+ anyString;
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, insertMessage));
+        Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
         //act
         byte[] parsedPayload = testTwin.parsePayload(insertTopic);
@@ -327,21 +328,42 @@ public class MqttDeviceTwinTest
     public void parsePayloadRemovesTopicIfFound(@Mocked final Mqtt mockMqtt) throws IOException
     {
         //arrange
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
 
         String insertTopic = "$iothub/twin/"+ anyString;
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, insertMessage));
+        Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
         //act
         byte[] parsedPayload = testTwin.parsePayload(insertTopic);
 
         //assert
-        ConcurrentSkipListMap<String, byte[]> retrieveTestMap  = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
-        assertFalse(retrieveTestMap.containsKey(insertTopic));
+        Queue<Map.Entry<String, byte[]>> retrieveTestQueue = Deencapsulation.getField(testTwin, "receivedMessages");
+        assertTrue(retrieveTestQueue.isEmpty());
     }
+    /*
+    **Tests_SRS_MQTTDEVICETWIN_21_056: [**parsePayload shall take the oldest message out of the received messages queue with a single poll, and throw IOException if the queue was emptied in the meantime.**]**
+     */
+    @Test (expected = IOException.class)
+    public void parsePayloadThrowsIfQueueIsDrainedAfterParseTopic(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        //arrange
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
+
+        String insertTopic = "$iothub/twin/res/200/?$rid=1";
+        final byte[] insertMessage = {0x61, 0x62, 0x63};
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, insertMessage));
+        Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
+        String topic = testTwin.parseTopic();
+        testQueue.clear();
+
+        //act
+        testTwin.parsePayload(topic);
+    }
+
     /*
     **Tests_SRS_MQTTDEVICETWIN_25_024: [**send method shall build the get request topic of the format mentioned in spec ($iothub/twin/GET/?$rid={request id}) if the operation is of type DEVICE_TWIN_OPERATION_GET_REQUEST.**]**
      */
@@ -351,7 +373,7 @@ public class MqttDeviceTwinTest
         //arrange
         final byte[] actualPayload = {0x61, 0x62, 0x63};
         final String expectedTopic = "$iothub/twin/GET/?$rid="+mockReqId;
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
         new NonStrictExpectations()
         {
             {
@@ -377,7 +399,7 @@ public class MqttDeviceTwinTest
             {
                 mockMessage.getBytes();
                 times = 2;
-                mockMqtt.publish(expectedTopic, actualPayload);
+                mockMqtt.publish(expectedTopic, actualPayload, any);
                 times = 1;
 
             }
@@ -396,7 +418,7 @@ public class MqttDeviceTwinTest
         {
             //arrange
 
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             new NonStrictExpectations()
             {
                 {
@@ -424,7 +446,7 @@ public class MqttDeviceTwinTest
                 {
                     mockMessage.getBytes();
                     times = 1;
-                    mockMqtt.publish(expectedTopic, actualPayload);
+                    mockMqtt.publish(expectedTopic, actualPayload, any);
                     times = 0;
 
                 }
@@ -441,7 +463,7 @@ public class MqttDeviceTwinTest
         //arrange
         final byte[] actualPayload = {0x61, 0x62, 0x63};
         final String expectedTopic = "$iothub/twin/PATCH/properties/reported/?$rid="+ mockReqId + "&$version=" + mockVersion;
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
         new NonStrictExpectations()
         {
             {
@@ -468,7 +490,7 @@ public class MqttDeviceTwinTest
             {
                 mockMessage.getBytes();
                 times = 2;
-                mockMqtt.publish(expectedTopic, actualPayload);
+                mockMqtt.publish(expectedTopic, actualPayload, any);
                 times = 1;
 
             }
@@ -485,7 +507,7 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             new NonStrictExpectations()
             {
                 {
@@ -511,7 +533,7 @@ public class MqttDeviceTwinTest
                 {
                     mockMessage.getBytes();
                     times = 1;
-                    mockMqtt.publish(expectedTopic, actualPayload);
+                    mockMqtt.publish(expectedTopic, actualPayload, any);
                     times = 0;
 
                 }
@@ -528,7 +550,7 @@ public class MqttDeviceTwinTest
         //arrange
         final byte[] actualPayload = {0x61, 0x62, 0x63};
         final String expectedTopic = "$iothub/twin/PATCH/properties/desired/#";
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
         new NonStrictExpectations()
         {
             {
@@ -555,7 +577,7 @@ public class MqttDeviceTwinTest
                 times = 1;
                 mockMqtt.subscribe(expectedTopic);
                 times = 1;
-                mockMqtt.publish(expectedTopic, actualPayload);
+                mockMqtt.publish(expectedTopic, actualPayload, any);
                 times = 0;
 
             }
@@ -573,7 +595,7 @@ public class MqttDeviceTwinTest
         final byte[] actualPayload = {0x61, 0x62, 0x63};
         final String expectedTopic = "$iothub/twin/PATCH/properties/desired/?$version="+ mockVersion;
         final String expectedSubscribeTopic = "$iothub/twin/PATCH/properties/desired/#";
-        MqttDeviceTwin testTwin = new MqttDeviceTwin();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
         new NonStrictExpectations()
         {
             {
@@ -599,13 +621,50 @@ public class MqttDeviceTwinTest
                 times = 1;
                 mockMqtt.subscribe(expectedSubscribeTopic);
                 times = 1;
-                mockMqtt.publish(expectedTopic, actualPayload);
+                mockMqtt.publish(expectedTopic, actualPayload, any);
                 times = 0;
 
             }
         };
 
     }
+    /*
+    **Tests_SRS_MQTTDEVICETWIN_21_054: [**send method shall notify the delivery listener that the message was delivered once the subscription completed, as no PUBACK is expected for it.**]**
+     */
+    @Test
+    public void sendNotifiesDeliveryListenerForSubscribeToDesiredProperties(@Mocked final Mqtt mockMqtt, @Mocked final DeviceTwinMessage mockMessage) throws IOException
+    {
+        //arrange
+        final byte[] actualPayload = {0x61, 0x62, 0x63};
+        final Object context = new Object();
+        MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
+        new NonStrictExpectations()
+        {
+            {
+                mockMessage.getMessageType();
+                result = MessageType.DeviceTwin;
+                mockMessage.getDeviceTwinOperationType();
+                result = DEVICE_TWIN_OPERATION_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST;
+                mockMessage.getBytes();
+                result = actualPayload;
+            }
+        };
+
+        //act
+        testTwin.send(mockMessage, context);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqtt.subscribe(anyString);
+                times = 1;
+                mockMqtt.notifyDeliveryListener(context, true);
+                times = 1;
+            }
+        };
+    }
+
     /*
     **Tests_SRS_MQTTDEVICETWIN_25_021: [**send method shall throw an exception if the message is null.**]**
      */
@@ -617,7 +676,7 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
 
             //act
             testTwin.send(null);
@@ -629,7 +688,7 @@ public class MqttDeviceTwinTest
                 {
                     mockMessage.getBytes();
                     times = 0;
-                    mockMqtt.publish(expectedTopic, actualPayload);
+                    mockMqtt.publish(expectedTopic, actualPayload, any);
                     times = 0;
 
                 }
@@ -644,7 +703,7 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             new NonStrictExpectations()
             {
                 {
@@ -669,7 +728,7 @@ public class MqttDeviceTwinTest
                 {
                     mockMessage.getBytes();
                     times = 2;
-                    mockMqtt.publish(expectedTopic, actualPayload);
+                    mockMqtt.publish(expectedTopic, actualPayload, any);
                     times = 1;
 
                 }
@@ -688,11 +747,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
             Map<String, DeviceTwinOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_TWIN_OPERATION_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
@@ -725,11 +784,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             Map<String, DeviceTwinOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_TWIN_OPERATION_UPDATE_REPORTED_PROPERTIES_REQUEST);
@@ -762,11 +821,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -795,11 +854,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -825,11 +884,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -854,11 +913,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             Map<String, DeviceTwinOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_TWIN_OPERATION_GET_REQUEST);
@@ -888,11 +947,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             Map<String, DeviceTwinOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_TWIN_OPERATION_GET_REQUEST);
@@ -926,11 +985,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             Map<String, DeviceTwinOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_TWIN_OPERATION_GET_REQUEST);
@@ -964,11 +1023,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
             Map<String, DeviceTwinOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_TWIN_OPERATION_GET_REQUEST);
             Deencapsulation.setField(testTwin, "requestMap", requestMap);
@@ -1002,11 +1061,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             Map<String, DeviceTwinOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_TWIN_OPERATION_GET_REQUEST);
@@ -1052,11 +1111,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             Map<String, DeviceTwinOperations> requestMap = new HashMap<>();
             requestMap.put(mockReqId, DEVICE_TWIN_OPERATION_UPDATE_REPORTED_PROPERTIES_REQUEST );
@@ -1093,11 +1152,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1135,11 +1194,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1176,11 +1235,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1218,11 +1277,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1246,11 +1305,11 @@ public class MqttDeviceTwinTest
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
             String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, actualPayload));
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
@@ -1267,17 +1326,13 @@ public class MqttDeviceTwinTest
     @Test
     public void receiveReturnsNullMessageIfTopicNotFound(@Mocked final Mqtt mockMqtt) throws IOException
     {
-        final byte[] actualPayload = "NotificationResponseDataContainingDesiredPropertiesDocument".getBytes();
-        final String expectedTopic = "$iothub/NOTtwin/NOTPATCH_NOTRES/properties/" + "?$version=" + mockVersion ;
         DeviceTwinMessage receivedMessage = null;
         try
         {
             //arrange
-            MqttDeviceTwin testTwin = new MqttDeviceTwin();
-            String insertTopic = expectedTopic;
-            ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-            testMap.put(insertTopic, actualPayload);
-            Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+            MqttDeviceTwin testTwin = new MqttDeviceTwin(mockMqtt);
+            Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+            Deencapsulation.setField(testTwin, "receivedMessages", testQueue);
 
             //act
             receivedMessage = (DeviceTwinMessage) testTwin.receive();
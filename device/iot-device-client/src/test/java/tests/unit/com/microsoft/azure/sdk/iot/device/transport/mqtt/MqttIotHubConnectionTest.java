@@ -6,7 +6,7 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
-import com.microsoft.azure.sdk.iot.device.auth.IotHubSasToken;
+import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenProvider;
 import com.microsoft.azure.sdk.iot.device.net.IotHubUri;
 import com.microsoft.azure.sdk.iot.device.transport.State;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
@@ -19,9 +19,15 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /** Unit tests for MqttIotHubConnection. */
 public class MqttIotHubConnectionTest
@@ -32,6 +38,7 @@ public class MqttIotHubConnectionTest
     final String hubName = "test.iothub";
     final String deviceId = "test-deviceId";
     final String deviceKey = "test-devicekey?&test";
+    final String sasToken = "SharedAccessSignature sr=test&sig=test&se=1";
     final String API_VERSION = "api-version=2016-11-14";
     final String resourceUri = "test-resource-uri";
     final int qos = 1;
@@ -54,7 +61,7 @@ public class MqttIotHubConnectionTest
     private MqttDeviceMethods mockDeviceMethods;
 
     @Mocked
-    protected IotHubSasToken mockToken;
+    protected IotHubSasTokenProvider mockSasTokenProvider;
 
     @Mocked
     IotHubUri mockIotHubUri;
@@ -73,6 +80,24 @@ public class MqttIotHubConnectionTest
         assertEquals(expectedClientConfig, actualClientConfig);
     }
 
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_030: [The constructor shall create a SAS token provider for the
+    // configuration, shared by all the connections opened by this instance.]
+    @Test
+    public void constructorCreatesSasTokenProvider()
+    {
+        baseExpectations();
+
+        new MqttIotHubConnection(mockConfig);
+
+        new Verifications()
+        {
+            {
+                new IotHubSasTokenProvider(mockConfig);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_003: [The constructor shall throw a new IllegalArgumentException
     // if any of the parameters of the configuration is null or empty.]
     @Test(expected = IllegalArgumentException.class)
@@ -235,6 +260,10 @@ public class MqttIotHubConnectionTest
 
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_004: [The function shall establish an MQTT connection with an IoT Hub
     // using the provided host name, user name, device ID, and sas token.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_031: [The function shall use the SAS token of the SAS token provider as the
+    // password, so a reconnection reuses the token until it should be renewed.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_017: [The function shall create the device methods and device twin
+    // clients on the same MQTT connection as the device messaging client, so each connection owns its own state.]
     @Test
     public void openEstablishesConnectionUsingCorrectConfig() throws IOException
     {
@@ -249,10 +278,9 @@ public class MqttIotHubConnectionTest
         String clientIdentifier = "DeviceClientType=" + URLEncoder.encode(TransportUtils.javaDeviceClientIdentifier + TransportUtils.clientVersion, "UTF-8");
         assertEquals(iotHubHostName + "/" + deviceId + "/" + API_VERSION + "/" + clientIdentifier, actualIotHubUserName);
 
-        String expectedSasToken = mockToken.toString();
         String actualUserPassword = Deencapsulation.getField(connection, "iotHubUserPassword");
 
-        assertEquals(expectedSasToken, actualUserPassword);
+        assertEquals(sasToken, actualUserPassword);
 
         State expectedState = State.OPEN;
         State actualState =  Deencapsulation.getField(connection, "state");
@@ -261,12 +289,12 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                new MqttDeviceMethods();
+                new MqttDeviceMethods((Mqtt) any);
                 times = 1;
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString);
+                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, anyInt, anyInt);
                 mockDeviceMessaging.start();
                 times = 1;
-                new MqttDeviceTwin();
+                new MqttDeviceTwin((Mqtt) any);
                 times = 1;
             }
         };
@@ -281,9 +309,9 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                new IotHubSasToken(mockConfig, anyLong);
-                result = mockToken;
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString);
+                mockSasTokenProvider.getSasToken();
+                result = sasToken;
+                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, anyInt, anyInt);
                 result = new IOException(anyString);
             }
         };
@@ -306,7 +334,7 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString);
+                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, anyInt, anyInt);
                 times = 1;
             }
         };
@@ -399,6 +427,7 @@ public class MqttIotHubConnectionTest
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_009: [The function shall send the message payload.]
     // Tests_SRS_MQTTIOTHUBCONNECTION_15_011: [If the message was successfully received by the service,
     // the function shall return status code OK_EMPTY.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_024: [The function shall check the message body without copying it.]
     @Test
     public void sendEventSendsMessageCorrectlyToIotHub(@Mocked final Message mockMsg) throws IOException
     {
@@ -411,7 +440,9 @@ public class MqttIotHubConnectionTest
             {
                 mockMsg.getBytes();
                 result = msgBody;
-                mockDeviceMessaging.send(mockMsg);
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                mockDeviceMessaging.send(mockMsg, any);
             }
         };
 
@@ -424,7 +455,9 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                mockDeviceMessaging.send(mockMsg);
+                mockMsg.getBytes();
+                times = 0;
+                mockDeviceMessaging.send(mockMsg, any);
                 times = 1;
             }
         };
@@ -459,6 +492,8 @@ public class MqttIotHubConnectionTest
             {
                 mockMsg.getBytes();
                 result = msgBody;
+                mockMsg.getByteBuffer();
+                result = null;
             }
         };
 
@@ -481,6 +516,8 @@ public class MqttIotHubConnectionTest
             {
                 mockMsg.getBytes();
                 result = new byte[0];
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(new byte[0]);
             }
         };
 
@@ -504,6 +541,8 @@ public class MqttIotHubConnectionTest
             {
                 mockMsg.getBytes();
                 result = msgBody;
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(msgBody);
             }
         };
 
@@ -524,6 +563,8 @@ public class MqttIotHubConnectionTest
             {
                 mockMsg.getBytes();
                 result = msgBody;
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(msgBody);
             }
         };
 
@@ -546,7 +587,9 @@ public class MqttIotHubConnectionTest
             {
                 mockMsg.getBytes();
                 result = msgBody;
-                mockDeviceMessaging.send(mockMsg);
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                mockDeviceMessaging.send(mockMsg, any);
                 result = new IOException(anyString);
             }
         };
@@ -559,6 +602,50 @@ public class MqttIotHubConnectionTest
         assertEquals(expectedStatus, actualStatus);
     }
 
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_027: [The function shall publish the message without holding the
+    // connection lock, so close() does not wait for a publisher blocked on an in flight slot.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_028: [If the MQTT connection was closed while the message was published,
+    // the function shall throw an IllegalStateException, so the message is sent again.]
+    @Test(expected = IllegalStateException.class)
+    public void sendEventDoesNotBlockCloseWhilePublishing(@Mocked final Message mockMsg) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        final MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(msgBody);
+                new MqttDeviceTwin((Mqtt) any);
+                result = mockDeviceTwin;
+                mockDeviceMessaging.send(mockMsg, any);
+                result = new mockit.Delegate()
+                {
+                    void send(Message message, Object context) throws IOException, InterruptedException
+                    {
+                        Thread closer = new Thread(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                connection.close();
+                            }
+                        });
+                        closer.start();
+                        closer.join(1000);
+                        assertEquals(State.CLOSED, Deencapsulation.getField(connection, "state"));
+                        throw new IOException("disconnected");
+                    }
+                };
+            }
+        };
+        connection.open();
+
+        connection.sendEvent(mockMsg);
+    }
+
    // Tests_SRS_MQTTIOTHUBCONNECTION_15_014: [The function shall attempt to consume a message
     // from the received messages queue.]
     @Test
@@ -614,6 +701,132 @@ public class MqttIotHubConnectionTest
         connection.receiveMessage();
     }
 
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_018: [The constructor shall save the delivery listener.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_019: [The function shall bound the messages waiting for their
+    // acknowledgement by the max in flight messages of the configuration, and report the acknowledgements
+    // to the delivery listener.]
+    @Test
+    public void openUsesMaxInFlightMessagesAndDeliveryListener(@Mocked final MqttDeliveryListener mockListener) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMaxInFlightMessages();
+                result = 5;
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig, mockListener);
+        connection.open();
+
+        assertEquals(mockListener, Deencapsulation.getField(connection, "deliveryListener"));
+        new Verifications()
+        {
+            {
+                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, 5, anyInt);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_020: [The function shall pass the context to the messaging
+    // client, so the delivery listener is notified with it when the message is acknowledged.]
+    @Test
+    public void sendEventPassesContextToMessagingClient(@Mocked final Message mockMsg) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+
+        final byte[] msgBody = { 0x61, 0x62, 0x63 };
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockMsg.getBytes();
+                result = msgBody;
+                mockMsg.getByteBuffer();
+                result = ByteBuffer.wrap(msgBody);
+            }
+        };
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig);
+        connection.open();
+        IotHubStatusCode result = connection.sendEvent(mockMsg, context);
+
+        assertEquals(IotHubStatusCode.OK_EMPTY, result);
+        new Verifications()
+        {
+            {
+                mockDeviceMessaging.send(mockMsg, context);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_022: [The constructor shall save the message listener.]
+    @Test
+    public void constructorSavesMessageListener(@Mocked final MqttDeliveryListener mockDeliveryListener,
+                                                @Mocked final MqttMessageListener mockMessageListener) throws IOException
+    {
+        baseExpectations();
+
+        MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig, mockDeliveryListener, mockMessageListener);
+
+        assertEquals(mockDeliveryListener, Deencapsulation.getField(connection, "deliveryListener"));
+        assertEquals(mockMessageListener, Deencapsulation.getField(connection, "messageListener"));
+    }
+
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_025: [The function shall keep the received messages not consumed yet,
+    // so the next open() hands them to the new messaging clients.]
+    // Tests_SRS_MQTTIOTHUBCONNECTION_21_026: [The function shall queue the received messages kept by the previous
+    // close() ahead of the messages arriving on the new connection, and notify the message listener once for each
+    // of them after the connection is open.]
+    @Test
+    public void receivedMessageSurvivesCloseAndOpen(@Mocked final MqttMessageListener mockMessageListener) throws IOException
+    {
+        baseExpectations();
+        openExpectations();
+        final Queue<Map.Entry<String, byte[]>> oldQueue = new LinkedList<Map.Entry<String, byte[]>>();
+        final Map.Entry<String, byte[]> receivedMessage =
+                new AbstractMap.SimpleImmutableEntry<String, byte[]>("devices/test-deviceId/messages/devicebound/", new byte[] { 1 });
+        oldQueue.add(receivedMessage);
+        final MqttIotHubConnection connection = new MqttIotHubConnection(mockConfig, null, mockMessageListener);
+        final Queue<Map.Entry<String, byte[]>> pendingQueue = Deencapsulation.getField(connection, "pendingMessagingMessages");
+        new NonStrictExpectations()
+        {
+            {
+                new MqttDeviceTwin((Mqtt) any);
+                result = mockDeviceTwin;
+                Deencapsulation.invoke(mockDeviceMessaging, "getReceivedMessages");
+                returns(oldQueue, null);
+                Deencapsulation.invoke(mockDeviceMessaging, "restoreReceivedMessages", pendingQueue);
+                returns(0, 1);
+            }
+        };
+        connection.open();
+
+        connection.close();
+
+        assertEquals(1, pendingQueue.size());
+        assertEquals(receivedMessage, pendingQueue.peek());
+        assertTrue(oldQueue.isEmpty());
+
+        connection.open();
+
+        assertEquals(State.OPEN, Deencapsulation.getField(connection, "state"));
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockDeviceMessaging, "restoreReceivedMessages", pendingQueue);
+                times = 2;
+                mockMessageListener.messageReceived();
+                times = 1;
+            }
+        };
+    }
+
     private void baseExpectations()
     {
         new NonStrictExpectations() {
@@ -631,11 +844,11 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                new IotHubSasToken(mockConfig, anyLong);
-                result = mockToken;
-                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString);
+                mockSasTokenProvider.getSasToken();
+                result = sasToken;
+                new MqttMessaging(sslPrefix + iotHubHostName + sslPortSuffix, deviceId, anyString, anyString, anyInt, anyInt);
                 result = mockDeviceMessaging;
-                new MqttDeviceMethods();
+                new MqttDeviceMethods((Mqtt) any);
                 result = mockDeviceMethods;
                 mockDeviceMessaging.start();
                 result = null;
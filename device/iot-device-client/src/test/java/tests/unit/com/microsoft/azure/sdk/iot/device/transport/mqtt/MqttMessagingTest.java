@@ -13,7 +13,10 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 
 import static org.junit.Assert.*;
@@ -113,6 +116,8 @@ public class MqttMessagingTest {
     @Test (expected = IOException.class)
     public void startThrowsIoExceptionIfConnectFails(@Mocked final Mqtt mockMqtt) throws IOException
     {
+        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
+
         new StrictExpectations()
         {
             {
@@ -121,7 +126,6 @@ public class MqttMessagingTest {
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
         testMqttMessaging.start();
 
         new Verifications()
@@ -140,6 +144,8 @@ public class MqttMessagingTest {
     @Test (expected = IOException.class)
     public void startThrowsIoExceptionIfSubscribeFails(@Mocked final Mqtt mockMqtt) throws IOException
     {
+        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
+
         new StrictExpectations()
         {
             {
@@ -149,7 +155,6 @@ public class MqttMessagingTest {
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
         testMqttMessaging.start();
 
         new Verifications()
@@ -201,6 +206,8 @@ public class MqttMessagingTest {
     @Test (expected = IOException.class)
     public void stopCallsRestartBaseEvenIfDisconnectFailsAndThrowsIOException(@Mocked final Mqtt mockMqtt) throws IOException
     {
+        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
+
         new StrictExpectations()
         {
             {
@@ -212,7 +219,6 @@ public class MqttMessagingTest {
             }
         };
 
-        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
         testMqttMessaging.start();
         testMqttMessaging.stop();
 
@@ -230,7 +236,7 @@ public class MqttMessagingTest {
     }
 
     /*
-    **Tests_SRS_MqttMessaging_25_005: [**parseTopic shall look for the subscribe topic prefix from received message queue.**]**
+    **Tests_SRS_MqttMessaging_25_005: [**parseTopic shall return the topic of the oldest message in the received messages queue, which only holds messages on the subscribe topic prefix.**]**
      */
     @Test
     public void parseTopicLooksForNextAvailableMessagesForDeviceMessagingTopic(@Mocked final Mqtt mockMqtt) throws IOException
@@ -238,9 +244,9 @@ public class MqttMessagingTest {
         MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
 
         String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, "DataData".getBytes()));
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
 
         String retrieveTopic = testMqttMessaging.parseTopic();
 
@@ -259,9 +265,9 @@ public class MqttMessagingTest {
     {
         MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
 
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
 
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
 
         String retrieveTopic = testMqttMessaging.parseTopic();
 
@@ -269,22 +275,20 @@ public class MqttMessagingTest {
     }
 
     /*
-    **Tests_SRS_MqttMessaging_25_006: [**If none of the topics from the received queue match the subscribe topic prefix then this method shall return null string .**]**
+    **Tests_SRS_MqttMessaging_21_028: [**The constructor shall route the messages received on the devicebound topic prefix to its received messages queue.**]**
      */
     @Test
-    public void parseTopicReturnsNullIfNoMessageMatchingKeyIsFound(@Mocked final Mqtt mockMqtt) throws IOException
+    public void constructorRoutesDeviceboundTopicToItsQueue(@Mocked final Mqtt mockMqtt) throws IOException
     {
         MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
 
-        String insertTopic = "devices/" + clientId + "/fakemessages/devicebound/abc";
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, "DataData".getBytes());
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
-
-        String retrieveTopic = testMqttMessaging.parseTopic();
-
-        assertNull(retrieveTopic);
-
+        new Verifications()
+        {
+            {
+                mockMqtt.routeReceivedMessages("devices/" + clientId + "/messages/devicebound/");
+                times = 1;
+            }
+        };
     }
 
     /*
@@ -297,9 +301,9 @@ public class MqttMessagingTest {
 
         final String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, insertMessage));
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
 
         byte[] retrieveMessage = testMqttMessaging.parsePayload(insertTopic);
 
@@ -321,16 +325,36 @@ public class MqttMessagingTest {
 
         final String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, insertMessage));
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
 
         byte[] retrieveMessage = testMqttMessaging.parsePayload(insertTopic);
 
-        assertTrue(testMap.isEmpty());
+        assertTrue(testQueue.isEmpty());
 
     }
 
+    /*
+    **Tests_SRS_MqttMessaging_21_030: [**parsePayload shall take the oldest message out of the received messages queue with a single poll, and throw IOException if the queue was emptied in the meantime.**]**
+     */
+    @Test (expected = IOException.class)
+    public void parsePayloadThrowsIfQueueIsDrainedAfterParseTopic(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
+
+        final String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
+        final byte[] insertMessage = {0x61, 0x62, 0x63};
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic, insertMessage));
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
+        String topic = testMqttMessaging.parseTopic();
+
+        // a close hands the queued messages over between parseTopic and parsePayload.
+        testQueue.clear();
+        testMqttMessaging.parsePayload(topic);
+    }
+
     @Test (expected = IOException.class)
     public void parsePayloadShallThrowIOExceptionIfQueueIsEmpty(@Mocked final Mqtt mockMqtt) throws IOException
     {
@@ -338,9 +362,9 @@ public class MqttMessagingTest {
 
         final String insertTopic = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
 
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
 
         byte[] retrieveMessage = testMqttMessaging.parsePayload(insertTopic);
         assertNull(retrieveMessage);
@@ -357,9 +381,9 @@ public class MqttMessagingTest {
 
         final String insertTopic_messaging = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic_messaging, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic_messaging, insertMessage));
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
 
 
         byte[] retrieveMessage = testMqttMessaging.parsePayload(null);
@@ -368,7 +392,7 @@ public class MqttMessagingTest {
     }
 
     /*
-    **Tests_SRS_MqttMessaging_25_012: [**If the topic is non-null and received messagesqueue could not locate the payload then this method shall throw IOException**]**
+    **Tests_SRS_MqttMessaging_25_012: [**If the topic is non-null and is not the topic of the oldest message in the received messages queue then this method shall throw IOException**]**
      */
     @Test (expected =  IOException.class)
     public void parsePayloadShallThrowIOExceptionIfTopicIsNotFound(@Mocked final Mqtt mockMqtt) throws IOException
@@ -378,9 +402,9 @@ public class MqttMessagingTest {
         final String insertTopic_actual = "$iothub/twin/PATCH/properties/desired/#";
         final String insertTopic_messaging = "devices/" + clientId + "/messages/devicebound/abc";
         final byte[] insertMessage = {0x61, 0x62, 0x63};
-        ConcurrentSkipListMap<String, byte[]> testMap = new ConcurrentSkipListMap<String, byte[]>();
-        testMap.put(insertTopic_actual, insertMessage);
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Queue<Map.Entry<String, byte[]>> testQueue = new LinkedBlockingQueue<Map.Entry<String, byte[]>>();
+        testQueue.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(insertTopic_actual, insertMessage));
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
 
 
         byte[] retrieveMessage = testMqttMessaging.parsePayload(insertTopic_messaging);
@@ -396,17 +420,46 @@ public class MqttMessagingTest {
         MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
 
         final String insertTopic = "$iothub/twin/PATCH/properties/desired/#";
-        ConcurrentSkipListMap<String, byte[]> testMap = null;
+        Queue<Map.Entry<String, byte[]>> testQueue = null;
 
-        Deencapsulation.setField(mockMqtt, "allReceivedMessages", testMap);
+        Deencapsulation.setField(testMqttMessaging, "receivedMessages", testQueue);
 
 
         byte[] retrieveMessage = testMqttMessaging.parsePayload(insertTopic);
 
     }
 
+    /*
+    **Tests_SRS_MqttMessaging_21_027: [**send method shall pass the context to publish, so the delivery listener is notified with it when the PUBACK arrives.**]**
+     */
+    @Test
+    public void sendShallPassContextToLowerLayer(@Mocked final Mqtt mockMqtt) throws IOException
+    {
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockMessage.getBytes();
+                result = messageBody;
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(serverUri, clientId, userName, password);
+        testMqttMessaging.send(mockMessage, context);
+
+        new Verifications()
+        {
+            {
+                mockMqtt.publish(anyString, messageBody, context);
+                times = 1;
+            }
+        };
+    }
+
     /*
     **Tests_SRS_MqttMessaging_25_024: [**send method shall publish a message to the IOT Hub on the publish topic by calling method publish().**]**
+    **Tests_SRS_MqttMessaging_21_029: [**send method shall copy the message body only once.**]**
      */
     @Test
     public void sendShallMessageToLowerLayer(@Mocked final Mqtt mockMqtt) throws IOException
@@ -417,7 +470,7 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 result = messageBody;
-                mockMqtt.publish(anyString, messageBody);
+                mockMqtt.publish(anyString, messageBody, any);
 
             }
         };
@@ -429,8 +482,8 @@ public class MqttMessagingTest {
         {
             {
                 mockMessage.getBytes();
-                times = 2;
-                mockMqtt.publish(anyString, messageBody);
+                times = 1;
+                mockMqtt.publish(anyString, messageBody, any);
                 times = 1;
 
             }
@@ -447,7 +500,7 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 result = messageBody;
-                mockMqtt.publish(anyString, messageBody);
+                mockMqtt.publish(anyString, messageBody, any);
                 result = mockIOException;
 
             }
@@ -461,7 +514,7 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 times = 1;
-                mockMqtt.publish(mockParseTopic, new byte[1]);
+                mockMqtt.publish(mockParseTopic, new byte[1], any);
                 times = 1;
 
             }
@@ -484,7 +537,7 @@ public class MqttMessagingTest {
             {
                 mockMessage.getBytes();
                 times = 0;
-                mockMqtt.publish(mockParseTopic, new byte[1]);
+                mockMqtt.publish(mockParseTopic, new byte[1], any);
                 times = 0;
 
             }
@@ -512,7 +565,7 @@ public class MqttMessagingTest {
                 result = messageBody;
                 mockMessage.getProperties();
                 result = messageProperties;
-                mockMqtt.publish(anyString, messageBody);
+                mockMqtt.publish(anyString, messageBody, any);
             }
         };
 
@@ -525,9 +578,9 @@ public class MqttMessagingTest {
         {
             {
                 mockMessage.getBytes();
-                times = 2;
+                times = 1;
                 mockMessage.getProperties();
-                mockMqtt.publish(publishTopicWithProperties, messageBody);
+                mockMqtt.publish(publishTopicWithProperties, messageBody, any);
                 times = 1;
             }
         };
@@ -14,7 +14,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Semaphore;
 
 import static org.junit.Assert.*;
 
@@ -47,61 +49,92 @@ public class MqttTest {
     @Mocked
     protected MqttMessage mockMqttMessage;
 
-    private Mqtt instantiateMqtt(boolean withParameters) throws IOException
+    private Mqtt instantiateMqtt() throws IOException
     {
-
-        if (withParameters)
+        Mqtt mockMqtt = new Mqtt(serverUri, clientId, userName, password)
         {
-            Mqtt mockMqtt = new Mqtt(serverUri, clientId, userName, password)
+
+            @Mock
+            void $clinit()
             {
+                // Do nothing here (usually).
+            }
 
-                @Mock
-                void $clinit()
-                {
-                    // Do nothing here (usually).
-                }
+            @Mock
+            String parseTopic() throws IOException
+            {
+                return mockParseTopic;
+            }
 
-                @Mock
-                String parseTopic() throws IOException
-                {
-                    return mockParseTopic;
-                }
+            @Mock
+            byte[] parsePayload(String topic) throws IOException
+            {
+                return new byte[0];
+            }
+        };
+        mockMqtt.routeReceivedMessages(mockParseTopic);
 
-                @Mock
-                byte[] parsePayload(String topic) throws IOException
-                {
-                    return new byte[0];
-                }
-            };
+        return mockMqtt;
+    }
 
-            return mockMqtt;
-        } else {
-            Mqtt mockMqtt = new Mqtt()
+    private Mqtt instantiateMqtt(int maxInFlightCount) throws IOException
+    {
+        return instantiateMqtt(maxInFlightCount, Mqtt.DEFAULT_MAX_RECEIVED_MESSAGES);
+    }
+
+    private Mqtt instantiateMqtt(int maxInFlightCount, int maxReceivedMessages) throws IOException
+    {
+        Mqtt mockMqtt = new Mqtt(serverUri, clientId, userName, password, maxInFlightCount, maxReceivedMessages)
+        {
+            @Override
+            String parseTopic() throws IOException
             {
+                return mockParseTopic;
+            }
 
-                @Mock
-                void $clinit()
-                {
-                    // Do nothing here (usually).
-                }
+            @Override
+            byte[] parsePayload(String topic) throws IOException
+            {
+                return new byte[0];
+            }
+        };
+        mockMqtt.routeReceivedMessages(mockParseTopic);
 
-                @Override
-                String parseTopic() throws IOException
-                {
-                    return mockParseTopic;
-                }
+        return mockMqtt;
+    }
 
-                @Override
-                byte[] parsePayload(String topic) throws IOException
-                {
-                    return new byte[0];
-                }
+    private Semaphore getInFlightSemaphore(Mqtt mqtt)
+    {
+        Mqtt.MqttConnectionInfo info = Deencapsulation.getField(mqtt, "info");
+        return Deencapsulation.getField(info, "inFlightSemaphore");
+    }
 
-            };
+    private Mqtt instantiateMqtt(Mqtt mqttConnection) throws IOException
+    {
+        Mqtt mockMqtt = new Mqtt(mqttConnection)
+        {
 
-            return mockMqtt;
+            @Mock
+            void $clinit()
+            {
+                // Do nothing here (usually).
+            }
 
-        }
+            @Override
+            String parseTopic() throws IOException
+            {
+                return mockParseTopic;
+            }
+
+            @Override
+            byte[] parsePayload(String topic) throws IOException
+            {
+                return new byte[0];
+            }
+
+        };
+
+        return mockMqtt;
     }
 
     private void baseConstructorExpectations(boolean withParameter) throws MqttException
@@ -166,7 +199,7 @@ public class MqttTest {
                 result = true;
                 new MqttMessage(payload);
                 result = mockMqttMessage;
-                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage);
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
                 result = mockMqttDeliveryToken;
             }
         };
@@ -185,7 +218,7 @@ public class MqttTest {
                 times = 1;
                 mockMqttMessage.setQos(anyInt);
                 times = 1;
-                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage);
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 1;
                 mockMqttDeliveryToken.waitForCompletion();
                 times = 1;
@@ -251,8 +284,6 @@ public class MqttTest {
                     times = 1;
                     mockMqttConnectionOptions.setPassword(password.toCharArray());
                     times = 1;
-                    new ConcurrentSkipListMap<>();
-                    times = 1;
                     new Object();
                     times = 1;
                 }
@@ -282,7 +313,8 @@ public class MqttTest {
     }
 
     /*
-    ** Tests_SRS_Mqtt_25_004: [**If an instance of the inner class MqttConnectionInfo is already created than it shall return doing nothing.**]**
+    ** Tests_SRS_Mqtt_25_001: [**The constructor shall share the MqttConnectionInfo and MQTT lock of the given Mqtt instance.**]**
+    ** Tests_SRS_Mqtt_21_056: [**The constructor shall create a received messages queue owned by this instance, bounded by the maxReceivedMessages of the connection.**]**
      */
     @Test
     public void manyExtendsOfAbstractClassDoesntChangeConfig() throws IOException, MqttException
@@ -292,19 +324,20 @@ public class MqttTest {
         baseConstructorExpectations(false);
 
         //act
-        Mqtt mockMqtt1 = instantiateMqtt(true);
+        Mqtt mockMqtt1 = instantiateMqtt();
         Mqtt.MqttConnectionInfo actualInfoInstance1 = Deencapsulation.getField(mockMqtt1, "info");
-        ConcurrentSkipListMap<String, byte[]> actualMap1 = Deencapsulation.getField(mockMqtt1, "allReceivedMessages");
-        Object actualLock1 = Deencapsulation.getField(mockMqtt1, "MQTT_LOCK");
+        Queue<Map.Entry<String, byte[]>> actualQueue1 = Deencapsulation.getField(mockMqtt1, "receivedMessages");
+        Object actualLock1 = Deencapsulation.getField(mockMqtt1, "mqttLock");
 
-        Mqtt mockMqtt2 = instantiateMqtt(false);
+        Mqtt mockMqtt2 = instantiateMqtt(mockMqtt1);
         Mqtt.MqttConnectionInfo actualInfoInstance2 = Deencapsulation.getField(mockMqtt2, "info");
-        ConcurrentSkipListMap<String, byte[]> actualMap2 = Deencapsulation.getField(mockMqtt2, "allReceivedMessages");
-        Object actualLock2 = Deencapsulation.getField(mockMqtt2, "MQTT_LOCK");
+        Queue<Map.Entry<String, byte[]>> actualQueue2 = Deencapsulation.getField(mockMqtt2, "receivedMessages");
+        Object actualLock2 = Deencapsulation.getField(mockMqtt2, "mqttLock");
 
         //assert
         assertEquals(actualInfoInstance1, actualInfoInstance2);
-        assertEquals(actualMap1, actualMap2);
+        assertNotNull(actualQueue2);
+        assertNotSame(actualQueue1, actualQueue2);
         assertEquals(actualLock1, actualLock2);
 
         baseConstructorVerifications(true);
@@ -324,7 +357,7 @@ public class MqttTest {
         baseConstructorExpectations(true);
 
         //act
-        Mqtt mockMqtt = instantiateMqtt(true);
+        Mqtt mockMqtt = instantiateMqtt();
 
         //assert
         Mqtt.MqttConnectionInfo actualInfo = Deencapsulation.getField(mockMqtt, "info");
@@ -332,9 +365,9 @@ public class MqttTest {
         assertNotNull(actualInfo.mqttAsyncClient);
         MqttConnectOptions actualConnectionOptions = Deencapsulation.getField(actualInfo, "connectionOptions");
         assertNotNull(actualConnectionOptions);
-        ConcurrentSkipListMap<String, byte[]> actualMap = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
-        assertNotNull(actualMap);
-        Object actualLock = Deencapsulation.getField(mockMqtt, "MQTT_LOCK");
+        Queue<Map.Entry<String, byte[]>> actualQueue = Deencapsulation.getField(mockMqtt, "receivedMessages");
+        assertNotNull(actualQueue);
+        Object actualLock = Deencapsulation.getField(mockMqtt, "mqttLock");
         assertNotNull(actualLock);
 
 
@@ -362,7 +395,7 @@ public class MqttTest {
             };
 
             //act
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
         }
         finally
         {
@@ -410,61 +443,77 @@ public class MqttTest {
     }
 
     /*
-    **Tests_SRS_Mqtt_25_001: [**The constructor shall instantiate MQTT lock for using base class.**]**
+    **Tests_SRS_Mqtt_21_049: [**The constructor shall throw InvalidParameter Exception if the given Mqtt instance is null.**]**
     */
+    @Test(expected = InvalidParameterException.class)
+    public void constructorThrowsInvalidParameterExceptionOnNullConnection() throws IOException, MqttException
+    {
+        //act
+        instantiateMqtt(null);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_25_003: [**The constructor shall use the configuration to instantiate a new instance of the inner class MqttConnectionInfo, received messages queue and MQTT lock owned by this connection.**]**
+     */
     @Test
-    public void constructorDoesntInitiliaseConfigWithoutParameters() throws IOException, MqttException
+    public void constructorWithParametersCalledMultipleTimesCreatesIndependentConnections() throws IOException, MqttException
     {
         //arrange
-        baseConstructorExpectations(false);
+        baseConstructorExpectations(true);
 
         //act
-        Mqtt mockMqtt = instantiateMqtt(false);
+        Mqtt mockMqtt1 = instantiateMqtt();
+        Mqtt mockMqtt2 = instantiateMqtt();
 
         //assert
-        Mqtt.MqttConnectionInfo actualInfoInstance = Deencapsulation.getField(mockMqtt, "info");
-        assertNull(actualInfoInstance);
-        ConcurrentSkipListMap<String, byte[]> actualMap = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
-        assertNull(actualMap);
+        assertNotSame(Deencapsulation.getField(mockMqtt1, "info"), Deencapsulation.getField(mockMqtt2, "info"));
+        assertNotSame(Deencapsulation.getField(mockMqtt1, "receivedMessages"), Deencapsulation.getField(mockMqtt2, "receivedMessages"));
+        assertNotSame(Deencapsulation.getField(mockMqtt1, "mqttLock"), Deencapsulation.getField(mockMqtt2, "mqttLock"));
 
-        Object actualLock = Deencapsulation.getField(mockMqtt, "MQTT_LOCK");
-        assertNotNull(actualLock);
-        baseConstructorVerifications(false);
-        mockMqtt.restartBaseMqtt();
+        testCleanUp(mockMqtt1);
+        testCleanUp(mockMqtt2);
     }
 
     /*
-    ** Tests_SRS_Mqtt_25_004: [**If an instance of the inner class MqttConnectionInfo is already created than it shall return doing nothing.**]**
+    **Tests_SRS_Mqtt_25_003: [**The constructor shall use the configuration to instantiate a new instance of the inner class MqttConnectionInfo, received messages queue and MQTT lock owned by this connection.**]**
+     */
+    /*
+    **Tests_SRS_Mqtt_25_046: [**restartBaseMqtt shall unset the connection state of this instance only, leaving other connections untouched.**]**
      */
     @Test
-    public void constructorWithParametersIfCalledMultipleTimesDoesntReinitialize() throws IOException, MqttException
+    public void manyConnectionsInOneProcessKeepIndependentState() throws IOException, MqttException
     {
         //arrange
+        final int connectionCount = 1000;
+        final byte[] payload = {0x61, 0x62, 0x63};
         baseConstructorExpectations(true);
-        baseConstructorExpectations(true);
+        Mqtt[] connections = new Mqtt[connectionCount];
+        for (int i = 0; i < connectionCount; i++)
+        {
+            connections[i] = instantiateMqtt();
+        }
 
         //act
-        Mqtt mockMqtt1 = instantiateMqtt(true);
+        for (int i = 0; i < connectionCount; i++)
+        {
+            connections[i].messageArrived(mockParseTopic + i, new MqttMessage(payload));
+        }
+        connections[0].restartBaseMqtt();
 
         //assert
-        Mqtt.MqttConnectionInfo actualInfoInstance1 = Deencapsulation.getField(mockMqtt1, "info");
-        ConcurrentSkipListMap<String, byte[]> actualMap1 = Deencapsulation.getField(mockMqtt1, "allReceivedMessages");
-        Mqtt mockMqtt2 = instantiateMqtt(false);
-        Mqtt.MqttConnectionInfo actualInfoInstance2 = Deencapsulation.getField(mockMqtt2, "info");
-        ConcurrentSkipListMap<String, byte[]> actualMap2 = Deencapsulation.getField(mockMqtt2, "allReceivedMessages");
-
-        Object actualLock1 = Deencapsulation.getField(mockMqtt1, "MQTT_LOCK");
-        Object actualLock2 = Deencapsulation.getField(mockMqtt2, "MQTT_LOCK");
-
-
-        assertEquals(actualInfoInstance1, actualInfoInstance2);
-        assertEquals(actualMap1, actualMap2);
-        assertEquals(actualLock1, actualLock2);
-
-        baseConstructorVerifications(true);
-        baseConstructorVerifications(false);
-        mockMqtt1.restartBaseMqtt();
+        assertNull(Deencapsulation.getField(connections[0], "info"));
+        for (int i = 1; i < connectionCount; i++)
+        {
+            assertNotNull(Deencapsulation.getField(connections[i], "info"));
+            Queue<Map.Entry<String, byte[]>> actualQueue = Deencapsulation.getField(connections[i], "receivedMessages");
+            assertEquals(1, actualQueue.size());
+            assertEquals(mockParseTopic + i, actualQueue.peek().getKey());
+        }
 
+        for (int i = 1; i < connectionCount; i++)
+        {
+            testCleanUp(connections[i]);
+        }
     }
 
     /*
@@ -476,7 +525,7 @@ public class MqttTest {
         //arrange
         baseConstructorExpectations(true);
         baseConnectExpectation();
-        Mqtt mockMqtt = instantiateMqtt(true);
+        Mqtt mockMqtt = instantiateMqtt();
 
         //act
         mockMqtt.connect();
@@ -513,7 +562,7 @@ public class MqttTest {
             }
         };
 
-        Mqtt mockMqtt = instantiateMqtt(true);
+        Mqtt mockMqtt = instantiateMqtt();
 
         //act
         mockMqtt.connect();
@@ -544,8 +593,9 @@ public class MqttTest {
         Mqtt mockMqtt = null;
         try
         {
-            baseConstructorExpectations(false);
-            mockMqtt = instantiateMqtt(false);
+            baseConstructorExpectations(true);
+            mockMqtt = instantiateMqtt();
+            mockMqtt.restartBaseMqtt();
 
             //act
             mockMqtt.connect();
@@ -579,7 +629,7 @@ public class MqttTest {
                     result = mockMqttException;
                 }
             };
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
 
             //act
             mockMqtt.connect();
@@ -607,7 +657,7 @@ public class MqttTest {
             baseConstructorExpectations(true);
             baseConnectExpectation();
             baseDisconnectExpectations();
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
             mockMqtt.connect();
 
             //act
@@ -656,7 +706,7 @@ public class MqttTest {
             }
         };
 
-        Mqtt mockMqtt = instantiateMqtt(true);
+        Mqtt mockMqtt = instantiateMqtt();
         mockMqtt.connect();
 
         //act
@@ -689,7 +739,7 @@ public class MqttTest {
         basePublishExpectations();
 
         final byte[] payload = {0x61, 0x62, 0x63};
-        Mqtt mockMqtt = instantiateMqtt(true);
+        Mqtt mockMqtt = instantiateMqtt();
         mockMqtt.connect();
 
         //act
@@ -701,7 +751,7 @@ public class MqttTest {
             {
                 mockMqttAsyncClient.isConnected();
                 minTimes = 2;
-                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage);
+                mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 1;
             }
         };
@@ -731,7 +781,7 @@ public class MqttTest {
                 }
             };
 
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
 
             //act
             mockMqtt.publish(mockParseTopic, payload);
@@ -759,8 +809,8 @@ public class MqttTest {
 
         final byte[] payload = {0x61, 0x62, 0x63};
         String mockParseTopic2 = mockParseTopic + 2;
-        Mqtt mockMqtt1 = instantiateMqtt(true);
-        Mqtt mockMqtt2 = instantiateMqtt(false);
+        Mqtt mockMqtt1 = instantiateMqtt();
+        Mqtt mockMqtt2 = instantiateMqtt(mockMqtt1);
 
         mockMqtt2.connect();
 
@@ -774,7 +824,7 @@ public class MqttTest {
             {
                 mockMqttAsyncClient.isConnected();
                 minTimes = 3;
-                mockMqttAsyncClient.publish(anyString, mockMqttMessage);
+                mockMqttAsyncClient.publish(anyString, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 2;
             }
         };
@@ -803,12 +853,12 @@ public class MqttTest {
                     result = true;
                     new MqttMessage(payload);
                     result = mockMqttMessage;
-                    mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage);
+                    mockMqttAsyncClient.publish(mockParseTopic, mockMqttMessage, any, (IMqttActionListener) any);
                     result = mockMqttException;
                 }
             };
 
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
             mockMqtt.connect();
 
             //act
@@ -851,7 +901,7 @@ public class MqttTest {
                 }
             };
 
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
             mockMqtt.connect();
 
             //act
@@ -893,7 +943,7 @@ public class MqttTest {
                 }
             };
 
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
             mockMqtt.connect();
 
             //act
@@ -934,7 +984,7 @@ public class MqttTest {
             }
         };
 
-        Mqtt mockMqtt = instantiateMqtt(true);
+        Mqtt mockMqtt = instantiateMqtt();
         mockMqtt.connect();
 
         //act
@@ -974,7 +1024,7 @@ public class MqttTest {
                 }
             };
 
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
 
             //act
             mockMqtt.subscribe(mockParseTopic);
@@ -1002,9 +1052,10 @@ public class MqttTest {
         Mqtt mockMqtt = null;
         try
         {
-            baseConstructorExpectations(false);
+            baseConstructorExpectations(true);
 
-            mockMqtt = instantiateMqtt(false);
+            mockMqtt = instantiateMqtt();
+            mockMqtt.restartBaseMqtt();
 
             //act
             mockMqtt.subscribe(mockParseTopic);
@@ -1029,7 +1080,7 @@ public class MqttTest {
         {
             baseConstructorExpectations(true);
 
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
             mockMqtt.connect();
 
             //act
@@ -1067,7 +1118,7 @@ public class MqttTest {
                 }
             };
 
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
             mockMqtt.connect();
 
             //act
@@ -1246,8 +1297,10 @@ public class MqttTest {
     {
         //arrange
         final byte[] payload = {0x61, 0x62, 0x63};
-        baseConstructorExpectations(false);
-        final Mqtt mockMqtt = new Mqtt()
+        baseConstructorExpectations(true);
+        final Mqtt mqttConnection = instantiateMqtt();
+        mqttConnection.restartBaseMqtt();
+        final Mqtt mockMqtt = new Mqtt(mqttConnection)
         {
 
             @Mock
@@ -1297,17 +1350,17 @@ public class MqttTest {
                 }
             };
 
-            mockMqtt = instantiateMqtt(true);
+            mockMqtt = instantiateMqtt();
             mockMqtt.connect();
 
             //act
             mockMqtt.messageArrived(mockParseTopic, new MqttMessage(actualPayload));
 
             //assert
-            ConcurrentSkipListMap<String, byte[]> actualMap = Deencapsulation.getField(mockMqtt, "allReceivedMessages");
-            assertTrue(actualMap.containsKey(mockParseTopic));
+            Queue<Map.Entry<String, byte[]>> actualQueue = Deencapsulation.getField(mockMqtt, "receivedMessages");
+            assertEquals(mockParseTopic, actualQueue.peek().getKey());
 
-            byte[] receivedPayload = actualMap.get(mockParseTopic);
+            byte[] receivedPayload = actualQueue.peek().getValue();
             assertTrue(actualPayload.length == receivedPayload.length);
             for (int i = 0; i < actualPayload.length; i++)
             {
@@ -1371,7 +1424,7 @@ public class MqttTest {
             //act
             try
             {
-                mockMqtt = instantiateMqtt(true);
+                mockMqtt = instantiateMqtt();
                 mockMqtt.connectionLost(t);
             }
             catch (Exception e)
@@ -1439,7 +1492,7 @@ public class MqttTest {
             //act
             try
             {
-                mockMqtt = instantiateMqtt(true);
+                mockMqtt = instantiateMqtt();
                 mockMqtt.connectionLost(t);
             }
             catch (Exception e)
@@ -1454,4 +1507,508 @@ public class MqttTest {
 
     }
 
+    /*
+    **Tests_SRS_Mqtt_21_050: [**The constructor shall throw InvalidParameter Exception if maxInFlightCount is not positive.**]**
+     */
+    @Test(expected = InvalidParameterException.class)
+    public void constructorFailsIfMaxInFlightCountIsNotPositive() throws IOException, MqttException
+    {
+        //act
+        instantiateMqtt(0);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_25_048: [**publish shall wait, without holding the MQTT lock, up to IN_FLIGHT_WAIT_TIME_MILLISECONDS for one of the maxInFlightCount in flight slots of the connection to be released by a PUBACK.**]**
+    **Tests_SRS_Mqtt_21_052: [**The function shall save the delivery listener for all the concrete classes of this connection.**]**
+    **Tests_SRS_Mqtt_21_053: [**The function shall release the in flight slot of the message and notify the delivery listener that the message was delivered.**]**
+     */
+    @Test
+    public void publishHoldsInFlightSlotUntilDeliveryComplete(@Mocked final MqttDeliveryListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
+        basePublishExpectations();
+        final Object context = new Object();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(3);
+        Mqtt sharedMqtt = instantiateMqtt(mockMqtt);
+        mockMqtt.setDeliveryListener(mockListener);
+        mockMqtt.connect();
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttDeliveryToken.getUserContext();
+                result = context;
+            }
+        };
+
+        //act
+        sharedMqtt.publish(mockParseTopic, payload, context);
+        int permitsInFlight = getInFlightSemaphore(mockMqtt).availablePermits();
+        mockMqtt.deliveryComplete(mockMqttDeliveryToken);
+
+        //assert
+        assertEquals(2, permitsInFlight);
+        assertEquals(3, getInFlightSemaphore(mockMqtt).availablePermits());
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.publish(mockParseTopic, (MqttMessage) any, context, (IMqttActionListener) any);
+                times = 1;
+                mockListener.messageSent(context, true);
+                times = 1;
+            }
+        };
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_054: [**If the publish fails, the function shall release the in flight slot and notify the delivery listener that the message was not delivered.**]**
+     */
+    @Test
+    public void publishFailureReleasesInFlightSlotAndNotifiesListener(@Mocked final MqttDeliveryListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
+        basePublishExpectations();
+        final Object context = new Object();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(3);
+        mockMqtt.setDeliveryListener(mockListener);
+        mockMqtt.connect();
+        mockMqtt.publish(mockParseTopic, payload, context);
+
+        final IMqttActionListener[] actionListener = new IMqttActionListener[1];
+        new Verifications()
+        {
+            {
+                IMqttActionListener listener;
+                mockMqttAsyncClient.publish(mockParseTopic, (MqttMessage) any, context, listener = withCapture());
+                actionListener[0] = listener;
+            }
+        };
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttToken.getUserContext();
+                result = context;
+            }
+        };
+
+        //act
+        actionListener[0].onFailure(mockMqttToken, mockMqttException);
+
+        //assert
+        assertEquals(3, getInFlightSemaphore(mockMqtt).availablePermits());
+        new Verifications()
+        {
+            {
+                mockListener.messageSent(context, false);
+                times = 1;
+            }
+        };
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_066: [**If no in flight slot was released in time, the function shall throw an IllegalStateException without publishing the message, so the caller sends it again later.**]**
+     */
+    @Test
+    public void publishThrowsIfNoInFlightSlotIsReleasedInTime() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
+        basePublishExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(1);
+        mockMqtt.connect();
+        mockMqtt.publish(mockParseTopic, payload, null);
+
+        //act
+        boolean thrown = false;
+        try
+        {
+            mockMqtt.publish(mockParseTopic, payload, null);
+        }
+        catch (IllegalStateException e)
+        {
+            thrown = true;
+        }
+
+        //assert
+        assertTrue(thrown);
+        assertEquals(0, getInFlightSemaphore(mockMqtt).availablePermits());
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.publish(mockParseTopic, (MqttMessage) any, null, (IMqttActionListener) any);
+                times = 1;
+            }
+        };
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_051: [**If the message could not be handed to the mqtt client, the function shall release its in flight slot.**]**
+     */
+    @Test
+    public void publishReleasesInFlightSlotIfPublishThrows() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+                mockMqttAsyncClient.publish(mockParseTopic, (MqttMessage) any, any, (IMqttActionListener) any);
+                result = mockMqttException;
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt(3);
+        mockMqtt.connect();
+
+        //act
+        try
+        {
+            mockMqtt.publish(mockParseTopic, payload);
+            fail("publish shall throw when the mqtt client throws");
+        }
+        catch (IOException e)
+        {
+            //expected
+        }
+
+        //assert
+        assertEquals(3, getInFlightSemaphore(mockMqtt).availablePermits());
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_055: [**The function shall reset the in flight slots to exactly maxInFlightCount, releasing the publishers waiting for one so they fail instead of waiting for a PUBACK that will never arrive, and ignoring the PUBACKs and failures of the messages published before.**]**
+     */
+    @Test
+    public void disconnectReleasesWaitingPublishers() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
+        baseDisconnectExpectations();
+        Mqtt mockMqtt = instantiateMqtt(1);
+        mockMqtt.connect();
+        Semaphore semaphore = getInFlightSemaphore(mockMqtt);
+        semaphore.drainPermits();
+
+        //act
+        mockMqtt.disconnect();
+
+        //assert
+        assertEquals(1, semaphore.availablePermits());
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_055: [**The function shall reset the in flight slots to exactly maxInFlightCount, releasing the publishers waiting for one so they fail instead of waiting for a PUBACK that will never arrive, and ignoring the PUBACKs and failures of the messages published before.**]**
+     */
+    @Test
+    public void disconnectIgnoresLatePubacksOfPublishedMessages() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        baseConnectExpectation();
+        basePublishExpectations();
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(3);
+        mockMqtt.connect();
+        mockMqtt.publish(mockParseTopic, payload);
+        mockMqtt.publish(mockParseTopic, payload);
+        Semaphore semaphore = getInFlightSemaphore(mockMqtt);
+        assertEquals(1, semaphore.availablePermits());
+        baseDisconnectExpectations();
+
+        //act
+        mockMqtt.disconnect();
+        mockMqtt.deliveryComplete(mockMqttDeliveryToken);
+        mockMqtt.deliveryComplete(mockMqttDeliveryToken);
+
+        //assert
+        assertEquals(3, semaphore.availablePermits());
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_25_030: [**The payload of the message and the topic is added to the received messages queue of the concrete class whose topic prefix matches the topic.**]**
+     */
+    @Test
+    public void messageArrivedKeepsMessagesOnSameTopicInOrder() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] firstPayload = {0x61};
+        final byte[] secondPayload = {0x62};
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttMessage.getPayload();
+                returns(firstPayload, secondPayload);
+            }
+        };
+        Mqtt mockMqtt = instantiateMqtt();
+
+        //act
+        mockMqtt.messageArrived(mockParseTopic, new MqttMessage(firstPayload));
+        mockMqtt.messageArrived(mockParseTopic, new MqttMessage(secondPayload));
+
+        //assert
+        Queue<Map.Entry<String, byte[]>> actualQueue = Deencapsulation.getField(mockMqtt, "receivedMessages");
+        assertEquals(2, actualQueue.size());
+        assertArrayEquals(firstPayload, actualQueue.poll().getValue());
+        assertArrayEquals(secondPayload, actualQueue.poll().getValue());
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_058: [**The function shall route the messages arriving on topics with the given prefix to the received messages queue of this instance.**]**
+    **Tests_SRS_Mqtt_21_060: [**If no concrete class consumes the topic, the function shall drop the message.**]**
+     */
+    @Test
+    public void messageArrivedRoutesMessagesToConsumerQueue() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        final String otherTopicPrefix = "otherTopic/";
+        Mqtt mockMqtt1 = instantiateMqtt();
+        Mqtt mockMqtt2 = instantiateMqtt(mockMqtt1);
+        mockMqtt2.routeReceivedMessages(otherTopicPrefix);
+
+        //act
+        mockMqtt1.messageArrived(otherTopicPrefix + "1", new MqttMessage(payload));
+        mockMqtt1.messageArrived(mockParseTopic, new MqttMessage(payload));
+        mockMqtt1.messageArrived("unknownTopic", new MqttMessage(payload));
+
+        //assert
+        Queue<Map.Entry<String, byte[]>> actualQueue1 = Deencapsulation.getField(mockMqtt1, "receivedMessages");
+        Queue<Map.Entry<String, byte[]>> actualQueue2 = Deencapsulation.getField(mockMqtt2, "receivedMessages");
+        assertEquals(1, actualQueue1.size());
+        assertEquals(mockParseTopic, actualQueue1.peek().getKey());
+        assertEquals(1, actualQueue2.size());
+        assertEquals(otherTopicPrefix + "1", actualQueue2.peek().getKey());
+        testCleanUp(mockMqtt1);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_065: [**If the received messages queue is still full, the function shall drop the message and log an error.**]**
+     */
+    @Test
+    public void messageArrivedDropsMessagesWhenQueueIsFull() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(Mqtt.DEFAULT_MAX_IN_FLIGHT_COUNT, 2);
+
+        //act
+        mockMqtt.messageArrived(mockParseTopic + 1, new MqttMessage(payload));
+        mockMqtt.messageArrived(mockParseTopic + 2, new MqttMessage(payload));
+        mockMqtt.messageArrived(mockParseTopic + 3, new MqttMessage(payload));
+
+        //assert
+        Queue<Map.Entry<String, byte[]>> actualQueue = Deencapsulation.getField(mockMqtt, "receivedMessages");
+        assertEquals(2, actualQueue.size());
+        assertEquals(mockParseTopic + 1, actualQueue.peek().getKey());
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_059: [**The function shall not wait for room in the received messages queue, so the callback thread of the mqtt client, which also delivers the PUBACKs, is never blocked.**]**
+    **Tests_SRS_Mqtt_21_065: [**If the received messages queue is full, the function shall drop the message and log an error.**]**
+     */
+    @Test
+    public void messageArrivedDropsMessageWithoutWaitingWhenQueueIsFull(@Mocked final MqttMessageListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(Mqtt.DEFAULT_MAX_IN_FLIGHT_COUNT, 1);
+        mockMqtt.setMessageListener(mockListener);
+        mockMqtt.messageArrived(mockParseTopic + 1, new MqttMessage(payload));
+
+        //act
+        long start = System.currentTimeMillis();
+        mockMqtt.messageArrived(mockParseTopic + 2, new MqttMessage(payload));
+        long elapsed = System.currentTimeMillis() - start;
+
+        //assert
+        Queue<Map.Entry<String, byte[]>> actualQueue = Deencapsulation.getField(mockMqtt, "receivedMessages");
+        assertTrue(elapsed < 500);
+        assertEquals(1, actualQueue.size());
+        assertEquals(mockParseTopic + 1, actualQueue.peek().getKey());
+        new Verifications()
+        {
+            {
+                mockListener.messageReceived();
+                times = 1;
+            }
+        };
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_060: [**If no concrete class consumes the topic, the function shall drop the message.**]**
+     */
+    @Test
+    public void messageArrivedDropsMethodRequestsWhileNothingConsumesThem(@Mocked final MqttMessageListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt();
+        Mqtt deviceMethods = new MqttDeviceMethods(mockMqtt);
+        mockMqtt.setMessageListener(mockListener);
+
+        //act
+        mockMqtt.messageArrived("$iothub/methods/POST/reboot/?$rid=1", new MqttMessage(payload));
+
+        //assert
+        Queue<Map.Entry<String, byte[]>> methodsQueue = Deencapsulation.getField(deviceMethods, "receivedMessages");
+        assertTrue(methodsQueue.isEmpty());
+        new Verifications()
+        {
+            {
+                mockListener.messageReceived();
+                times = 0;
+            }
+        };
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_057: [**The constructor shall throw InvalidParameter Exception if maxReceivedMessages is not positive.**]**
+     */
+    @Test(expected = InvalidParameterException.class)
+    public void constructorFailsIfMaxReceivedMessagesIsNotPositive() throws IOException, MqttException
+    {
+        //act
+        instantiateMqtt(Mqtt.DEFAULT_MAX_IN_FLIGHT_COUNT, 0);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_061: [**The function shall save the message listener for all the concrete classes of this connection.**]**
+    **Tests_SRS_Mqtt_21_062: [**If the message was queued, the function shall notify the message listener.**]**
+     */
+    @Test
+    public void messageArrivedNotifiesMessageListener(@Mocked final MqttMessageListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt1 = instantiateMqtt();
+        Mqtt mockMqtt2 = instantiateMqtt(mockMqtt1);
+        mockMqtt1.setMessageListener(mockListener);
+
+        //act
+        mockMqtt2.messageArrived(mockParseTopic, new MqttMessage(payload));
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockListener.messageReceived();
+                times = 1;
+            }
+        };
+        testCleanUp(mockMqtt1);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_062: [**If the message was queued, the function shall notify the message listener.**]**
+     */
+    @Test
+    public void messageArrivedDoesNotNotifyMessageListenerForDroppedMessages(@Mocked final MqttMessageListener mockListener) throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt mockMqtt = instantiateMqtt(Mqtt.DEFAULT_MAX_IN_FLIGHT_COUNT, 1);
+        mockMqtt.setMessageListener(mockListener);
+
+        //act
+        mockMqtt.messageArrived(mockParseTopic + 1, new MqttMessage(payload));
+        mockMqtt.messageArrived(mockParseTopic + 2, new MqttMessage(payload));
+        mockMqtt.messageArrived("unknownTopic", new MqttMessage(payload));
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockListener.messageReceived();
+                times = 1;
+            }
+        };
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_063: [**The function shall return the received messages queue of this instance.**]**
+    **Tests_SRS_Mqtt_21_064: [**The function shall move the given messages, in order, to the received messages queue of this instance while it has room, leaving the other messages in the given queue.**]**
+     */
+    @Test
+    public void restoreReceivedMessagesMovesPreviousMessagesAheadOfNewOnes() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt previousMqtt = instantiateMqtt();
+        previousMqtt.messageArrived(mockParseTopic + 1, new MqttMessage(payload));
+        previousMqtt.messageArrived(mockParseTopic + 2, new MqttMessage(payload));
+        Queue<Map.Entry<String, byte[]>> previousQueue = previousMqtt.getReceivedMessages();
+        previousMqtt.restartBaseMqtt();
+        Mqtt mockMqtt = instantiateMqtt(Mqtt.DEFAULT_MAX_IN_FLIGHT_COUNT, 3);
+
+        //act
+        int restored = mockMqtt.restoreReceivedMessages(previousQueue);
+        mockMqtt.messageArrived(mockParseTopic + 3, new MqttMessage(payload));
+
+        //assert
+        assertEquals(2, restored);
+        assertTrue(previousQueue.isEmpty());
+        Queue<Map.Entry<String, byte[]>> actualQueue = mockMqtt.getReceivedMessages();
+        assertEquals(3, actualQueue.size());
+        assertEquals(mockParseTopic + 1, actualQueue.poll().getKey());
+        assertEquals(mockParseTopic + 2, actualQueue.poll().getKey());
+        assertEquals(mockParseTopic + 3, actualQueue.poll().getKey());
+        testCleanUp(mockMqtt);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_21_064: [**The function shall move the given messages, in order, to the received messages queue of this instance while it has room, leaving the other messages in the given queue.**]**
+     */
+    @Test
+    public void restoreReceivedMessagesLeavesMessagesThatDoNotFit() throws IOException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations(true);
+        final byte[] payload = {0x61, 0x62, 0x63};
+        Mqtt previousMqtt = instantiateMqtt();
+        previousMqtt.messageArrived(mockParseTopic + 1, new MqttMessage(payload));
+        previousMqtt.messageArrived(mockParseTopic + 2, new MqttMessage(payload));
+        Queue<Map.Entry<String, byte[]>> previousQueue = previousMqtt.getReceivedMessages();
+        Mqtt mockMqtt = instantiateMqtt(Mqtt.DEFAULT_MAX_IN_FLIGHT_COUNT, 1);
+
+        //act
+        int restored = mockMqtt.restoreReceivedMessages(previousQueue);
+
+        //assert
+        assertEquals(1, restored);
+        assertEquals(1, previousQueue.size());
+        assertEquals(mockParseTopic + 2, previousQueue.peek().getKey());
+        testCleanUp(mockMqtt);
+        testCleanUp(previousMqtt);
+    }
 }
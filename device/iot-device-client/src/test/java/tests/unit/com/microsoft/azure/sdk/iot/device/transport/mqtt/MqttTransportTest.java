@@ -6,7 +6,11 @@ package tests.unit.com.microsoft.azure.sdk.iot.device.transport.mqtt;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubCallbackPacket;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubOutboundPacket;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveDispatcher;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSasTokenRenewer;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttDeliveryListener;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttIotHubConnection;
+import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttMessageListener;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttTransport;
 import junit.framework.AssertionFailedError;
 import mockit.*;
@@ -14,9 +18,13 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertNotNull;
@@ -30,6 +38,9 @@ public class MqttTransportTest {
     @Mocked
     MqttIotHubConnection mockConnection;
 
+    @Mocked
+    IotHubReceiveDispatcher mockReceiveDispatcher;
+
     // Tests_SRS_MQTTTRANSPORT_15_003: [The function shall establish an MQTT connection
     // with IoT Hub given in the configuration.]
     @Test
@@ -38,7 +49,7 @@ public class MqttTransportTest {
         new NonStrictExpectations()
         {
             {
-                new MqttIotHubConnection(mockConfig);
+                new MqttIotHubConnection(mockConfig, (MqttDeliveryListener) any, (MqttMessageListener) any);
                 result = mockConnection;
             }
         };
@@ -99,6 +110,47 @@ public class MqttTransportTest {
         };
     }
 
+    // Tests_SRS_MQTTTRANSPORT_21_035: [The function shall close the MQTT connection before taking the send lock,
+    // so a message waiting for an in flight slot is released instead of blocking the close.]
+    @Test
+    public void closeClosesMqttConnectionWhileSendLockIsHeld() throws IOException, InterruptedException
+    {
+        final MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        final Object sendMessagesLock = Deencapsulation.getField(transport, "sendMessagesLock");
+        Thread closer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    transport.close();
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        synchronized (sendMessagesLock)
+        {
+            closer.start();
+            closer.join(500);
+
+            final MqttIotHubConnection expectedConnection = mockConnection;
+            new Verifications()
+            {
+                {
+                    expectedConnection.close();
+                    times = 1;
+                }
+            };
+        }
+        closer.join();
+    }
+
     // Tests_SRS_MQTTTRANSPORT_15_006: [If the MQTT connection is closed, the function shall do nothing.]
     @Test
     public void closeDoesNothingIfConnectionNeverOpened() throws IOException
@@ -205,7 +257,7 @@ public class MqttTransportTest {
         new NonStrictExpectations()
         {
             {
-                new MqttIotHubConnection(mockConfig);
+                new MqttIotHubConnection(mockConfig, (MqttDeliveryListener) any, (MqttMessageListener) any);
                 result = mockConnection;
                 new IotHubOutboundPacket(mockMsg, mockCallback, context);
                 result = mockPacket;
@@ -224,14 +276,18 @@ public class MqttTransportTest {
         new Verifications()
         {
             {
-                expectedConnection.sendEvent(mockMsg);
+                expectedConnection.sendEvent(mockMsg, any);
                 times = 2;
             }
         };
     }
 
-    // Tests_SRS_MQTTTRANSPORT_15_010: [For each message being sent, the function shall send the message
-    // and add the IoT Hub status code along with the callback and context to the callback list.]
+    // Tests_SRS_MQTTTRANSPORT_15_010: [For each message that could not be published, the function
+    // shall add the IoT Hub status code along with the callback and context to the callback list.]
+    // Tests_SRS_MQTTTRANSPORT_21_023: [The function shall add the message to the in progress list
+    // before publishing it, so an early acknowledgement finds it.]
+    // Tests_SRS_MQTTTRANSPORT_21_025: [If the message was acknowledged, the function shall add
+    // a callback with status OK_EMPTY to the callback list.]
     @Test
     public <T extends Queue> void sendMessagesAddsToCallbackQueue(
             @Mocked final Message mockMsg,
@@ -248,7 +304,7 @@ public class MqttTransportTest {
         new NonStrictExpectations()
         {
             {
-                new MqttIotHubConnection(mockConfig);
+                new MqttIotHubConnection(mockConfig, (MqttDeliveryListener) any, (MqttMessageListener) any);
                 result = mockConnection;
                 new IotHubOutboundPacket(mockMsg, mockCallback, context);
                 result = mockPacket;
@@ -256,7 +312,7 @@ public class MqttTransportTest {
                 result = mockCallback;
                 mockPacket.getContext();
                 result = context;
-                mockConnection.sendEvent((Message) any);
+                mockConnection.sendEvent((Message) any, any);
                 returns(IotHubStatusCode.OK_EMPTY, IotHubStatusCode.ERROR);
                 new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockCallback, context);
                 result = mockCallbackPacket;
@@ -270,16 +326,176 @@ public class MqttTransportTest {
         transport.addMessage(mockMsg, mockCallback, context);
         transport.addMessage(mockMsg, mockCallback, context);
         transport.sendMessages();
+        Set<IotHubOutboundPacket> inProgressList = Deencapsulation.getField(transport, "inProgressList");
+        assertThat(inProgressList.size(), is(1));
+        transport.messageSent(inProgressList.iterator().next(), true);
 
         new VerificationsInOrder()
         {
             {
-                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockCallback, context);
-                mockQueue.add(mockCallbackPacket);
                 new IotHubCallbackPacket(IotHubStatusCode.ERROR, mockCallback, context);
                 mockQueue.add(mockCallbackPacket);
+                new IotHubCallbackPacket(IotHubStatusCode.OK_EMPTY, mockCallback, context);
+                mockQueue.add(mockCallbackPacket);
+            }
+        };
+        assertThat(inProgressList.isEmpty(), is(true));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_026: [If the message was not delivered, the function shall buffer it
+    // to be sent again next time.]
+    @Test
+    public void messageSentBuffersUndeliveredMessage(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        Set<IotHubOutboundPacket> inProgressList = Deencapsulation.getField(transport, "inProgressList");
+        transport.messageSent(inProgressList.iterator().next(), false);
+
+        Queue<IotHubOutboundPacket> waitingList = Deencapsulation.getField(transport, "waitingList");
+        Queue<IotHubCallbackPacket> callbackList = Deencapsulation.getField(transport, "callbackList");
+        assertThat(inProgressList.isEmpty(), is(true));
+        assertThat(waitingList.size(), is(1));
+        assertThat(callbackList.isEmpty(), is(true));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_024: [If the packet is not in the in progress list, the function shall do nothing.]
+    @Test
+    public void messageSentIgnoresUnknownPacket(@Mocked final IotHubOutboundPacket mockPacket) throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        transport.messageSent(mockPacket, true);
+        transport.messageSent(null, true);
+
+        assertThat(transport.isEmpty(), is(true));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_022: [The function shall buffer the messages still waiting for their
+    // acknowledgement to be sent again next time.]
+    @Test
+    public void closeBuffersMessagesInProgress(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, any);
+                result = IotHubStatusCode.OK_EMPTY;
             }
         };
+
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.close();
+
+        Set<IotHubOutboundPacket> inProgressList = Deencapsulation.getField(transport, "inProgressList");
+        Queue<IotHubOutboundPacket> waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertThat(inProgressList.isEmpty(), is(true));
+        assertThat(waitingList.size(), is(1));
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached, or no in flight slot was
+    // released in time, the message shall be put back at the head of the waiting list to be sent again next time.]
+    @Test
+    public void sendMessagesPutsBackMessageAtHeadIfInFlightWindowIsFull(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, any);
+                result = new IllegalStateException("No in flight slot was released");
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, "first");
+        transport.addMessage(mockMsg, mockCallback, "second");
+        transport.sendMessages();
+
+        Set<IotHubOutboundPacket> inProgressList = Deencapsulation.getField(transport, "inProgressList");
+        Queue<IotHubOutboundPacket> waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertThat(inProgressList.isEmpty(), is(true));
+        assertThat(waitingList.size(), is(2));
+        assertThat(waitingList.peek().getContext(), is((Object) "first"));
+        final MqttIotHubConnection expectedConnection = mockConnection;
+        new Verifications()
+        {
+            {
+                expectedConnection.sendEvent(mockMsg, any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_036: [The function shall publish the messages without holding the send lock,
+    // so adding messages, invoking callbacks and closing do not wait for a free in flight slot.]
+    @Test
+    public void addMessageDoesNotWaitForPublishInProgress(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final MqttTransport transport = new MqttTransport(mockConfig);
+        final boolean[] added = new boolean[1];
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, any);
+                result = new Delegate()
+                {
+                    IotHubStatusCode sendEvent(Message message, Object context) throws InterruptedException
+                    {
+                        if (added[0])
+                        {
+                            return IotHubStatusCode.OK_EMPTY;
+                        }
+                        Thread adder = new Thread(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                transport.addMessage(mockMsg, mockCallback, null);
+                                added[0] = true;
+                            }
+                        });
+                        adder.start();
+                        adder.join(5000);
+                        return IotHubStatusCode.OK_EMPTY;
+                    }
+                };
+            }
+        };
+
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, null);
+        transport.sendMessages();
+
+        assertThat(added[0], is(true));
     }
 
     // Tests_SRS_MQTTTRANSPORT_15_011: [If the IoT Hub could not be reached, 
@@ -294,7 +510,7 @@ public class MqttTransportTest {
         new NonStrictExpectations()
         {
             {
-                mockConnection.sendEvent((Message) any);
+                mockConnection.sendEvent((Message) any, any);
                 result = new IllegalStateException(anyString);
                 result = IotHubStatusCode.OK_EMPTY;
             }
@@ -310,7 +526,7 @@ public class MqttTransportTest {
         new Verifications()
         {
             {
-                expectedConnection.sendEvent(mockMsg);
+                expectedConnection.sendEvent(mockMsg, any);
                 times = 2;
             }
         };
@@ -348,7 +564,7 @@ public class MqttTransportTest {
         new NonStrictExpectations()
         {
             {
-                new MqttIotHubConnection(mockConfig);
+                new MqttIotHubConnection(mockConfig, (MqttDeliveryListener) any, (MqttMessageListener) any);
                 result = mockConnection;
                 mockCallbackPacket.getStatus();
                 returns(IotHubStatusCode.OK_EMPTY, IotHubStatusCode.ERROR);
@@ -408,7 +624,7 @@ public class MqttTransportTest {
         new NonStrictExpectations()
         {
             {
-                new MqttIotHubConnection(mockConfig);
+                new MqttIotHubConnection(mockConfig, (MqttDeliveryListener) any, (MqttMessageListener) any);
                 result = mockConnection;
                 mockCallbackPacket.getStatus();
                 result = IotHubStatusCode.OK_EMPTY;
@@ -486,6 +702,34 @@ public class MqttTransportTest {
         assertThat(testIsEmpty, is(expectedIsEmpty));
     }
 
+    // Tests_SRS_MQTTTRANSPORT_15_019: [The function shall return true if the waiting list,
+    // in progress list and callback list are all empty, and false otherwise.]
+    @Test
+    public void isEmptyReturnsFalseIfMessageWaitsForAcknowledgement(
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        final Map<String, Object> context = new HashMap<>();
+        new NonStrictExpectations()
+        {
+            {
+                mockConnection.sendEvent((Message) any, any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, context);
+        transport.sendMessages();
+        transport.invokeCallbacks();
+        boolean testIsEmpty = transport.isEmpty();
+
+        final boolean expectedIsEmpty = false;
+        assertThat(testIsEmpty, is(expectedIsEmpty));
+    }
+
     // Tests_SRS_MqttTransport_11_019: [The function shall return true if the waiting list
     // and callback list are all empty, and false otherwise.]
     @Test
@@ -591,4 +835,209 @@ public class MqttTransportTest {
         transport.close();
         transport.handleMessage();
     }
-}
\ No newline at end of file
+
+    // Tests_SRS_MQTTTRANSPORT_21_027: [The function shall register itself as the message listener of the MQTT connection,
+    // dispatching the received messages on up to the message callback threads of the configuration.]
+    // Tests_SRS_MQTTTRANSPORT_21_031: [The function shall dispatch the received messages on the task scheduler
+    // of the configuration, if one is set.]
+    @Test
+    public void openRegistersMessageListenerAndCreatesReceiveDispatcher(@Mocked final ScheduledExecutorService mockSharedScheduler) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallbackThreads();
+                result = 4;
+                mockConfig.getTaskScheduler();
+                result = mockSharedScheduler;
+            }
+        };
+
+        final MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        new Verifications()
+        {
+            {
+                new IotHubReceiveDispatcher(transport, 4, mockSharedScheduler);
+                times = 1;
+                new MqttIotHubConnection(mockConfig, transport, transport);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_028: [The function shall signal the arrival of the message to the receive dispatcher,
+    // which calls handleMessage to invoke the message callback.]
+    @Test
+    public void messageReceivedSignalsReceiveDispatcher() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        transport.messageReceived();
+
+        new Verifications()
+        {
+            {
+                mockReceiveDispatcher.messageArrived();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_029: [The function shall stop dispatching the received messages.]
+    @Test
+    public void closeClosesReceiveDispatcher() throws IOException
+    {
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        transport.close();
+
+        new Verifications()
+        {
+            {
+                mockReceiveDispatcher.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_032: [If the configuration has a device key, the function shall start renewing
+    // the SAS token before it expires, by reconnecting with a new one.]
+    // Tests_SRS_MQTTTRANSPORT_21_033: [To renew the SAS token, the transport shall close the MQTT connection,
+    // buffer the messages waiting for their acknowledgement, and open the connection again with a new token.]
+    @Test
+    public void sasTokenRenewalReconnectsAndBuffersMessagesInProgress(
+            @Mocked final IotHubSasTokenRenewer mockRenewer,
+            @Mocked final Message mockMsg,
+            @Mocked final IotHubEventCallback mockCallback)
+            throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = "test-devicekey";
+                mockConnection.sendEvent((Message) any, any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+        transport.addMessage(mockMsg, mockCallback, null);
+        transport.sendMessages();
+        final List<IotHubSasTokenRenewer.Renewal> renewals = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                new IotHubSasTokenRenewer(mockConfig, withCapture(renewals));
+                times = 1;
+                mockRenewer.start();
+                times = 1;
+            }
+        };
+
+        renewals.get(0).renew();
+
+        Set<IotHubOutboundPacket> inProgressList = Deencapsulation.getField(transport, "inProgressList");
+        Queue<IotHubOutboundPacket> waitingList = Deencapsulation.getField(transport, "waitingList");
+        assertThat(inProgressList.isEmpty(), is(true));
+        assertThat(waitingList.size(), is(1));
+        new VerificationsInOrder()
+        {
+            {
+                mockConnection.open();
+                mockConnection.close();
+                mockConnection.open();
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_032: [If the configuration has a device key, the function shall start renewing
+    // the SAS token before it expires, by reconnecting with a new one.]
+    @Test
+    public void openDoesNotRenewSharedAccessToken(@Mocked final IotHubSasTokenRenewer mockRenewer) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = null;
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+
+        transport.open();
+
+        new Verifications()
+        {
+            {
+                new IotHubSasTokenRenewer((DeviceClientConfig) any, (IotHubSasTokenRenewer.Renewal) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_034: [The function shall stop renewing the SAS token.]
+    @Test
+    public void closeStopsSasTokenRenewal(@Mocked final IotHubSasTokenRenewer mockRenewer) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getDeviceKey();
+                result = "test-devicekey";
+            }
+        };
+        MqttTransport transport = new MqttTransport(mockConfig);
+        transport.open();
+
+        transport.close();
+
+        new Verifications()
+        {
+            {
+                mockRenewer.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_MQTTTRANSPORT_21_030: [The function shall invoke the callback outside of the receive lock,
+    // so the callbacks of different messages may run at the same time.]
+    @Test
+    public void handleMessageInvokesCallbackOutsideReceiveLock(
+            @Mocked final Message mockMsg) throws IOException
+    {
+        final MqttTransport transport = new MqttTransport(mockConfig);
+        final Object handleMessageLock = Deencapsulation.getField(transport, "handleMessageLock");
+        final boolean[] lockHeldByCallback = {true};
+        final MessageCallback callback = new MessageCallback()
+        {
+            @Override
+            public IotHubMessageResult execute(Message message, Object callbackContext)
+            {
+                lockHeldByCallback[0] = Thread.holdsLock(handleMessageLock);
+                return IotHubMessageResult.COMPLETE;
+            }
+        };
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageCallback();
+                result = callback;
+                mockConnection.receiveMessage();
+                result = mockMsg;
+                mockMsg.getMessageType();
+                result = MessageType.Telemetry;
+            }
+        };
+        transport.open();
+
+        transport.handleMessage();
+
+        assertThat(lockHeldByCallback[0], is(false));
+    }
+}
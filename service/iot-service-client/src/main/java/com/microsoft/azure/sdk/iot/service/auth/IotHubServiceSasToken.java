@@ -48,12 +48,31 @@ public final class IotHubServiceSasToken
      * @param iotHubConnectionString Connection string object containing the connection parameters
      */
     public IotHubServiceSasToken(IotHubConnectionString iotHubConnectionString)
+    {
+        this(iotHubConnectionString, 365*24*60*60);
+    }
+
+    /**
+     * Constructor. Generates a SAS token that grants access to an IoT Hub for
+     * the given number of seconds.
+     *
+     * @param iotHubConnectionString Connection string object containing the connection parameters
+     * @param tokenValidSecs The number of seconds the token is valid from now
+     */
+    public IotHubServiceSasToken(IotHubConnectionString iotHubConnectionString, long tokenValidSecs)
     {
         // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKEN_12_001: [The constructor shall throw IllegalArgumentException if the input object is null]
         if (iotHubConnectionString == null)
         {
             throw new IllegalArgumentException();
         }
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKEN_21_009: [The constructor shall throw IllegalArgumentException if tokenValidSecs is less than 1]
+        if (tokenValidSecs < 1)
+        {
+            throw new IllegalArgumentException("tokenValidSecs cannot be less than 1");
+        }
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKEN_21_010: [The token shall expire tokenValidSecs seconds from now, or one year from now if no tokenValidSecs is given]
+        this.TOKEN_VALID_SECS = tokenValidSecs;
         // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKEN_12_002: [The constructor shall create a target uri from the url encoded host name)]
         // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKEN_12_003: [The constructor shall create a string to sign by concatenating the target uri and the expiry time string (one year)]
         // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKEN_12_004: [The constructor shall create a key from the shared access key signing with HmacSHA256]
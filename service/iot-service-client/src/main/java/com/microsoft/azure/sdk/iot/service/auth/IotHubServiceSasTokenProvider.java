@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.auth;
+
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubConnectionString;
+
+/**
+ * Provides the SAS token of an IoT Hub connection string to all the clients
+ * created from it. The same token is reused until a fraction of its lifetime,
+ * given by the renewal ratio, has elapsed; the next request then builds a new one.
+ */
+public final class IotHubServiceSasTokenProvider
+{
+    /** The default lifetime of the tokens, in seconds. */
+    public static final long DEFAULT_TOKEN_VALID_SECS = 60*60;
+    /** The default fraction of the token lifetime after which a new token is built. */
+    public static final double DEFAULT_RENEWAL_RATIO = 0.75;
+
+    private final IotHubConnectionString iotHubConnectionString;
+    private final double renewalRatio;
+    private long tokenValidSecs;
+
+    private String sasToken = null;
+    private long renewalTimeMillis = 0;
+
+    /**
+     * Constructor. The tokens are valid for DEFAULT_TOKEN_VALID_SECS, and renewed
+     * after DEFAULT_RENEWAL_RATIO of their lifetime.
+     *
+     * @param iotHubConnectionString Connection string object containing the connection parameters
+     */
+    public IotHubServiceSasTokenProvider(IotHubConnectionString iotHubConnectionString)
+    {
+        this(iotHubConnectionString, DEFAULT_TOKEN_VALID_SECS, DEFAULT_RENEWAL_RATIO);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param iotHubConnectionString Connection string object containing the connection parameters
+     * @param tokenValidSecs The lifetime of the tokens, in seconds
+     * @param renewalRatio The fraction of the token lifetime after which a new token is built
+     */
+    public IotHubServiceSasTokenProvider(IotHubConnectionString iotHubConnectionString, long tokenValidSecs, double renewalRatio)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_001: [The constructor shall throw IllegalArgumentException if the
+        // connection string is null, if tokenValidSecs is less than 1, or if renewalRatio is not greater than 0 and not greater than 1]
+        if (iotHubConnectionString == null)
+        {
+            throw new IllegalArgumentException("iotHubConnectionString cannot be null");
+        }
+        validateTokenValidSecs(tokenValidSecs);
+        if (!(renewalRatio > 0 && renewalRatio <= 1))
+        {
+            throw new IllegalArgumentException("renewalRatio shall be greater than 0 and not greater than 1");
+        }
+
+        this.iotHubConnectionString = iotHubConnectionString;
+        this.tokenValidSecs = tokenValidSecs;
+        this.renewalRatio = renewalRatio;
+    }
+
+    /**
+     * Getter for the current SAS token, building a new one if the renewal time of the current one has come.
+     *
+     * @return The SAS token string
+     */
+    public synchronized String getSasToken()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_002: [The function shall build a new token if there is
+        // no token yet, or if the renewal time of the current token has come]
+        if (this.sasToken == null || System.currentTimeMillis() >= this.renewalTimeMillis)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_003: [The new token shall expire tokenValidSecs seconds
+            // from now, and shall be renewed after renewalRatio of tokenValidSecs has elapsed]
+            long nowMillis = System.currentTimeMillis();
+            this.sasToken = new IotHubServiceSasToken(this.iotHubConnectionString, this.tokenValidSecs).toString();
+            this.renewalTimeMillis = nowMillis + Math.max((long)(this.tokenValidSecs * 1000 * this.renewalRatio), 1);
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_004: [The function shall return the current token]
+        return this.sasToken;
+    }
+
+    /**
+     * Getter for the time left before the current token shall be renewed. Long-lived connections
+     * use it to reconnect with a new token before the current one expires.
+     *
+     * @return The number of milliseconds before the renewal time of the current token, 0 if it has come
+     */
+    public synchronized long getMillisUntilRenewal()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_005: [The function shall return the number of milliseconds
+        // before the renewal time of the current token, building one if there is none, and 0 if the renewal time has come]
+        if (this.sasToken == null)
+        {
+            getSasToken();
+        }
+        return Math.max(this.renewalTimeMillis - System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * Getter for the lifetime of the tokens.
+     *
+     * @return The lifetime of the tokens, in seconds
+     */
+    public synchronized long getTokenValidSecs()
+    {
+        return this.tokenValidSecs;
+    }
+
+    /**
+     * Setter for the lifetime of the tokens. The current token is replaced on the next request.
+     *
+     * @param tokenValidSecs The lifetime of the tokens, in seconds
+     */
+    public synchronized void setTokenValidSecs(long tokenValidSecs)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_006: [The function shall throw IllegalArgumentException if tokenValidSecs is less than 1]
+        validateTokenValidSecs(tokenValidSecs);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_007: [The function shall save tokenValidSecs and discard the current token]
+        this.tokenValidSecs = tokenValidSecs;
+        this.sasToken = null;
+    }
+
+    private static void validateTokenValidSecs(long tokenValidSecs)
+    {
+        if (tokenValidSecs < 1)
+        {
+            throw new IllegalArgumentException("tokenValidSecs cannot be less than 1");
+        }
+    }
+}
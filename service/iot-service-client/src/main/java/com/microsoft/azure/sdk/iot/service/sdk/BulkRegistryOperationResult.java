@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.sdk;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a bulk registry operation. The operation is successful only if no device
+ * failed; the devices which failed are listed with their error.
+ */
+public class BulkRegistryOperationResult
+{
+    @SerializedName("isSuccessful")
+    private boolean isSuccessful;
+
+    @SerializedName("errors")
+    private List<DeviceRegistryOperationError> errors;
+
+    @SerializedName("warnings")
+    private List<DeviceRegistryOperationError> warnings;
+
+    /**
+     * Constructor for an empty successful result.
+     */
+    BulkRegistryOperationResult()
+    {
+        this.isSuccessful = true;
+        this.errors = new ArrayList<>();
+        this.warnings = new ArrayList<>();
+    }
+
+    /**
+     * Getter for the operation status.
+     * @return true if the operation succeeded for all devices.
+     */
+    public boolean isSuccessful()
+    {
+        return this.isSuccessful;
+    }
+
+    /**
+     * Getter for the errors.
+     * @return The error of each device the operation failed for.
+     */
+    public List<DeviceRegistryOperationError> getErrors()
+    {
+        return this.errors;
+    }
+
+    /**
+     * Getter for the warnings.
+     * @return The warning of each device the operation succeeded for with a warning.
+     */
+    public List<DeviceRegistryOperationError> getWarnings()
+    {
+        return this.warnings;
+    }
+
+    /**
+     * Add the errors and the warnings of the result of another request of the same operation.
+     * @param other The result to add.
+     */
+    void merge(BulkRegistryOperationResult other)
+    {
+        this.isSuccessful &= other.isSuccessful;
+        if (other.errors != null)
+        {
+            this.errors.addAll(other.errors);
+        }
+        if (other.warnings != null)
+        {
+            this.warnings.addAll(other.warnings);
+        }
+    }
+
+    /**
+     * Add an error for the given device.
+     * @param error The error to add.
+     */
+    void addError(DeviceRegistryOperationError error)
+    {
+        this.isSuccessful = false;
+        this.errors.add(error);
+    }
+}
@@ -22,9 +22,14 @@ public class DeviceDeserializer implements JsonDeserializer<Device>{
         JsonElement deviceElement = jsonElement.getAsJsonObject();
         device = gson.fromJson(deviceElement, Device.class);
         JsonElement authenticationElement = jsonElement.getAsJsonObject().get("authentication");
-        JsonElement symmetricKeyElement = authenticationElement.getAsJsonObject().get("symmetricKey");
-        SymmetricKey symmetricKey = gson.fromJson(symmetricKeyElement, SymmetricKey.class);
-        device.symmetricKey = symmetricKey;
+        // CODES_SRS_SERVICE_SDK_JAVA_DEVICE_DESERIALIZER_21_002: If the JSON has no authentication element, as in the
+        // results of a registry query, the function shall leave the symmetric key of the Device null
+        if (authenticationElement != null && authenticationElement.isJsonObject())
+        {
+            JsonElement symmetricKeyElement = authenticationElement.getAsJsonObject().get("symmetricKey");
+            SymmetricKey symmetricKey = gson.fromJson(symmetricKeyElement, SymmetricKey.class);
+            device.symmetricKey = symmetricKey;
+        }
 
         return device;
     }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.sdk;
+
+import com.google.gson.stream.JsonReader;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpRequest;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the devices of the registry one page at a time, following the
+ * continuation token of each page. Each page is parsed from the response stream
+ * one device at a time, so the memory used does not grow with the number of
+ * devices in the registry.
+ *
+ * The devices come from the registry query and do not contain their
+ * authentication keys; use {@link RegistryManager#getDevice(String)} to get them.
+ *
+ * Failures to get a page are thrown by {@link #hasNext()} and {@link #next()} as
+ * an {@link UncheckedIOException}, whose cause wraps the {@link IotHubException}
+ * if the IoT Hub rejected the query.
+ */
+public class DeviceIterator implements Iterator<Device>, Closeable
+{
+    protected static final String CONTINUATION_TOKEN_HEADER = "x-ms-continuation";
+
+    private final RegistryManager registryManager;
+    private final int pageSize;
+
+    private JsonReader pageReader = null;
+    private String continuationToken = null;
+    private boolean hasMorePages = true;
+
+    /**
+     * Constructor. No request is sent until the first call to {@link #hasNext()} or {@link #next()}.
+     *
+     * @param registryManager The registry manager which creates the query requests
+     * @param pageSize The maximum number of devices in each page
+     * @throws IllegalArgumentException This exception is thrown if the registryManager is null or the pageSize is less than 1
+     */
+    DeviceIterator(RegistryManager registryManager, int pageSize)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_001: [The constructor shall throw IllegalArgumentException if the registryManager is null or the pageSize is less than 1]
+        if (registryManager == null)
+        {
+            throw new IllegalArgumentException("registryManager cannot be null");
+        }
+        if (pageSize < 1)
+        {
+            throw new IllegalArgumentException("pageSize cannot be less than 1");
+        }
+
+        this.registryManager = registryManager;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Checks if there is a next device, getting the next page of devices if the current one has been read.
+     *
+     * @return true if there is a next device
+     * @throws UncheckedIOException This exception is thrown if the next page could not be received
+     */
+    @Override
+    public boolean hasNext()
+    {
+        try
+        {
+            while (pageReader == null || !pageReader.hasNext())
+            {
+                if (pageReader != null)
+                {
+                    // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_004: [When the current page has been read, the function shall close its response stream]
+                    pageReader.endArray();
+                    closePage();
+                }
+
+                // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_005: [The function shall return false once the last page, which has no continuation token, has been read]
+                if (!hasMorePages)
+                {
+                    return false;
+                }
+
+                openNextPage();
+            }
+            return true;
+        }
+        catch (IOException e)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_006: [If the page could not be received or read, the function shall close the iterator and throw an UncheckedIOException]
+            close();
+            throw new UncheckedIOException(e);
+        }
+        catch (IotHubException e)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_006: [If the page could not be received or read, the function shall close the iterator and throw an UncheckedIOException]
+            close();
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Parses the next device from the current page.
+     *
+     * @return The next device
+     * @throws NoSuchElementException This exception is thrown if there are no more devices
+     * @throws UncheckedIOException This exception is thrown if the next page could not be received
+     */
+    @Override
+    public Device next()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_007: [The function shall throw NoSuchElementException if there are no more devices]
+        if (!hasNext())
+        {
+            throw new NoSuchElementException("There are no more devices");
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_008: [The function shall parse the next device from the response stream of the current page]
+        return RegistryManager.gson.fromJson(pageReader, Device.class);
+    }
+
+    /**
+     * Stops the iteration, closing the response stream of the current page.
+     */
+    @Override
+    public void close()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_009: [The function shall close the response stream of the current page and stop the iteration]
+        hasMorePages = false;
+        closePage();
+    }
+
+    private void openNextPage() throws IOException, IotHubException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_002: [The function shall query the next page of devices with the continuation token of the previous page, if any]
+        HttpRequest request = registryManager.CreateDeviceQueryRequest(pageSize, continuationToken);
+        HttpResponse response = request.sendStreaming();
+        IotHubExceptionManager.httpResponseVerification(response);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_003: [The function shall save the continuation token of the page, and read the page as a JSON array from the response stream]
+        continuationToken = response.getHeaderFields().get(CONTINUATION_TOKEN_HEADER);
+        hasMorePages = !Tools.isNullOrEmpty(continuationToken);
+        pageReader = new JsonReader(new InputStreamReader(request.getResponseStream(), StandardCharsets.UTF_8));
+        pageReader.beginArray();
+    }
+
+    private void closePage()
+    {
+        if (pageReader != null)
+        {
+            try
+            {
+                pageReader.close();
+            }
+            catch (IOException e)
+            {
+                // the page is not read anymore, so there is nothing to recover.
+            }
+            pageReader = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.sdk;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Error reported for one device of a bulk registry operation.
+ */
+public class DeviceRegistryOperationError
+{
+    @SerializedName("deviceId")
+    private String deviceId;
+
+    @SerializedName("errorCode")
+    private String errorCode;
+
+    @SerializedName("errorStatus")
+    private String errorStatus;
+
+    /**
+     * Constructor used by the deserialization.
+     */
+    private DeviceRegistryOperationError()
+    {
+    }
+
+    /**
+     * Constructor for an error detected on the client side, for example when the request
+     * carrying the device could not be sent.
+     *
+     * @param deviceId The device id.
+     * @param errorCode The error code, the simple name of the exception for client side errors.
+     * @param errorStatus The error description.
+     */
+    DeviceRegistryOperationError(String deviceId, String errorCode, String errorStatus)
+    {
+        this.deviceId = deviceId;
+        this.errorCode = errorCode;
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Getter for the device id.
+     * @return The id of the device the operation failed for.
+     */
+    public String getDeviceId()
+    {
+        return this.deviceId;
+    }
+
+    /**
+     * Getter for the error code.
+     * @return The error code returned by the IoT Hub, or the simple name of the exception
+     *         if the request carrying the device failed.
+     */
+    public String getErrorCode()
+    {
+        return this.errorCode;
+    }
+
+    /**
+     * Getter for the error status.
+     * @return The error description.
+     */
+    public String getErrorStatus()
+    {
+        return this.errorStatus;
+    }
+}
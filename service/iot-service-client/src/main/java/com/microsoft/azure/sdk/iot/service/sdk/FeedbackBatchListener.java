@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.sdk;
+
+import java.io.IOException;
+
+/**
+ * Listener for the feedback batches pushed by a FeedbackReceiver subscription.
+ * Batches are delivered one at a time, in the order they arrive.
+ */
+public interface FeedbackBatchListener
+{
+    /**
+     * Called for each received feedback batch. The batch is acknowledged to the service
+     * only after this function returns; if it throws, the batch is released and
+     * the service delivers it again.
+     * @param feedbackBatch The received feedback batch
+     */
+    void onFeedbackBatchReceived(FeedbackBatch feedbackBatch);
+
+    /**
+     * Called when the service or the network closed the connection of the subscription.
+     * The subscription reconnects by itself, waiting longer after each failed attempt,
+     * until unsubscribe() or close() is called; batches not yet acknowledged are
+     * delivered again once it is connected.
+     * @param exception The reason why the connection was closed
+     */
+    default void onError(IOException exception)
+    {
+    }
+}
@@ -5,6 +5,8 @@
 
 package com.microsoft.azure.sdk.iot.service.sdk;
 
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import com.microsoft.azure.sdk.iot.service.transport.amqps.AmqpPersistentReceive;
 import com.microsoft.azure.sdk.iot.service.transport.amqps.AmqpReceive;
 
 import java.io.IOException;
@@ -19,10 +21,12 @@ import java.util.concurrent.Executors;
 public class FeedbackReceiver extends Receiver
 {
     private final long DEFAULT_TIMEOUT_MS = 60000;
+    private final int DEFAULT_MAX_PENDING_BATCHES = 16;
     private final ExecutorService executor = Executors.newFixedThreadPool(10);
 
     private String deviceId;
     private AmqpReceive amqpReceive;
+    private AmqpPersistentReceive amqpPersistentReceive;
 
     /**
      * Constructor to verify initialization parameters
@@ -56,6 +60,43 @@ public class FeedbackReceiver extends Receiver
         this.deviceId = deviceId;
         // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_12_003: [The constructor shall create a new instance of AmqpReceive object]
         this.amqpReceive = new AmqpReceive(hostName, userName, sasToken, iotHubServiceClientProtocol);
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_015: [The constructor shall create a new instance of AmqpPersistentReceive object]
+        this.amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, iotHubServiceClientProtocol);
+    }
+
+    /**
+     * Constructor to verify initialization parameters
+     * Create instance of AmqpReceive which gets its SAS token from the provider,
+     * so the feedback subscription is renewed before the token expires
+     *
+     * @param hostName The iot hub host name
+     * @param userName The iot hub user name
+     * @param sasTokenProvider The provider of the iot hub SAS token
+     * @param deviceId The device id
+     */
+    public FeedbackReceiver(String hostName, String userName, IotHubServiceSasTokenProvider sasTokenProvider, IotHubServiceClientProtocol iotHubServiceClientProtocol, String deviceId)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_023: [The constructor shall throw IllegalArgumentException if any the input string is null or empty, or if the sasTokenProvider is null]
+        if (Tools.isNullOrEmpty(hostName))
+        {
+            throw new IllegalArgumentException("hostName cannot be null or empty");
+        }
+        if (Tools.isNullOrEmpty(userName))
+        {
+            throw new IllegalArgumentException("userName cannot be null or empty");
+        }
+        if (sasTokenProvider == null)
+        {
+            throw new IllegalArgumentException("sasTokenProvider cannot be null");
+        }
+        if (Tools.isNullOrEmpty(deviceId))
+        {
+            throw new IllegalArgumentException("deviceId cannot be null or empty");
+        }
+        this.deviceId = deviceId;
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_024: [The constructor shall create new instances of AmqpReceive and AmqpPersistentReceive objects with the sasTokenProvider]
+        this.amqpReceive = new AmqpReceive(hostName, userName, sasTokenProvider, iotHubServiceClientProtocol);
+        this.amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasTokenProvider, iotHubServiceClientProtocol);
     }
 
     /**
@@ -88,6 +129,85 @@ public class FeedbackReceiver extends Receiver
         }
         // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_12_007: [The function shall call close() on the member AMQPReceive object]
         this.amqpReceive.close();
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_016: [The function shall close the feedback subscription, if any]
+        if (this.amqpPersistentReceive != null)
+        {
+            this.amqpPersistentReceive.close();
+        }
+    }
+
+    /**
+     * Subscribe to the feedback batches with the default maximum number of pending batches.
+     * The connection stays open and every received batch is pushed to the listener until
+     * unsubscribe() or close() is called.
+     *
+     * @param feedbackBatchListener The listener for the received feedback batches
+     * @throws IOException This exception is thrown if the connection could not be opened
+     */
+    public void subscribe(FeedbackBatchListener feedbackBatchListener) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_017: [The function shall call subscribe(FeedbackBatchListener, int) with the default maximum number of pending batches]
+        subscribe(feedbackBatchListener, DEFAULT_MAX_PENDING_BATCHES);
+    }
+
+    /**
+     * Subscribe to the feedback batches. The connection stays open and every received batch
+     * is pushed to the listener, one at a time, until unsubscribe() or close() is called.
+     * A batch is acknowledged after the listener returned, and delivered again if it threw.
+     * Subscribing again replaces the previous listener.
+     *
+     * @param feedbackBatchListener The listener for the received feedback batches
+     * @param maxPendingBatches The maximum number of batches received but not yet handled by the listener
+     * @throws IOException This exception is thrown if the connection could not be opened
+     */
+    public void subscribe(FeedbackBatchListener feedbackBatchListener, int maxPendingBatches) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_018: [The function shall throw IllegalArgumentException if the listener is null or maxPendingBatches is not positive]
+        if (feedbackBatchListener == null)
+        {
+            throw new IllegalArgumentException("feedbackBatchListener cannot be null");
+        }
+        if (maxPendingBatches <= 0)
+        {
+            throw new IllegalArgumentException("maxPendingBatches must be greater than 0");
+        }
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_019: [The function shall throw IOException if the member AmqpPersistentReceive object has not been initialized]
+        if (this.amqpPersistentReceive == null)
+        {
+            throw new IOException("AMQP persistent receiver is not initialized");
+        }
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_020: [The function shall call open() on the member AmqpPersistentReceive object with the listener and maxPendingBatches]
+        this.amqpPersistentReceive.open(feedbackBatchListener, maxPendingBatches);
+    }
+
+    /**
+     * Stop the feedback subscription and close its connection.
+     * Batches not yet acknowledged are delivered again by the service.
+     *
+     * @throws IOException This exception is thrown if the AmqpPersistentReceive object is null
+     */
+    public void unsubscribe() throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_021: [The function shall throw IOException if the member AmqpPersistentReceive object has not been initialized]
+        if (this.amqpPersistentReceive == null)
+        {
+            throw new IOException("AMQP persistent receiver is not initialized");
+        }
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_022: [The function shall call close() on the member AmqpPersistentReceive object]
+        this.amqpPersistentReceive.close();
+    }
+
+    /**
+     * Tells whether the feedback subscription is connected. A subscription whose connection
+     * was closed by the service or the network reconnects by itself, and is reported as not
+     * subscribed until it is connected again.
+     *
+     * @return true if the feedback batches are currently pushed to the listener
+     */
+    public boolean isSubscribed()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_025: [The function shall return true only if the member AmqpPersistentReceive object has been initialized and is open]
+        return this.amqpPersistentReceive != null && this.amqpPersistentReceive.isOpen();
     }
 
     /**
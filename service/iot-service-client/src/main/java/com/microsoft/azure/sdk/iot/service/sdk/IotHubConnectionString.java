@@ -5,6 +5,8 @@
 
 package com.microsoft.azure.sdk.iot.service.sdk;
 
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -31,6 +33,9 @@ public class IotHubConnectionString extends IotHubConnectionStringBuilder
     protected String sharedAccessKey;
     protected String sharedAccessSignature;
 
+    // Shared by all the clients created from this connection string
+    private IotHubServiceSasTokenProvider sasTokenProvider;
+
     // Connection
     private static final String URL_SEPARATOR_0 = "/";
     private static final String URL_SEPARATOR_1 = "?";
@@ -38,6 +43,8 @@ public class IotHubConnectionString extends IotHubConnectionStringBuilder
     private static final String URL_HTTPS = "https:" + URL_SEPARATOR_0 + URL_SEPARATOR_0;
     private static final String URL_PATH_DEVICES = "devices";
     private static final String URL_API_VERSION = "api-version=2016-02-03";
+    private static final String URL_QUERY_API_VERSION = "api-version=2016-11-14";
+    private static final String URL_PATH_QUERY = "query";
     private static final String URL_MAX_COUNT = "top=";
     private static final String URL_PATH_DEVICESTATISTICS = "statistics";
     private static final String USER_SEPARATOR = "@";
@@ -64,6 +71,22 @@ public class IotHubConnectionString extends IotHubConnectionStringBuilder
         return stringBuilder.toString();
     }
 
+    /**
+     * Getter for the SAS token provider shared by all the clients using this connection string
+     *
+     * @return The SAS token provider, created on the first call
+     */
+    public synchronized IotHubServiceSasTokenProvider getSasTokenProvider()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBCONNECTIONSTRING_21_012: [The function shall create an IotHubServiceSasTokenProvider
+        // for the connection string on the first call, and return the same one on every call]
+        if (this.sasTokenProvider == null)
+        {
+            this.sasTokenProvider = new IotHubServiceSasTokenProvider(this);
+        }
+        return this.sasTokenProvider;
+    }
+
     /**
      * Create url for requesting device data
      *
@@ -126,6 +149,48 @@ public class IotHubConnectionString extends IotHubConnectionStringBuilder
         return new URL(stringBuilder.toString());
     }
 
+    /**
+     * Create url for the bulk registry operations
+     *
+     * @return The bulk registry Url in the following format: "https:hostname/devices?api-version=201X-XX-XX"
+     * @throws MalformedURLException This exception is thrown if the URL creation failed due to malformed string
+     */
+    public URL getUrlBulkRegistryOperation() throws MalformedURLException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBCONNECTIONSTRING_21_010: [The function shall create a URL object from
+        // the object properties using the following format: https:hostname/devices?api-version=201X-XX-XX]
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(URL_HTTPS);
+        stringBuilder.append(hostName);
+        stringBuilder.append(URL_SEPARATOR_0);
+        stringBuilder.append(URL_PATH_DEVICES);
+        stringBuilder.append(URL_SEPARATOR_1);
+        stringBuilder.append(URL_API_VERSION);
+        return new URL(stringBuilder.toString());
+    }
+
+    /**
+     * Create url for the device registry query
+     *
+     * @return The device query Url in the following format: "https:hostname/devices/query?api-version=201X-XX-XX"
+     * @throws MalformedURLException This exception is thrown if the URL creation failed due to malformed string
+     */
+    public URL getUrlDeviceQuery() throws MalformedURLException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_IOTHUBCONNECTIONSTRING_21_011: [The function shall create a URL object from
+        // the object properties using the following format: https:hostname/devices/query?api-version=201X-XX-XX]
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(URL_HTTPS);
+        stringBuilder.append(hostName);
+        stringBuilder.append(URL_SEPARATOR_0);
+        stringBuilder.append(URL_PATH_DEVICES);
+        stringBuilder.append(URL_SEPARATOR_0);
+        stringBuilder.append(URL_PATH_QUERY);
+        stringBuilder.append(URL_SEPARATOR_1);
+        stringBuilder.append(URL_QUERY_API_VERSION);
+        return new URL(stringBuilder.toString());
+    }
+
     /**
      * Create url for requesting device statistics
      *
@@ -9,29 +9,41 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
-import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubServerBusyException;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubTooManyRequestsException;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpEngine;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpMethod;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpRequest;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpResponse;
+import com.microsoft.azure.sdk.iot.service.transport.http.PooledHttpEngine;
 
-import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
 import java.io.IOException;
-import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Use the RegistryManager class to manage the identity registry in IoT Hubs.
+ * <p>
+ * The async operations are sent through an {@link HttpEngine}, which does not
+ * hold a thread per request. Close the RegistryManager to release the engine
+ * it created.
  */
 public class RegistryManager
 {
@@ -39,9 +51,27 @@ public class RegistryManager
             .registerTypeAdapter(Device.class, new DeviceDeserializer())
             .registerTypeAdapter(Device.class, new DeviceSerializer())
             .create();
+    /**
+     * The maximum number of devices the IoT Hub accepts in one bulk registry request.
+     */
+    public static final int MAX_DEVICES_PER_BULK_REQUEST = 100;
+
+    private static final int DEFAULT_MAX_CONCURRENT_BULK_REQUESTS = 10;
+    private static final int MAX_BULK_REQUEST_ATTEMPTS = 5;
+    private static final long BULK_RETRY_BASE_DELAY_MS = 100;
+    private static final long BULK_RETRY_MAX_DELAY_MS = 10000;
+    private static final ScheduledExecutorService bulkRetryScheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        Thread thread = new Thread(runnable, "RegistryManager-bulk-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final String DEVICE_QUERY_JSON = "{\"query\":\"SELECT * FROM devices\"}";
+
     private final Integer DEFAULT_HTTP_TIMOUT_MS = 24000;
-    private final ExecutorService executor = Executors.newFixedThreadPool(10);
     private IotHubConnectionString iotHubConnectionString;
+    private HttpEngine httpEngine = null;
+    private boolean ownsHttpEngine = false;
 
     /**
      * Static constructor to create instance from connection string
@@ -67,14 +97,57 @@ public class RegistryManager
     }
 
     /**
-     * Placeholder for open registry operations
+     * Static constructor to create instance from connection string, sending the async
+     * operations through the given HTTP engine. The engine may be shared with other
+     * clients, and it is not closed when the RegistryManager is closed.
+     *
+     * @param connectionString The iot hub connection string
+     * @param httpEngine The HTTP engine of the async operations
+     * @return The instance of RegistryManager
+     * @throws Exception This exception is thrown if the object creation failed
      */
-    public void open() {}
+    public static RegistryManager createFromConnectionString(String connectionString, HttpEngine httpEngine) throws Exception
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_107: [The constructor shall throw IllegalArgumentException if the httpEngine is null]
+        if (httpEngine == null)
+        {
+            throw new IllegalArgumentException("httpEngine cannot be null");
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_108: [The constructor shall create the RegistryManager as createFromConnectionString(connectionString) does, and store the given HTTP engine]
+        RegistryManager iotHubRegistryManager = createFromConnectionString(connectionString);
+        iotHubRegistryManager.httpEngine = httpEngine;
+        return iotHubRegistryManager;
+    }
 
     /**
-     * Placeholder for close registry operations
+     * Open the registry operations, creating the HTTP engine of the async operations
+     * if none was given. The async operations open the RegistryManager if needed.
      */
-    public void close() {}
+    public synchronized void open()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_109: [If the RegistryManager has no HTTP engine, the function shall create a PooledHttpEngine which belongs to the RegistryManager]
+        if (this.httpEngine == null)
+        {
+            this.httpEngine = new PooledHttpEngine();
+            this.ownsHttpEngine = true;
+        }
+    }
+
+    /**
+     * Close the registry operations, closing the HTTP engine created by the RegistryManager.
+     * The HTTP engine given by the caller is left open.
+     */
+    public synchronized void close()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_110: [The function shall close the HTTP engine created by the RegistryManager, but not the HTTP engine given by the caller]
+        if (this.ownsHttpEngine)
+        {
+            this.httpEngine.close();
+            this.httpEngine = null;
+            this.ownsHttpEngine = false;
+        }
+    }
 
     /**
      * Add device using the given Device object
@@ -94,28 +167,17 @@ public class RegistryManager
         }
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_005: [The function shall deserialize the given device object to Json string]
-        String deviceJson = gson.toJson(device);
-
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_006: [The function shall get the URL for the device]
-        URL url = iotHubConnectionString.getUrlDevice(device.getDeviceId());
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_007: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_007: [The function shall get the SAS token from the provider of the connection string]
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_008: [The function shall create a new HttpRequest for adding the device to IotHub]
-        HttpRequest request = CreateRequest(url, HttpMethod.PUT, deviceJson.getBytes(), sasTokenString);
+        HttpRequest request = CreateAddDeviceRequest(device);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_009: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_010: [The function shall verify the response status and throw proper Exception]
-        IotHubExceptionManager.httpResponseVerification(response);
-
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_011: [The function shall create a new Device object from the response and return with it]
-        String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
-
-        Device iotHubDevice = gson.fromJson(bodyStr, Device.class);
-
-        return iotHubDevice;
+        return ProcessDeviceResponse(response);
     }
 
     /**
@@ -134,21 +196,8 @@ public class RegistryManager
             throw new IllegalArgumentException("device cannot be null");
         }
 
-        // Codes_SRS_SERVICE_SDK_JAVA_ REGISTRYMANAGER_12_013: [The function shall create an async wrapper around the addDevice() function call, handle the return value or delegate exception]
-        final CompletableFuture<Device> future = new CompletableFuture<>();
-        executor.submit(() ->
-        {
-            try
-            {
-                Device responseDevice = addDevice(device);
-                future.complete(responseDevice);
-            }
-            catch (IOException | IotHubException e)
-            {
-                future.completeExceptionally(e);
-            }
-        });
-        return future;
+        // Codes_SRS_SERVICE_SDK_JAVA_ REGISTRYMANAGER_12_013: [The function shall create the request as addDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
+        return sendAsync(CreateAddDeviceRequest(device), RegistryManager::ProcessDeviceResponse);
     }
 
     /**
@@ -168,23 +217,16 @@ public class RegistryManager
         }
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_015: [The function shall get the URL for the device]
-        URL url = iotHubConnectionString.getUrlDevice(deviceId);
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_016: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_016: [The function shall get the SAS token from the provider of the connection string]
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_017: [The function shall create a new HttpRequest for getting a device from IotHub]
-        HttpRequest request = CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
+        HttpRequest request = CreateGetDeviceRequest(deviceId);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_018: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_019: [The function shall verify the response status and throw proper Exception]
-        IotHubExceptionManager.httpResponseVerification(response);
-
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_020: [The function shall create a new Device object from the response and return with it]
-        String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
-        Device iotHubDevice = gson.fromJson(bodyStr, Device.class);
-        return iotHubDevice;
+        return ProcessDeviceResponse(response);
     }
 
     /**
@@ -203,21 +245,8 @@ public class RegistryManager
             throw new IllegalArgumentException("deviceId cannot be null or empty");
         }
 
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_022: [The function shall create an async wrapper around the addDevice() function call, handle the return value or delegate exception]
-        final CompletableFuture<Device> future = new CompletableFuture<>();
-        executor.submit(() ->
-        {
-            try
-            {
-                Device responseDevice = getDevice(deviceId);
-                future.complete(responseDevice);
-            }
-            catch (IotHubException | IOException e)
-            {
-                future.completeExceptionally(e);
-            }
-        });
-        return future;
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_022: [The function shall create the request as getDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
+        return sendAsync(CreateGetDeviceRequest(deviceId), RegistryManager::ProcessDeviceResponse);
     }
 
     /**
@@ -237,34 +266,54 @@ public class RegistryManager
         }
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_024: [The function shall get the URL for the device]
-        URL url = iotHubConnectionString.getUrlDeviceList(maxCount);
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_025: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_025: [The function shall get the SAS token from the provider of the connection string]
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_026: [The function shall create a new HttpRequest for getting a device list from IotHub]
-        HttpRequest request = CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
+        HttpRequest request = CreateGetDevicesRequest(maxCount);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_027: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_028: [The function shall verify the response status and throw proper Exception]
-        IotHubExceptionManager.httpResponseVerification(response);
-
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_029: [The function shall create a new ArrayList<Device> object from the response and return with it]
-        String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
-        try (JsonReader jsonReader = Json.createReader(new StringReader(bodyStr)))
+        return ProcessDeviceListResponse(response);
+    }
+
+    /**
+     * Iterate over all devices of the registry, receiving them in pages of at most pageSize devices.
+     * The devices are parsed one at a time from the response of each page, so the memory used is
+     * bounded by the page size and not by the number of devices in the registry.
+     * The devices do not contain their authentication keys.
+     *
+     * @param pageSize The maximum number of devices in each page
+     * @return The iterator over the devices, which shall be closed if it is not read to the end
+     */
+    public DeviceIterator iterateDevices(int pageSize)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_102: [The function shall throw IllegalArgumentException if the pageSize is less than 1]
+        if (pageSize < 1)
         {
-            ArrayList<Device> deviceList = new ArrayList<>();
-            JsonArray deviceArray = jsonReader.readArray();
-            
-            for (int i = 0; i < deviceArray.size(); i++)
-            {
-                JsonObject jsonObject = deviceArray.getJsonObject(i);
-                Device iotHubDevice = gson.fromJson(jsonObject.toString(), Device.class);
-                deviceList.add(iotHubDevice);
-            }
-            return deviceList;
+            throw new IllegalArgumentException("pageSize cannot be less than 1");
         }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_103: [The function shall return a new DeviceIterator over pages of pageSize devices, without sending any request]
+        return new DeviceIterator(this, pageSize);
+    }
+
+    /**
+     * Stream all devices of the registry, receiving them in pages of at most pageSize devices.
+     * The devices are parsed one at a time from the response of each page, so the memory used is
+     * bounded by the page size and not by the number of devices in the registry.
+     * The devices do not contain their authentication keys.
+     *
+     * @param pageSize The maximum number of devices in each page
+     * @return The sequential stream of devices, which shall be closed if it is not consumed to the end
+     */
+    public Stream<Device> streamDevices(int pageSize)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_104: [The function shall return a sequential Stream over iterateDevices(pageSize), which closes the iterator when it is closed]
+        DeviceIterator deviceIterator = iterateDevices(pageSize);
+        Spliterator<Device> spliterator = Spliterators.spliteratorUnknownSize(deviceIterator, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(deviceIterator::close);
     }
 
     /**
@@ -283,21 +332,8 @@ public class RegistryManager
             throw new IllegalArgumentException("maxCount cannot be less then 1");
         }
 
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_031: [The function shall create an async wrapper around the getDevices() function call, handle the return value or delegate exception]
-        final CompletableFuture<ArrayList<Device>> future = new CompletableFuture<>();
-        executor.submit(() ->
-        {
-            try
-            {
-                ArrayList<Device> response = getDevices(maxCount);
-                future.complete(response);
-            }
-            catch (IotHubException | IOException e)
-            {
-                future.completeExceptionally(e);
-            }
-        });
-        return future;
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_031: [The function shall create the request as getDevices() does, send it through the HTTP engine, and complete the future with the response device list or the exception]
+        return sendAsync(CreateGetDevicesRequest(maxCount), RegistryManager::ProcessDeviceListResponse);
     }
 
     /**
@@ -337,27 +373,17 @@ public class RegistryManager
         }
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_035: [The function shall set forceUpdate on the device]
-        device.setForceUpdate(forceUpdate);
-
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_036: [The function shall get the URL for the device]
-        URL url = iotHubConnectionString.getUrlDevice(device.getDeviceId());
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_037: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_037: [The function shall get the SAS token from the provider of the connection string]
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_038: [The function shall create a new HttpRequest for updating the device on IotHub]
-        HttpRequest request = CreateRequest(url, HttpMethod.PUT, gson.toJson(device).getBytes(), sasTokenString);
-        request.setHeaderField("If-Match", "*");
+        HttpRequest request = CreateUpdateDeviceRequest(device, forceUpdate);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_039: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_040: [The function shall verify the response status and throw proper Exception]
-        IotHubExceptionManager.httpResponseVerification(response);
-
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_041: [The function shall create a new Device object from the response and return with it]
-        String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
-        Device iotHubDevice = gson.fromJson(bodyStr, Device.class);
-        return iotHubDevice;
+        return ProcessDeviceResponse(response);
     }
 
     /**
@@ -375,21 +401,8 @@ public class RegistryManager
         {
             throw new IllegalArgumentException("device cannot be null");
         }
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_043: [The function shall create an async wrapper around the updateDevice() function call, handle the return value or delegate exception]
-        final CompletableFuture<Device> future = new CompletableFuture<>();
-        executor.submit(() ->
-        {
-            try
-            {
-                Device responseDevice = updateDevice(device);
-                future.complete(responseDevice);
-            }
-            catch (IotHubException | IOException e)
-            {
-                future.completeExceptionally(e);
-            }
-        });
-        return future;
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_043: [The function shall create the request as updateDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
+        return sendAsync(CreateUpdateDeviceRequest(device, false), RegistryManager::ProcessDeviceResponse);
     }
 
     /**
@@ -408,21 +421,8 @@ public class RegistryManager
         {
             throw new IllegalArgumentException("device cannot be null");
         }
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_045: [The function shall create an async wrapper around the updateDevice(Device, device, Boolean forceUpdate) function call, handle the return value or delegate exception]
-        final CompletableFuture<Device> future = new CompletableFuture<>();
-        executor.submit(() ->
-        {
-            try
-            {
-                Device responseDevice = updateDevice(device, forceUpdate);
-                future.complete(responseDevice);
-            }
-            catch (IotHubException | IOException e)
-            {
-                future.completeExceptionally(e);
-            }
-        });
-        return future;
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_045: [The function shall create the request as updateDevice(Device device, Boolean forceUpdate) does, send it through the HTTP engine, and complete the future with the response device or the exception]
+        return sendAsync(CreateUpdateDeviceRequest(device, forceUpdate), RegistryManager::ProcessDeviceResponse);
     }
 
     /**
@@ -441,16 +441,9 @@ public class RegistryManager
         }
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_047: [The function shall get the URL for the device]
-        URL url = iotHubConnectionString.getUrlDevice(deviceId);
-
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_048: [The function shall create a new SAS token for the device]
-        String sasToken = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_048: [The function shall get the SAS token from the provider of the connection string]
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_049: [The function shall create a new HttpRequest for removing the device from IotHub]
-        HttpRequest request = new HttpRequest(url, HttpMethod.DELETE, new byte[0]);
-        request.setReadTimeoutMillis(DEFAULT_HTTP_TIMOUT_MS);
-        request.setHeaderField("authorization", sasToken);
-        request.setHeaderField("If-Match", "*");
+        HttpRequest request = CreateRemoveDeviceRequest(deviceId);
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_050: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
@@ -475,21 +468,12 @@ public class RegistryManager
             throw new IllegalArgumentException("deviceId cannot be null or empty");
         }
 
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_053: [The function shall create an async wrapper around the removeDevice() function call, handle the return value or delegate exception]
-        final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
-        executor.submit(() ->
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_053: [The function shall create the request as removeDevice() does, send it through the HTTP engine, and complete the future with true or the exception]
+        return sendAsync(CreateRemoveDeviceRequest(deviceId), response ->
         {
-            try
-            {
-                removeDevice(deviceId);
-                future.complete(true);
-            }
-            catch (IotHubException | IOException e)
-            {
-                future.completeExceptionally(e);
-            }
+            IotHubExceptionManager.httpResponseVerification(response);
+            return true;
         });
-        return future;
     }
 
     /**
@@ -502,24 +486,16 @@ public class RegistryManager
     public RegistryStatistics getStatistics() throws IOException, IotHubException, JsonSyntaxException
     {
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_054: [The function shall get the URL for the device]
-        URL url = iotHubConnectionString.getUrlDeviceStatistics();
-
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_055: [The function shall create a new SAS token for the device]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_055: [The function shall get the SAS token from the provider of the connection string]
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_056: [The function shall create a new HttpRequest for getting statistics a device from IotHub]
-        HttpRequest request = CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
+        HttpRequest request = CreateGetStatisticsRequest();
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_057: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
 
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_058: [The function shall verify the response status and throw proper Exception]
-        IotHubExceptionManager.httpResponseVerification(response);
-
         // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_059: [The function shall create a new RegistryStatistics object from the response and return with it]
-        String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
-        RegistryStatistics registryStatistics = gson.fromJson(bodyStr, RegistryStatistics.class);
-        return registryStatistics;
+        return ProcessStatisticsResponse(response);
     }
 
     /**
@@ -531,21 +507,8 @@ public class RegistryManager
      */
     public CompletableFuture<RegistryStatistics> getStatisticsAsync() throws IOException, IotHubException
     {
-        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_060: [The function shall create an async wrapper around the getStatistics() function call, handle the return value or delegate exception]
-        final CompletableFuture<RegistryStatistics> future = new CompletableFuture<>();
-        executor.submit(() ->
-        {
-            try
-            {
-                RegistryStatistics responseDevice = getStatistics();
-                future.complete(responseDevice);
-            }
-            catch (IotHubException | IOException e)
-            {
-                future.completeExceptionally(e);
-            }
-        });
-        return future;
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_060: [The function shall create the request as getStatistics() does, send it through the HTTP engine, and complete the future with the response statistics or the exception]
+        return sendAsync(CreateGetStatisticsRequest(), RegistryManager::ProcessStatisticsResponse);
     }
 
     /**
@@ -565,20 +528,10 @@ public class RegistryManager
     {
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_061: [The function shall throw IllegalArgumentException
         // if any of the input parameters is null]
-        if (exportBlobContainerUri == null || excludeKeys == null)
-        {
-            throw new IllegalArgumentException("Export blob uri cannot be null");
-        }
-
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_062: [The function shall get the URL for the bulk export job creation]
-        URL url = iotHubConnectionString.getUrlCreateExportImportJob();
-
-        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_063: [The function shall create a new SAS token for the bulk export job]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_063: [The function shall get the SAS token from the provider of the connection string]
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_064: [The function shall create a new HttpRequest for the bulk export job creation ]
-        String jobPropertiesJson = CreateExportJobPropertiesJson(exportBlobContainerUri, excludeKeys);
-        HttpRequest request = CreateRequest(url, HttpMethod.POST, jobPropertiesJson.getBytes(), sasTokenString);
+        HttpRequest request = CreateExportDevicesRequest(exportBlobContainerUri, excludeKeys);
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_065: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
@@ -600,22 +553,9 @@ public class RegistryManager
     public CompletableFuture<JobProperties> exportDevicesAsync(String exportBlobContainerUri, Boolean excludeKeys)
             throws IllegalArgumentException, IOException, IotHubException, JsonSyntaxException
     {
-        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_068: [The function shall create an async wrapper around the
-        // exportDevices() function call, handle the return value or delegate exception]
-        final CompletableFuture<JobProperties> future = new CompletableFuture<>();
-        executor.submit(() ->
-        {
-            try
-            {
-                JobProperties responseJobProperties = exportDevices(exportBlobContainerUri, excludeKeys);
-                future.complete(responseJobProperties);
-            }
-            catch (IllegalArgumentException | IotHubException | IOException e)
-            {
-                future.completeExceptionally(e);
-            }
-        });
-        return future;
+        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_068: [The function shall create the request as exportDevices()
+        // does, send it through the HTTP engine, and complete the future with the response job properties or the exception]
+        return sendAsync(CreateExportDevicesRequest(exportBlobContainerUri, excludeKeys), this::ProcessJobResponse);
     }
 
     /**
@@ -634,20 +574,10 @@ public class RegistryManager
             throws IllegalArgumentException, IOException, IotHubException, JsonSyntaxException
     {
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_069: [The function shall throw IllegalArgumentException if any of the input parameters is null]
-        if (importBlobContainerUri == null || outputBlobContainerUri == null)
-        {
-            throw new IllegalArgumentException("Import blob uri or output blob uri cannot be null");
-        }
-
         //CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_070: [The function shall get the URL for the bulk import job creation]
-        URL url = iotHubConnectionString.getUrlCreateExportImportJob();
-
-        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_071: [The function shall create a new SAS token for the bulk import job]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_071: [The function shall get the SAS token from the provider of the connection string]
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_072: [The function shall create a new HttpRequest for the bulk import job creation]
-        String jobPropertiesJson = CreateImportJobPropertiesJson(importBlobContainerUri, outputBlobContainerUri);
-        HttpRequest request = CreateRequest(url, HttpMethod.POST, jobPropertiesJson.getBytes(), sasTokenString);
+        HttpRequest request = CreateImportDevicesRequest(importBlobContainerUri, outputBlobContainerUri);
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_073: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
@@ -669,22 +599,9 @@ public class RegistryManager
     public CompletableFuture<JobProperties> importDevicesAsync(String importBlobContainerUri, String outputBlobContainerUri)
             throws IllegalArgumentException, IOException, IotHubException, JsonSyntaxException
     {
-        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_076: [The function shall create an async wrapper around
-        // the importDevices() function call, handle the return value or delegate exception]
-        final CompletableFuture<JobProperties> future = new CompletableFuture<>();
-        executor.submit(() ->
-        {
-            try
-            {
-                JobProperties responseJobProperties = importDevices(importBlobContainerUri, outputBlobContainerUri);
-                future.complete(responseJobProperties);
-            }
-            catch (IllegalArgumentException | IotHubException | IOException e)
-            {
-                future.completeExceptionally(e);
-            }
-        });
-        return future;
+        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_076: [The function shall create the request as importDevices()
+        // does, send it through the HTTP engine, and complete the future with the response job properties or the exception]
+        return sendAsync(CreateImportDevicesRequest(importBlobContainerUri, outputBlobContainerUri), this::ProcessJobResponse);
     }
 
     /**
@@ -701,19 +618,10 @@ public class RegistryManager
     public JobProperties getJob(String jobId) throws IllegalArgumentException, IOException, IotHubException, JsonSyntaxException
     {
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_077: [The function shall throw IllegalArgumentException if the input parameter is null]
-        if (jobId == null)
-        {
-            throw new IllegalArgumentException("Job id cannot be null");
-        }
-
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_078: [The function shall get the URL for the get request]
-        URL url = iotHubConnectionString.getUrlImportExportJob(jobId);
-
-        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_079: [The function shall create a new SAS token for the get request **]
-        String sasTokenString = new IotHubServiceSasToken(this.iotHubConnectionString).toString();
-
+        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_079: [The function shall get the SAS token from the provider of the connection string **]
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_080: [The function shall create a new HttpRequest for getting the properties of a job]
-        HttpRequest request = CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
+        HttpRequest request = CreateGetJobRequest(jobId);
 
         // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_081: [The function shall send the created request and get the response]
         HttpResponse response = request.send();
@@ -735,22 +643,320 @@ public class RegistryManager
     public CompletableFuture<JobProperties> getJobAsync(
             String jobId) throws IllegalArgumentException, IOException, IotHubException
     {
-        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_084: [The function shall create an async wrapper around
-        // the getJob() function call, handle the return value or delegate exception]
-        final CompletableFuture<JobProperties> future = new CompletableFuture<>();
-        executor.submit(() ->
+        // CODES_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_084: [The function shall create the request as getJob() does,
+        // send it through the HTTP engine, and complete the future with the response job properties or the exception]
+        return sendAsync(CreateGetJobRequest(jobId), this::ProcessJobResponse);
+    }
+
+    /**
+     * Add the given devices with bulk registry requests, sending up to
+     * MAX_DEVICES_PER_BULK_REQUEST devices per request and the default number of requests at a time
+     *
+     * @param devices The device objects to add
+     * @return The result of the operation, with the error of each device which could not be added
+     * @throws IOException This exception is thrown if the bulk registry URL could not be created
+     * @throws InterruptedException This exception is thrown if the operation has been interrupted
+     */
+    public BulkRegistryOperationResult addDevices(Collection<Device> devices) throws IOException, InterruptedException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_085: [The function shall call addDevices(Collection<Device>, int) with the default number of concurrent requests]
+        return addDevices(devices, DEFAULT_MAX_CONCURRENT_BULK_REQUESTS);
+    }
+
+    /**
+     * Add the given devices with bulk registry requests, sending up to
+     * MAX_DEVICES_PER_BULK_REQUEST devices per request and maxConcurrentRequests requests at a time
+     *
+     * @param devices The device objects to add
+     * @param maxConcurrentRequests The maximum number of requests in flight at the same time
+     * @return The result of the operation, with the error of each device which could not be added
+     * @throws IOException This exception is thrown if the bulk registry URL could not be created
+     * @throws InterruptedException This exception is thrown if the operation has been interrupted
+     */
+    public BulkRegistryOperationResult addDevices(Collection<Device> devices, int maxConcurrentRequests) throws IOException, InterruptedException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_086: [The function shall throw IllegalArgumentException if the input collection is null or contains null, or if maxConcurrentRequests is less than 1]
+        validateBulkInput(devices, maxConcurrentRequests);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_087: [The function shall send each device with the create import mode]
+        List<ExportImportDevice> exportImportDevices = new ArrayList<>(devices.size());
+        for (Device device : devices)
+        {
+            exportImportDevices.add(CreateExportImportDevice(device, ImportMode.Create));
+        }
+        return bulkRegistryOperation(exportImportDevices, maxConcurrentRequests);
+    }
+
+    /**
+     * Update the given devices with bulk registry requests, regardless of their eTag, sending up to
+     * MAX_DEVICES_PER_BULK_REQUEST devices per request and the default number of requests at a time
+     *
+     * @param devices The device objects containing updated data
+     * @return The result of the operation, with the error of each device which could not be updated
+     * @throws IOException This exception is thrown if the bulk registry URL could not be created
+     * @throws InterruptedException This exception is thrown if the operation has been interrupted
+     */
+    public BulkRegistryOperationResult updateDevices(Collection<Device> devices) throws IOException, InterruptedException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_088: [The function shall call updateDevices(Collection<Device>, int) with the default number of concurrent requests]
+        return updateDevices(devices, DEFAULT_MAX_CONCURRENT_BULK_REQUESTS);
+    }
+
+    /**
+     * Update the given devices with bulk registry requests, regardless of their eTag, sending up to
+     * MAX_DEVICES_PER_BULK_REQUEST devices per request and maxConcurrentRequests requests at a time
+     *
+     * @param devices The device objects containing updated data
+     * @param maxConcurrentRequests The maximum number of requests in flight at the same time
+     * @return The result of the operation, with the error of each device which could not be updated
+     * @throws IOException This exception is thrown if the bulk registry URL could not be created
+     * @throws InterruptedException This exception is thrown if the operation has been interrupted
+     */
+    public BulkRegistryOperationResult updateDevices(Collection<Device> devices, int maxConcurrentRequests) throws IOException, InterruptedException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_089: [The function shall throw IllegalArgumentException if the input collection is null or contains null, or if maxConcurrentRequests is less than 1]
+        validateBulkInput(devices, maxConcurrentRequests);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_090: [The function shall send each device with the update import mode]
+        List<ExportImportDevice> exportImportDevices = new ArrayList<>(devices.size());
+        for (Device device : devices)
+        {
+            exportImportDevices.add(CreateExportImportDevice(device, ImportMode.Update));
+        }
+        return bulkRegistryOperation(exportImportDevices, maxConcurrentRequests);
+    }
+
+    /**
+     * Remove the given devices with bulk registry requests, sending up to
+     * MAX_DEVICES_PER_BULK_REQUEST devices per request and the default number of requests at a time
+     *
+     * @param deviceIds The names of the devices to remove
+     * @return The result of the operation, with the error of each device which could not be removed
+     * @throws IOException This exception is thrown if the bulk registry URL could not be created
+     * @throws InterruptedException This exception is thrown if the operation has been interrupted
+     */
+    public BulkRegistryOperationResult removeDevices(Collection<String> deviceIds) throws IOException, InterruptedException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_091: [The function shall call removeDevices(Collection<String>, int) with the default number of concurrent requests]
+        return removeDevices(deviceIds, DEFAULT_MAX_CONCURRENT_BULK_REQUESTS);
+    }
+
+    /**
+     * Remove the given devices with bulk registry requests, sending up to
+     * MAX_DEVICES_PER_BULK_REQUEST devices per request and maxConcurrentRequests requests at a time
+     *
+     * @param deviceIds The names of the devices to remove
+     * @param maxConcurrentRequests The maximum number of requests in flight at the same time
+     * @return The result of the operation, with the error of each device which could not be removed
+     * @throws IOException This exception is thrown if the bulk registry URL could not be created
+     * @throws InterruptedException This exception is thrown if the operation has been interrupted
+     */
+    public BulkRegistryOperationResult removeDevices(Collection<String> deviceIds, int maxConcurrentRequests) throws IOException, InterruptedException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_092: [The function shall throw IllegalArgumentException if the input collection is null or contains null or empty ids, or if maxConcurrentRequests is less than 1]
+        validateBulkInput(deviceIds, maxConcurrentRequests);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_093: [The function shall send each device id with the delete import mode]
+        List<ExportImportDevice> exportImportDevices = new ArrayList<>(deviceIds.size());
+        for (String deviceId : deviceIds)
+        {
+            if (Tools.isNullOrEmpty(deviceId))
+            {
+                throw new IllegalArgumentException("deviceIds cannot contain null or empty ids");
+            }
+            ExportImportDevice exportImportDevice = new ExportImportDevice();
+            exportImportDevice.setId(deviceId);
+            exportImportDevice.setImportMode(ImportMode.Delete);
+            exportImportDevices.add(exportImportDevice);
+        }
+        return bulkRegistryOperation(exportImportDevices, maxConcurrentRequests);
+    }
+
+    private static void validateBulkInput(Collection<?> items, int maxConcurrentRequests)
+    {
+        if (items == null || items.contains(null))
+        {
+            throw new IllegalArgumentException("The collection cannot be null or contain null");
+        }
+        if (maxConcurrentRequests < 1)
+        {
+            throw new IllegalArgumentException("maxConcurrentRequests cannot be less than 1");
+        }
+    }
+
+    private BulkRegistryOperationResult bulkRegistryOperation(List<ExportImportDevice> exportImportDevices, int maxConcurrentRequests)
+            throws IOException, InterruptedException
+    {
+        BulkRegistryOperationResult result = new BulkRegistryOperationResult();
+        if (exportImportDevices.isEmpty())
+        {
+            return result;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_094: [The function shall get the URL for the bulk registry operation]
+        URL url = iotHubConnectionString.getUrlBulkRegistryOperation();
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_095: [The function shall split the devices in requests of at most MAX_DEVICES_PER_BULK_REQUEST devices and send them with the HTTP engine of the RegistryManager, at most maxConcurrentRequests requests at a time]
+        Semaphore requestSlots = new Semaphore(maxConcurrentRequests);
+        List<List<ExportImportDevice>> requestsDevices = new ArrayList<>();
+        List<CompletableFuture<BulkRegistryOperationResult>> requestResults = new ArrayList<>();
+        for (int start = 0; start < exportImportDevices.size(); start += MAX_DEVICES_PER_BULK_REQUEST)
+        {
+            List<ExportImportDevice> requestDevices =
+                    exportImportDevices.subList(start, Math.min(start + MAX_DEVICES_PER_BULK_REQUEST, exportImportDevices.size()));
+            requestSlots.acquire();
+            CompletableFuture<BulkRegistryOperationResult> requestResult = sendBulkRegistryRequestAsync(url, requestDevices, 1);
+            requestResult.whenComplete((requestDevicesResult, failure) -> requestSlots.release());
+            requestsDevices.add(requestDevices);
+            requestResults.add(requestResult);
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_096: [The function shall merge the results of all requests, reporting a request which could not complete as the error of each device of the request]
+        for (int i = 0; i < requestResults.size(); i++)
         {
             try
             {
-                JobProperties responseJobProperties = getJob(jobId);
-                future.complete(responseJobProperties);
+                result.merge(requestResults.get(i).get());
             }
-            catch (IllegalArgumentException | IotHubException | IOException e)
+            catch (ExecutionException e)
             {
-                future.completeExceptionally(e);
+                result.merge(CreateFailedBulkRegistryResult(requestsDevices.get(i), e.getCause()));
             }
-        });
-        return future;
+        }
+        return result;
+    }
+
+    private CompletableFuture<BulkRegistryOperationResult> sendBulkRegistryRequestAsync(URL url, List<ExportImportDevice> requestDevices, int attempt)
+    {
+        HttpRequest request;
+        try
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_097: [The function shall get the SAS token from the provider of the connection string and create a new HttpRequest posting the devices of the request]
+            byte[] payload = gson.toJson(requestDevices).getBytes(StandardCharsets.UTF_8);
+            String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+            request = CreateRequest(url, HttpMethod.POST, payload, sasTokenString);
+        }
+        catch (IOException e)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_101: [If the request fails, the function shall report the failure as the error of each device of the request]
+            return CompletableFuture.completedFuture(CreateFailedBulkRegistryResult(requestDevices, e));
+        }
+
+        return getHttpEngine().sendAsync(request).handle((response, failure) ->
+        {
+            if (failure != null)
+            {
+                Throwable cause = (failure instanceof CompletionException && failure.getCause() != null) ? failure.getCause() : failure;
+                return CompletableFuture.completedFuture(CreateFailedBulkRegistryResult(requestDevices, cause));
+            }
+
+            try
+            {
+                return CompletableFuture.completedFuture(ProcessBulkRegistryResponse(response));
+            }
+            catch (IotHubTooManyRequestsException | IotHubServerBusyException e)
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_100: [If the IoT Hub is throttling or busy, the function shall retry the request with an exponential back-off, up to MAX_BULK_REQUEST_ATTEMPTS attempts, without holding a thread while it waits]
+                if (attempt >= MAX_BULK_REQUEST_ATTEMPTS)
+                {
+                    return CompletableFuture.completedFuture(CreateFailedBulkRegistryResult(requestDevices, e));
+                }
+                return retryBulkRegistryRequestAsync(url, requestDevices, attempt);
+            }
+            catch (IotHubException | JsonSyntaxException e)
+            {
+                return CompletableFuture.completedFuture(CreateFailedBulkRegistryResult(requestDevices, e));
+            }
+        }).thenCompose(requestResult -> requestResult);
+    }
+
+    private CompletableFuture<BulkRegistryOperationResult> retryBulkRegistryRequestAsync(URL url, List<ExportImportDevice> requestDevices, int attempt)
+    {
+        CompletableFuture<BulkRegistryOperationResult> retryResult = new CompletableFuture<>();
+        long delayMillis = Math.min(BULK_RETRY_BASE_DELAY_MS << (attempt - 1), BULK_RETRY_MAX_DELAY_MS);
+        bulkRetryScheduler.schedule(() ->
+        {
+            try
+            {
+                sendBulkRegistryRequestAsync(url, requestDevices, attempt + 1).whenComplete((requestResult, failure) ->
+                {
+                    if (failure == null)
+                    {
+                        retryResult.complete(requestResult);
+                    }
+                    else
+                    {
+                        retryResult.completeExceptionally(failure);
+                    }
+                });
+            }
+            catch (RuntimeException e)
+            {
+                retryResult.completeExceptionally(e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        return retryResult;
+    }
+
+    private static BulkRegistryOperationResult ProcessBulkRegistryResponse(HttpResponse response) throws IotHubException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_098: [If the response status is 400 and it contains the errors of the devices, the function shall return them as the result of the request]
+        if (response.getStatus() == 400)
+        {
+            BulkRegistryOperationResult partialResult = ParseBulkRegistryResult(response.getErrorReason());
+            if (partialResult != null)
+            {
+                return partialResult;
+            }
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_099: [The function shall verify the response status and return the result of the request from the response body]
+        IotHubExceptionManager.httpResponseVerification(response);
+        BulkRegistryOperationResult requestResult = ParseBulkRegistryResult(response.getBody());
+        return (requestResult == null) ? new BulkRegistryOperationResult() : requestResult;
+    }
+
+    private static BulkRegistryOperationResult ParseBulkRegistryResult(byte[] json)
+    {
+        if (json == null || json.length == 0)
+        {
+            return null;
+        }
+        try
+        {
+            BulkRegistryOperationResult result = gson.fromJson(new String(json, StandardCharsets.UTF_8), BulkRegistryOperationResult.class);
+            return (result == null || result.getErrors() == null) ? null : result;
+        }
+        catch (JsonSyntaxException e)
+        {
+            return null;
+        }
+    }
+
+    private static BulkRegistryOperationResult CreateFailedBulkRegistryResult(List<ExportImportDevice> requestDevices, Throwable exception)
+    {
+        BulkRegistryOperationResult result = new BulkRegistryOperationResult();
+        for (ExportImportDevice exportImportDevice : requestDevices)
+        {
+            result.addError(new DeviceRegistryOperationError(exportImportDevice.getId(), exception.getClass().getSimpleName(), exception.getMessage()));
+        }
+        return result;
+    }
+
+    private static ExportImportDevice CreateExportImportDevice(Device device, ImportMode importMode)
+    {
+        ExportImportDevice exportImportDevice = new ExportImportDevice();
+        exportImportDevice.setId(device.getDeviceId());
+        exportImportDevice.setImportMode(importMode);
+        exportImportDevice.setStatus(device.getStatus());
+        exportImportDevice.setStatusReason(device.getStatusReason());
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_113: [The function shall send the authentication of the device as it is, and no authentication if the device has none, so that the IoT Hub keeps the existing one]
+        if (device.getSymmetricKey() != null)
+        {
+            exportImportDevice.setAuthentication(new AuthenticationMechanism(device.getSymmetricKey()));
+        }
+        return exportImportDevice;
     }
 
     private String CreateExportJobPropertiesJson(String exportBlobContainerUri, Boolean excludeKeysInExport)
@@ -773,6 +979,144 @@ public class RegistryManager
         return gson.toJson(jobProperties, type);
     }
 
+    private HttpRequest CreateAddDeviceRequest(Device device) throws IOException
+    {
+        String deviceJson = gson.toJson(device);
+        URL url = iotHubConnectionString.getUrlDevice(device.getDeviceId());
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        return CreateRequest(url, HttpMethod.PUT, deviceJson.getBytes(), sasTokenString);
+    }
+
+    private HttpRequest CreateGetDeviceRequest(String deviceId) throws IOException
+    {
+        URL url = iotHubConnectionString.getUrlDevice(deviceId);
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        return CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
+    }
+
+    private HttpRequest CreateGetDevicesRequest(Integer maxCount) throws IOException
+    {
+        URL url = iotHubConnectionString.getUrlDeviceList(maxCount);
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        return CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
+    }
+
+    private HttpRequest CreateUpdateDeviceRequest(Device device, Boolean forceUpdate) throws IOException
+    {
+        device.setForceUpdate(forceUpdate);
+        URL url = iotHubConnectionString.getUrlDevice(device.getDeviceId());
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        HttpRequest request = CreateRequest(url, HttpMethod.PUT, gson.toJson(device).getBytes(), sasTokenString);
+        request.setHeaderField("If-Match", "*");
+        return request;
+    }
+
+    private HttpRequest CreateRemoveDeviceRequest(String deviceId) throws IOException
+    {
+        URL url = iotHubConnectionString.getUrlDevice(deviceId);
+        String sasToken = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        HttpRequest request = new HttpRequest(url, HttpMethod.DELETE, new byte[0]);
+        request.setReadTimeoutMillis(DEFAULT_HTTP_TIMOUT_MS);
+        request.setHeaderField("authorization", sasToken);
+        request.setHeaderField("If-Match", "*");
+        return request;
+    }
+
+    private HttpRequest CreateGetStatisticsRequest() throws IOException
+    {
+        URL url = iotHubConnectionString.getUrlDeviceStatistics();
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        return CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
+    }
+
+    private HttpRequest CreateExportDevicesRequest(String exportBlobContainerUri, Boolean excludeKeys) throws IOException
+    {
+        if (exportBlobContainerUri == null || excludeKeys == null)
+        {
+            throw new IllegalArgumentException("Export blob uri cannot be null");
+        }
+
+        URL url = iotHubConnectionString.getUrlCreateExportImportJob();
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        String jobPropertiesJson = CreateExportJobPropertiesJson(exportBlobContainerUri, excludeKeys);
+        return CreateRequest(url, HttpMethod.POST, jobPropertiesJson.getBytes(), sasTokenString);
+    }
+
+    private HttpRequest CreateImportDevicesRequest(String importBlobContainerUri, String outputBlobContainerUri) throws IOException
+    {
+        if (importBlobContainerUri == null || outputBlobContainerUri == null)
+        {
+            throw new IllegalArgumentException("Import blob uri or output blob uri cannot be null");
+        }
+
+        URL url = iotHubConnectionString.getUrlCreateExportImportJob();
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        String jobPropertiesJson = CreateImportJobPropertiesJson(importBlobContainerUri, outputBlobContainerUri);
+        return CreateRequest(url, HttpMethod.POST, jobPropertiesJson.getBytes(), sasTokenString);
+    }
+
+    private HttpRequest CreateGetJobRequest(String jobId) throws IOException
+    {
+        if (jobId == null)
+        {
+            throw new IllegalArgumentException("Job id cannot be null");
+        }
+
+        URL url = iotHubConnectionString.getUrlImportExportJob(jobId);
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        return CreateRequest(url, HttpMethod.GET, new byte[0], sasTokenString);
+    }
+
+    private static Device ProcessDeviceResponse(HttpResponse response) throws IotHubException, JsonSyntaxException
+    {
+        IotHubExceptionManager.httpResponseVerification(response);
+        String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
+        return gson.fromJson(bodyStr, Device.class);
+    }
+
+    private static ArrayList<Device> ProcessDeviceListResponse(HttpResponse response) throws IotHubException, JsonSyntaxException
+    {
+        IotHubExceptionManager.httpResponseVerification(response);
+        String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
+        Type deviceListType = new TypeToken<ArrayList<Device>>() {}.getType();
+        return gson.fromJson(bodyStr, deviceListType);
+    }
+
+    private static RegistryStatistics ProcessStatisticsResponse(HttpResponse response) throws IotHubException, JsonSyntaxException
+    {
+        IotHubExceptionManager.httpResponseVerification(response);
+        String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
+        return gson.fromJson(bodyStr, RegistryStatistics.class);
+    }
+
+    private synchronized HttpEngine getHttpEngine()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_111: [The async functions shall open the RegistryManager if it is not open, so that they do not need a call to open()]
+        open();
+        return this.httpEngine;
+    }
+
+    private <T> CompletableFuture<T> sendAsync(HttpRequest request, ResponseProcessor<T> responseProcessor)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_112: [The async functions shall complete the future with the IOException of the request or the IotHubException of the response verification, without holding a thread while the request is pending]
+        return getHttpEngine().sendAsync(request).thenApply(response ->
+        {
+            try
+            {
+                return responseProcessor.process(response);
+            }
+            catch (IotHubException e)
+            {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private interface ResponseProcessor<T>
+    {
+        T process(HttpResponse response) throws IotHubException;
+    }
+
     private JobProperties ProcessJobResponse(HttpResponse response) throws IotHubException, JsonSyntaxException {
         IotHubExceptionManager.httpResponseVerification(response);
         String bodyStr = new String(response.getBody(), StandardCharsets.UTF_8);
@@ -780,6 +1124,22 @@ public class RegistryManager
         return resultJobProperties;
     }
 
+    HttpRequest CreateDeviceQueryRequest(int pageSize, String continuationToken) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_105: [The function shall get the SAS token from the provider of the connection string and create a new HttpRequest posting the device query to the device query URL]
+        URL url = iotHubConnectionString.getUrlDeviceQuery();
+        String sasTokenString = this.iotHubConnectionString.getSasTokenProvider().getSasToken();
+        HttpRequest request = CreateRequest(url, HttpMethod.POST, DEVICE_QUERY_JSON.getBytes(StandardCharsets.UTF_8), sasTokenString);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_106: [The request shall ask for at most pageSize devices, and carry the continuation token if there is one]
+        request.setHeaderField("x-ms-max-item-count", String.valueOf(pageSize));
+        if (continuationToken != null)
+        {
+            request.setHeaderField(DeviceIterator.CONTINUATION_TOKEN_HEADER, continuationToken);
+        }
+        return request;
+    }
+
     private HttpRequest CreateRequest(URL url, HttpMethod method, byte[] payload, String sasToken) throws IOException
     {
         HttpRequest request = new HttpRequest(url, method, payload);
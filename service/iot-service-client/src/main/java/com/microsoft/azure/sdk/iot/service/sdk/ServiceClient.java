@@ -5,7 +5,8 @@
 
 package com.microsoft.azure.sdk.iot.service.sdk;
 
-import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import com.microsoft.azure.sdk.iot.service.transport.amqps.AmqpPersistentSend;
 import com.microsoft.azure.sdk.iot.service.transport.amqps.AmqpSend;
 
 import java.io.IOException;
@@ -23,9 +24,10 @@ public class ServiceClient
     private AmqpSend amqpMessageSender;
     private final String hostName;
     private final String userName;
-    private final String sasToken;
+    private final IotHubServiceSasTokenProvider sasTokenProvider;
     protected IotHubConnectionString iotHubConnectionString;
     private IotHubServiceClientProtocol iotHubServiceClientProtocol;
+    private final boolean keepConnectionOpen;
 
     /**
      * Create ServiceClient from the specified connection string
@@ -35,6 +37,22 @@ public class ServiceClient
      * @throws Exception This exception is thrown if the object creation failed
      */
     public static ServiceClient createFromConnectionString(String connectionString, IotHubServiceClientProtocol iotHubServiceClientProtocol) throws Exception
+    {
+        return createFromConnectionString(connectionString, iotHubServiceClientProtocol, false);
+    }
+
+    /**
+     * Create ServiceClient from the specified connection string
+     *
+     * @param connectionString The connection string for the IotHub
+     * @param iotHubServiceClientProtocol The protocol to use
+     * @param keepConnectionOpen If true, open() creates one AMQP connection which is kept open
+     *                           until close() and shared by all sends, otherwise each send
+     *                           opens and closes its own connection
+     * @return The created ServiceClient object
+     * @throws Exception This exception is thrown if the object creation failed
+     */
+    public static ServiceClient createFromConnectionString(String connectionString, IotHubServiceClientProtocol iotHubServiceClientProtocol, boolean keepConnectionOpen) throws Exception
     {
         // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_001: [The constructor shall throw IllegalArgumentException if the input string is empty or null]
         if (Tools.isNullOrEmpty(connectionString))
@@ -46,7 +64,7 @@ public class ServiceClient
         IotHubConnectionString iotHubConnectionString = IotHubConnectionStringBuilder.createConnectionString(connectionString);
 
         // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_003: [The constructor shall create a new instance of ServiceClient using the created IotHubConnectionString object and return with it]
-        ServiceClient iotServiceClient = new ServiceClient(iotHubConnectionString, iotHubServiceClientProtocol);
+        ServiceClient iotServiceClient = new ServiceClient(iotHubConnectionString, iotHubServiceClientProtocol, keepConnectionOpen);
         return iotServiceClient;
     }
 
@@ -56,6 +74,18 @@ public class ServiceClient
      * @param iotHubConnectionString The ConnectionString object for the IotHub
      */
     protected ServiceClient(IotHubConnectionString iotHubConnectionString, IotHubServiceClientProtocol iotHubServiceClientProtocol)
+    {
+        this(iotHubConnectionString, iotHubServiceClientProtocol, false);
+    }
+
+    /**
+     * Initialize AMQP sender using given connection string
+     *
+     * @param iotHubConnectionString The ConnectionString object for the IotHub
+     * @param iotHubServiceClientProtocol The protocol to use
+     * @param keepConnectionOpen If true, use a long-lived AMQP connection for all sends
+     */
+    protected ServiceClient(IotHubConnectionString iotHubConnectionString, IotHubServiceClientProtocol iotHubServiceClientProtocol, boolean keepConnectionOpen)
     {
         // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_004: [The constructor shall throw IllegalArgumentException if the input object is null]
         if (iotHubConnectionString == null)
@@ -63,18 +93,27 @@ public class ServiceClient
             throw new IllegalArgumentException();
         }
 
-        // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_005: [The constructor shall create a SAS token object using the IotHubConnectionString]
-        IotHubServiceSasToken iotHubServiceSasToken = new IotHubServiceSasToken(iotHubConnectionString);
+        // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_005: [The constructor shall get the SAS token provider of the IotHubConnectionString]
+        IotHubServiceSasTokenProvider iotHubServiceSasTokenProvider = iotHubConnectionString.getSasTokenProvider();
 
-        // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_006: [The constructor shall store connection string, hostname, username and sasToken]
+        // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_006: [The constructor shall store connection string, hostname, username and SAS token provider]
         this.iotHubConnectionString = iotHubConnectionString;
         this.hostName = iotHubConnectionString.getHostName();
         this.userName = iotHubConnectionString.getUserString();
-        this.sasToken = iotHubServiceSasToken.toString();
+        this.sasTokenProvider = iotHubServiceSasTokenProvider;
         this.iotHubServiceClientProtocol = iotHubServiceClientProtocol;
+        this.keepConnectionOpen = keepConnectionOpen;
 
-        // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_007: [The constructor shall create a new instance of AmqpSend object]
-        this.amqpMessageSender = new AmqpSend(hostName, userName, sasToken, this.iotHubServiceClientProtocol);
+        if (keepConnectionOpen)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_21_018: [If keepConnectionOpen is true, the constructor shall create a new instance of AmqpPersistentSend object]
+            this.amqpMessageSender = new AmqpPersistentSend(hostName, userName, sasTokenProvider, this.iotHubServiceClientProtocol);
+        }
+        else
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_007: [The constructor shall create a new instance of AmqpSend object]
+            this.amqpMessageSender = new AmqpSend(hostName, userName, sasTokenProvider, this.iotHubServiceClientProtocol);
+        }
     }
 
     /**
@@ -178,6 +217,11 @@ public class ServiceClient
      */
     public CompletableFuture<Void> sendAsync(String deviceId, Message message)
     {
+        if (this.keepConnectionOpen && this.amqpMessageSender != null)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_21_019: [If the connection is kept open, the function shall return the future of the AmqpPersistentSend, completed when the message disposition arrives]
+            return ((AmqpPersistentSend)this.amqpMessageSender).sendAsync(deviceId, message);
+        }
         // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_016: [The function shall create an async wrapper around the send() function call]
         final CompletableFuture<Void> future = new CompletableFuture<>();
         executor.submit(() -> {
@@ -202,7 +246,7 @@ public class ServiceClient
     public FeedbackReceiver getFeedbackReceiver(String deviceId)
     {
         // Codes_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_017: [The function shall create a FeedbackReceiver object and returns with it]
-        FeedbackReceiver feedbackReceiver = new FeedbackReceiver(hostName, userName, sasToken, iotHubServiceClientProtocol, deviceId);
+        FeedbackReceiver feedbackReceiver = new FeedbackReceiver(hostName, userName, sasTokenProvider, iotHubServiceClientProtocol, deviceId);
         return feedbackReceiver;
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+
+import java.nio.BufferOverflowException;
+
+/**
+ * Buffer kept by a sender link to encode its Proton messages. The buffer is grown
+ * before encoding to fit the message body, and doubled if the message still does
+ * not fit, so a message is usually encoded only once.
+ * Not thread safe, it shall be used by the reactor thread only.
+ */
+final class AmqpEncodeBuffer
+{
+    /** Room for the header, properties and annotations of a message on top of its body. */
+    private static final int ENCODE_OVERHEAD_BYTES = 1024;
+
+    private byte[] buffer = new byte[ENCODE_OVERHEAD_BYTES];
+
+    /**
+     * Encode the message at the start of the buffer
+     * @param message The Proton message to encode
+     * @return The number of encoded bytes
+     */
+    int encode(Message message)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPENCODEBUFFER_21_001: [The function shall grow the buffer to the length of the message body plus the encoding overhead before encoding]
+        int estimatedLength = estimateEncodedLength(message);
+        if (this.buffer.length < estimatedLength)
+        {
+            this.buffer = new byte[estimatedLength];
+        }
+
+        while (true)
+        {
+            try
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPENCODEBUFFER_21_002: [The function shall encode the message in the buffer and return the encoded length]
+                return message.encode(this.buffer, 0, this.buffer.length);
+            }
+            catch (BufferOverflowException e)
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPENCODEBUFFER_21_003: [If the message does not fit in the buffer, the function shall double the buffer and encode the message again]
+                this.buffer = new byte[this.buffer.length * 2];
+            }
+        }
+    }
+
+    /**
+     * Getter for the bytes of the last encoded message
+     * @return The buffer, valid up to the length returned by the last call to encode
+     */
+    byte[] getBytes()
+    {
+        return this.buffer;
+    }
+
+    private static int estimateEncodedLength(Message message)
+    {
+        Section body = message.getBody();
+        if (body instanceof Data && ((Data) body).getValue() != null)
+        {
+            return ((Data) body).getValue().getLength() + ENCODE_OVERHEAD_BYTES;
+        }
+        return ENCODE_OVERHEAD_BYTES;
+    }
+}
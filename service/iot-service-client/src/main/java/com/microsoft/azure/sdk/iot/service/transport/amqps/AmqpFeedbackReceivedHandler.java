@@ -55,6 +55,20 @@ public class AmqpFeedbackReceivedHandler extends BaseHandler
      * @param amqpFeedbackReceivedEvent callback to delegate the received message to the user API
      */
     public AmqpFeedbackReceivedHandler(String hostName, String userName, String sasToken, IotHubServiceClientProtocol iotHubServiceClientProtocol, AmqpFeedbackReceivedEvent amqpFeedbackReceivedEvent)
+    {
+        this(hostName, userName, sasToken, iotHubServiceClientProtocol, amqpFeedbackReceivedEvent, true);
+    }
+
+    /**
+     * Constructor to set up connection parameters and initialize
+     * handshaker and, optionally, flow controller for transport
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasToken The SAS token string
+     * @param amqpFeedbackReceivedEvent callback to delegate the received message to the user API
+     * @param automaticFlowControl false if the subclass grants the link credit itself
+     */
+    protected AmqpFeedbackReceivedHandler(String hostName, String userName, String sasToken, IotHubServiceClientProtocol iotHubServiceClientProtocol, AmqpFeedbackReceivedEvent amqpFeedbackReceivedEvent, boolean automaticFlowControl)
     {
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPFEEDBACKRECEIVEDHANDLER_12_001: [The constructor shall copy all input parameters to private member variables for event processing]
         this.iotHubServiceClientProtocol = iotHubServiceClientProtocol;
@@ -78,7 +92,11 @@ public class AmqpFeedbackReceivedHandler extends BaseHandler
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPFEEDBACKRECEIVEDHANDLER_12_002: [The constructor shall initialize a new Handshaker (Proton) object to handle communication handshake]
         add(new Handshaker());
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPFEEDBACKRECEIVEDHANDLER_12_003: [The constructor shall initialize a new FlowController (Proton) object to handle communication handshake]
-        add(new FlowController());
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPFEEDBACKRECEIVEDHANDLER_21_018: [If automatic flow control is disabled, the constructor shall not add the FlowController, so the link credit is granted by the subclass]
+        if (automaticFlowControl)
+        {
+            add(new FlowController());
+        }
     }
 
     /**
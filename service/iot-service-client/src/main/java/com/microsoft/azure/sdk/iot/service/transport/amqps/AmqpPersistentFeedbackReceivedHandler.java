@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatch;
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatchListener;
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatchMessage;
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.Rejected;
+import org.apache.qpid.proton.amqp.messaging.Released;
+import org.apache.qpid.proton.amqp.transport.DeliveryState;
+import org.apache.qpid.proton.amqp.transport.ErrorCondition;
+import org.apache.qpid.proton.engine.*;
+import org.apache.qpid.proton.reactor.Reactor;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Extension of the AmqpFeedbackReceivedHandler class which keeps the connection and the
+ * receiver link to the feedback endpoint open, instead of closing them after the first batch.
+ * The link credit is the maximum number of batches waiting for the listener: every received
+ * batch is handed to the listener on the dispatcher, and its delivery is settled and the
+ * credit given back on the reactor thread only after the listener returned.
+ */
+public class AmqpPersistentFeedbackReceivedHandler extends AmqpFeedbackReceivedHandler
+{
+    private final FeedbackBatchListener feedbackBatchListener;
+    private final int maxPendingBatches;
+    private final Executor dispatcher;
+    private final Queue<ProcessedDelivery> processedDeliveries = new ConcurrentLinkedQueue<>();
+    private final CompletableFuture<Void> linkOpenedFuture = new CompletableFuture<>();
+
+    private Connection connection;
+    private Receiver receiver;
+    private volatile Reactor reactor;
+    private volatile boolean linkClosed = false;
+    private volatile IOException closeCause;
+    private boolean retired = false;
+
+    /**
+     * Constructor to set up connection parameters and initialize handshaker for transport
+     *
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasToken The SAS token string
+     * @param iotHubServiceClientProtocol protocol to use
+     * @param feedbackBatchListener The listener for the received feedback batches
+     * @param maxPendingBatches The link credit, i.e. the maximum number of batches not yet handled by the listener
+     * @param dispatcher The executor running the listener
+     */
+    public AmqpPersistentFeedbackReceivedHandler(String hostName, String userName, String sasToken, IotHubServiceClientProtocol iotHubServiceClientProtocol,
+                                                 FeedbackBatchListener feedbackBatchListener, int maxPendingBatches, Executor dispatcher)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_001: [The constructor shall call the AmqpFeedbackReceivedHandler constructor without automatic flow control]
+        super(hostName, userName, sasToken, iotHubServiceClientProtocol, null, false);
+        this.feedbackBatchListener = feedbackBatchListener;
+        this.maxPendingBatches = maxPendingBatches;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Future which completes when the service opened the receiver link, or fails if
+     * the connection could not be established
+     * @return The link opened future
+     */
+    public CompletableFuture<Void> getLinkOpenedFuture()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_002: [The function shall return the future which completes when the receiver link is remotely opened]
+        return this.linkOpenedFuture;
+    }
+
+    /**
+     * Tells whether the link has been closed, locally or by the service
+     * @return true if no more feedback is received on this handler
+     */
+    public boolean isLinkClosed()
+    {
+        return this.linkClosed;
+    }
+
+    /**
+     * Tells whether the service opened the link and it has not been closed since
+     * @return true if the feedback batches are delivered on this handler
+     */
+    public boolean isLinkOpened()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_019: [The function shall return true only if the link opened future completed normally and the link has not been closed]
+        return !this.linkClosed && this.linkOpenedFuture.isDone() && !this.linkOpenedFuture.isCompletedExceptionally();
+    }
+
+    /**
+     * The reason why the link has been closed
+     * @return The exception describing the first close of the link, or null if it is not closed
+     */
+    public IOException getCloseCause()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_020: [The function shall return the IOException of the first close of the link, or null if the link is not closed]
+        return this.closeCause;
+    }
+
+    /**
+     * Stop giving back link credit, so that the service sends the next batches to the
+     * receiver which replaces this one. Shall be called from the reactor thread only.
+     */
+    public void retire()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_017: [After the handler is retired, settling a delivery shall not give back its credit]
+        this.retired = true;
+    }
+
+    /**
+     * Tells whether every received batch has been handled by the listener and settled.
+     * Shall be called from the reactor thread only.
+     * @return true if the link can be closed without any batch being delivered again
+     */
+    public boolean isIdle()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_018: [The function shall return true only if no delivery is unsettled or waiting for settlement]
+        return this.processedDeliveries.isEmpty() && (this.receiver == null || this.receiver.getUnsettled() == 0);
+    }
+
+    /**
+     * Event handler for the connection init event
+     * @param event The proton event object
+     */
+    @Override
+    public void onConnectionInit(Event event)
+    {
+        super.onConnectionInit(event);
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_003: [The event handler shall save the Connection and the Reactor]
+        this.connection = event.getConnection();
+        this.reactor = event.getReactor();
+    }
+
+    /**
+     * Event handler for the link init event
+     * @param event The proton event object
+     */
+    @Override
+    public void onLinkInit(Event event)
+    {
+        super.onLinkInit(event);
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_004: [The event handler shall save the Receiver link and grant it maxPendingBatches credit]
+        this.receiver = (Receiver)event.getLink();
+        this.receiver.flow(this.maxPendingBatches);
+    }
+
+    /**
+     * Event handler for the link remote open event
+     * @param event The proton event object
+     */
+    @Override
+    public void onLinkRemoteOpen(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_005: [The event handler shall complete the link opened future]
+        this.linkOpenedFuture.complete(null);
+    }
+
+    /**
+     * Event handler for the delivery event. Parses the feedback batch and hands it to the
+     * listener on the dispatcher, without settling the delivery and without closing the link.
+     * @param event The proton event object
+     */
+    @Override
+    public void onDelivery(Event event)
+    {
+        Receiver recv = (Receiver)event.getLink();
+        Delivery delivery = recv.current();
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_006: [The event handler shall do nothing until the whole delivery has been received]
+        if (delivery == null || !delivery.isReadable() || delivery.isPartial())
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_007: [The event handler shall read the delivery and parse it to a FeedbackBatch]
+        byte[] buffer = new byte[delivery.pending()];
+        int read = recv.recv(buffer, 0, buffer.length);
+        recv.advance();
+
+        final FeedbackBatch feedbackBatch;
+        try
+        {
+            org.apache.qpid.proton.message.Message msg = Proton.message();
+            msg.decode(buffer, 0, read);
+            feedbackBatch = FeedbackBatchMessage.parse(msg.getBody().toString());
+        }
+        catch (RuntimeException e)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_008: [If the delivery cannot be parsed, the event handler shall reject and settle it and give back one credit]
+            settle(delivery, new Rejected());
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_009: [The event handler shall call the listener with the FeedbackBatch on the dispatcher]
+        try
+        {
+            this.dispatcher.execute(() -> dispatch(feedbackBatch, delivery));
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the subscription is closing, the service delivers the unsettled batch again
+        }
+    }
+
+    /**
+     * Settle the deliveries whose batch has been handled by the listener, and give back
+     * their link credit. Shall be called from the reactor thread only.
+     */
+    public void settleProcessed()
+    {
+        ProcessedDelivery processedDelivery;
+        while ((processedDelivery = this.processedDeliveries.poll()) != null)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_011: [The function shall not settle deliveries after the link has been closed]
+            if (!this.linkClosed)
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_012: [The function shall accept the delivery if the listener returned, or release it if the listener threw, settle it and give back one credit]
+                settle(processedDelivery.delivery, processedDelivery.handled ? Accepted.getInstance() : Released.getInstance());
+            }
+        }
+    }
+
+    /**
+     * Close the receiver link, the session and the connection. Unsettled deliveries are
+     * delivered again by the service. Shall be called from the reactor thread only.
+     */
+    public void closeLink()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_013: [The function shall close the Receiver, Session and Connection if they have been created and are not closed yet]
+        if (this.connection != null && this.connection.getLocalState() != EndpointState.CLOSED)
+        {
+            if (this.receiver != null)
+            {
+                this.receiver.close();
+                this.receiver.getSession().close();
+            }
+            this.connection.close();
+        }
+        markClosed(new IOException("The AMQP receiver link has been closed"));
+    }
+
+    /**
+     * Event handler for the link remote close event
+     * @param event The proton event object
+     */
+    @Override
+    public void onLinkRemoteClose(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_014: [The event handler shall mark the link closed and fail the link opened future with IOException]
+        markClosed(new IOException("The AMQP receiver link was closed by the service: " + describe(event.getLink().getRemoteCondition())));
+    }
+
+    /**
+     * Event handler for the transport error event
+     * @param event The proton event object
+     */
+    @Override
+    public void onTransportError(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_015: [The event handler shall mark the link closed and fail the link opened future with IOException]
+        markClosed(new IOException("AMQP transport error: " + describe(event.getTransport().getCondition())));
+    }
+
+    /**
+     * Event handler for the connection unbound event
+     * @param event The proton event object
+     */
+    @Override
+    public void onConnectionUnbound(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_016: [The event handler shall mark the link closed and fail the link opened future with IOException]
+        markClosed(new IOException("The AMQP connection has been closed"));
+    }
+
+    /**
+     * Call the listener on the dispatcher thread, then queue the delivery to be settled
+     * by the reactor thread and wake it up
+     */
+    private void dispatch(FeedbackBatch feedbackBatch, Delivery delivery)
+    {
+        boolean handled = false;
+        try
+        {
+            this.feedbackBatchListener.onFeedbackBatchReceived(feedbackBatch);
+            handled = true;
+        }
+        catch (RuntimeException e)
+        {
+            // the batch is released, so the service delivers it again
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_010: [After the listener returned, the delivery shall be queued for settlement and the reactor woken up]
+        this.processedDeliveries.add(new ProcessedDelivery(delivery, handled));
+        Reactor runningReactor = this.reactor;
+        if (runningReactor != null)
+        {
+            runningReactor.wakeup();
+        }
+    }
+
+    private void settle(Delivery delivery, DeliveryState deliveryState)
+    {
+        delivery.disposition(deliveryState);
+        delivery.settle();
+        if (!this.retired)
+        {
+            this.receiver.flow(1);
+        }
+    }
+
+    private void markClosed(IOException exception)
+    {
+        if (this.closeCause == null)
+        {
+            this.closeCause = exception;
+        }
+        this.linkClosed = true;
+        this.linkOpenedFuture.completeExceptionally(exception);
+    }
+
+    private static String describe(ErrorCondition errorCondition)
+    {
+        if (errorCondition == null || errorCondition.getCondition() == null)
+        {
+            return "no error condition";
+        }
+        return errorCondition.getCondition() + " " + errorCondition.getDescription();
+    }
+
+    /**
+     * Delivery whose batch has been handled by the listener, waiting to be settled
+     */
+    private static class ProcessedDelivery
+    {
+        private final Delivery delivery;
+        private final boolean handled;
+
+        private ProcessedDelivery(Delivery delivery, boolean handled)
+        {
+            this.delivery = delivery;
+            this.handled = handled;
+        }
+    }
+}
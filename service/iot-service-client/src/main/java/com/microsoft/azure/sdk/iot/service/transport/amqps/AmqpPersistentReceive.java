@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatchListener;
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.engine.BaseHandler;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.reactor.Reactor;
+import org.apache.qpid.proton.reactor.Task;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Long-lived variant of AmqpReceive.
+ * A single reactor thread keeps the connection and the receiver link to the feedback
+ * endpoint open from open() to close(), and every received feedback batch is handed to
+ * the listener on a dedicated dispatcher thread, so the batches are handled one at a time
+ * in the order they arrive. A batch is acknowledged only after the listener returned.
+ * If the SAS token comes from a provider, a new connection with a new token is opened
+ * when the token is due for renewal, and the previous one is closed once all its
+ * batches have been acknowledged.
+ * If the service or the network closes the link, the listener is told and a new connection
+ * is opened, waiting twice as long after each failed attempt, up to a minute.
+ * Initialize and use AmqpPersistentFeedbackReceivedHandler class for low level ampqs operations.
+ */
+public class AmqpPersistentReceive extends BaseHandler
+{
+    private static final long OPEN_TIMEOUT_MS = 60000;
+    private static final long CLOSE_TIMEOUT_MS = 30000;
+
+    private final String hostName;
+    private final String userName;
+    private final String sasToken;
+    private final IotHubServiceSasTokenProvider sasTokenProvider;
+    private final IotHubServiceClientProtocol iotHubServiceClientProtocol;
+
+    private static final long MIN_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 60000;
+
+    private volatile AmqpPersistentFeedbackReceivedHandler amqpPersistentFeedbackReceivedHandler;
+    private AmqpPersistentFeedbackReceivedHandler retiringFeedbackReceivedHandler;
+    private FeedbackBatchListener feedbackBatchListener;
+    private int maxPendingBatches;
+    private final AmqpRenewalTimer renewalTimer;
+    private Task reconnectTask;
+    private long reconnectDelayMillis = MIN_RECONNECT_DELAY_MS;
+    private Reactor reactor;
+    private ExecutorService reactorExecutor;
+    private ExecutorService dispatcherExecutor;
+    private volatile boolean closeRequested = false;
+
+    private final BaseHandler reconnectHandler = new BaseHandler()
+    {
+        @Override
+        public void onTimerTask(Event event)
+        {
+            reconnect(event.getReactor());
+        }
+    };
+
+    /**
+     * Constructor to set up connection parameters
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasToken The SAS token string
+     * @param iotHubServiceClientProtocol protocol to use
+     */
+    public AmqpPersistentReceive(String hostName, String userName, String sasToken, IotHubServiceClientProtocol iotHubServiceClientProtocol)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_001: [The constructor shall copy all input parameters to private member variables for event processing]
+        this.hostName = hostName;
+        this.userName = userName;
+        this.sasToken = sasToken;
+        this.sasTokenProvider = null;
+        this.iotHubServiceClientProtocol = iotHubServiceClientProtocol;
+        this.renewalTimer = new AmqpRenewalTimer(null, this::renewConnection);
+    }
+
+    /**
+     * Constructor to set up connection parameters, renewing the connection when the
+     * SAS token of the provider is due for renewal
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasTokenProvider The provider of the SAS token
+     * @param iotHubServiceClientProtocol protocol to use
+     */
+    public AmqpPersistentReceive(String hostName, String userName, IotHubServiceSasTokenProvider sasTokenProvider, IotHubServiceClientProtocol iotHubServiceClientProtocol)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_013: [The constructor shall copy all input parameters to private member variables for event processing]
+        this.hostName = hostName;
+        this.userName = userName;
+        this.sasToken = null;
+        this.sasTokenProvider = sasTokenProvider;
+        this.iotHubServiceClientProtocol = iotHubServiceClientProtocol;
+        this.renewalTimer = new AmqpRenewalTimer(sasTokenProvider, this::renewConnection);
+    }
+
+    /**
+     * Event handler for the reactor init event
+     * @param event The proton event object
+     */
+    @Override
+    public void onReactorInit(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_002: [The event handler shall set the member AmqpPersistentFeedbackReceivedHandler object to handle the connection events]
+        event.getReactor().connection(this.amqpPersistentFeedbackReceivedHandler);
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_014: [If there is a SAS token provider, the event handler shall schedule the renewal of the connection when the token is due for renewal]
+        this.renewalTimer.schedule(event.getReactor());
+    }
+
+    /**
+     * Event handler for the reactor quiesced event. The reactor runs out of work after every
+     * batch of events and after every wakeup, so this is where the reactor thread settles the
+     * batches handled by the listener, or closes the link if requested.
+     * @param event The proton event object
+     */
+    @Override
+    public void onReactorQuiesced(Event event)
+    {
+        AmqpPersistentFeedbackReceivedHandler handler = this.amqpPersistentFeedbackReceivedHandler;
+        AmqpPersistentFeedbackReceivedHandler retiringHandler = this.retiringFeedbackReceivedHandler;
+        if (handler != null)
+        {
+            if (this.closeRequested)
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_003: [If close has been requested, the event handler shall close the link on the feedback handler]
+                handler.closeLink();
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_017: [If close has been requested, the event handler shall also close the link replaced by a renewal, and cancel the next renewal]
+                if (retiringHandler != null)
+                {
+                    retiringHandler.closeLink();
+                    this.retiringFeedbackReceivedHandler = null;
+                }
+                this.renewalTimer.cancel();
+                if (this.reconnectTask != null)
+                {
+                    this.reconnectTask.cancel();
+                    this.reconnectTask = null;
+                }
+            }
+            else
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_004: [The event handler shall settle the processed deliveries on the feedback handler]
+                handler.settleProcessed();
+                if (handler.isLinkClosed())
+                {
+                    if (this.reconnectTask == null)
+                    {
+                        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_018: [If the link has been closed by the service or the network, the event handler shall
+                        // call onError on the listener and schedule a reconnection, doubling the delay after each failed attempt up to MAX_RECONNECT_DELAY_MS]
+                        notifyError(handler.getCloseCause());
+                        this.reconnectTask = event.getReactor().schedule((int)this.reconnectDelayMillis, this.reconnectHandler);
+                        this.reconnectDelayMillis = Math.min(this.reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MS);
+                    }
+                }
+                else if (handler.isLinkOpened())
+                {
+                    // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_019: [Once the link is opened, the event handler shall reset the reconnection delay]
+                    this.reconnectDelayMillis = MIN_RECONNECT_DELAY_MS;
+                }
+                if (retiringHandler != null)
+                {
+                    // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_016: [The event handler shall settle the processed deliveries of the link replaced by a renewal, and close it once it is idle]
+                    retiringHandler.settleProcessed();
+                    if (retiringHandler.isIdle() || retiringHandler.isLinkClosed())
+                    {
+                        retiringHandler.closeLink();
+                        this.retiringFeedbackReceivedHandler = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a new connection with a new SAS token to receive the next batches. The previous
+     * connection gets no more credit, and is closed by onReactorQuiesced once its batches
+     * have been acknowledged. Runs on the reactor thread when the token is due for renewal.
+     * @param reactor The running reactor
+     */
+    protected void renewConnection(Reactor reactor)
+    {
+        AmqpPersistentFeedbackReceivedHandler handler = this.amqpPersistentFeedbackReceivedHandler;
+        if (this.closeRequested || handler == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_015: [The renewal shall open a new connection with the current token of the provider,
+        // retire the previous one and schedule the next renewal]
+        if (this.retiringFeedbackReceivedHandler != null)
+        {
+            this.retiringFeedbackReceivedHandler.closeLink();
+        }
+        AmqpPersistentFeedbackReceivedHandler renewedHandler = new AmqpPersistentFeedbackReceivedHandler(this.hostName, this.userName, getSasToken(),
+                this.iotHubServiceClientProtocol, this.feedbackBatchListener, this.maxPendingBatches, this.dispatcherExecutor);
+        reactor.connection(renewedHandler);
+        handler.retire();
+        this.retiringFeedbackReceivedHandler = handler;
+        this.amqpPersistentFeedbackReceivedHandler = renewedHandler;
+        this.renewalTimer.schedule(reactor);
+    }
+
+    /**
+     * Open a new connection to replace the one closed by the service or the network.
+     * Runs on the reactor thread when the reconnection delay expires.
+     * @param reactor The running reactor
+     */
+    protected void reconnect(Reactor reactor)
+    {
+        this.reconnectTask = null;
+        AmqpPersistentFeedbackReceivedHandler handler = this.amqpPersistentFeedbackReceivedHandler;
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_021: [The reconnection shall do nothing if close has been requested or a renewal already replaced the closed link]
+        if (this.closeRequested || handler == null || !handler.isLinkClosed())
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_020: [The reconnection shall close the closed connection and open a new one with the current token]
+        handler.closeLink();
+        AmqpPersistentFeedbackReceivedHandler reconnectedHandler = new AmqpPersistentFeedbackReceivedHandler(this.hostName, this.userName, getSasToken(),
+                this.iotHubServiceClientProtocol, this.feedbackBatchListener, this.maxPendingBatches, this.dispatcherExecutor);
+        reactor.connection(reconnectedHandler);
+        this.amqpPersistentFeedbackReceivedHandler = reconnectedHandler;
+    }
+
+    private void notifyError(IOException exception)
+    {
+        final FeedbackBatchListener listener = this.feedbackBatchListener;
+        ExecutorService dispatcher = this.dispatcherExecutor;
+        if (listener == null || dispatcher == null)
+        {
+            return;
+        }
+
+        try
+        {
+            dispatcher.execute(() -> {
+                try
+                {
+                    listener.onError(exception);
+                }
+                catch (RuntimeException e)
+                {
+                    // the subscription reconnects whatever the listener does
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the subscription is closing
+        }
+    }
+
+    private String getSasToken()
+    {
+        return (this.sasTokenProvider != null) ? this.sasTokenProvider.getSasToken() : this.sasToken;
+    }
+
+    /**
+     * Create the AmqpPersistentFeedbackReceivedHandler, start the reactor on its own thread
+     * and wait until the receiver link is open
+     * @param feedbackBatchListener The listener for the received feedback batches
+     * @param maxPendingBatches The maximum number of batches received but not yet handled by the listener
+     * @throws IOException This exception is thrown if the connection could not be opened
+     */
+    public synchronized void open(FeedbackBatchListener feedbackBatchListener, int maxPendingBatches) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_005: [If a subscription is already open, the function shall close it before opening the new one]
+        close();
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_006: [The function shall create an AmqpPersistentFeedbackReceivedHandler object calling the listener on a single thread dispatcher]
+        this.closeRequested = false;
+        this.reconnectDelayMillis = MIN_RECONNECT_DELAY_MS;
+        this.dispatcherExecutor = Executors.newSingleThreadExecutor();
+        this.feedbackBatchListener = feedbackBatchListener;
+        this.maxPendingBatches = maxPendingBatches;
+        this.amqpPersistentFeedbackReceivedHandler = new AmqpPersistentFeedbackReceivedHandler(this.hostName, this.userName, getSasToken(),
+                this.iotHubServiceClientProtocol, feedbackBatchListener, maxPendingBatches, this.dispatcherExecutor);
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_007: [The function shall initialize the Proton reactor object and run it on a dedicated thread]
+        this.reactor = Proton.reactor(this);
+        final Reactor runningReactor = this.reactor;
+        this.reactorExecutor = Executors.newSingleThreadExecutor();
+        this.reactorExecutor.submit(() -> {
+            try
+            {
+                runningReactor.run();
+            }
+            finally
+            {
+                runningReactor.free();
+            }
+        });
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_008: [The function shall wait for the receiver link to be opened and throw IOException if it fails or times out]
+        try
+        {
+            this.amqpPersistentFeedbackReceivedHandler.getLinkOpenedFuture().get(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException | ExecutionException | TimeoutException e)
+        {
+            close();
+            throw new IOException("Error opening AMQP receiver link: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tells whether the subscription is open and its receiver link currently connected.
+     * The function returns false while the subscription reconnects.
+     * @return true if the feedback batches are currently delivered to the listener
+     */
+    public boolean isOpen()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_009: [The function shall return true only if the subscription is open and its current link is opened and not closed]
+        AmqpPersistentFeedbackReceivedHandler handler = this.amqpPersistentFeedbackReceivedHandler;
+        return handler != null && handler.isLinkOpened();
+    }
+
+    /**
+     * Close the link and the connection on the reactor thread and wait for the reactor to stop.
+     * Batches not yet acknowledged are delivered again by the service to the next receiver.
+     */
+    public synchronized void close()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_010: [The function shall do nothing if the subscription is not open]
+        if (this.amqpPersistentFeedbackReceivedHandler == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_011: [The function shall request the reactor thread to close the link and wake up the reactor]
+        this.closeRequested = true;
+        this.reactor.wakeup();
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_012: [The function shall wait for the reactor thread to terminate, shut down the dispatcher and invalidate the feedback handler]
+        this.reactorExecutor.shutdown();
+        try
+        {
+            if (!this.reactorExecutor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            {
+                this.reactorExecutor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            this.reactorExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        this.dispatcherExecutor.shutdown();
+
+        this.amqpPersistentFeedbackReceivedHandler = null;
+        this.retiringFeedbackReceivedHandler = null;
+        this.reconnectTask = null;
+        this.dispatcherExecutor = null;
+        this.reactorExecutor = null;
+        this.reactor = null;
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
+import com.microsoft.azure.sdk.iot.service.sdk.Message;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.engine.BaseHandler;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.reactor.Reactor;
+import org.apache.qpid.proton.reactor.Task;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Long-lived variant of AmqpSend.
+ * A single reactor thread keeps the connection and the sender link to the devicebound
+ * endpoint open from open() to close(), so many messages share one TLS/AMQP connection
+ * and can be in flight at the same time, limited by the link credit.
+ * If the service drops the connection, the pending messages fail with IOException
+ * and a new connection is opened after a back-off, doubled while the new connections
+ * fail to open. Messages sent until the new connection is created fail the same way.
+ * If the SAS token comes from a provider, a new connection with a new token is opened
+ * when the token is due for renewal, and the previous one is closed once all its
+ * messages have their disposition.
+ * Initialize and use AmqpPersistentSendHandler class for low level ampqs operations.
+ */
+public class AmqpPersistentSend extends AmqpSend
+{
+    private static final long OPEN_TIMEOUT_MS = 60000;
+    private static final long CLOSE_TIMEOUT_MS = 30000;
+
+    private static final long MIN_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 60000;
+
+    private volatile AmqpPersistentSendHandler amqpPersistentSendHandler;
+    private AmqpPersistentSendHandler retiringSendHandler;
+    private final AmqpRenewalTimer renewalTimer = new AmqpRenewalTimer(this.sasTokenProvider, this::renewConnection);
+    private Task reconnectTask;
+    private long reconnectDelayMillis = MIN_RECONNECT_DELAY_MS;
+    private ExecutorService reactorExecutor;
+    private volatile boolean closeRequested = false;
+    private volatile boolean opened = false;
+
+    private final BaseHandler reconnectHandler = new BaseHandler()
+    {
+        @Override
+        public void onTimerTask(Event event)
+        {
+            reconnect(event.getReactor());
+        }
+    };
+
+    /**
+     * Constructor to set up connection parameters
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasToken The SAS token string
+     * @param iotHubServiceClientProtocol protocol to use
+     */
+    public AmqpPersistentSend(String hostName, String userName, String sasToken, IotHubServiceClientProtocol iotHubServiceClientProtocol)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_001: [The constructor shall call the AmqpSend constructor with the given parameters]
+        super(hostName, userName, sasToken, iotHubServiceClientProtocol);
+    }
+
+    /**
+     * Constructor to set up connection parameters, renewing the connection when the
+     * SAS token of the provider is due for renewal
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasTokenProvider The provider of the SAS token
+     * @param iotHubServiceClientProtocol protocol to use
+     */
+    public AmqpPersistentSend(String hostName, String userName, IotHubServiceSasTokenProvider sasTokenProvider, IotHubServiceClientProtocol iotHubServiceClientProtocol)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_015: [The constructor shall call the AmqpSend constructor with the given parameters]
+        super(hostName, userName, sasTokenProvider, iotHubServiceClientProtocol);
+    }
+
+    /**
+     * Event handler for the reactor init event
+     * @param event The proton event object
+     */
+    @Override
+    public void onReactorInit(Event event)
+    {
+        super.onReactorInit(event);
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_016: [If there is a SAS token provider, the event handler shall schedule the renewal of the connection when the token is due for renewal]
+        this.renewalTimer.schedule(event.getReactor());
+    }
+
+    /**
+     * Event handler for the reactor quiesced event. The reactor runs out of work after every
+     * batch of events and after every wakeup, so this is where the reactor thread picks up
+     * the messages queued by the callers, or closes the link if requested.
+     * @param event The proton event object
+     */
+    @Override
+    public void onReactorQuiesced(Event event)
+    {
+        AmqpPersistentSendHandler handler = this.amqpPersistentSendHandler;
+        AmqpPersistentSendHandler retiringHandler = this.retiringSendHandler;
+        if (handler != null)
+        {
+            if (this.closeRequested)
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_002: [If close has been requested, the event handler shall close the link on the send handler]
+                handler.closeLink();
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_019: [If close has been requested, the event handler shall also close the link replaced by a renewal, and cancel the next renewal]
+                if (retiringHandler != null)
+                {
+                    retiringHandler.closeLink();
+                    this.retiringSendHandler = null;
+                }
+                this.renewalTimer.cancel();
+                if (this.reconnectTask != null)
+                {
+                    this.reconnectTask.cancel();
+                    this.reconnectTask = null;
+                }
+            }
+            else
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_003: [The event handler shall drain the queued messages on the send handler]
+                handler.drain();
+                if (retiringHandler != null)
+                {
+                    // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_018: [The event handler shall drain the link replaced by a renewal, and close it once it is idle]
+                    retiringHandler.drain();
+                    if (retiringHandler.isIdle() || retiringHandler.isLinkClosed())
+                    {
+                        retiringHandler.closeLink();
+                        this.retiringSendHandler = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a new connection with a new SAS token and send the next messages on it. The previous
+     * connection is closed by onReactorQuiesced once its messages have their disposition.
+     * Runs on the reactor thread when the token is due for renewal.
+     * @param reactor The running reactor
+     */
+    protected void renewConnection(Reactor reactor)
+    {
+        if (this.closeRequested || this.amqpPersistentSendHandler == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_017: [The renewal shall open a new connection with the current token of the provider,
+        // make it the connection of the next messages, retire the previous one and schedule the next renewal]
+        replaceConnection(reactor);
+        this.renewalTimer.schedule(reactor);
+    }
+
+    /**
+     * Open a new connection after the previous one has been lost, and send the next messages on it.
+     * Runs on the reactor thread once the reconnection back-off has elapsed.
+     * @param reactor The running reactor
+     */
+    protected void reconnect(Reactor reactor)
+    {
+        this.reconnectTask = null;
+        if (this.closeRequested || this.amqpPersistentSendHandler == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_021: [The reconnection shall open a new connection with the current SAS token and make it the connection of the next messages]
+        AmqpPersistentSendHandler renewedHandler = replaceConnection(reactor);
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_022: [Once the new link is open, the back-off of the next reconnection shall start again from its minimum]
+        renewedHandler.getLinkOpenedFuture().thenRun(() -> this.reconnectDelayMillis = MIN_RECONNECT_DELAY_MS);
+    }
+
+    private AmqpPersistentSendHandler replaceConnection(Reactor reactor)
+    {
+        // The new connection also replaces a lost one, so a pending reconnection is not needed anymore
+        if (this.reconnectTask != null)
+        {
+            this.reconnectTask.cancel();
+            this.reconnectTask = null;
+        }
+        if (this.retiringSendHandler != null)
+        {
+            this.retiringSendHandler.closeLink();
+        }
+        AmqpPersistentSendHandler renewedHandler = createSendHandler(reactor);
+        reactor.connection(renewedHandler);
+        this.retiringSendHandler = this.amqpPersistentSendHandler;
+        this.amqpPersistentSendHandler = renewedHandler;
+        this.amqpSendHandler = renewedHandler;
+        return renewedHandler;
+    }
+
+    private AmqpPersistentSendHandler createSendHandler(Reactor reactor)
+    {
+        AmqpPersistentSendHandler handler = new AmqpPersistentSendHandler(this.hostName, this.userName, getSasToken(), this.iotHubServiceClientProtocol);
+        handler.getLinkClosedFuture().thenRun(() -> onLinkLost(reactor, handler));
+        return handler;
+    }
+
+    /**
+     * Schedule a new connection when the current link is lost after open() succeeded.
+     * Runs on the reactor thread when the link is closed.
+     */
+    private void onLinkLost(Reactor reactor, AmqpPersistentSendHandler handler)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_020: [If the link of the next messages is lost after open() succeeded and close has not been requested,
+        // the send shall schedule a reconnection after a back-off, doubled after every reconnection up to MAX_RECONNECT_DELAY_MS]
+        if (this.closeRequested || !this.opened || handler != this.amqpPersistentSendHandler || this.reconnectTask != null)
+        {
+            return;
+        }
+        this.reconnectTask = reactor.schedule((int)this.reconnectDelayMillis, this.reconnectHandler);
+        this.reconnectDelayMillis = Math.min(this.reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MS);
+    }
+
+    /**
+     * Create the AmqpPersistentSendHandler, start the reactor on its own thread
+     * and wait until the sender link is open
+     * @throws IOException This exception is thrown if the connection could not be opened
+     */
+    @Override
+    public synchronized void open() throws IOException
+    {
+        if (this.amqpPersistentSendHandler != null)
+        {
+            if (!this.amqpPersistentSendHandler.isLinkClosed())
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_004: [The function shall do nothing if the connection is already open]
+                return;
+            }
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_014: [If the previous connection has been lost, the function shall release it before opening a new one]
+            close();
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_005: [The function shall create an AmqpPersistentSendHandler object to handle reactor events]
+        this.closeRequested = false;
+        this.reconnectDelayMillis = MIN_RECONNECT_DELAY_MS;
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_006: [The function shall initialize the Proton reactor object and run it on a dedicated thread]
+        this.reactor = Proton.reactor(this);
+        final Reactor runningReactor = this.reactor;
+        this.amqpPersistentSendHandler = createSendHandler(runningReactor);
+        this.amqpSendHandler = this.amqpPersistentSendHandler;
+        this.reactorExecutor = Executors.newSingleThreadExecutor();
+        this.reactorExecutor.submit(() -> {
+            try
+            {
+                runningReactor.run();
+            }
+            finally
+            {
+                runningReactor.free();
+            }
+        });
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_007: [The function shall wait for the sender link to be opened and throw IOException if it fails or times out]
+        try
+        {
+            this.amqpPersistentSendHandler.getLinkOpenedFuture().get(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            this.opened = true;
+        }
+        catch (InterruptedException | ExecutionException | TimeoutException e)
+        {
+            close();
+            throw new IOException("Error opening AMQP sender link: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close the link and the connection on the reactor thread and wait for the reactor to stop.
+     * Messages without a disposition are completed exceptionally.
+     */
+    @Override
+    public synchronized void close()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_008: [The function shall do nothing if the connection is not open]
+        if (this.amqpPersistentSendHandler == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_009: [The function shall request the reactor thread to close the link and wake up the reactor]
+        this.closeRequested = true;
+        this.opened = false;
+        this.reactor.wakeup();
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_010: [The function shall wait for the reactor thread to terminate and invalidate the send handler]
+        this.reactorExecutor.shutdown();
+        try
+        {
+            if (!this.reactorExecutor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            {
+                this.reactorExecutor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            this.reactorExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        this.amqpPersistentSendHandler = null;
+        this.retiringSendHandler = null;
+        this.reconnectTask = null;
+        this.amqpSendHandler = null;
+        this.reactorExecutor = null;
+        this.reactor = null;
+    }
+
+    /**
+     * Queue the message on the open sender link
+     * @param deviceId The device name string
+     * @param message The message to be sent
+     * @return The future which completes when the service accepts the message,
+     *         or completes exceptionally if the service rejects it or the link is lost
+     */
+    public CompletableFuture<Void> sendAsync(String deviceId, Message message)
+    {
+        AmqpPersistentSendHandler handler = this.amqpPersistentSendHandler;
+        Reactor runningReactor = this.reactor;
+        if (handler == null || runningReactor == null)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_011: [The function shall return a future completed exceptionally with IOException if the connection is not open]
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new IOException("send handler is not initialized. call open before send"));
+            return future;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_012: [The function shall queue the message on the send handler and wake up the reactor]
+        CompletableFuture<Void> future = handler.enqueue(deviceId, message);
+        runningReactor.wakeup();
+        return future;
+    }
+
+    /**
+     * Send the message on the open sender link and wait for its disposition
+     * @param deviceId The device name string
+     * @param message The message to be sent
+     * @throws IOException This exception is thrown if the message could not be delivered
+     */
+    @Override
+    public void send(String deviceId, Message message) throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_013: [The function shall call sendAsync and wait for the result, rethrowing any failure as IOException]
+        try
+        {
+            sendAsync(deviceId, message).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the message disposition");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Error " + e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
+import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.transport.DeliveryState;
+import org.apache.qpid.proton.amqp.transport.ErrorCondition;
+import org.apache.qpid.proton.amqp.transport.SenderSettleMode;
+import org.apache.qpid.proton.engine.*;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Extension of the AmqpSendHandler class which keeps the connection and the sender link
+ * to the devicebound endpoint open between messages.
+ * Messages are queued by any thread and written to the link by the reactor thread only,
+ * as far as the link credit allows. The future of each message is completed when
+ * the service disposition of its delivery arrives.
+ */
+public class AmqpPersistentSendHandler extends AmqpSendHandler
+{
+    private final Queue<PendingMessage> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final CompletableFuture<Void> linkOpenedFuture = new CompletableFuture<>();
+    private final CompletableFuture<Void> linkClosedFuture = new CompletableFuture<>();
+
+    private Connection connection;
+    private Sender sender;
+    private final AmqpEncodeBuffer encodeBuffer = new AmqpEncodeBuffer();
+    private long nextDeliveryTag = 0;
+    private volatile boolean linkClosed = false;
+
+    /**
+     * Constructor to set up connection parameters and initialize handshaker for transport
+     *
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasToken The SAS token string
+     * @param iotHubServiceClientProtocol protocol to use
+     */
+    public AmqpPersistentSendHandler(String hostName, String userName, String sasToken, IotHubServiceClientProtocol iotHubServiceClientProtocol)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_001: [The constructor shall call the AmqpSendHandler constructor with the given parameters]
+        super(hostName, userName, sasToken, iotHubServiceClientProtocol);
+    }
+
+    /**
+     * Future which completes when the service opened the sender link, or fails if
+     * the connection could not be established
+     * @return The link opened future
+     */
+    public CompletableFuture<Void> getLinkOpenedFuture()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_002: [The function shall return the future which completes when the sender link is remotely opened]
+        return this.linkOpenedFuture;
+    }
+
+    /**
+     * Future which completes on the reactor thread once the link has been closed, locally
+     * or by the service, and every message of the link has been failed
+     * @return The link closed future
+     */
+    public CompletableFuture<Void> getLinkClosedFuture()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_023: [The function shall return the future which completes when the link is closed and its messages have been failed]
+        return this.linkClosedFuture;
+    }
+
+    /**
+     * Tells whether the link has been closed, locally or by the service
+     * @return true if no more messages can be sent on this handler
+     */
+    public boolean isLinkClosed()
+    {
+        return this.linkClosed;
+    }
+
+    /**
+     * Tells whether every queued message has been sent and every sent message has its disposition.
+     * Shall be called from the reactor thread only.
+     * @return true if the link can be closed without failing any message
+     */
+    public boolean isIdle()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_022: [The function shall return true only if no message is queued and no delivery is unsettled]
+        return this.pendingMessages.isEmpty() && (this.sender == null || this.sender.getUnsettled() == 0);
+    }
+
+    /**
+     * Queue a Proton message for sending. This function may be called from any thread,
+     * the message is written to the link when the reactor thread drains the queue.
+     * @param deviceId The device name string
+     * @param message The message to be sent
+     * @return The future which completes when the service settles the delivery
+     */
+    public CompletableFuture<Void> enqueue(String deviceId, com.microsoft.azure.sdk.iot.service.sdk.Message message)
+    {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (this.linkClosed)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_003: [If the link is already closed, the function shall return a future completed exceptionally with IOException]
+            future.completeExceptionally(new IOException("The AMQP sender link is closed"));
+        }
+        else
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_004: [The function shall create a Proton message for the device and add it to the pending queue]
+            PendingMessage pendingMessage = new PendingMessage(buildProtonMessage(deviceId, message), future);
+            this.pendingMessages.add(pendingMessage);
+            // The link may have been closed while the message was queued, in that case nobody drains it anymore
+            if (this.linkClosed && this.pendingMessages.remove(pendingMessage))
+            {
+                future.completeExceptionally(new IOException("The AMQP sender link is closed"));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Write the pending messages to the sender link while there is link credit.
+     * Shall be called from the reactor thread only.
+     */
+    public void drain()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_005: [The function shall do nothing if the sender link is not open yet]
+        if (this.sender == null || this.linkClosed)
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_006: [The function shall send pending messages while the sender link has credit]
+        while (this.sender.getCredit() > 0)
+        {
+            PendingMessage pendingMessage = this.pendingMessages.poll();
+            if (pendingMessage == null)
+            {
+                break;
+            }
+
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_007: [The function shall encode the message into the encode buffer kept by the handler]
+            int length = this.encodeBuffer.encode(pendingMessage.protonMessage);
+
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_008: [The function shall create a delivery with a unique tag, attach the message future to it, send the encoded bytes and advance the link]
+            byte[] tag = String.valueOf(this.nextDeliveryTag++).getBytes();
+            Delivery delivery = this.sender.delivery(tag);
+            delivery.setContext(pendingMessage.future);
+            this.sender.send(this.encodeBuffer.getBytes(), 0, length);
+            this.sender.advance();
+        }
+    }
+
+    /**
+     * Close the sender link, the session and the connection, and fail all pending messages.
+     * Shall be called from the reactor thread only.
+     */
+    public void closeLink()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_009: [The function shall close the Sender, Session and Connection if they have been created and are not closed yet]
+        if (this.connection != null && this.connection.getLocalState() != EndpointState.CLOSED)
+        {
+            if (this.sender != null)
+            {
+                this.sender.close();
+                this.sender.getSession().close();
+            }
+            this.connection.close();
+        }
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_010: [The function shall fail all pending messages with IOException]
+        failAll(new IOException("The AMQP sender link has been closed"));
+    }
+
+    /**
+     * Event handler for the connection init event
+     * @param event The proton event object
+     */
+    @Override
+    public void onConnectionInit(Event event)
+    {
+        super.onConnectionInit(event);
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_021: [The event handler shall save the Connection so it can be closed before the link is open]
+        this.connection = event.getConnection();
+    }
+
+    /**
+     * Event handler for the link init event
+     * @param event The proton event object
+     */
+    @Override
+    public void onLinkInit(Event event)
+    {
+        super.onLinkInit(event);
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_011: [The event handler shall set the SenderSettleMode to UNSETTLED so every delivery gets a disposition]
+        event.getLink().setSenderSettleMode(SenderSettleMode.UNSETTLED);
+    }
+
+    /**
+     * Event handler for the link remote open event
+     * @param event The proton event object
+     */
+    @Override
+    public void onLinkRemoteOpen(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_012: [The event handler shall save the Sender link and complete the link opened future]
+        this.sender = (Sender)event.getLink();
+        this.linkOpenedFuture.complete(null);
+    }
+
+    /**
+     * Event handler for the link flow event. Sends pending messages up to the granted credit,
+     * but keeps the link open.
+     * @param event The proton event object
+     */
+    @Override
+    public void onLinkFlow(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_013: [The event handler shall drain the pending messages]
+        drain();
+    }
+
+    /**
+     * Event handler for the delivery event. Completes the future of the message
+     * when the service disposition arrives.
+     * @param event The proton event object
+     */
+    @Override
+    public void onDelivery(Event event)
+    {
+        Delivery delivery = event.getDelivery();
+        DeliveryState remoteState = delivery.getRemoteState();
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_014: [The event handler shall do nothing if the delivery has no remote state]
+        if (remoteState == null)
+        {
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Void> future = (CompletableFuture<Void>)delivery.getContext();
+        if (future != null)
+        {
+            if (remoteState instanceof Accepted)
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_015: [If the remote state is Accepted, the event handler shall complete the message future]
+                future.complete(null);
+            }
+            else
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_016: [If the remote state is not Accepted, the event handler shall complete the message future exceptionally with IOException]
+                future.completeExceptionally(new IOException("Message was not accepted by the service: " + remoteState));
+            }
+        }
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_017: [The event handler shall settle the delivery]
+        delivery.settle();
+    }
+
+    /**
+     * Event handler for the link remote close event
+     * @param event The proton event object
+     */
+    @Override
+    public void onLinkRemoteClose(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_018: [The event handler shall fail the link opened future and all pending messages with IOException]
+        failAll(new IOException("The AMQP sender link was closed by the service: " + describe(event.getLink().getRemoteCondition())));
+    }
+
+    /**
+     * Event handler for the transport error event
+     * @param event The proton event object
+     */
+    @Override
+    public void onTransportError(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_019: [The event handler shall fail the link opened future and all pending messages with IOException]
+        failAll(new IOException("AMQP transport error: " + describe(event.getTransport().getCondition())));
+    }
+
+    /**
+     * Event handler for the connection unbound event
+     * @param event The proton event object
+     */
+    @Override
+    public void onConnectionUnbound(Event event)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_020: [The event handler shall fail the link opened future and all pending messages with IOException]
+        failAll(new IOException("The AMQP connection has been closed"));
+    }
+
+    /**
+     * Mark the link closed, fail every queued or in flight message and the link opened future
+     * @param exception The reason of the failure
+     */
+    private void failAll(IOException exception)
+    {
+        this.linkClosed = true;
+        this.linkOpenedFuture.completeExceptionally(exception);
+
+        PendingMessage pendingMessage;
+        while ((pendingMessage = this.pendingMessages.poll()) != null)
+        {
+            pendingMessage.future.completeExceptionally(exception);
+        }
+
+        if (this.sender != null)
+        {
+            Delivery delivery = this.sender.head();
+            while (delivery != null)
+            {
+                Object context = delivery.getContext();
+                if (context instanceof CompletableFuture)
+                {
+                    ((CompletableFuture<?>)context).completeExceptionally(exception);
+                }
+                delivery = delivery.next();
+            }
+        }
+        this.linkClosedFuture.complete(null);
+    }
+
+    private static String describe(ErrorCondition errorCondition)
+    {
+        if (errorCondition == null || errorCondition.getCondition() == null)
+        {
+            return "no error condition";
+        }
+        return errorCondition.getCondition() + " " + errorCondition.getDescription();
+    }
+
+    /**
+     * Proton message waiting for link credit together with its completion future
+     */
+    private static class PendingMessage
+    {
+        private final org.apache.qpid.proton.message.Message protonMessage;
+        private final CompletableFuture<Void> future;
+
+        private PendingMessage(org.apache.qpid.proton.message.Message protonMessage, CompletableFuture<Void> future)
+        {
+            this.protonMessage = protonMessage;
+            this.future = future;
+        }
+    }
+}
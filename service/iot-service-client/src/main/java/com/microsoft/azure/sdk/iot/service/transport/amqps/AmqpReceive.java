@@ -5,6 +5,7 @@
 
 package com.microsoft.azure.sdk.iot.service.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.sdk.*;
 import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatch;
 import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatchMessage;
@@ -28,6 +29,7 @@ public class AmqpReceive extends BaseHandler implements AmqpFeedbackReceivedEven
     private final String hostName;
     private final String userName;
     private final String sasToken;
+    private final IotHubServiceSasTokenProvider sasTokenProvider;
     private AmqpFeedbackReceivedHandler amqpReceiveHandler;
     private IotHubServiceClientProtocol iotHubServiceClientProtocol;
     private Reactor reactor = null;
@@ -46,9 +48,33 @@ public class AmqpReceive extends BaseHandler implements AmqpFeedbackReceivedEven
         this.hostName = hostName;
         this.userName = userName;
         this.sasToken = sasToken;
+        this.sasTokenProvider = null;
         this.iotHubServiceClientProtocol = iotHubServiceClientProtocol;
     }
 
+    /**
+     * Constructor to set up connection parameters, taking a new SAS token from the
+     * provider for every connection
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasTokenProvider The provider of the SAS token
+     * @param iotHubServiceClientProtocol protocol to use
+     */
+    public AmqpReceive(String hostName, String userName, IotHubServiceSasTokenProvider sasTokenProvider, IotHubServiceClientProtocol iotHubServiceClientProtocol)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_21_012: [The constructor shall copy all input parameters to private member variables for event processing]
+        this.hostName = hostName;
+        this.userName = userName;
+        this.sasToken = null;
+        this.sasTokenProvider = sasTokenProvider;
+        this.iotHubServiceClientProtocol = iotHubServiceClientProtocol;
+    }
+
+    private String getSasToken()
+    {
+        return (this.sasTokenProvider != null) ? this.sasTokenProvider.getSasToken() : this.sasToken;
+    }
+
     /**
      * Event handler for the reactor init event
      * @param event The proton event object
@@ -72,7 +98,7 @@ public class AmqpReceive extends BaseHandler implements AmqpFeedbackReceivedEven
     public void open()
     {
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_12_003: [The function shall create an AmqpsReceiveHandler object to handle reactor events]
-        amqpReceiveHandler = new AmqpFeedbackReceivedHandler(this.hostName, this.userName, this.sasToken, this.iotHubServiceClientProtocol, this);
+        amqpReceiveHandler = new AmqpFeedbackReceivedHandler(this.hostName, this.userName, getSasToken(), this.iotHubServiceClientProtocol, this);
     }
 
     /**
@@ -97,6 +123,11 @@ public class AmqpReceive extends BaseHandler implements AmqpFeedbackReceivedEven
         feedbackBatch = null;
         if  (amqpReceiveHandler != null)
         {
+            if (this.sasTokenProvider != null)
+            {
+                // Codes_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_21_013: [If there is a SAS token provider, the function shall create a new AmqpsReceiveHandler with its current token, as every receive opens a new connection]
+                amqpReceiveHandler = new AmqpFeedbackReceivedHandler(this.hostName, this.userName, getSasToken(), this.iotHubServiceClientProtocol, this);
+            }
             // Codes_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_12_005: [The function shall initialize the Proton reactor object]
             this.reactor = Proton.reactor(this);
             // Codes_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_12_006: [The function shall start the Proton reactor object]
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import org.apache.qpid.proton.engine.BaseHandler;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.reactor.Reactor;
+import org.apache.qpid.proton.reactor.Task;
+
+import java.util.function.Consumer;
+
+/**
+ * Reactor timer which renews a connection when the SAS token of the provider is due for renewal.
+ * Reactor timers take an int number of milliseconds, about 24.8 days, so a renewal further away
+ * is reached in several steps: the timer is scheduled again for the remaining time each time it
+ * expires before the renewal time.
+ * Not thread safe, it shall be used by the reactor thread only.
+ */
+final class AmqpRenewalTimer
+{
+    private static final long MIN_RENEWAL_DELAY_MS = 1000;
+
+    private final IotHubServiceSasTokenProvider sasTokenProvider;
+    private final Consumer<Reactor> renewal;
+    private Task task;
+
+    private final BaseHandler timerHandler = new BaseHandler()
+    {
+        @Override
+        public void onTimerTask(Event event)
+        {
+            onTimerExpired(event.getReactor());
+        }
+    };
+
+    /**
+     * Constructor
+     * @param sasTokenProvider The provider of the SAS token, or null if the token is never renewed
+     * @param renewal The renewal of the connection, run on the reactor thread when the token is due for renewal
+     */
+    AmqpRenewalTimer(IotHubServiceSasTokenProvider sasTokenProvider, Consumer<Reactor> renewal)
+    {
+        this.sasTokenProvider = sasTokenProvider;
+        this.renewal = renewal;
+    }
+
+    /**
+     * Schedule the renewal when the current token of the provider is due for renewal
+     * @param reactor The running reactor
+     */
+    void schedule(Reactor reactor)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_001: [The function shall do nothing if there is no SAS token provider]
+        if (this.sasTokenProvider == null)
+        {
+            return;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_002: [The function shall schedule the timer for the time until the renewal of the token,
+        // at least MIN_RENEWAL_DELAY_MS and at most the largest delay of a reactor timer]
+        long delayMillis = Math.max(this.sasTokenProvider.getMillisUntilRenewal(), MIN_RENEWAL_DELAY_MS);
+        this.task = reactor.schedule((int)Math.min(delayMillis, Integer.MAX_VALUE), this.timerHandler);
+    }
+
+    /**
+     * Cancel the scheduled renewal, if any
+     */
+    void cancel()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_003: [The function shall cancel the scheduled timer, if any]
+        if (this.task != null)
+        {
+            this.task.cancel();
+            this.task = null;
+        }
+    }
+
+    private void onTimerExpired(Reactor reactor)
+    {
+        this.task = null;
+        if (this.sasTokenProvider.getMillisUntilRenewal() >= MIN_RENEWAL_DELAY_MS)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_004: [If the timer expires at least MIN_RENEWAL_DELAY_MS before the renewal time,
+            // the timer shall be scheduled again for the remaining time, without renewing]
+            schedule(reactor);
+        }
+        else
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_005: [Otherwise the timer shall run the renewal]
+            this.renewal.accept(reactor);
+        }
+    }
+}
@@ -5,6 +5,7 @@
 
 package com.microsoft.azure.sdk.iot.service.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
 import com.microsoft.azure.sdk.iot.service.sdk.Message;
 import com.microsoft.azure.sdk.iot.service.sdk.Tools;
@@ -26,6 +27,7 @@ public class AmqpSend extends BaseHandler
     protected final String hostName;
     protected final String userName;
     protected final String sasToken;
+    protected final IotHubServiceSasTokenProvider sasTokenProvider;
     protected Reactor reactor = null;
     protected AmqpSendHandler amqpSendHandler;
     protected IotHubServiceClientProtocol iotHubServiceClientProtocol;
@@ -56,9 +58,52 @@ public class AmqpSend extends BaseHandler
         this.hostName = hostName;
         this.userName = userName;
         this.sasToken = sasToken;
+        this.sasTokenProvider = null;
         this.iotHubServiceClientProtocol = iotHubServiceClientProtocol;
     }
 
+    /**
+     * Constructor to set up connection parameters, taking a new SAS token from the
+     * provider for every connection
+     * @param hostName The address string of the service (example: AAA.BBB.CCC)
+     * @param userName The username string to use SASL authentication (example: user@sas.service)
+     * @param sasTokenProvider The provider of the SAS token
+     * @param iotHubServiceClientProtocol protocol to use
+     */
+    public AmqpSend(String hostName, String userName, IotHubServiceSasTokenProvider sasTokenProvider, IotHubServiceClientProtocol iotHubServiceClientProtocol)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPSEND_21_010: [The constructor shall throw IllegalArgumentException if the hostName or the userName is null or empty, or if the sasTokenProvider is null]
+        if (Tools.isNullOrEmpty(hostName))
+        {
+            throw new IllegalArgumentException("hostName can not be null or empty");
+        }
+        if (Tools.isNullOrEmpty(userName))
+        {
+            throw new IllegalArgumentException("userName can not be null or empty");
+        }
+        if (sasTokenProvider == null)
+        {
+            throw new IllegalArgumentException("sasTokenProvider can not be null");
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPSEND_21_011: [The constructor shall copy all input parameters to private member variables for event processing]
+        this.hostName = hostName;
+        this.userName = userName;
+        this.sasToken = null;
+        this.sasTokenProvider = sasTokenProvider;
+        this.iotHubServiceClientProtocol = iotHubServiceClientProtocol;
+    }
+
+    /**
+     * Get the SAS token for a new connection
+     * @return The SAS token given to the constructor, or the current token of the provider
+     */
+    protected String getSasToken()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_AMQPSEND_21_012: [The function shall return the current token of the provider if there is one, or the SAS token given to the constructor]
+        return (this.sasTokenProvider != null) ? this.sasTokenProvider.getSasToken() : this.sasToken;
+    }
+
     /**
      * Event handler for the reactor init event
      * @param event The proton event object
@@ -78,11 +123,12 @@ public class AmqpSend extends BaseHandler
 
     /**
      * Create AmqpsSendHandler and store it in a member variable
+     * @throws IOException This exception is thrown if the sender could not be opened
      */
-    public void open()
+    public void open() throws IOException
     {
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPSEND_12_004: [The function shall create an AmqpsSendHandler object to handle reactor events]
-        amqpSendHandler = new AmqpSendHandler(this.hostName, this.userName, this.sasToken, this.iotHubServiceClientProtocol);
+        amqpSendHandler = new AmqpSendHandler(this.hostName, this.userName, getSasToken(), this.iotHubServiceClientProtocol);
     }
 
     /**
@@ -110,6 +156,11 @@ public class AmqpSend extends BaseHandler
         {
             try
             {
+                if (this.sasTokenProvider != null)
+                {
+                    // Codes_SRS_SERVICE_SDK_JAVA_AMQPSEND_21_013: [If there is a SAS token provider, the function shall create a new AmqpsSendHandler with its current token, as every send opens a new connection]
+                    amqpSendHandler = new AmqpSendHandler(this.hostName, this.userName, getSasToken(), this.iotHubServiceClientProtocol);
+                }
                 // Codes_SRS_SERVICE_SDK_JAVA_AMQPSEND_12_006: [The function shall create a binary message with the given content]
                     amqpSendHandler.createProtonMessage(deviceId, message);
                     // Codes_SRS_SERVICE_SDK_JAVA_AMQPSEND_12_007: [The function shall initialize the Proton reactor object]
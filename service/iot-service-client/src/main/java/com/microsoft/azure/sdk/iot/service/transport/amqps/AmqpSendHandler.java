@@ -110,9 +110,20 @@ public class AmqpSendHandler extends BaseHandler
      * @param message The message to be sent
      */
     public void createProtonMessage(String deviceId, Message message)
+    {
+        this.protonMessage = buildProtonMessage(deviceId, message);
+    }
+
+    /**
+     * Build a Proton message addressed to the given device without storing it on the handler
+     * @param deviceId The device name string
+     * @param message The message to be sent
+     * @return The created Proton message
+     */
+    protected org.apache.qpid.proton.message.Message buildProtonMessage(String deviceId, Message message)
     {
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_005: [The function shall create a new Message (Proton) object]
-        this.protonMessage = Proton.message();
+        org.apache.qpid.proton.message.Message protonMessage = Proton.message();
 
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_006: [The function shall set
         // the standard properties on the Proton Message object]
@@ -125,7 +136,7 @@ public class AmqpSendHandler extends BaseHandler
         {
             properties.setUserId(new Binary(message.getUserId().getBytes()));
         }
-        this.protonMessage.setProperties(properties);
+        protonMessage.setProperties(properties);
 
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_023: [The function shall set
         // the application properties on the Proton Message object]
@@ -137,7 +148,7 @@ public class AmqpSendHandler extends BaseHandler
                 applicationPropertiesMap.put(entry.getKey(), entry.getValue());
             }
             ApplicationProperties applicationProperties = new ApplicationProperties(applicationPropertiesMap);
-            this.protonMessage.setApplicationProperties(applicationProperties);
+            protonMessage.setApplicationProperties(applicationProperties);
         }
 
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_007: [The function shall create a Binary (Proton) object from the content string]
@@ -145,7 +156,8 @@ public class AmqpSendHandler extends BaseHandler
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_008: [The function shall create a data Section (Proton) object from the Binary]
         Section section = new Data(binary);
         // Codes_SRS_SERVICE_SDK_JAVA_AMQPSENDHANDLER_12_009: [The function shall set the Message body to the created data section]
-        this.protonMessage.setBody(section);
+        protonMessage.setBody(section);
+        return protonMessage;
     }
 
     /**
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.http;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends HTTPS requests asynchronously. An engine may be shared by several
+ * clients, and the client that creates it is responsible for closing it.
+ */
+public interface HttpEngine extends Closeable
+{
+    /**
+     * Sends the request without blocking the caller.
+     *
+     * @param request The request to send, built as for {@link HttpRequest#send()}.
+     * @return The future completed with the HTTPS response, or exceptionally
+     * with the IOException that {@link HttpRequest#send()} would have thrown.
+     * @throws IllegalArgumentException This exception is thrown if the request is null
+     */
+    CompletableFuture<HttpResponse> sendAsync(HttpRequest request);
+
+    /**
+     * Closes the engine. The requests that were not sent yet are completed
+     * with an IOException, and the requests sent afterwards fail the same way.
+     */
+    @Override
+    void close();
+}
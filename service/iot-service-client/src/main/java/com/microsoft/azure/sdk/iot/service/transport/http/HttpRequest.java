@@ -8,6 +8,7 @@ package com.microsoft.azure.sdk.iot.service.transport.http;
 import com.microsoft.azure.sdk.iot.service.transport.TransportUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +17,8 @@ public class HttpRequest
 {
     /** The underlying HTTPS connection stream. */
     protected final HttpConnection connection;
+    /** The URL the request is sent to. */
+    private final URL url;
 
     /**
      * Constructor. Takes a URL as an argument and returns an HTTPS request that
@@ -36,6 +39,7 @@ public class HttpRequest
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_12_003: [The function shall use the given HTTPS method (i.e. GET) as the request method.]
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_12_004: [If an IOException occurs in setting up the HTTPS connection, the function shall throw an IOException.]
         this.connection = new HttpConnection(url, method);
+        this.url = url;
         this.connection.setRequestHeader("User-Agent", TransportUtils.javaServiceClientIdentifier + TransportUtils.serviceVersion);
         // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_12_002: [The function shall write the body to the connection.]
         this.connection.writeOutput(body);
@@ -87,6 +91,58 @@ public class HttpRequest
                 errorReason);
     }
 
+    /**
+     * Executes the HTTPS request without reading the response body, so that
+     * large responses can be parsed directly from {@link #getResponseStream()}.
+     * If the response has a bad status code, the error reason is read as in
+     * {@link #send()}.
+     *
+     * @return The HTTPS response, with an empty body.
+     *
+     * @throws IOException This exception thrown if the connection could not be
+     * established, or the input/output streams could not be accessed.
+     */
+    public HttpResponse sendStreaming() throws IOException
+    {
+        int responseStatus;
+        byte[] errorReason = new byte[0];
+        Map<String, List<String>> headerFields;
+        try
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_011: [The function shall send an HTTPS request as formatted in the constructor, and shall not read the response body.]
+            this.connection.connect();
+
+            responseStatus = this.connection.getResponseStatus();
+            headerFields = this.connection.getResponseHeaders();
+        }
+        catch (IOException e)
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_012: [If the client cannot connect to the server, the function shall throw an IOException. If an I/O exception occurs because of a bad response status code, the function shall read the error stream into the error reason of the response.]
+            responseStatus = this.connection.getResponseStatus();
+            headerFields = this.connection.getResponseHeaders();
+            errorReason = this.connection.readError();
+        }
+
+        return new HttpResponse(responseStatus, new byte[0], headerFields,
+                errorReason);
+    }
+
+    /**
+     * Getter for the response stream of a request sent with
+     * {@link #sendStreaming()}. The caller must close the stream once it has
+     * been read, so that the underlying HTTPS connection can be reused.
+     *
+     * @return The response stream.
+     *
+     * @throws IOException This exception thrown if the response stream could
+     * not be accessed.
+     */
+    public InputStream getResponseStream() throws IOException
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_013: [The function shall return the input stream of the connection without reading it.]
+        return this.connection.getInputStream();
+    }
+
     /**
      * Sets the header field to the given value.
      *
@@ -118,8 +174,20 @@ public class HttpRequest
         return this;
     }
 
+    /**
+     * Getter for the URL the request is sent to.
+     *
+     * @return The URL of the request.
+     */
+    public URL getUrl()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_014: [The function shall return the URL given in the constructor.]
+        return this.url;
+    }
+
     protected HttpRequest()
     {
         this.connection = null;
+        this.url = null;
     }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.http;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link HttpEngine} which sends at most maxConnectionsPerHost requests at a
+ * time to each host, and queues the other requests until a connection is free.
+ * <p>
+ * The queued requests only hold their future, so thousands of requests can be
+ * in flight while the number of threads sending them is bounded by the number
+ * of connections. The requests are sent over HttpsURLConnection, whose
+ * keep-alive cache keeps http.maxConnections idle connections per host, so by
+ * default each free connection is reused by the next queued request.
+ */
+public class PooledHttpEngine implements HttpEngine
+{
+    /** The default number of requests sent at a time to each host, which matches the keep-alive cache of HttpsURLConnection. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = Integer.getInteger("http.maxConnections", 5);
+
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final int maxConnectionsPerHost;
+    private final ConcurrentHashMap<String, HostConnections> hosts = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor. The requests are sent by threads of a cached pool owned by
+     * the engine, which is shut down when the engine is closed.
+     */
+    public PooledHttpEngine()
+    {
+        this(null, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param executor The executor which sends the requests, or null to use a
+     * cached pool owned by the engine. An executor given by the caller is not
+     * shut down when the engine is closed.
+     * @param maxConnectionsPerHost The maximum number of requests sent at a time to each host
+     * @throws IllegalArgumentException This exception is thrown if maxConnectionsPerHost is less than 1
+     */
+    public PooledHttpEngine(Executor executor, int maxConnectionsPerHost)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_001: [The constructor shall throw IllegalArgumentException if maxConnectionsPerHost is less than 1]
+        if (maxConnectionsPerHost < 1)
+        {
+            throw new IllegalArgumentException("maxConnectionsPerHost cannot be less than 1");
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_002: [If the executor is null, the constructor shall create a cached thread pool to send the requests]
+        if (executor == null)
+        {
+            this.ownedExecutor = Executors.newCachedThreadPool();
+            this.executor = this.ownedExecutor;
+        }
+        else
+        {
+            this.ownedExecutor = null;
+            this.executor = executor;
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Queues the request for its host, and sends it as soon as less than
+     * maxConnectionsPerHost requests are being sent to the host.
+     *
+     * @param request The request to send
+     * @return The future completed with the HTTPS response
+     * @throws IllegalArgumentException This exception is thrown if the request is null
+     */
+    @Override
+    public CompletableFuture<HttpResponse> sendAsync(HttpRequest request)
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_003: [The function shall throw IllegalArgumentException if the request is null]
+        if (request == null)
+        {
+            throw new IllegalArgumentException("request cannot be null");
+        }
+
+        CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+        // Codes_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_004: [If the engine is closed, the function shall return a future completed with an IOException]
+        if (closed)
+        {
+            future.completeExceptionally(new IOException("The HTTP engine is closed"));
+            return future;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_005: [The function shall queue the request for the host and port of its URL, and send it on the executor once less than maxConnectionsPerHost requests are being sent to that host]
+        HostConnections connections = hosts.computeIfAbsent(hostOf(request.getUrl()), host -> new HostConnections());
+        connections.pending.add(new PendingRequest(request, future));
+        sendPending(connections);
+
+        // close() may have run before the request was queued.
+        if (closed)
+        {
+            failPending(connections);
+        }
+        return future;
+    }
+
+    /**
+     * Closes the engine, completing the queued requests with an IOException.
+     * The requests being sent are completed normally, and the cached pool
+     * owned by the engine, if any, is shut down once they are sent.
+     */
+    @Override
+    public void close()
+    {
+        // Codes_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_008: [The function shall complete the queued requests with an IOException, and shut down the thread pool created by the constructor but not the executor given by the caller]
+        closed = true;
+        for (HostConnections connections : hosts.values())
+        {
+            failPending(connections);
+        }
+        if (ownedExecutor != null)
+        {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private void sendPending(HostConnections connections)
+    {
+        while (!connections.pending.isEmpty())
+        {
+            int active = connections.active.get();
+            if (active >= maxConnectionsPerHost)
+            {
+                // The request that frees the connection sends the next one.
+                return;
+            }
+            if (!connections.active.compareAndSet(active, active + 1))
+            {
+                continue;
+            }
+
+            PendingRequest next = connections.pending.poll();
+            if (next == null)
+            {
+                // Another thread sent it; release the connection and check the queue again.
+                connections.active.decrementAndGet();
+                continue;
+            }
+
+            try
+            {
+                executor.execute(() -> send(connections, next));
+            }
+            catch (RejectedExecutionException e)
+            {
+                connections.active.decrementAndGet();
+                next.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void send(HostConnections connections, PendingRequest pendingRequest)
+    {
+        HttpResponse response = null;
+        Throwable failure = null;
+        try
+        {
+            // Codes_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_006: [The request shall be sent with HttpRequest.send(), and its future completed with the response or the exception thrown]
+            response = pendingRequest.request.send();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            failure = e;
+        }
+
+        // Codes_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_007: [Once a request is sent, the engine shall send the next request queued for the host before completing its future]
+        connections.active.decrementAndGet();
+        sendPending(connections);
+
+        if (failure == null)
+        {
+            pendingRequest.future.complete(response);
+        }
+        else
+        {
+            pendingRequest.future.completeExceptionally(failure);
+        }
+    }
+
+    private static void failPending(HostConnections connections)
+    {
+        PendingRequest pendingRequest;
+        while ((pendingRequest = connections.pending.poll()) != null)
+        {
+            pendingRequest.future.completeExceptionally(new IOException("The HTTP engine is closed"));
+        }
+    }
+
+    private static String hostOf(URL url)
+    {
+        return url.getHost() + ":" + url.getPort();
+    }
+
+    private static final class HostConnections
+    {
+        private final Queue<PendingRequest> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger active = new AtomicInteger(0);
+    }
+
+    private static final class PendingRequest
+    {
+        private final HttpRequest request;
+        private final CompletableFuture<HttpResponse> future;
+
+        private PendingRequest(HttpRequest request, CompletableFuture<HttpResponse> future)
+        {
+            this.request = request;
+            this.future = future;
+        }
+    }
+}
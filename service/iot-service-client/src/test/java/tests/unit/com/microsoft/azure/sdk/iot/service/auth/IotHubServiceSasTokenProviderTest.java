@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.auth;
+
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubConnectionString;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IotHubServiceSasTokenProviderTest
+{
+    @Mocked
+    IotHubConnectionString iotHubConnectionString;
+    @Mocked
+    IotHubServiceSasToken iotHubServiceSasToken;
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_001: [The constructor shall throw IllegalArgumentException if the
+    // connection string is null, if tokenValidSecs is less than 1, or if renewalRatio is not greater than 0 and not greater than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void constructor_input_null()
+    {
+        // Act
+        new IotHubServiceSasTokenProvider(null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_001: [The constructor shall throw IllegalArgumentException if the
+    // connection string is null, if tokenValidSecs is less than 1, or if renewalRatio is not greater than 0 and not greater than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void constructor_tokenValidSecs_zero()
+    {
+        // Act
+        new IotHubServiceSasTokenProvider(iotHubConnectionString, 0, 0.75);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_001: [The constructor shall throw IllegalArgumentException if the
+    // connection string is null, if tokenValidSecs is less than 1, or if renewalRatio is not greater than 0 and not greater than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void constructor_renewalRatio_above_one()
+    {
+        // Act
+        new IotHubServiceSasTokenProvider(iotHubConnectionString, 3600, 1.5);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_002: [The function shall build a new token if there is
+    // no token yet, or if the renewal time of the current token has come]
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_004: [The function shall return the current token]
+    @Test
+    public void getSasToken_reuses_token_until_renewal_time()
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                iotHubServiceSasToken.toString();
+                returns("first-token", "second-token");
+            }
+        };
+        IotHubServiceSasTokenProvider provider = new IotHubServiceSasTokenProvider(iotHubConnectionString);
+
+        // Act
+        String firstToken = provider.getSasToken();
+        String secondToken = provider.getSasToken();
+
+        // Assert
+        assertEquals("first-token", firstToken);
+        assertEquals("first-token", secondToken);
+        new Verifications()
+        {
+            {
+                new IotHubServiceSasToken(iotHubConnectionString, IotHubServiceSasTokenProvider.DEFAULT_TOKEN_VALID_SECS);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_002: [The function shall build a new token if there is
+    // no token yet, or if the renewal time of the current token has come]
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_003: [The new token shall expire tokenValidSecs seconds
+    // from now, and shall be renewed after renewalRatio of tokenValidSecs has elapsed]
+    @Test
+    public void getSasToken_builds_new_token_once_renewal_time_has_come()
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                iotHubServiceSasToken.toString();
+                returns("first-token", "second-token");
+            }
+        };
+        IotHubServiceSasTokenProvider provider = new IotHubServiceSasTokenProvider(iotHubConnectionString, 100, 0.5);
+        long startMillis = System.currentTimeMillis();
+        provider.getSasToken();
+        long renewalTimeMillis = Deencapsulation.getField(provider, "renewalTimeMillis");
+        assertTrue(renewalTimeMillis >= startMillis + 50000);
+        assertTrue(renewalTimeMillis <= System.currentTimeMillis() + 50000);
+        Deencapsulation.setField(provider, "renewalTimeMillis", startMillis - 1);
+
+        // Act
+        String secondToken = provider.getSasToken();
+
+        // Assert
+        assertEquals("second-token", secondToken);
+        new Verifications()
+        {
+            {
+                new IotHubServiceSasToken(iotHubConnectionString, 100);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_005: [The function shall return the number of milliseconds
+    // before the renewal time of the current token, building one if there is none, and 0 if the renewal time has come]
+    @Test
+    public void getMillisUntilRenewal_builds_token_and_returns_time_left()
+    {
+        // Arrange
+        IotHubServiceSasTokenProvider provider = new IotHubServiceSasTokenProvider(iotHubConnectionString, 100, 0.5);
+
+        // Act
+        long millisUntilRenewal = provider.getMillisUntilRenewal();
+        Deencapsulation.setField(provider, "renewalTimeMillis", 0L);
+        long millisAfterRenewalTime = provider.getMillisUntilRenewal();
+
+        // Assert
+        assertTrue(millisUntilRenewal > 0 && millisUntilRenewal <= 50000);
+        assertEquals(0, millisAfterRenewalTime);
+        new Verifications()
+        {
+            {
+                new IotHubServiceSasToken(iotHubConnectionString, 100);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_006: [The function shall throw IllegalArgumentException if tokenValidSecs is less than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void setTokenValidSecs_zero()
+    {
+        // Arrange
+        IotHubServiceSasTokenProvider provider = new IotHubServiceSasTokenProvider(iotHubConnectionString);
+
+        // Act
+        provider.setTokenValidSecs(0);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKENPROVIDER_21_007: [The function shall save tokenValidSecs and discard the current token]
+    @Test
+    public void setTokenValidSecs_discards_current_token()
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                iotHubServiceSasToken.toString();
+                returns("first-token", "second-token");
+            }
+        };
+        IotHubServiceSasTokenProvider provider = new IotHubServiceSasTokenProvider(iotHubConnectionString);
+        provider.getSasToken();
+
+        // Act
+        provider.setTokenValidSecs(600);
+        String secondToken = provider.getSasToken();
+
+        // Assert
+        assertEquals("second-token", secondToken);
+        assertEquals(600, provider.getTokenValidSecs());
+        new Verifications()
+        {
+            {
+                new IotHubServiceSasToken(iotHubConnectionString, 600);
+                times = 1;
+            }
+        };
+    }
+}
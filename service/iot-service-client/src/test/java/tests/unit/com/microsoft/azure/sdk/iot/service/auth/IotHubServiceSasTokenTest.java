@@ -126,4 +126,36 @@ public class IotHubServiceSasTokenTest
         Deencapsulation.setField(iotHubConnectionString, "hostName", null);
         IotHubServiceSasToken iotHubServiceSasToken = new IotHubServiceSasToken(iotHubConnectionString);
     }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKEN_21_009: [The constructor shall throw IllegalArgumentException if tokenValidSecs is less than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void constructor_tokenValidSecs_zero() throws Exception
+    {
+        // Arrange
+        String connectionString = "HostName=HOSTNAME.b.c.d;SharedAccessKeyName=ACCESSKEYNAME;SharedAccessKey=1234567890abcdefghijklmnopqrstvwxyz=";
+        IotHubConnectionString iotHubConnectionString = IotHubConnectionStringBuilder.createConnectionString(connectionString);
+
+        // Act
+        new IotHubServiceSasToken(iotHubConnectionString, 0);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBSERVICESASTOKEN_21_010: [The token shall expire tokenValidSecs seconds from now, or one year from now if no tokenValidSecs is given]
+    @Test
+    public void constructor_tokenValidSecs_sets_expiry() throws Exception
+    {
+        // Arrange
+        String connectionString = "HostName=HOSTNAME.b.c.d;SharedAccessKeyName=ACCESSKEYNAME;SharedAccessKey=1234567890abcdefghijklmnopqrstvwxyz=";
+        IotHubConnectionString iotHubConnectionString = IotHubConnectionStringBuilder.createConnectionString(connectionString);
+        long startSecs = System.currentTimeMillis() / 1000;
+
+        // Act
+        IotHubServiceSasToken iotHubServiceSasToken = new IotHubServiceSasToken(iotHubConnectionString, 3600);
+
+        // Assert
+        long expiryTime = Deencapsulation.getField(iotHubServiceSasToken, "expiryTime");
+        assertEquals(true, expiryTime >= startSecs + 3600);
+        assertEquals(true, expiryTime <= System.currentTimeMillis() / 1000 + 3600);
+        assertEquals(true, iotHubServiceSasToken.toString().contains("&se=" + expiryTime));
+    }
 }
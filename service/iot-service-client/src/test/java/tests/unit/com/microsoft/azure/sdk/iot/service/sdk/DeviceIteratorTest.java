@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.sdk;
+
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubNotFoundException;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpRequest;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpResponse;
+import mockit.*;
+import mockit.integration.junit4.JMockit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JMockit.class)
+public class DeviceIteratorTest
+{
+    @Mocked
+    RegistryManager mockRegistryManager;
+    @Mocked
+    HttpRequest mockHttpRequest;
+    @Mocked
+    HttpResponse mockHttpResponse;
+    @Mocked
+    IotHubExceptionManager mockIotHubExceptionManager;
+
+    private static final String FIRST_PAGE_JSON = "[" +
+            "{\"deviceId\":\"device1\",\"etag\":\"AAAAAAAAAAE=\",\"status\":\"enabled\",\"statusUpdateTime\":\"0001-01-01T00:00:00\"," +
+            "\"connectionState\":\"Disconnected\",\"lastActivityTime\":\"0001-01-01T00:00:00\",\"cloudToDeviceMessageCount\":0," +
+            "\"properties\":{\"desired\":{},\"reported\":{}}}," +
+            "{\"deviceId\":\"device2\",\"etag\":\"AAAAAAAAAAE=\",\"status\":\"disabled\",\"statusUpdateTime\":\"0001-01-01T00:00:00\"," +
+            "\"connectionState\":\"Connected\",\"lastActivityTime\":\"0001-01-01T00:00:00\",\"cloudToDeviceMessageCount\":3," +
+            "\"properties\":{\"desired\":{},\"reported\":{}}}]";
+
+    private static final String SECOND_PAGE_JSON = "[" +
+            "{\"deviceId\":\"device3\",\"etag\":\"AAAAAAAAAAE=\",\"status\":\"enabled\",\"statusUpdateTime\":\"0001-01-01T00:00:00\"," +
+            "\"connectionState\":\"Disconnected\",\"lastActivityTime\":\"0001-01-01T00:00:00\",\"cloudToDeviceMessageCount\":0," +
+            "\"properties\":{\"desired\":{},\"reported\":{}}}]";
+
+    private static InputStream toStream(String json)
+    {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> continuation(String token)
+    {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("x-ms-continuation", token);
+        return headers;
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_001: [The constructor shall throw IllegalArgumentException if the registryManager is null or the pageSize is less than 1]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_null_registryManager_throw() throws Exception
+    {
+        new DeviceIterator(null, 10);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_001: [The constructor shall throw IllegalArgumentException if the registryManager is null or the pageSize is less than 1]
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_pageSize_zero_throw() throws Exception
+    {
+        new DeviceIterator(mockRegistryManager, 0);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_002: [The function shall query the next page of devices with the continuation token of the previous page, if any]
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_003: [The function shall save the continuation token of the page, and read the page as a JSON array from the response stream]
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_005: [The function shall return false once the last page, which has no continuation token, has been read]
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_008: [The function shall parse the next device from the response stream of the current page]
+    @Test
+    public void iterator_follows_continuation_tokens_across_pages() throws Exception
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(anyInt, anyString);
+                result = mockHttpRequest;
+                mockHttpRequest.sendStreaming();
+                result = mockHttpResponse;
+                mockHttpResponse.getHeaderFields();
+                returns(continuation("token1"), Collections.<String, String>emptyMap());
+                mockHttpRequest.getResponseStream();
+                returns(toStream(FIRST_PAGE_JSON), toStream(SECOND_PAGE_JSON));
+            }
+        };
+        DeviceIterator deviceIterator = new DeviceIterator(mockRegistryManager, 2);
+        // Act
+        List<Device> devices = new ArrayList<>();
+        while (deviceIterator.hasNext())
+        {
+            devices.add(deviceIterator.next());
+        }
+        // Assert
+        assertEquals(3, devices.size());
+        assertEquals("device1", devices.get(0).getDeviceId());
+        assertEquals(DeviceStatus.Enabled, devices.get(0).getStatus());
+        assertEquals("device2", devices.get(1).getDeviceId());
+        assertEquals(DeviceStatus.Disabled, devices.get(1).getStatus());
+        assertEquals(3, devices.get(1).getCloudToDeviceMessageCount());
+        assertEquals("device3", devices.get(2).getDeviceId());
+        assertNull(devices.get(2).getSymmetricKey());
+        assertFalse(deviceIterator.hasNext());
+        new VerificationsInOrder()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(2, null);
+                times = 1;
+                mockRegistryManager.CreateDeviceQueryRequest(2, "token1");
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_002: [The function shall query the next page of devices with the continuation token of the previous page, if any]
+    @Test
+    public void iterator_skips_empty_page_with_continuation_token() throws Exception
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(anyInt, anyString);
+                result = mockHttpRequest;
+                mockHttpRequest.sendStreaming();
+                result = mockHttpResponse;
+                mockHttpResponse.getHeaderFields();
+                returns(continuation("token1"), Collections.<String, String>emptyMap());
+                mockHttpRequest.getResponseStream();
+                returns(toStream("[]"), toStream(SECOND_PAGE_JSON));
+            }
+        };
+        DeviceIterator deviceIterator = new DeviceIterator(mockRegistryManager, 2);
+        // Act
+        Device device = deviceIterator.next();
+        // Assert
+        assertEquals("device3", device.getDeviceId());
+        assertFalse(deviceIterator.hasNext());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_004: [When the current page has been read, the function shall close its response stream]
+    @Test
+    public void hasNext_closes_stream_of_read_page(@Mocked final InputStream mockStream) throws Exception
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(anyInt, anyString);
+                result = mockHttpRequest;
+                mockHttpRequest.sendStreaming();
+                result = mockHttpResponse;
+                mockHttpResponse.getHeaderFields();
+                result = Collections.<String, String>emptyMap();
+                mockHttpRequest.getResponseStream();
+                result = mockStream;
+                mockStream.read((byte[]) any, anyInt, anyInt);
+                result = new Delegate()
+                {
+                    private boolean read = false;
+
+                    int read(byte[] buffer, int offset, int length)
+                    {
+                        if (read)
+                        {
+                            return -1;
+                        }
+                        read = true;
+                        buffer[offset] = '[';
+                        buffer[offset + 1] = ']';
+                        return 2;
+                    }
+                };
+            }
+        };
+        DeviceIterator deviceIterator = new DeviceIterator(mockRegistryManager, 2);
+        // Act
+        boolean hasNext = deviceIterator.hasNext();
+        // Assert
+        assertFalse(hasNext);
+        new Verifications()
+        {
+            {
+                mockStream.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_006: [If the page could not be received or read, the function shall close the iterator and throw an UncheckedIOException]
+    @Test
+    public void hasNext_rejected_query_throws_UncheckedIOException() throws Exception
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(anyInt, anyString);
+                result = mockHttpRequest;
+                mockHttpRequest.sendStreaming();
+                result = mockHttpResponse;
+                IotHubExceptionManager.httpResponseVerification(mockHttpResponse);
+                result = new IotHubNotFoundException();
+            }
+        };
+        DeviceIterator deviceIterator = new DeviceIterator(mockRegistryManager, 2);
+        // Act
+        try
+        {
+            deviceIterator.hasNext();
+            fail("hasNext shall throw UncheckedIOException");
+        }
+        catch (UncheckedIOException e)
+        {
+            // Assert
+            assertTrue(e.getCause().getCause() instanceof IotHubNotFoundException);
+        }
+        assertFalse(deviceIterator.hasNext());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_006: [If the page could not be received or read, the function shall close the iterator and throw an UncheckedIOException]
+    @Test(expected = UncheckedIOException.class)
+    public void hasNext_send_failure_throws_UncheckedIOException() throws Exception
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(anyInt, anyString);
+                result = mockHttpRequest;
+                mockHttpRequest.sendStreaming();
+                result = new IOException();
+            }
+        };
+        DeviceIterator deviceIterator = new DeviceIterator(mockRegistryManager, 2);
+        // Act
+        deviceIterator.hasNext();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_007: [The function shall throw NoSuchElementException if there are no more devices]
+    @Test(expected = NoSuchElementException.class)
+    public void next_no_more_devices_throws() throws Exception
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(anyInt, anyString);
+                result = mockHttpRequest;
+                mockHttpRequest.sendStreaming();
+                result = mockHttpResponse;
+                mockHttpResponse.getHeaderFields();
+                result = Collections.<String, String>emptyMap();
+                mockHttpRequest.getResponseStream();
+                result = toStream("[]");
+            }
+        };
+        DeviceIterator deviceIterator = new DeviceIterator(mockRegistryManager, 2);
+        // Act
+        deviceIterator.next();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_DEVICEITERATOR_21_009: [The function shall close the response stream of the current page and stop the iteration]
+    @Test
+    public void close_stops_iteration_before_next_page() throws Exception
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(anyInt, anyString);
+                result = mockHttpRequest;
+                mockHttpRequest.sendStreaming();
+                result = mockHttpResponse;
+                mockHttpResponse.getHeaderFields();
+                result = continuation("token1");
+                mockHttpRequest.getResponseStream();
+                result = toStream(FIRST_PAGE_JSON);
+            }
+        };
+        DeviceIterator deviceIterator = new DeviceIterator(mockRegistryManager, 2);
+        deviceIterator.next();
+        // Act
+        deviceIterator.close();
+        // Assert
+        assertFalse(deviceIterator.hasNext());
+        new Verifications()
+        {
+            {
+                mockRegistryManager.CreateDeviceQueryRequest(anyInt, anyString);
+                times = 1;
+            }
+        };
+    }
+}
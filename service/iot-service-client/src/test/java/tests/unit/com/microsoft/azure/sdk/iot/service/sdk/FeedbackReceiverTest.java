@@ -5,21 +5,35 @@
 
 package com.microsoft.azure.sdk.iot.service.sdk;
 
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import com.microsoft.azure.sdk.iot.service.transport.amqps.AmqpPersistentReceive;
 import com.microsoft.azure.sdk.iot.service.transport.amqps.AmqpReceive;
 import mockit.Deencapsulation;
 import mockit.Expectations;
 import mockit.Mocked;
+import mockit.Verifications;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class FeedbackReceiverTest
 {
     @Mocked
     AmqpReceive amqpReceive;
+    @Mocked
+    AmqpPersistentReceive amqpPersistentReceive;
+
+    private final FeedbackBatchListener listener = feedbackBatch -> {};
+
+    private FeedbackReceiver createFeedbackReceiver()
+    {
+        return new FeedbackReceiver("xxx", "xxx", "xxx", IotHubServiceClientProtocol.AMQPS, "xxx");
+    }
 
     // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_12_001: [The constructor shall throw IllegalArgumentException if any the input string is null or empty]
     // Assert
@@ -401,4 +415,163 @@ public class FeedbackReceiverTest
         CompletableFuture<FeedbackBatch> completableFuture = feedbackReceiver.receiveAsync(timeoutMs);
         completableFuture.get();
     }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_016: [The function shall close the feedback subscription, if any]
+    @Test
+    public void close_closes_subscription() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        // Act
+        feedbackReceiver.close();
+        // Assert
+        new Verifications()
+        {
+            {
+                amqpPersistentReceive.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_015: [The constructor shall create a new instance of AmqpPersistentReceive object]
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_017: [The function shall call subscribe(FeedbackBatchListener, int) with the default maximum number of pending batches]
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_020: [The function shall call open() on the member AmqpPersistentReceive object with the listener and maxPendingBatches]
+    @Test
+    public void subscribe_opens_persistent_receiver_with_default_pending_batches() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        // Act
+        feedbackReceiver.subscribe(listener);
+        // Assert
+        new Verifications()
+        {
+            {
+                new AmqpPersistentReceive("xxx", "xxx", "xxx", IotHubServiceClientProtocol.AMQPS);
+                times = 1;
+                amqpPersistentReceive.open(listener, 16);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_018: [The function shall throw IllegalArgumentException if the listener is null or maxPendingBatches is not positive]
+    @Test (expected = IllegalArgumentException.class)
+    public void subscribe_listener_null() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        // Act
+        feedbackReceiver.subscribe(null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_018: [The function shall throw IllegalArgumentException if the listener is null or maxPendingBatches is not positive]
+    @Test (expected = IllegalArgumentException.class)
+    public void subscribe_max_pending_batches_zero() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        // Act
+        feedbackReceiver.subscribe(listener, 0);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_019: [The function shall throw IOException if the member AmqpPersistentReceive object has not been initialized]
+    @Test (expected = IOException.class)
+    public void subscribe_persistent_receiver_null() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        Deencapsulation.setField(feedbackReceiver, "amqpPersistentReceive", null);
+        // Act
+        feedbackReceiver.subscribe(listener, 4);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_021: [The function shall throw IOException if the member AmqpPersistentReceive object has not been initialized]
+    @Test (expected = IOException.class)
+    public void unsubscribe_persistent_receiver_null() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        Deencapsulation.setField(feedbackReceiver, "amqpPersistentReceive", null);
+        // Act
+        feedbackReceiver.unsubscribe();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_022: [The function shall call close() on the member AmqpPersistentReceive object]
+    @Test
+    public void unsubscribe_closes_persistent_receiver() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        // Act
+        feedbackReceiver.unsubscribe();
+        // Assert
+        new Verifications()
+        {
+            {
+                amqpPersistentReceive.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_025: [The function shall return true only if the member AmqpPersistentReceive object has been initialized and is open]
+    @Test
+    public void isSubscribed_returns_state_of_persistent_receiver() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        new Expectations()
+        {
+            {
+                amqpPersistentReceive.isOpen();
+                returns(true, false);
+            }
+        };
+        // Act & Assert
+        assertTrue(feedbackReceiver.isSubscribed());
+        assertFalse(feedbackReceiver.isSubscribed());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_025: [The function shall return true only if the member AmqpPersistentReceive object has been initialized and is open]
+    @Test
+    public void isSubscribed_persistent_receiver_null() throws Exception
+    {
+        // Arrange
+        FeedbackReceiver feedbackReceiver = createFeedbackReceiver();
+        Deencapsulation.setField(feedbackReceiver, "amqpPersistentReceive", null);
+        // Act & Assert
+        assertFalse(feedbackReceiver.isSubscribed());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_023: [The constructor shall throw IllegalArgumentException if any the input string is null or empty, or if the sasTokenProvider is null]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void constructor_input_sasTokenProvider_null() throws Exception
+    {
+        // Arrange
+        IotHubServiceSasTokenProvider sasTokenProvider = null;
+        // Act
+        new FeedbackReceiver("xxx", "xxx", sasTokenProvider, IotHubServiceClientProtocol.AMQPS, "xxx");
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_FEEDBACKRECEIVER_21_024: [The constructor shall create new instances of AmqpReceive and AmqpPersistentReceive objects with the sasTokenProvider]
+    @Test
+    public void constructor_with_sasTokenProvider_creates_receivers(@Mocked IotHubServiceSasTokenProvider sasTokenProvider) throws Exception
+    {
+        // Act
+        FeedbackReceiver feedbackReceiver = new FeedbackReceiver("aaa", "bbb", sasTokenProvider, IotHubServiceClientProtocol.AMQPS_WS, "ddd");
+        // Assert
+        assertEquals("ddd", Deencapsulation.getField(feedbackReceiver, "deviceId"));
+        new Verifications()
+        {
+            {
+                new AmqpReceive("aaa", "bbb", sasTokenProvider, IotHubServiceClientProtocol.AMQPS_WS);
+                times = 1;
+                new AmqpPersistentReceive("aaa", "bbb", sasTokenProvider, IotHubServiceClientProtocol.AMQPS_WS);
+                times = 1;
+            }
+        };
+    }
 }
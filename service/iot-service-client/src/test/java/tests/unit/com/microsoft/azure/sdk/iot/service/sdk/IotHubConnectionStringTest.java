@@ -5,6 +5,7 @@
 
 package com.microsoft.azure.sdk.iot.service.sdk;
 
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import mockit.integration.junit4.JMockit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -12,6 +13,9 @@ import org.junit.runner.RunWith;
 import java.net.URL;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(JMockit.class)
 public class IotHubConnectionStringTest
@@ -168,6 +172,61 @@ public class IotHubConnectionStringTest
         assertEquals("Device Statistics mismatch!", expected, actual);
     }
 
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBCONNECTIONSTRING_21_010: [The function shall create a URL object from the object properties using the following format: https:hostname/devices?api-version=201X-XX-XX]
+    @Test
+    public void getUrlBulkRegistryOperation_good_case() throws Exception
+    {
+        // Arrange
+        String iotHubName = "b.c.d";
+        String hostName = "HOSTNAME." + iotHubName;
+        String sharedAccessKeyName = "ACCESSKEYNAME";
+        String policyName = "SharedAccessKey";
+        String sharedAccessKey = "1234567890abcdefghijklmnopqrstvwxyz=";
+        String connectionString = "HostName=" + hostName + ";SharedAccessKeyName=" + sharedAccessKeyName + ";" + policyName + "=" + sharedAccessKey;
+        IotHubConnectionString iotHubConnectionString = IotHubConnectionStringBuilder.createConnectionString(connectionString);
+        String expected = "https://HOSTNAME.b.c.d/devices?api-version=2016-02-03";
+        // Act
+        String actual = iotHubConnectionString.getUrlBulkRegistryOperation().toString();
+        // Assert
+        assertEquals("Bulk registry URL mismatch!", expected, actual);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBCONNECTIONSTRING_21_011: [The function shall create a URL object from the object properties using the following format: https:hostname/devices/query?api-version=201X-XX-XX]
+    @Test
+    public void getUrlDeviceQuery_good_case() throws Exception
+    {
+        // Arrange
+        String iotHubName = "b.c.d";
+        String hostName = "HOSTNAME." + iotHubName;
+        String sharedAccessKeyName = "ACCESSKEYNAME";
+        String policyName = "SharedAccessKey";
+        String sharedAccessKey = "1234567890abcdefghijklmnopqrstvwxyz=";
+        String connectionString = "HostName=" + hostName + ";SharedAccessKeyName=" + sharedAccessKeyName + ";" + policyName + "=" + sharedAccessKey;
+        IotHubConnectionString iotHubConnectionString = IotHubConnectionStringBuilder.createConnectionString(connectionString);
+        String expected = "https://HOSTNAME.b.c.d/devices/query?api-version=2016-11-14";
+        // Act
+        String actual = iotHubConnectionString.getUrlDeviceQuery().toString();
+        // Assert
+        assertEquals("Device query URL mismatch!", expected, actual);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBCONNECTIONSTRING_21_012: [The function shall create an IotHubServiceSasTokenProvider
+    // for the connection string on the first call, and return the same one on every call]
+    @Test
+    public void getSasTokenProvider_returns_same_provider() throws Exception
+    {
+        // Arrange
+        String connectionString = "HostName=HOSTNAME.b.c.d;SharedAccessKeyName=ACCESSKEYNAME;SharedAccessKey=1234567890abcdefghijklmnopqrstvwxyz=";
+        IotHubConnectionString iotHubConnectionString = IotHubConnectionStringBuilder.createConnectionString(connectionString);
+        // Act
+        IotHubServiceSasTokenProvider firstProvider = iotHubConnectionString.getSasTokenProvider();
+        IotHubServiceSasTokenProvider secondProvider = iotHubConnectionString.getSasTokenProvider();
+        // Assert
+        assertNotNull(firstProvider);
+        assertSame(firstProvider, secondProvider);
+        assertTrue(firstProvider.getSasToken().startsWith("SharedAccessSignature sr=hostname.b.c.d&sig="));
+    }
+
     // Tests_SRS_SERVICE_SDK_JAVA_IOTHUBCONNECTIONSTRING_12_007: [The function shall serialize the object to a string using the following format: HostName=HOSTNAME.b.c.d;SharedAccessKeyName=ACCESSKEYNAME;SharedAccessKey=1234567890abcdefghijklmnopqrstvwxyz=;SharedAccessSignature=]
     @Test
     public void toString_good_case() throws Exception
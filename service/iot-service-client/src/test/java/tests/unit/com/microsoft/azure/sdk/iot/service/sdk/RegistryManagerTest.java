@@ -5,12 +5,17 @@
 
 package com.microsoft.azure.sdk.iot.service.sdk;
 
-import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubExceptionManager;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubNotFoundException;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubServerBusyException;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubTooManyRequestsException;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpEngine;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpMethod;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpRequest;
 import com.microsoft.azure.sdk.iot.service.transport.http.HttpResponse;
+import com.microsoft.azure.sdk.iot.service.transport.http.PooledHttpEngine;
 import mockit.*;
 import mockit.integration.junit4.JMockit;
 import org.junit.Test;
@@ -18,10 +23,21 @@ import org.junit.runner.RunWith;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(JMockit.class)
 public class RegistryManagerTest
@@ -33,7 +49,7 @@ public class RegistryManagerTest
     @Mocked
     HttpResponse mockHttpResponse;
     @Mocked
-    IotHubServiceSasToken iotHubServiceSasToken;
+    IotHubServiceSasTokenProvider mockSasTokenProvider;
     @Mocked
     IotHubExceptionManager mockIotHubExceptionManager;
     @Mocked
@@ -119,6 +135,136 @@ public class RegistryManagerTest
         assertNotEquals(null, Deencapsulation.getField(registryManager, "iotHubConnectionString"));
     }
 
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_107: [The constructor shall throw IllegalArgumentException if the httpEngine is null]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructor_http_engine_null() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+
+        RegistryManager.createFromConnectionString(connectionString, null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_108: [The constructor shall create the RegistryManager as createFromConnectionString(connectionString) does, and store the given HTTP engine]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_110: [The function shall close the HTTP engine created by the RegistryManager, but not the HTTP engine given by the caller]
+    @Test
+    public void constructor_http_engine_sends_async_operations_and_is_not_closed(@Mocked final HttpEngine mockHttpEngine) throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        String deviceId = "somedevice";
+        commonExpectations(connectionString, deviceId);
+        new NonStrictExpectations()
+        {
+            {
+                mockHttpEngine.sendAsync((HttpRequest) any);
+                result = CompletableFuture.completedFuture(mockHttpResponse);
+            }
+        };
+
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString, mockHttpEngine);
+        Device returnDevice = registryManager.getDeviceAsync(deviceId).get();
+        registryManager.close();
+
+        assertNotEquals(null, returnDevice);
+        new Verifications()
+        {
+            {
+                mockHttpEngine.sendAsync((HttpRequest) any);
+                times = 1;
+                mockHttpRequest.send();
+                times = 0;
+                mockHttpEngine.close();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_109: [If the RegistryManager has no HTTP engine, the function shall create a PooledHttpEngine which belongs to the RegistryManager]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_110: [The function shall close the HTTP engine created by the RegistryManager, but not the HTTP engine given by the caller]
+    @Test
+    public void open_creates_http_engine_and_close_closes_it(@Mocked final PooledHttpEngine mockPooledHttpEngine) throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        registryManager.open();
+        registryManager.open();
+        registryManager.close();
+        registryManager.close();
+
+        new Verifications()
+        {
+            {
+                new PooledHttpEngine();
+                times = 1;
+                mockPooledHttpEngine.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_111: [The async functions shall open the RegistryManager if it is not open, so that they do not need a call to open()]
+    @Test
+    public void async_operation_opens_registry_manager(@Mocked final PooledHttpEngine mockPooledHttpEngine) throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        String deviceId = "somedevice";
+        commonExpectations(connectionString, deviceId);
+        new NonStrictExpectations()
+        {
+            {
+                mockPooledHttpEngine.sendAsync((HttpRequest) any);
+                result = CompletableFuture.completedFuture(mockHttpResponse);
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        registryManager.getStatisticsAsync().get();
+        registryManager.removeDeviceAsync(deviceId).get();
+
+        new Verifications()
+        {
+            {
+                new PooledHttpEngine();
+                times = 1;
+                mockPooledHttpEngine.sendAsync((HttpRequest) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_112: [The async functions shall complete the future with the IOException of the request or the IotHubException of the response verification, without holding a thread while the request is pending]
+    @Test
+    public void async_operation_completes_with_verification_exception() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        String deviceId = "somedevice";
+        new NonStrictExpectations()
+        {
+            {
+                IotHubConnectionStringBuilder.createConnectionString(connectionString);
+                result = iotHubConnectionString;
+                IotHubExceptionManager.httpResponseVerification((HttpResponse) any);
+                result = new IotHubNotFoundException();
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        CompletableFuture<Device> completableFuture = registryManager.getDeviceAsync(deviceId);
+        try
+        {
+            completableFuture.get();
+            fail("getDeviceAsync shall complete exceptionally");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof IotHubNotFoundException);
+        }
+        finally
+        {
+            registryManager.close();
+        }
+    }
+
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_004: [The constructor shall throw IllegalArgumentException if the input device is null]
     // Assert
     @Test (expected = IllegalArgumentException.class)
@@ -132,7 +278,7 @@ public class RegistryManagerTest
 
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_005: [The function shall deserialize the given device object to Json string]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_006: [The function shall get the URL for the device]
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_007: [The function shall create a new SAS token for the device]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_007: [The function shall get the SAS token from the provider of the connection string]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_008: [The function shall create a new HttpRequest for adding the device to IotHub]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_009: [The function shall send the created request and get the response]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_010: [The function shall verify the response status and throw proper Exception]
@@ -142,12 +288,17 @@ public class RegistryManagerTest
     {
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         String deviceId = "somedevice";
+        String sasToken = "SharedAccessSignature sr=aaa.bbb.ccc&sig=SIG&se=1&skn=XXX";
 
         new NonStrictExpectations()
         {
             {
                 device.getDeviceId();
                 result = deviceId;
+                iotHubConnectionString.getSasTokenProvider();
+                result = mockSasTokenProvider;
+                mockSasTokenProvider.getSasToken();
+                result = sasToken;
             }
         };
 
@@ -158,6 +309,13 @@ public class RegistryManagerTest
         registryManager.close();
 
         commonVerifications(HttpMethod.PUT, deviceId, returnDevice);
+        new Verifications()
+        {
+            {
+                mockHttpRequest.setHeaderField("authorization", sasToken);
+                times = 1;
+            }
+        };
     }
 
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_012: [The function shall throw IllegalArgumentException if the input device is null]
@@ -171,7 +329,7 @@ public class RegistryManagerTest
         registryManager.addDeviceAsync(null);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_ REGISTRYMANAGER_12_013: [The function shall create an async wrapper around the addDevice() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_ REGISTRYMANAGER_12_013: [The function shall create the request as addDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
     @Test
     public void addDeviceAsync_future_return_ok() throws Exception
     {
@@ -194,24 +352,25 @@ public class RegistryManagerTest
         commonVerifications(HttpMethod.PUT, deviceId, returnDevice);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_ REGISTRYMANAGER_12_013: [The function shall create an async wrapper around the addDevice() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_ REGISTRYMANAGER_12_013: [The function shall create the request as addDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
     // Assert
-    @Test (expected = Exception.class)
+    @Test (expected = ExecutionException.class)
     public void addDeviceAsync_future_throw() throws Exception
     {
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public Device addDevice(Device device) throws IOException, IotHubException
             {
-                throw new IOException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
 
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
 
-        CompletableFuture<Device> completableFuture =  registryManager.addDeviceAsync(device);
+        CompletableFuture<Device> completableFuture = registryManager.addDeviceAsync(device);
         completableFuture.get();
     }
 
@@ -227,7 +386,7 @@ public class RegistryManagerTest
     }
 
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_015: [The function shall get the URL for the device]
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_016: [The function shall create a new SAS token for the device]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_016: [The function shall get the SAS token from the provider of the connection string]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_017: [The function shall create a new HttpRequest for getting a device from IotHub]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_018: [The function shall send the created request and get the response]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_019: [The function shall verify the response status and throw proper Exception]
@@ -257,7 +416,7 @@ public class RegistryManagerTest
         registryManager.getDeviceAsync(null);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_022: [The function shall create an async wrapper around the addDevice() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_022: [The function shall create the request as getDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
     @Test
     public void getDeviceAsync_future_return_ok() throws Exception
     {
@@ -273,24 +432,25 @@ public class RegistryManagerTest
         commonVerifications(HttpMethod.GET, deviceId, returnDevice);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_022: [The function shall create an async wrapper around the addDevice() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_022: [The function shall create the request as getDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
     // Assert
-    @Test (expected = Exception.class)
+    @Test (expected = ExecutionException.class)
     public void getDeviceAsync_future_throw() throws Exception
     {
         String deviceId = "somedevice";
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public Device getDevice(String deviceId) throws IOException, IotHubException
             {
-                throw new IOException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
 
-        CompletableFuture<Device> completableFuture =  registryManager.getDeviceAsync(deviceId);
+        CompletableFuture<Device> completableFuture = registryManager.getDeviceAsync(deviceId);
         completableFuture.get();
     }
 
@@ -307,7 +467,7 @@ public class RegistryManagerTest
     }
 
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_024: [The function shall get the URL for the device]
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_025: [The function shall create a new SAS token for the device]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_025: [The function shall get the SAS token from the provider of the connection string]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_026: [The function shall create a new HttpRequest for getting a device list from IotHub]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_027: [The function shall send the created request and get the response]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_028: [The function shall verify the response status and throw proper Exception]
@@ -338,7 +498,7 @@ public class RegistryManagerTest
         registryManager.getDevicesAsync(0);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_031: [The function shall create an async wrapper around the getDevices() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_031: [The function shall create the request as getDevices() does, send it through the HTTP engine, and complete the future with the response device list or the exception]
     @Test
     public void getDevicesAsync_future_return_ok() throws Exception
     {
@@ -354,17 +514,18 @@ public class RegistryManagerTest
         getDevicesVerifications(numberOfDevices, devices);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_031: [The function shall create an async wrapper around the getDevices() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_031: [The function shall create the request as getDevices() does, send it through the HTTP engine, and complete the future with the response device list or the exception]
     // Assert
-    @Test (expected = Exception.class)
+    @Test (expected = ExecutionException.class)
     public void getDevicesAsync_future_throw() throws Exception
     {
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public Device getDevices(Integer maxCount) throws IOException, IotHubException
             {
-                throw new IOException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
@@ -372,6 +533,110 @@ public class RegistryManagerTest
 
         CompletableFuture<ArrayList<Device>> completableFuture = registryManager.getDevicesAsync(10);
         completableFuture.get();
+
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_102: [The function shall throw IllegalArgumentException if the pageSize is less than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void iterateDevices_pageSize_zero() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        registryManager.iterateDevices(0);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_103: [The function shall return a new DeviceIterator over pages of pageSize devices, without sending any request]
+    @Test
+    public void iterateDevices_good_case(@Mocked final DeviceIterator mockDeviceIterator) throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        DeviceIterator deviceIterator = registryManager.iterateDevices(50);
+
+        assertNotEquals(null, deviceIterator);
+        new Verifications()
+        {
+            {
+                new DeviceIterator(registryManager, 50);
+                times = 1;
+                mockHttpRequest.sendStreaming();
+                times = 0;
+                mockHttpRequest.send();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_104: [The function shall return a sequential Stream over iterateDevices(pageSize), which closes the iterator when it is closed]
+    @Test
+    public void streamDevices_closes_iterator(@Mocked final DeviceIterator mockDeviceIterator) throws Exception
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIterator.hasNext();
+                result = true;
+                mockDeviceIterator.next();
+                result = device;
+            }
+        };
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        Device firstDevice;
+        try (Stream<Device> devices = registryManager.streamDevices(50))
+        {
+            firstDevice = devices.findFirst().get();
+        }
+
+        assertEquals(device, firstDevice);
+        new Verifications()
+        {
+            {
+                mockDeviceIterator.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_105: [The function shall get the SAS token from the provider of the connection string and create a new HttpRequest posting the device query to the device query URL]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_106: [The request shall ask for at most pageSize devices, and carry the continuation token if there is one]
+    @Test
+    public void CreateDeviceQueryRequest_good_case() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        new NonStrictExpectations()
+        {
+            {
+                IotHubConnectionStringBuilder.createConnectionString(connectionString);
+                result = iotHubConnectionString;
+                iotHubConnectionString.getUrlDeviceQuery();
+                result = mockUrl;
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        registryManager.CreateDeviceQueryRequest(50, null);
+        registryManager.CreateDeviceQueryRequest(50, "token1");
+
+        new Verifications()
+        {
+            {
+                new HttpRequest(mockUrl, HttpMethod.POST, "{\"query\":\"SELECT * FROM devices\"}".getBytes(StandardCharsets.UTF_8));
+                times = 2;
+                mockHttpRequest.setHeaderField("authorization", anyString);
+                times = 2;
+                mockHttpRequest.setHeaderField("x-ms-max-item-count", "50");
+                times = 2;
+                mockHttpRequest.setHeaderField("x-ms-continuation", "token1");
+                times = 1;
+                mockHttpRequest.setHeaderField("x-ms-continuation", anyString);
+                times = 1;
+            }
+        };
     }
 
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_032: [The function shall throw IllegalArgumentException if the input device is null]
@@ -428,7 +693,7 @@ public class RegistryManagerTest
 
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_035: [The function shall set forceUpdate on the device]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_036: [The function shall get the URL for the device]
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_037: [The function shall create a new SAS token for the device]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_037: [The function shall get the SAS token from the provider of the connection string]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_038: [The function shall create a new HttpRequest for updating the device on IotHub]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_039: [The function shall send the created request and get the response]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_040: [The function shall verify the response status and throw proper Exception]
@@ -474,7 +739,7 @@ public class RegistryManagerTest
         registryManager.updateDeviceAsync(null);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_043: [The function shall create an async wrapper around the updateDevice() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_043: [The function shall create the request as updateDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
     @Test
     public void updateDeviceAsync_future_return_ok() throws Exception
     {
@@ -506,17 +771,18 @@ public class RegistryManagerTest
         };
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_043: [The function shall create an async wrapper around the updateDevice() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_043: [The function shall create the request as updateDevice() does, send it through the HTTP engine, and complete the future with the response device or the exception]
     // Assert
-    @Test (expected = Exception.class)
+    @Test (expected = ExecutionException.class)
     public void updateDeviceAsync_future_throw() throws Exception
     {
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public Device updateDevice(Device device) throws IOException, IotHubException
             {
-                throw new IOException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
@@ -537,7 +803,7 @@ public class RegistryManagerTest
         registryManager.updateDeviceAsync(null, true);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_045: [The function shall create an async wrapper around the updateDevice(Device, device, Boolean forceUpdate) function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_045: [The function shall create the request as updateDevice(Device device, Boolean forceUpdate) does, send it through the HTTP engine, and complete the future with the response device or the exception]
     @Test
     public void updateDeviceAsyncForce_future_return_ok() throws Exception
     {
@@ -569,23 +835,24 @@ public class RegistryManagerTest
         };
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_045: [The function shall create an async wrapper around the updateDevice(Device, device, Boolean forceUpdate) function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_045: [The function shall create the request as updateDevice(Device device, Boolean forceUpdate) does, send it through the HTTP engine, and complete the future with the response device or the exception]
     // Assert
-    @Test (expected = Exception.class)
+    @Test (expected = ExecutionException.class)
     public void updateDeviceAsyncForce_future_throw() throws Exception
     {
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public Device updateDevice(Device device, Boolean forceUpdate) throws IOException, IotHubException
             {
-                throw new IOException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
 
-        CompletableFuture<Device> completableFuture =  registryManager.updateDeviceAsync(device, true);
+        CompletableFuture<Device> completableFuture = registryManager.updateDeviceAsync(device, true);
         completableFuture.get();
     }
 
@@ -612,7 +879,7 @@ public class RegistryManagerTest
     }
 
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_047: [The function shall get the URL for the device]
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_048: [The function shall create a new SAS token for the device]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_048: [The function shall get the SAS token from the provider of the connection string]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_049: [The function shall create a new HttpRequest for removing the device from IotHub]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_050: [The function shall send the created request and get the response]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_051: [The function shall verify the response status and throw proper Exception]
@@ -663,7 +930,7 @@ public class RegistryManagerTest
         registryManager.removeDeviceAsync("");
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_053: [The function shall create an async wrapper around the removeDevice() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_053: [The function shall create the request as removeDevice() does, send it through the HTTP engine, and complete the future with true or the exception]
     @Test
     public void removeDeviceAsync_future_return_ok() throws Exception
     {
@@ -690,28 +957,30 @@ public class RegistryManagerTest
         };
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_053: [The function shall create an async wrapper around the removeDevice() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_053: [The function shall create the request as removeDevice() does, send it through the HTTP engine, and complete the future with true or the exception]
     // Assert
-    @Test (expected = Exception.class)
+    @Test (expected = ExecutionException.class)
     public void removeDeviceAsync_future_throw() throws Exception
     {
         String deviceId = "somedevice";
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public Device removeDevice(String deviceId) throws IOException, IotHubException
             {
-                throw new IOException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
 
         CompletableFuture completableFuture = registryManager.removeDeviceAsync(deviceId);
+        completableFuture.get();
     }
 
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_054: [The function shall get the URL for the device]
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_055: [The function shall create a new SAS token for the device]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_055: [The function shall get the SAS token from the provider of the connection string]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_056: [The function shall create a new HttpRequest for getting statistics a device from IotHub]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_057: [The function shall send the created request and get the response]
     // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_058: [The function shall verify the response status and throw proper Exception]
@@ -746,7 +1015,7 @@ public class RegistryManagerTest
         assertNotEquals(null, statistics);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_060: [The function shall create an async wrapper around the getStatistics() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_060: [The function shall create the request as getStatistics() does, send it through the HTTP engine, and complete the future with the response statistics or the exception]
     @Test
     public void getStatisticsAsync_future_return_ok() throws Exception
     {
@@ -778,23 +1047,25 @@ public class RegistryManagerTest
         assertNotEquals(null, statistics);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_060: [The function shall create an async wrapper around the getStatistics() function call, handle the return value or delegate exception]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_12_060: [The function shall create the request as getStatistics() does, send it through the HTTP engine, and complete the future with the response statistics or the exception]
     // Assert
-    @Test (expected = Exception.class)
+    @Test (expected = ExecutionException.class)
     public void getStatisticsAsync_future_throw() throws Exception
     {
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public Device getStatistics() throws IOException, IotHubException
             {
-                throw new IOException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
 
-        registryManager.getStatisticsAsync();
+        CompletableFuture completableFuture = registryManager.getStatisticsAsync();
+        completableFuture.get();
     }
 
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_061: [The function shall throw IllegalArgumentException if any of the input parameters is null]
@@ -818,7 +1089,7 @@ public class RegistryManagerTest
 
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_061: [The function shall throw IllegalArgumentException if any of the input parameters is null]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_062: [The function shall get the URL for the bulk export job creation]
-    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_063: [The function shall create a new SAS token for the bulk export job]
+    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_063: [The function shall get the SAS token from the provider of the connection string]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_064: [The function shall create a new HttpRequest for the export job creation]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_065: [The function shall send the created request and get the response]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_066: [The function shall verify the response status and throw proper Exception]
@@ -864,25 +1135,25 @@ public class RegistryManagerTest
         assertNotEquals(null, jobProperties);
     }
 
-    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_068: [The function shall create an async wrapper around
-    // the exportDevices() function call, handle the return value or delegate exception ]
-    @Test (expected = Exception.class)
+    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_068: [The function shall create the request as exportDevices()
+    // does, send it through the HTTP engine, and complete the future with the response job properties or the exception]
+    @Test (expected = ExecutionException.class)
     public void exportDevicesAsync_future_throw() throws Exception
     {
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public JobProperties exportDevices(String url, Boolean excludeKeys)
-                    throws IllegalArgumentException, IOException, IotHubException
             {
-                throw new IllegalArgumentException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
 
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
 
-        CompletableFuture<JobProperties> completableFuture =  registryManager.exportDevicesAsync("blah", true);
+        CompletableFuture<JobProperties> completableFuture = registryManager.exportDevicesAsync("blah", true);
         completableFuture.get();
     }
 
@@ -907,7 +1178,7 @@ public class RegistryManagerTest
     }
 
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_070: [The function shall get the URL for the bulk import job creation]
-    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_071: [The function shall create a new SAS token for the bulk import job]
+    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_071: [The function shall get the SAS token from the provider of the connection string]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_072: [The function shall create a new HttpRequest for the bulk import job creation]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_073: [The function shall send the created request and get the response]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_074: [The function shall verify the response status and throw proper Exception]
@@ -953,25 +1224,25 @@ public class RegistryManagerTest
         assertNotEquals(null, jobProperties);
     }
 
-    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_076: [The function shall create an async wrapper around
-    // the importDevices() function call, handle the return value or delegate exception]
-    @Test (expected = Exception.class)
+    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_076: [The function shall create the request as importDevices()
+    // does, send it through the HTTP engine, and complete the future with the response job properties or the exception]
+    @Test (expected = ExecutionException.class)
     public void importDevicesAsync_future_throw() throws Exception
     {
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public JobProperties importDevices(String importBlobContainerUri, String outputBlobContainerUri)
-                    throws IllegalArgumentException, IOException, IotHubException
             {
-                throw new IllegalArgumentException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
 
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
 
-        CompletableFuture<JobProperties> completableFuture =  registryManager.importDevicesAsync("importblob", "outputblob");
+        CompletableFuture<JobProperties> completableFuture = registryManager.importDevicesAsync("importblob", "outputblob");
         completableFuture.get();
     }
 
@@ -986,7 +1257,7 @@ public class RegistryManagerTest
     }
 
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_078: [The function shall get the URL for the get request]
-    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_079: [The function shall create a new SAS token for the get request]
+    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_079: [The function shall get the SAS token from the provider of the connection string]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_080: [The function shall create a new HttpRequest for getting the properties of a job]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_081: [The function shall send the created request and get the response]
     // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_082: [The function shall verify the response status and throw proper Exception]
@@ -1033,25 +1304,25 @@ public class RegistryManagerTest
         assertNotEquals(null, jobProperties);
     }
 
-    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_084: [The function shall create an async wrapper
-    // around the getJob() function call, handle the return value or delegate exception]
-    @Test (expected = Exception.class)
+    // TESTS_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_15_084: [The function shall create the request as getJob() does,
+    // send it through the HTTP engine, and complete the future with the response job properties or the exception]
+    @Test (expected = ExecutionException.class)
     public void getJobAsync_future_throw() throws Exception
     {
-        new MockUp<RegistryManager>()
+        new NonStrictExpectations()
         {
-            @Mock
-            public JobProperties getJob(String jobId)
-                    throws IllegalArgumentException, IOException, IotHubException
             {
-                throw new IllegalArgumentException();
+                IotHubConnectionStringBuilder.createConnectionString(anyString);
+                result = iotHubConnectionString;
+                mockHttpRequest.send();
+                result = new IOException();
             }
         };
 
         String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
         RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
 
-        CompletableFuture<JobProperties> completableFuture =  registryManager.getJobAsync("someJobId");
+        CompletableFuture<JobProperties> completableFuture = registryManager.getJobAsync("someJobId");
         completableFuture.get();
     }
 
@@ -1131,4 +1402,380 @@ public class RegistryManagerTest
         };
         assertNotEquals(null, devices);
     }
-}
\ No newline at end of file
+
+    final String bulkSuccessJson = "{\"isSuccessful\":true,\"errors\":[],\"warnings\":[]}";
+
+    final String bulkPartialFailureJson = "{\"isSuccessful\":false,\"errors\":[{\"deviceId\":\"device2\"," +
+            "\"errorCode\":\"DeviceAlreadyExists\",\"errorStatus\":\"A device with ID 'device2' is already registered.\"}],\"warnings\":[]}";
+
+    private List<Device> createDevices(int count)
+    {
+        List<Device> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            devices.add(device);
+        }
+        return devices;
+    }
+
+    private void bulkExpectations(String connectionString) throws Exception
+    {
+        new NonStrictExpectations()
+        {
+            {
+                IotHubConnectionStringBuilder.createConnectionString(connectionString);
+                result = iotHubConnectionString;
+                iotHubConnectionString.getUrlBulkRegistryOperation();
+                result = mockUrl;
+                mockHttpRequest.send();
+                result = mockHttpResponse;
+                mockHttpResponse.getStatus();
+                result = 200;
+                mockHttpResponse.getBody();
+                result = bulkSuccessJson.getBytes(StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_086: [The function shall throw IllegalArgumentException if the input collection is null or contains null, or if maxConcurrentRequests is less than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void addDevices_input_null() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        registryManager.addDevices(null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_086: [The function shall throw IllegalArgumentException if the input collection is null or contains null, or if maxConcurrentRequests is less than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void addDevices_concurrency_zero() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        registryManager.addDevices(createDevices(1), 0);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_092: [The function shall throw IllegalArgumentException if the input collection is null or contains null or empty ids, or if maxConcurrentRequests is less than 1]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void removeDevices_input_contains_empty_id() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        registryManager.removeDevices(Arrays.asList("device1", ""));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_085: [The function shall call addDevices(Collection<Device>, int) with the default number of concurrent requests]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_087: [The function shall send each device with the create import mode]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_094: [The function shall get the URL for the bulk registry operation]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_095: [The function shall split the devices in requests of at most MAX_DEVICES_PER_BULK_REQUEST devices and send them with the HTTP engine of the RegistryManager, at most maxConcurrentRequests requests at a time]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_096: [The function shall merge the results of all requests, reporting a request which could not complete as the error of each device of the request]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_097: [The function shall get the SAS token from the provider of the connection string and create a new HttpRequest posting the devices of the request]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_099: [The function shall verify the response status and return the result of the request from the response body]
+    @Test
+    public void addDevices_splits_devices_in_requests_of_max_size() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        BulkRegistryOperationResult result = registryManager.addDevices(createDevices(250));
+
+        assertTrue(result.isSuccessful());
+        assertTrue(result.getErrors().isEmpty());
+        final List<byte[]> payloads = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                iotHubConnectionString.getUrlBulkRegistryOperation();
+                times = 1;
+                new HttpRequest(mockUrl, HttpMethod.POST, withCapture(payloads));
+                times = 3;
+                mockIotHubExceptionManager.httpResponseVerification((HttpResponse) any);
+                times = 3;
+            }
+        };
+        int sentDevices = 0;
+        for (byte[] payload : payloads)
+        {
+            String json = new String(payload, StandardCharsets.UTF_8);
+            int devicesInRequest = json.split("\"importMode\":\"create\"", -1).length - 1;
+            assertTrue(devicesInRequest <= RegistryManager.MAX_DEVICES_PER_BULK_REQUEST);
+            sentDevices += devicesInRequest;
+        }
+        assertEquals(250, sentDevices);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_095: [The function shall split the devices in requests of at most MAX_DEVICES_PER_BULK_REQUEST devices and send them with the HTTP engine of the RegistryManager, at most maxConcurrentRequests requests at a time]
+    @Test
+    public void addDevices_sends_requests_concurrently_up_to_limit() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        new NonStrictExpectations()
+        {
+            {
+                mockHttpRequest.send();
+                result = new Delegate<HttpResponse>()
+                {
+                    HttpResponse send() throws InterruptedException
+                    {
+                        int current = inFlight.incrementAndGet();
+                        maxInFlight.accumulateAndGet(current, Math::max);
+                        Thread.sleep(20);
+                        inFlight.decrementAndGet();
+                        return mockHttpResponse;
+                    }
+                };
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        BulkRegistryOperationResult result = registryManager.addDevices(createDevices(1000), 4);
+
+        assertTrue(result.isSuccessful());
+        assertTrue(maxInFlight.get() > 1);
+        assertTrue(maxInFlight.get() <= 4);
+        new Verifications()
+        {
+            {
+                mockHttpRequest.send();
+                times = 10;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_100: [If the IoT Hub is throttling or busy, the function shall retry the request with an exponential back-off, up to MAX_BULK_REQUEST_ATTEMPTS attempts, without holding a thread while it waits]
+    @Test
+    public void addDevices_retries_throttled_request() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        new NonStrictExpectations()
+        {
+            {
+                IotHubExceptionManager.httpResponseVerification((HttpResponse) any);
+                result = new IotHubTooManyRequestsException();
+                result = new IotHubServerBusyException();
+                result = null;
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        BulkRegistryOperationResult result = registryManager.addDevices(createDevices(10), 1);
+
+        assertTrue(result.isSuccessful());
+        new Verifications()
+        {
+            {
+                mockHttpRequest.send();
+                times = 3;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_098: [If the response status is 400 and it contains the errors of the devices, the function shall return them as the result of the request]
+    @Test
+    public void addDevices_returns_per_device_errors() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        new NonStrictExpectations()
+        {
+            {
+                mockHttpResponse.getStatus();
+                result = 400;
+                mockHttpResponse.getErrorReason();
+                result = bulkPartialFailureJson.getBytes(StandardCharsets.UTF_8);
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        BulkRegistryOperationResult result = registryManager.addDevices(createDevices(3));
+
+        assertFalse(result.isSuccessful());
+        assertEquals(1, result.getErrors().size());
+        assertEquals("device2", result.getErrors().get(0).getDeviceId());
+        assertEquals("DeviceAlreadyExists", result.getErrors().get(0).getErrorCode());
+        new Verifications()
+        {
+            {
+                mockIotHubExceptionManager.httpResponseVerification((HttpResponse) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_101: [If the request fails, the function shall report the failure as the error of each device of the request]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_091: [The function shall call removeDevices(Collection<String>, int) with the default number of concurrent requests]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_093: [The function shall send each device id with the delete import mode]
+    @Test
+    public void removeDevices_reports_failed_request_for_each_device() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        new NonStrictExpectations()
+        {
+            {
+                IotHubExceptionManager.httpResponseVerification((HttpResponse) any);
+                result = new IotHubNotFoundException();
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        BulkRegistryOperationResult result = registryManager.removeDevices(Arrays.asList("device1", "device2"));
+
+        assertFalse(result.isSuccessful());
+        assertEquals(2, result.getErrors().size());
+        assertEquals("device1", result.getErrors().get(0).getDeviceId());
+        assertEquals("IotHubNotFoundException", result.getErrors().get(0).getErrorCode());
+        final List<byte[]> payloads = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                new HttpRequest(mockUrl, HttpMethod.POST, withCapture(payloads));
+                times = 1;
+            }
+        };
+        String json = new String(payloads.get(0), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"id\":\"device1\""));
+        assertTrue(json.contains("\"importMode\":\"delete\""));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_088: [The function shall call updateDevices(Collection<Device>, int) with the default number of concurrent requests]
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_090: [The function shall send each device with the update import mode]
+    @Test
+    public void updateDevices_sends_update_import_mode() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        BulkRegistryOperationResult result = registryManager.updateDevices(createDevices(2));
+
+        assertTrue(result.isSuccessful());
+        final List<byte[]> payloads = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                new HttpRequest(mockUrl, HttpMethod.POST, withCapture(payloads));
+                times = 1;
+            }
+        };
+        assertTrue(new String(payloads.get(0), StandardCharsets.UTF_8).contains("\"importMode\":\"update\""));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_095: [The function shall split the devices in requests of at most MAX_DEVICES_PER_BULK_REQUEST devices and send them with the HTTP engine of the RegistryManager, at most maxConcurrentRequests requests at a time]
+    @Test
+    public void addDevices_empty_collection_sends_nothing() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        BulkRegistryOperationResult result = registryManager.addDevices(Collections.emptyList());
+
+        assertTrue(result.isSuccessful());
+        new Verifications()
+        {
+            {
+                mockHttpRequest.send();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_096: [The function shall merge the results of all requests, reporting a request which could not complete as the error of each device of the request]
+    @Test
+    public void addDevices_reports_failed_request_and_keeps_results_of_other_requests() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        new NonStrictExpectations()
+        {
+            {
+                mockHttpRequest.send();
+                result = new IOException("connection reset");
+                result = mockHttpResponse;
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        BulkRegistryOperationResult result = registryManager.addDevices(createDevices(150), 1);
+
+        assertFalse(result.isSuccessful());
+        assertEquals(100, result.getErrors().size());
+        assertEquals("IOException", result.getErrors().get(0).getErrorCode());
+        new Verifications()
+        {
+            {
+                mockHttpRequest.send();
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_095: [The function shall split the devices in requests of at most MAX_DEVICES_PER_BULK_REQUEST devices and send them with the HTTP engine of the RegistryManager, at most maxConcurrentRequests requests at a time]
+    @Test
+    public void addDevices_sends_requests_with_http_engine(@Mocked final HttpEngine mockHttpEngine) throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        new NonStrictExpectations()
+        {
+            {
+                mockHttpEngine.sendAsync((HttpRequest) any);
+                result = CompletableFuture.completedFuture(mockHttpResponse);
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString, mockHttpEngine);
+
+        BulkRegistryOperationResult result = registryManager.addDevices(createDevices(250));
+
+        assertTrue(result.isSuccessful());
+        new Verifications()
+        {
+            {
+                mockHttpEngine.sendAsync((HttpRequest) any);
+                times = 3;
+                mockHttpRequest.send();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_REGISTRYMANAGER_21_113: [The function shall send the authentication of the device as it is, and no authentication if the device has none, so that the IoT Hub keeps the existing one]
+    @Test
+    public void updateDevices_does_not_send_authentication_of_device_without_one() throws Exception
+    {
+        String connectionString = "HostName=aaa.bbb.ccc;SharedAccessKeyName=XXX;SharedAccessKey=YYY";
+        bulkExpectations(connectionString);
+        new NonStrictExpectations()
+        {
+            {
+                device.getSymmetricKey();
+                result = null;
+            }
+        };
+        RegistryManager registryManager = RegistryManager.createFromConnectionString(connectionString);
+
+        registryManager.updateDevices(createDevices(1));
+
+        final List<byte[]> payloads = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                new HttpRequest(mockUrl, HttpMethod.POST, withCapture(payloads));
+                times = 1;
+            }
+        };
+        assertFalse(new String(payloads.get(0), StandardCharsets.UTF_8).contains("\"authentication\""));
+    }
+}
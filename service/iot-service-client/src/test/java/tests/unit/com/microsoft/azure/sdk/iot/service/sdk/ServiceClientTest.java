@@ -5,7 +5,8 @@
 
 package com.microsoft.azure.sdk.iot.service.sdk;
 
-import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import com.microsoft.azure.sdk.iot.service.transport.amqps.AmqpPersistentSend;
 import com.microsoft.azure.sdk.iot.service.transport.amqps.AmqpSend;
 import mockit.*;
 import org.junit.Test;
@@ -21,9 +22,13 @@ public class ServiceClientTest
     @Mocked
     AmqpSend amqpSend;
     @Mocked
-    IotHubServiceSasToken iotHubServiceSasToken;
+    IotHubServiceSasTokenProvider iotHubServiceSasTokenProvider;
     @Mocked
     FeedbackReceiver feedbackReceiver;
+    @Mocked
+    AmqpPersistentSend amqpPersistentSend;
+
+    private static final String persistentConnectionString = "HostName=HOSTNAME.IOTHUBNAME;SharedAccessKeyName=ACCESSKEYNAME;SharedAccessKey=1234567890abcdefghijklmnopqrstvwxyz=";
 
     // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_001: [The constructor shall throw IllegalArgumentException if the input string is empty or null]
     // Assert
@@ -66,7 +71,7 @@ public class ServiceClientTest
         {
             {
                 IotHubConnectionString iotHubConnectionString = IotHubConnectionStringBuilder.createConnectionString(connectionString);
-                new ServiceClient(iotHubConnectionString, iotHubServiceClientProtocol);
+                new ServiceClient(iotHubConnectionString, iotHubServiceClientProtocol, false);
             }
         };
         // Act
@@ -87,8 +92,8 @@ public class ServiceClientTest
         ServiceClient serviceClient = new ServiceClient(iotHubConnectionString, iotHubServiceClientProtocol);
     }
 
-    // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_005: [The constructor shall create a SAS token object using the IotHubConnectionString]
-    // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_006: [The constructor shall store connection string, hostname, username and sasToken]
+    // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_005: [The constructor shall get the SAS token provider of the IotHubConnectionString]
+    // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_006: [The constructor shall store connection string, hostname, username and SAS token provider]
     // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_007: [The constructor shall create a new instance of AmqpSend object]
     @Test
     public void constructor_create_sas_token() throws Exception
@@ -105,15 +110,16 @@ public class ServiceClientTest
         new Expectations()
         {
             {
-                iotHubServiceSasToken = new IotHubServiceSasToken(withNotNull());
-                amqpSend = new AmqpSend(anyString, anyString, anyString, iotHubServiceClientProtocol);
+                amqpSend = new AmqpSend(anyString, anyString, (IotHubServiceSasTokenProvider)any, iotHubServiceClientProtocol);
             }
         };
         // Act
         ServiceClient serviceClient = ServiceClient.createFromConnectionString(connectionString, iotHubServiceClientProtocol);
         // Assert
+        IotHubConnectionString storedConnectionString = Deencapsulation.getField(serviceClient, "iotHubConnectionString");
         assertNotEquals(hostName, Deencapsulation.getField(serviceClient, "hostName"));
         assertEquals(iotHubConnectionString.getUserString(), Deencapsulation.getField(serviceClient, "userName"));
+        assertEquals(storedConnectionString.getSasTokenProvider(), Deencapsulation.getField(serviceClient, "sasTokenProvider"));
     }
 
     // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_12_008: [The function shall throw IOException if the member AMQP sender object has not been initialized]
@@ -443,7 +449,7 @@ public class ServiceClientTest
         new Expectations()
         {
             {
-                feedbackReceiver = new FeedbackReceiver(anyString, anyString, anyString, iotHubServiceClientProtocol, deviceId);
+                feedbackReceiver = new FeedbackReceiver(anyString, anyString, (IotHubServiceSasTokenProvider)any, iotHubServiceClientProtocol, deviceId);
             }
         };
         // Act
@@ -451,4 +457,51 @@ public class ServiceClientTest
         // Assert
         assertNotEquals(null, feedbackReceiver);
     }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_21_018: [If keepConnectionOpen is true, the constructor shall create a new instance of AmqpPersistentSend object]
+    @Test
+    public void constructor_keepConnectionOpen_creates_persistent_sender() throws Exception
+    {
+        // Arrange
+        IotHubServiceClientProtocol iotHubServiceClientProtocol = IotHubServiceClientProtocol.AMQPS;
+        new Expectations()
+        {
+            {
+                amqpPersistentSend = new AmqpPersistentSend(anyString, anyString, (IotHubServiceSasTokenProvider)any, iotHubServiceClientProtocol);
+            }
+        };
+        // Act
+        ServiceClient serviceClient = ServiceClient.createFromConnectionString(persistentConnectionString, iotHubServiceClientProtocol, true);
+        // Assert
+        assertEquals(true, Deencapsulation.getField(serviceClient, "keepConnectionOpen"));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_SERVICECLIENT_21_019: [If the connection is kept open, the function shall return the future of the AmqpPersistentSend, completed when the message disposition arrives]
+    @Test
+    public void send_async_keepConnectionOpen_returns_disposition_future() throws Exception
+    {
+        // Arrange
+        String deviceId = "XXX";
+        com.microsoft.azure.sdk.iot.service.sdk.Message iotMessage = new com.microsoft.azure.sdk.iot.service.sdk.Message("HELLO");
+        CompletableFuture<Void> dispositionFuture = new CompletableFuture<>();
+        ServiceClient serviceClient = ServiceClient.createFromConnectionString(persistentConnectionString, IotHubServiceClientProtocol.AMQPS, true);
+        new Expectations()
+        {
+            {
+                amqpPersistentSend.sendAsync(deviceId, iotMessage);
+                result = dispositionFuture;
+            }
+        };
+        // Act
+        CompletableFuture<Void> completableFuture = serviceClient.sendAsync(deviceId, iotMessage);
+        // Assert
+        assertEquals(dispositionFuture, completableFuture);
+        new Verifications()
+        {
+            {
+                amqpPersistentSend.send(anyString, (com.microsoft.azure.sdk.iot.service.sdk.Message)any);
+                times = 0;
+            }
+        };
+    }
 }
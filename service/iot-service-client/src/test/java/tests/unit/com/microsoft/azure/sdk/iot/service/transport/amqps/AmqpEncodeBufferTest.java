@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for AmqpEncodeBuffer */
+public class AmqpEncodeBufferTest
+{
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPENCODEBUFFER_21_001: [The function shall grow the buffer to the length of the message body plus the encoding overhead before encoding]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPENCODEBUFFER_21_002: [The function shall encode the message in the buffer and return the encoded length]
+    @Test
+    public void encode_grows_buffer_to_fit_body()
+    {
+        // Arrange
+        Message message = Proton.message();
+        message.setBody(new Data(new Binary(new byte[100000])));
+        AmqpEncodeBuffer encodeBuffer = new AmqpEncodeBuffer();
+
+        // Act
+        int length = encodeBuffer.encode(message);
+
+        // Assert
+        assertTrue(length > 100000);
+        assertEquals(100000 + 1024, encodeBuffer.getBytes().length);
+        Message decoded = Proton.message();
+        decoded.decode(encodeBuffer.getBytes(), 0, length);
+        assertEquals(100000, ((Data) decoded.getBody()).getValue().getLength());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPENCODEBUFFER_21_003: [If the message does not fit in the buffer, the function shall double the buffer and encode the message again]
+    @Test
+    public void encode_doubles_buffer_if_message_does_not_fit()
+    {
+        // Arrange
+        Message message = Proton.message();
+        message.setSubject(new String(new char[3000]).replace('\0', 'a'));
+        AmqpEncodeBuffer encodeBuffer = new AmqpEncodeBuffer();
+
+        // Act
+        int length = encodeBuffer.encode(message);
+
+        // Assert
+        assertEquals(4096, encodeBuffer.getBytes().length);
+        Message decoded = Proton.message();
+        decoded.decode(encodeBuffer.getBytes(), 0, length);
+        assertEquals(message.getSubject(), decoded.getSubject());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPENCODEBUFFER_21_001: [The function shall grow the buffer to the length of the message body plus the encoding overhead before encoding]
+    @Test
+    public void encode_reuses_buffer_for_smaller_messages()
+    {
+        // Arrange
+        Message largeMessage = Proton.message();
+        largeMessage.setBody(new Data(new Binary(new byte[5000])));
+        Message smallMessage = Proton.message();
+        smallMessage.setBody(new Data(new Binary(new byte[] { 1, 2, 3 })));
+        AmqpEncodeBuffer encodeBuffer = new AmqpEncodeBuffer();
+        encodeBuffer.encode(largeMessage);
+        byte[] buffer = encodeBuffer.getBytes();
+
+        // Act
+        int length = encodeBuffer.encode(smallMessage);
+
+        // Assert
+        assertTrue(buffer == encodeBuffer.getBytes());
+        Message decoded = Proton.message();
+        decoded.decode(encodeBuffer.getBytes(), 0, length);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, ((Data) decoded.getBody()).getValue().getArray());
+    }
+}
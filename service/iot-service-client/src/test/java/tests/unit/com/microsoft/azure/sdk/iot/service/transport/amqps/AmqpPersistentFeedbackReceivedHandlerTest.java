@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatch;
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatchListener;
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatchMessage;
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.Rejected;
+import org.apache.qpid.proton.amqp.messaging.Released;
+import org.apache.qpid.proton.engine.*;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.reactor.FlowController;
+import org.apache.qpid.proton.reactor.Handshaker;
+import org.apache.qpid.proton.reactor.Reactor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for AmqpPersistentFeedbackReceivedHandler */
+@RunWith(JMockit.class)
+public class AmqpPersistentFeedbackReceivedHandlerTest
+{
+    @Mocked Handshaker handshaker;
+    @Mocked FlowController flowController;
+    @Mocked Proton proton;
+    @Mocked Message message;
+    @Mocked Event event;
+    @Mocked Connection connection;
+    @Mocked Session session;
+    @Mocked Receiver receiver;
+    @Mocked Delivery delivery;
+    @Mocked Reactor reactor;
+    @Mocked FeedbackBatchMessage feedbackBatchMessage;
+    @Mocked FeedbackBatch feedbackBatch;
+
+    private final String hostName = "aaa";
+    private final String userName = "bbb";
+    private final String sasToken = "ccc";
+    private final int maxPendingBatches = 16;
+    private final Executor sameThreadDispatcher = Runnable::run;
+    private final List<FeedbackBatch> receivedBatches = new ArrayList<>();
+    private final FeedbackBatchListener recordingListener = receivedBatches::add;
+
+    private AmqpPersistentFeedbackReceivedHandler createOpenHandler(FeedbackBatchListener listener)
+    {
+        AmqpPersistentFeedbackReceivedHandler handler = new AmqpPersistentFeedbackReceivedHandler(hostName, userName, sasToken,
+                IotHubServiceClientProtocol.AMQPS, listener, maxPendingBatches, sameThreadDispatcher);
+        Deencapsulation.setField(handler, "receiver", receiver);
+        Deencapsulation.setField(handler, "reactor", reactor);
+        return handler;
+    }
+
+    private void recordCompleteDelivery()
+    {
+        new Expectations()
+        {
+            {
+                event.getLink();
+                result = receiver;
+                receiver.current();
+                result = delivery;
+                delivery.isReadable();
+                result = true;
+                delivery.isPartial();
+                result = false;
+                delivery.pending();
+                result = 10;
+                receiver.recv((byte[])any, 0, 10);
+                result = 10;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_001: [The constructor shall call the AmqpFeedbackReceivedHandler constructor without automatic flow control]
+    @Test
+    public void constructor_does_not_create_flow_controller()
+    {
+        // Act
+        new AmqpPersistentFeedbackReceivedHandler(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS, recordingListener, maxPendingBatches, sameThreadDispatcher);
+        // Assert
+        new Verifications()
+        {
+            {
+                new FlowController();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_004: [The event handler shall save the Receiver link and grant it maxPendingBatches credit]
+    @Test
+    public void onLinkInit_grants_max_pending_batches_credit()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = new AmqpPersistentFeedbackReceivedHandler(hostName, userName, sasToken,
+                IotHubServiceClientProtocol.AMQPS, recordingListener, maxPendingBatches, sameThreadDispatcher);
+        new Expectations()
+        {
+            {
+                event.getLink();
+                result = receiver;
+            }
+        };
+        // Act
+        handler.onLinkInit(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                receiver.flow(maxPendingBatches);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_002: [The function shall return the future which completes when the receiver link is remotely opened]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_005: [The event handler shall complete the link opened future]
+    @Test
+    public void onLinkRemoteOpen_completes_link_opened_future()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        // Act
+        handler.onLinkRemoteOpen(event);
+        // Assert
+        assertTrue(handler.getLinkOpenedFuture().isDone());
+        assertFalse(handler.getLinkOpenedFuture().isCompletedExceptionally());
+        assertFalse(handler.isLinkClosed());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_019: [The function shall return true only if the link opened future completed normally and the link has not been closed]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_020: [The function shall return the IOException of the first close of the link, or null if the link is not closed]
+    @Test
+    public void isLinkOpened_true_once_remotely_opened()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        assertFalse(handler.isLinkOpened());
+        // Act
+        handler.onLinkRemoteOpen(event);
+        // Assert
+        assertTrue(handler.isLinkOpened());
+        assertNull(handler.getCloseCause());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_006: [The event handler shall do nothing until the whole delivery has been received]
+    @Test
+    public void onDelivery_partial_delivery_does_nothing()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        new Expectations()
+        {
+            {
+                event.getLink();
+                result = receiver;
+                receiver.current();
+                result = delivery;
+                delivery.isReadable();
+                result = true;
+                delivery.isPartial();
+                result = true;
+            }
+        };
+        // Act
+        handler.onDelivery(event);
+        // Assert
+        assertTrue(receivedBatches.isEmpty());
+        new Verifications()
+        {
+            {
+                receiver.recv((byte[])any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_007: [The event handler shall read the delivery and parse it to a FeedbackBatch]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_009: [The event handler shall call the listener with the FeedbackBatch on the dispatcher]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_010: [After the listener returned, the delivery shall be queued for settlement and the reactor woken up]
+    @Test
+    public void onDelivery_calls_listener_without_settling_or_closing()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        recordCompleteDelivery();
+        new Expectations()
+        {
+            {
+                FeedbackBatchMessage.parse(anyString);
+                result = feedbackBatch;
+            }
+        };
+        // Act
+        handler.onDelivery(event);
+        // Assert
+        assertEquals(1, receivedBatches.size());
+        assertEquals(feedbackBatch, receivedBatches.get(0));
+        new Verifications()
+        {
+            {
+                receiver.advance();
+                times = 1;
+                reactor.wakeup();
+                times = 1;
+                delivery.settle();
+                times = 0;
+                session.close();
+                times = 0;
+                connection.close();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_012: [The function shall accept the delivery if the listener returned, or release it if the listener threw, settle it and give back one credit]
+    @Test
+    public void settleProcessed_accepts_handled_batch_and_gives_back_credit()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        recordCompleteDelivery();
+        handler.onDelivery(event);
+        // Act
+        handler.settleProcessed();
+        handler.settleProcessed();
+        // Assert
+        new Verifications()
+        {
+            {
+                delivery.disposition(Accepted.getInstance());
+                times = 1;
+                delivery.settle();
+                times = 1;
+                receiver.flow(1);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_012: [The function shall accept the delivery if the listener returned, or release it if the listener threw, settle it and give back one credit]
+    @Test
+    public void settleProcessed_releases_batch_if_listener_throws()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(feedbackBatch -> { throw new IllegalStateException(); });
+        recordCompleteDelivery();
+        handler.onDelivery(event);
+        // Act
+        handler.settleProcessed();
+        // Assert
+        new Verifications()
+        {
+            {
+                delivery.disposition(Released.getInstance());
+                times = 1;
+                delivery.settle();
+                times = 1;
+                receiver.flow(1);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_008: [If the delivery cannot be parsed, the event handler shall reject and settle it and give back one credit]
+    @Test
+    public void onDelivery_rejects_malformed_batch()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        recordCompleteDelivery();
+        new Expectations()
+        {
+            {
+                FeedbackBatchMessage.parse(anyString);
+                result = new IllegalArgumentException();
+            }
+        };
+        // Act
+        handler.onDelivery(event);
+        // Assert
+        assertTrue(receivedBatches.isEmpty());
+        new Verifications()
+        {
+            {
+                delivery.disposition((Rejected)any);
+                times = 1;
+                delivery.settle();
+                times = 1;
+                receiver.flow(1);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_011: [The function shall not settle deliveries after the link has been closed]
+    @Test
+    public void settleProcessed_does_not_settle_after_link_closed()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        recordCompleteDelivery();
+        handler.onDelivery(event);
+        Deencapsulation.setField(handler, "linkClosed", true);
+        // Act
+        handler.settleProcessed();
+        // Assert
+        new Verifications()
+        {
+            {
+                delivery.settle();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_013: [The function shall close the Receiver, Session and Connection if they have been created and are not closed yet]
+    @Test
+    public void closeLink_closes_receiver_session_and_connection()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        Deencapsulation.setField(handler, "connection", connection);
+        new Expectations()
+        {
+            {
+                connection.getLocalState();
+                result = EndpointState.ACTIVE;
+                receiver.getSession();
+                result = session;
+            }
+        };
+        // Act
+        handler.closeLink();
+        // Assert
+        assertTrue(handler.isLinkClosed());
+        assertTrue(handler.getLinkOpenedFuture().isCompletedExceptionally());
+        new Verifications()
+        {
+            {
+                receiver.close();
+                times = 1;
+                session.close();
+                times = 1;
+                connection.close();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_014: [The event handler shall mark the link closed and fail the link opened future with IOException]
+    @Test
+    public void onLinkRemoteClose_marks_link_closed()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        // Act
+        handler.onLinkRemoteClose(event);
+        // Assert
+        assertTrue(handler.isLinkClosed());
+        assertTrue(handler.getLinkOpenedFuture().isCompletedExceptionally());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_014: [The event handler shall mark the link closed and fail the link opened future with IOException]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_019: [The function shall return true only if the link opened future completed normally and the link has not been closed]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_020: [The function shall return the IOException of the first close of the link, or null if the link is not closed]
+    @Test
+    public void onLinkRemoteClose_after_open_keeps_close_cause()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        handler.onLinkRemoteOpen(event);
+        // Act
+        handler.onLinkRemoteClose(event);
+        handler.onConnectionUnbound(event);
+        // Assert
+        assertTrue(handler.isLinkClosed());
+        assertFalse(handler.isLinkOpened());
+        assertNotNull(handler.getCloseCause());
+        assertTrue(handler.getCloseCause().getMessage().startsWith("The AMQP receiver link was closed by the service"));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_016: [The event handler shall mark the link closed and fail the link opened future with IOException]
+    @Test
+    public void onConnectionUnbound_marks_link_closed()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        // Act
+        handler.onConnectionUnbound(event);
+        // Assert
+        assertTrue(handler.isLinkClosed());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_017: [After the handler is retired, settling a delivery shall not give back its credit]
+    @Test
+    public void settleProcessed_after_retire_does_not_give_back_credit()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        recordCompleteDelivery();
+        handler.onDelivery(event);
+        // Act
+        handler.retire();
+        handler.settleProcessed();
+        // Assert
+        new Verifications()
+        {
+            {
+                delivery.settle();
+                times = 1;
+                receiver.flow(anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTFEEDBACKRECEIVEDHANDLER_21_018: [The function shall return true only if no delivery is unsettled or waiting for settlement]
+    @Test
+    public void isIdle_false_until_processed_deliveries_are_settled()
+    {
+        // Arrange
+        AmqpPersistentFeedbackReceivedHandler handler = createOpenHandler(recordingListener);
+        recordCompleteDelivery();
+        handler.onDelivery(event);
+        new Expectations()
+        {
+            {
+                receiver.getUnsettled();
+                result = 0;
+            }
+        };
+        // Act
+        boolean idleBeforeSettle = handler.isIdle();
+        handler.settleProcessed();
+        boolean idleAfterSettle = handler.isIdle();
+        // Assert
+        assertFalse(idleBeforeSettle);
+        assertTrue(idleAfterSettle);
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatch;
+import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatchListener;
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Injectable;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.Handler;
+import org.apache.qpid.proton.reactor.Reactor;
+import org.apache.qpid.proton.reactor.Task;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for AmqpPersistentReceive */
+@RunWith(JMockit.class)
+public class AmqpPersistentReceiveTest
+{
+    @Mocked Proton proton;
+    @Mocked Reactor reactor;
+    @Mocked Event event;
+    @Mocked AmqpPersistentFeedbackReceivedHandler amqpPersistentFeedbackReceivedHandler;
+    @Mocked IotHubServiceSasTokenProvider sasTokenProvider;
+    @Mocked Task renewalTask;
+
+    private final String hostName = "aaa";
+    private final String userName = "bbb";
+    private final String sasToken = "ccc";
+    private final int maxPendingBatches = 16;
+    private final FeedbackBatchListener listener = feedbackBatch -> {};
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_001: [The constructor shall copy all input parameters to private member variables for event processing]
+    @Test
+    public void constructor_copies_params_to_members()
+    {
+        // Act
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS_WS);
+        // Assert
+        assertEquals(hostName, Deencapsulation.getField(amqpPersistentReceive, "hostName"));
+        assertEquals(userName, Deencapsulation.getField(amqpPersistentReceive, "userName"));
+        assertEquals(sasToken, Deencapsulation.getField(amqpPersistentReceive, "sasToken"));
+        assertEquals(IotHubServiceClientProtocol.AMQPS_WS, Deencapsulation.getField(amqpPersistentReceive, "iotHubServiceClientProtocol"));
+        assertFalse(amqpPersistentReceive.isOpen());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_002: [The event handler shall set the member AmqpPersistentFeedbackReceivedHandler object to handle the connection events]
+    @Test
+    public void onReactorInit_sets_connection_handler()
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        new Expectations()
+        {
+            {
+                event.getReactor();
+                result = reactor;
+            }
+        };
+        // Act
+        amqpPersistentReceive.onReactorInit(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                reactor.connection(amqpPersistentFeedbackReceivedHandler);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_006: [The function shall create an AmqpPersistentFeedbackReceivedHandler object calling the listener on a single thread dispatcher]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_007: [The function shall initialize the Proton reactor object and run it on a dedicated thread]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_008: [The function shall wait for the receiver link to be opened and throw IOException if it fails or times out]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_009: [The function shall return true only if the subscription is open and its current link is opened and not closed]
+    @Test
+    public void open_starts_reactor_and_waits_for_link() throws Exception
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.getLinkOpenedFuture();
+                result = CompletableFuture.completedFuture(null);
+                amqpPersistentFeedbackReceivedHandler.isLinkOpened();
+                result = true;
+            }
+        };
+        // Act
+        amqpPersistentReceive.open(listener, maxPendingBatches);
+        // Assert
+        assertTrue(amqpPersistentReceive.isOpen());
+        new Verifications()
+        {
+            {
+                new AmqpPersistentFeedbackReceivedHandler(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS, listener, maxPendingBatches, (Executor)any);
+                times = 1;
+                Proton.reactor(amqpPersistentReceive);
+                times = 1;
+            }
+        };
+        amqpPersistentReceive.close();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_005: [If a subscription is already open, the function shall close it before opening the new one]
+    @Test
+    public void open_twice_replaces_subscription() throws Exception
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.getLinkOpenedFuture();
+                result = CompletableFuture.completedFuture(null);
+            }
+        };
+        // Act
+        amqpPersistentReceive.open(listener, maxPendingBatches);
+        amqpPersistentReceive.open(listener, maxPendingBatches);
+        // Assert
+        new Verifications()
+        {
+            {
+                reactor.wakeup();
+                times = 1;
+                Proton.reactor(amqpPersistentReceive);
+                times = 2;
+            }
+        };
+        amqpPersistentReceive.close();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_008: [The function shall wait for the receiver link to be opened and throw IOException if it fails or times out]
+    @Test (expected = IOException.class)
+    public void open_throws_if_link_fails_to_open() throws Exception
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        CompletableFuture<Void> failedFuture = new CompletableFuture<>();
+        failedFuture.completeExceptionally(new IOException());
+        new Expectations()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.getLinkOpenedFuture();
+                result = failedFuture;
+            }
+        };
+        // Act
+        amqpPersistentReceive.open(listener, maxPendingBatches);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_010: [The function shall do nothing if the subscription is not open]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_011: [The function shall request the reactor thread to close the link and wake up the reactor]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_012: [The function shall wait for the reactor thread to terminate, shut down the dispatcher and invalidate the feedback handler]
+    @Test
+    public void close_wakes_up_reactor_and_invalidates_handler() throws Exception
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.getLinkOpenedFuture();
+                result = CompletableFuture.completedFuture(null);
+            }
+        };
+        amqpPersistentReceive.open(listener, maxPendingBatches);
+        // Act
+        amqpPersistentReceive.close();
+        amqpPersistentReceive.close();
+        // Assert
+        assertNull(Deencapsulation.getField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler"));
+        assertNull(Deencapsulation.getField(amqpPersistentReceive, "dispatcherExecutor"));
+        assertFalse(amqpPersistentReceive.isOpen());
+        new Verifications()
+        {
+            {
+                reactor.wakeup();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_003: [If close has been requested, the event handler shall close the link on the feedback handler]
+    @Test
+    public void onReactorQuiesced_closes_link_when_close_requested()
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        Deencapsulation.setField(amqpPersistentReceive, "closeRequested", true);
+        // Act
+        amqpPersistentReceive.onReactorQuiesced(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.closeLink();
+                times = 1;
+                amqpPersistentFeedbackReceivedHandler.settleProcessed();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_004: [The event handler shall settle the processed deliveries on the feedback handler]
+    @Test
+    public void onReactorQuiesced_settles_processed_deliveries()
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        // Act
+        amqpPersistentReceive.onReactorQuiesced(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.settleProcessed();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_013: [The constructor shall copy all input parameters to private member variables for event processing]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_014: [If there is a SAS token provider, the event handler shall schedule the renewal of the connection when the token is due for renewal]
+    @Test
+    public void onReactorInit_schedules_renewal_with_sasTokenProvider()
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        new Expectations()
+        {
+            {
+                event.getReactor();
+                result = reactor;
+                sasTokenProvider.getMillisUntilRenewal();
+                result = 2700000L;
+            }
+        };
+        // Act
+        amqpPersistentReceive.onReactorInit(event);
+        // Assert
+        assertEquals(sasTokenProvider, Deencapsulation.getField(amqpPersistentReceive, "sasTokenProvider"));
+        new Verifications()
+        {
+            {
+                reactor.schedule(2700000, (Handler) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_015: [The renewal shall open a new connection with the current token of the provider,
+    // retire the previous one and schedule the next renewal]
+    @Test
+    public void renewConnection_opens_new_connection_and_retires_previous(@Injectable AmqpPersistentFeedbackReceivedHandler previousHandler)
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", previousHandler);
+        Deencapsulation.setField(amqpPersistentReceive, "feedbackBatchListener", listener);
+        Deencapsulation.setField(amqpPersistentReceive, "maxPendingBatches", maxPendingBatches);
+        new Expectations()
+        {
+            {
+                sasTokenProvider.getSasToken();
+                result = "renewed-token";
+            }
+        };
+        // Act
+        amqpPersistentReceive.renewConnection(reactor);
+        // Assert
+        assertNotSame(previousHandler, Deencapsulation.getField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler"));
+        assertEquals(previousHandler, Deencapsulation.getField(amqpPersistentReceive, "retiringFeedbackReceivedHandler"));
+        new Verifications()
+        {
+            {
+                sasTokenProvider.getSasToken();
+                times = 1;
+                previousHandler.retire();
+                times = 1;
+                reactor.connection((Handler) any);
+                times = 1;
+                reactor.schedule(anyInt, (Handler) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_016: [The event handler shall settle the processed deliveries of the link replaced by a renewal, and close it once it is idle]
+    @Test
+    public void onReactorQuiesced_closes_idle_retiring_link(@Injectable AmqpPersistentFeedbackReceivedHandler retiringHandler)
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        Deencapsulation.setField(amqpPersistentReceive, "retiringFeedbackReceivedHandler", retiringHandler);
+        new Expectations()
+        {
+            {
+                retiringHandler.isIdle();
+                result = true;
+            }
+        };
+        // Act
+        amqpPersistentReceive.onReactorQuiesced(event);
+        // Assert
+        assertNull(Deencapsulation.getField(amqpPersistentReceive, "retiringFeedbackReceivedHandler"));
+        new Verifications()
+        {
+            {
+                retiringHandler.settleProcessed();
+                times = 1;
+                retiringHandler.closeLink();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_017: [If close has been requested, the event handler shall also close the link replaced by a renewal, and cancel the next renewal]
+    @Test
+    public void onReactorQuiesced_close_requested_cancels_renewal(@Injectable AmqpPersistentFeedbackReceivedHandler retiringHandler)
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        Deencapsulation.setField(amqpPersistentReceive, "retiringFeedbackReceivedHandler", retiringHandler);
+        AmqpRenewalTimer renewalTimer = Deencapsulation.getField(amqpPersistentReceive, "renewalTimer");
+        Deencapsulation.setField(renewalTimer, "task", renewalTask);
+        Deencapsulation.setField(amqpPersistentReceive, "closeRequested", true);
+        // Act
+        amqpPersistentReceive.onReactorQuiesced(event);
+        // Assert
+        assertNull(Deencapsulation.getField(amqpPersistentReceive, "retiringFeedbackReceivedHandler"));
+        assertNull(Deencapsulation.getField(renewalTimer, "task"));
+        new Verifications()
+        {
+            {
+                retiringHandler.closeLink();
+                times = 1;
+                renewalTask.cancel();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_009: [The function shall return true only if the subscription is open and its current link is opened and not closed]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_018: [If the link has been closed by the service or the network, the event handler shall
+    // call onError on the listener and schedule a reconnection, doubling the delay after each failed attempt up to MAX_RECONNECT_DELAY_MS]
+    @Test
+    public void onReactorQuiesced_link_closed_remotely_notifies_listener_and_schedules_reconnect() throws Exception
+    {
+        // Arrange
+        final IOException closeCause = new IOException("amqp:link:detach-forced");
+        final CompletableFuture<IOException> notified = new CompletableFuture<>();
+        FeedbackBatchListener errorListener = new FeedbackBatchListener()
+        {
+            @Override
+            public void onFeedbackBatchReceived(FeedbackBatch feedbackBatch)
+            {
+            }
+
+            @Override
+            public void onError(IOException exception)
+            {
+                notified.complete(exception);
+            }
+        };
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        Deencapsulation.setField(amqpPersistentReceive, "feedbackBatchListener", errorListener);
+        Deencapsulation.setField(amqpPersistentReceive, "dispatcherExecutor", dispatcher);
+        new Expectations()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.isLinkClosed();
+                result = true;
+                amqpPersistentFeedbackReceivedHandler.getCloseCause();
+                returns(closeCause);
+                event.getReactor();
+                result = reactor;
+                reactor.schedule(anyInt, (Handler) any);
+                result = renewalTask;
+            }
+        };
+        // Act
+        amqpPersistentReceive.onReactorQuiesced(event);
+        amqpPersistentReceive.onReactorQuiesced(event);
+        // Assert
+        assertSame(closeCause, notified.get(5, TimeUnit.SECONDS));
+        assertFalse(amqpPersistentReceive.isOpen());
+        assertEquals(2000L, (long)Deencapsulation.getField(amqpPersistentReceive, "reconnectDelayMillis"));
+        new Verifications()
+        {
+            {
+                reactor.schedule(1000, (Handler) any);
+                times = 1;
+            }
+        };
+        dispatcher.shutdown();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_018: [If the link has been closed by the service or the network, the event handler shall
+    // call onError on the listener and schedule a reconnection, doubling the delay after each failed attempt up to MAX_RECONNECT_DELAY_MS]
+    @Test
+    public void onReactorQuiesced_reconnect_delay_is_capped()
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        Deencapsulation.setField(amqpPersistentReceive, "reconnectDelayMillis", 40000L);
+        new Expectations()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.isLinkClosed();
+                result = true;
+                event.getReactor();
+                result = reactor;
+            }
+        };
+        // Act
+        amqpPersistentReceive.onReactorQuiesced(event);
+        // Assert
+        assertEquals(60000L, (long)Deencapsulation.getField(amqpPersistentReceive, "reconnectDelayMillis"));
+        new Verifications()
+        {
+            {
+                reactor.schedule(40000, (Handler) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_019: [Once the link is opened, the event handler shall reset the reconnection delay]
+    @Test
+    public void onReactorQuiesced_link_opened_resets_reconnect_delay()
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", amqpPersistentFeedbackReceivedHandler);
+        Deencapsulation.setField(amqpPersistentReceive, "reconnectDelayMillis", 8000L);
+        new Expectations()
+        {
+            {
+                amqpPersistentFeedbackReceivedHandler.isLinkClosed();
+                result = false;
+                amqpPersistentFeedbackReceivedHandler.isLinkOpened();
+                result = true;
+            }
+        };
+        // Act
+        amqpPersistentReceive.onReactorQuiesced(event);
+        // Assert
+        assertEquals(1000L, (long)Deencapsulation.getField(amqpPersistentReceive, "reconnectDelayMillis"));
+        assertTrue(amqpPersistentReceive.isOpen());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_020: [The reconnection shall close the closed connection and open a new one with the current token]
+    @Test
+    public void reconnect_opens_new_connection_with_current_token(@Injectable AmqpPersistentFeedbackReceivedHandler closedHandler)
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", closedHandler);
+        Deencapsulation.setField(amqpPersistentReceive, "reconnectTask", renewalTask);
+        new Expectations()
+        {
+            {
+                closedHandler.isLinkClosed();
+                result = true;
+                sasTokenProvider.getSasToken();
+                result = "current-token";
+            }
+        };
+        // Act
+        amqpPersistentReceive.reconnect(reactor);
+        // Assert
+        assertNotSame(closedHandler, Deencapsulation.getField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler"));
+        assertNull(Deencapsulation.getField(amqpPersistentReceive, "reconnectTask"));
+        new Verifications()
+        {
+            {
+                closedHandler.closeLink();
+                times = 1;
+                new AmqpPersistentFeedbackReceivedHandler(hostName, userName, "current-token", IotHubServiceClientProtocol.AMQPS, null, 0, null);
+                times = 1;
+                reactor.connection((Handler) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTRECEIVE_21_021: [The reconnection shall do nothing if close has been requested or a renewal already replaced the closed link]
+    @Test
+    public void reconnect_does_nothing_if_link_already_replaced(@Injectable AmqpPersistentFeedbackReceivedHandler renewedHandler)
+    {
+        // Arrange
+        AmqpPersistentReceive amqpPersistentReceive = new AmqpPersistentReceive(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler", renewedHandler);
+        new Expectations()
+        {
+            {
+                renewedHandler.isLinkClosed();
+                result = false;
+            }
+        };
+        // Act
+        amqpPersistentReceive.reconnect(reactor);
+        // Assert
+        assertSame(renewedHandler, Deencapsulation.getField(amqpPersistentReceive, "amqpPersistentFeedbackReceivedHandler"));
+        new Verifications()
+        {
+            {
+                renewedHandler.closeLink();
+                times = 0;
+                reactor.connection((Handler) any);
+                times = 0;
+            }
+        };
+    }
+}
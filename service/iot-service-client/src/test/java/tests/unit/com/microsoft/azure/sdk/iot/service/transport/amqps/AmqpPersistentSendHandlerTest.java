@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.Rejected;
+import org.apache.qpid.proton.amqp.transport.SenderSettleMode;
+import org.apache.qpid.proton.engine.*;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.reactor.Handshaker;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for AmqpPersistentSendHandler */
+@RunWith(JMockit.class)
+public class AmqpPersistentSendHandlerTest
+{
+    @Mocked Handshaker handshaker;
+    @Mocked Proton proton;
+    @Mocked Message message;
+    @Mocked Event event;
+    @Mocked Connection connection;
+    @Mocked Session session;
+    @Mocked Sender sender;
+    @Mocked Delivery delivery;
+
+    private final String hostName = "aaa";
+    private final String userName = "bbb";
+    private final String sasToken = "ccc";
+    private final String deviceId = "deviceId";
+    private final com.microsoft.azure.sdk.iot.service.sdk.Message iotMessage = new com.microsoft.azure.sdk.iot.service.sdk.Message("abcdefghijklmnopqrst".getBytes());
+
+    private AmqpPersistentSendHandler createOpenHandler()
+    {
+        AmqpPersistentSendHandler handler = new AmqpPersistentSendHandler(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                event.getLink();
+                result = sender;
+            }
+        };
+        handler.onLinkRemoteOpen(event);
+        return handler;
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_012: [The event handler shall save the Sender link and complete the link opened future]
+    @Test
+    public void onLinkRemoteOpen_completes_link_opened_future()
+    {
+        // Act
+        AmqpPersistentSendHandler handler = createOpenHandler();
+        // Assert
+        assertTrue(handler.getLinkOpenedFuture().isDone());
+        assertFalse(handler.getLinkOpenedFuture().isCompletedExceptionally());
+        assertFalse(handler.isLinkClosed());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_003: [If the link is already closed, the function shall return a future completed exceptionally with IOException]
+    @Test
+    public void enqueue_fails_when_link_closed()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = new AmqpPersistentSendHandler(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(handler, "linkClosed", true);
+        // Act
+        CompletableFuture<Void> future = handler.enqueue(deviceId, iotMessage);
+        // Assert
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_004: [The function shall create a Proton message for the device and add it to the pending queue]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_005: [The function shall do nothing if the sender link is not open yet]
+    @Test
+    public void drain_does_nothing_before_link_open()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = new AmqpPersistentSendHandler(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        CompletableFuture<Void> future = handler.enqueue(deviceId, iotMessage);
+        // Act
+        handler.drain();
+        // Assert
+        assertFalse(future.isDone());
+        new Verifications()
+        {
+            {
+                sender.delivery((byte[])any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_006: [The function shall send pending messages while the sender link has credit]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_007: [The function shall encode the message into the encode buffer kept by the handler]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_008: [The function shall create a delivery with a unique tag, attach the message future to it, send the encoded bytes and advance the link]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_013: [The event handler shall drain the pending messages]
+    @Test
+    public void onLinkFlow_sends_pending_messages_up_to_credit()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = createOpenHandler();
+        handler.enqueue(deviceId, iotMessage);
+        handler.enqueue(deviceId, iotMessage);
+        handler.enqueue(deviceId, iotMessage);
+        new Expectations()
+        {
+            {
+                sender.getCredit();
+                returns(2, 1, 0);
+                sender.delivery((byte[])any);
+                result = delivery;
+            }
+        };
+        // Act
+        handler.onLinkFlow(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                message.encode((byte[])any, 0, anyInt);
+                times = 2;
+                delivery.setContext(any);
+                times = 2;
+                sender.send((byte[])any, 0, anyInt);
+                times = 2;
+                sender.advance();
+                times = 2;
+                sender.close();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_015: [If the remote state is Accepted, the event handler shall complete the message future]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_017: [The event handler shall settle the delivery]
+    @Test
+    public void onDelivery_accepted_completes_future()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = createOpenHandler();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        new Expectations()
+        {
+            {
+                event.getDelivery();
+                result = delivery;
+                delivery.getRemoteState();
+                result = Accepted.getInstance();
+                delivery.getContext();
+                result = future;
+            }
+        };
+        // Act
+        handler.onDelivery(event);
+        // Assert
+        assertTrue(future.isDone());
+        assertFalse(future.isCompletedExceptionally());
+        new Verifications()
+        {
+            {
+                delivery.settle();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_016: [If the remote state is not Accepted, the event handler shall complete the message future exceptionally with IOException]
+    @Test
+    public void onDelivery_rejected_fails_future()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = createOpenHandler();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        new Expectations()
+        {
+            {
+                event.getDelivery();
+                result = delivery;
+                delivery.getRemoteState();
+                result = new Rejected();
+                delivery.getContext();
+                result = future;
+            }
+        };
+        // Act
+        handler.onDelivery(event);
+        // Assert
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_014: [The event handler shall do nothing if the delivery has no remote state]
+    @Test
+    public void onDelivery_without_remote_state_does_nothing()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = createOpenHandler();
+        new Expectations()
+        {
+            {
+                event.getDelivery();
+                result = delivery;
+                delivery.getRemoteState();
+                result = null;
+            }
+        };
+        // Act
+        handler.onDelivery(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                delivery.settle();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_023: [The function shall return the future which completes when the link is closed and its messages have been failed]
+    @Test
+    public void onLinkRemoteClose_completes_link_closed_future_after_failing_messages()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = new AmqpPersistentSendHandler(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        CompletableFuture<Void> future = handler.enqueue(deviceId, iotMessage);
+        final boolean[] messageFailedFirst = new boolean[1];
+        handler.getLinkClosedFuture().thenRun(() -> messageFailedFirst[0] = future.isCompletedExceptionally());
+        assertFalse(handler.getLinkClosedFuture().isDone());
+        // Act
+        handler.onLinkRemoteClose(event);
+        // Assert
+        assertTrue(handler.getLinkClosedFuture().isDone());
+        assertTrue(messageFailedFirst[0]);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_018: [The event handler shall fail the link opened future and all pending messages with IOException]
+    @Test
+    public void onLinkRemoteClose_fails_pending_messages()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = new AmqpPersistentSendHandler(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        CompletableFuture<Void> future = handler.enqueue(deviceId, iotMessage);
+        // Act
+        handler.onLinkRemoteClose(event);
+        // Assert
+        assertTrue(future.isCompletedExceptionally());
+        assertTrue(handler.getLinkOpenedFuture().isCompletedExceptionally());
+        assertTrue(handler.isLinkClosed());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_009: [The function shall close the Sender, Session and Connection if they have been created and are not closed yet]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_010: [The function shall fail all pending messages with IOException]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_021: [The event handler shall save the Connection so it can be closed before the link is open]
+    @Test
+    public void closeLink_closes_link_session_and_connection()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = createOpenHandler();
+        new Expectations()
+        {
+            {
+                event.getConnection();
+                result = connection;
+                connection.getLocalState();
+                result = EndpointState.ACTIVE;
+                sender.getSession();
+                result = session;
+                sender.head();
+                result = null;
+            }
+        };
+        handler.onConnectionInit(event);
+        CompletableFuture<Void> future = handler.enqueue(deviceId, iotMessage);
+        // Act
+        handler.closeLink();
+        // Assert
+        assertTrue(future.isCompletedExceptionally());
+        new Verifications()
+        {
+            {
+                sender.close();
+                session.close();
+                connection.close();
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_011: [The event handler shall set the SenderSettleMode to UNSETTLED so every delivery gets a disposition]
+    @Test
+    public void onLinkInit_sets_unsettled_mode()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = new AmqpPersistentSendHandler(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                event.getLink();
+                result = sender;
+            }
+        };
+        // Act
+        handler.onLinkInit(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                sender.setSenderSettleMode(SenderSettleMode.UNSETTLED);
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSENDHANDLER_21_022: [The function shall return true only if no message is queued and no delivery is unsettled]
+    @Test
+    public void isIdle_false_while_deliveries_unsettled()
+    {
+        // Arrange
+        AmqpPersistentSendHandler handler = createOpenHandler();
+        new Expectations()
+        {
+            {
+                sender.getUnsettled();
+                returns(1, 0);
+            }
+        };
+        // Act
+        boolean idleWithUnsettled = handler.isIdle();
+        boolean idleWhenSettled = handler.isIdle();
+        handler.enqueue(deviceId, iotMessage);
+        boolean idleWithPending = handler.isIdle();
+        // Assert
+        assertFalse(idleWithUnsettled);
+        assertTrue(idleWhenSettled);
+        assertFalse(idleWithPending);
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
+import com.microsoft.azure.sdk.iot.service.sdk.Message;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Injectable;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.Handler;
+import org.apache.qpid.proton.reactor.Reactor;
+import org.apache.qpid.proton.reactor.Task;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for AmqpPersistentSend */
+@RunWith(JMockit.class)
+public class AmqpPersistentSendTest
+{
+    @Mocked Proton proton;
+    @Mocked Reactor reactor;
+    @Mocked Event event;
+    @Mocked AmqpPersistentSendHandler amqpPersistentSendHandler;
+    @Mocked IotHubServiceSasTokenProvider sasTokenProvider;
+    @Mocked Task renewalTask;
+
+    private final String hostName = "aaa";
+    private final String userName = "bbb";
+    private final String sasToken = "ccc";
+    private final String deviceId = "deviceId";
+    private final Message message = new Message("abcdefghijklmnopqrst".getBytes());
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_001: [The constructor shall call the AmqpSend constructor with the given parameters]
+    @Test
+    public void constructor_copies_params_to_members()
+    {
+        // Act
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS_WS);
+        // Assert
+        assertEquals(hostName, amqpPersistentSend.hostName);
+        assertEquals(userName, amqpPersistentSend.userName);
+        assertEquals(sasToken, amqpPersistentSend.sasToken);
+        assertEquals(IotHubServiceClientProtocol.AMQPS_WS, amqpPersistentSend.iotHubServiceClientProtocol);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_001: [The constructor shall call the AmqpSend constructor with the given parameters]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructor_checks_if_hostName_null()
+    {
+        // Act
+        new AmqpPersistentSend(null, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_005: [The function shall create an AmqpPersistentSendHandler object to handle reactor events]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_006: [The function shall initialize the Proton reactor object and run it on a dedicated thread]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_007: [The function shall wait for the sender link to be opened and throw IOException if it fails or times out]
+    @Test
+    public void open_starts_reactor_and_waits_for_link() throws Exception
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.getLinkOpenedFuture();
+                result = CompletableFuture.completedFuture(null);
+            }
+        };
+        // Act
+        amqpPersistentSend.open();
+        // Assert
+        assertNotNull(amqpPersistentSend.amqpSendHandler);
+        new Verifications()
+        {
+            {
+                Proton.reactor(amqpPersistentSend);
+                times = 1;
+            }
+        };
+        amqpPersistentSend.close();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_004: [The function shall do nothing if the connection is already open]
+    @Test
+    public void open_twice_creates_one_reactor() throws Exception
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.getLinkOpenedFuture();
+                result = CompletableFuture.completedFuture(null);
+                amqpPersistentSendHandler.isLinkClosed();
+                result = false;
+            }
+        };
+        // Act
+        amqpPersistentSend.open();
+        amqpPersistentSend.open();
+        // Assert
+        new Verifications()
+        {
+            {
+                Proton.reactor(amqpPersistentSend);
+                times = 1;
+            }
+        };
+        amqpPersistentSend.close();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_007: [The function shall wait for the sender link to be opened and throw IOException if it fails or times out]
+    @Test (expected = IOException.class)
+    public void open_throws_if_link_fails_to_open() throws Exception
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        CompletableFuture<Void> failedFuture = new CompletableFuture<>();
+        failedFuture.completeExceptionally(new IOException());
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.getLinkOpenedFuture();
+                result = failedFuture;
+            }
+        };
+        // Act
+        amqpPersistentSend.open();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_008: [The function shall do nothing if the connection is not open]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_009: [The function shall request the reactor thread to close the link and wake up the reactor]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_010: [The function shall wait for the reactor thread to terminate and invalidate the send handler]
+    @Test
+    public void close_wakes_up_reactor_and_invalidates_handler() throws Exception
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.getLinkOpenedFuture();
+                result = CompletableFuture.completedFuture(null);
+            }
+        };
+        amqpPersistentSend.open();
+        // Act
+        amqpPersistentSend.close();
+        amqpPersistentSend.close();
+        // Assert
+        assertNull(amqpPersistentSend.amqpSendHandler);
+        assertTrue(Deencapsulation.getField(amqpPersistentSend, "closeRequested"));
+        new Verifications()
+        {
+            {
+                reactor.wakeup();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_002: [If close has been requested, the event handler shall close the link on the send handler]
+    @Test
+    public void onReactorQuiesced_closes_link_when_close_requested()
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentSend, "amqpPersistentSendHandler", amqpPersistentSendHandler);
+        Deencapsulation.setField(amqpPersistentSend, "closeRequested", true);
+        // Act
+        amqpPersistentSend.onReactorQuiesced(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                amqpPersistentSendHandler.closeLink();
+                times = 1;
+                amqpPersistentSendHandler.drain();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_003: [The event handler shall drain the queued messages on the send handler]
+    @Test
+    public void onReactorQuiesced_drains_queue()
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentSend, "amqpPersistentSendHandler", amqpPersistentSendHandler);
+        // Act
+        amqpPersistentSend.onReactorQuiesced(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                amqpPersistentSendHandler.drain();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_011: [The function shall return a future completed exceptionally with IOException if the connection is not open]
+    @Test
+    public void sendAsync_fails_when_not_open()
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        // Act
+        CompletableFuture<Void> future = amqpPersistentSend.sendAsync(deviceId, message);
+        // Assert
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_012: [The function shall queue the message on the send handler and wake up the reactor]
+    @Test
+    public void sendAsync_enqueues_and_wakes_up_reactor()
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentSend, "amqpPersistentSendHandler", amqpPersistentSendHandler);
+        amqpPersistentSend.reactor = reactor;
+        CompletableFuture<Void> queuedFuture = new CompletableFuture<>();
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.enqueue(deviceId, message);
+                result = queuedFuture;
+            }
+        };
+        // Act
+        CompletableFuture<Void> future = amqpPersistentSend.sendAsync(deviceId, message);
+        // Assert
+        assertEquals(queuedFuture, future);
+        new Verifications()
+        {
+            {
+                reactor.wakeup();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_013: [The function shall call sendAsync and wait for the result, rethrowing any failure as IOException]
+    @Test (expected = IOException.class)
+    public void send_rethrows_disposition_failure() throws Exception
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentSend, "amqpPersistentSendHandler", amqpPersistentSendHandler);
+        amqpPersistentSend.reactor = reactor;
+        CompletableFuture<Void> failedFuture = new CompletableFuture<>();
+        failedFuture.completeExceptionally(new IOException("rejected"));
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.enqueue(deviceId, message);
+                result = failedFuture;
+            }
+        };
+        // Act
+        amqpPersistentSend.send(deviceId, message);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_015: [The constructor shall call the AmqpSend constructor with the given parameters]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_016: [If there is a SAS token provider, the event handler shall schedule the renewal of the connection when the token is due for renewal]
+    @Test
+    public void onReactorInit_schedules_renewal_with_sasTokenProvider()
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        new Expectations()
+        {
+            {
+                event.getReactor();
+                result = reactor;
+                sasTokenProvider.getMillisUntilRenewal();
+                result = 2700000L;
+            }
+        };
+        // Act
+        amqpPersistentSend.onReactorInit(event);
+        // Assert
+        assertEquals(sasTokenProvider, amqpPersistentSend.sasTokenProvider);
+        new Verifications()
+        {
+            {
+                reactor.schedule(2700000, (Handler) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_016: [If there is a SAS token provider, the event handler shall schedule the renewal of the connection when the token is due for renewal]
+    @Test
+    public void onReactorInit_does_not_schedule_renewal_without_sasTokenProvider()
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        // Act
+        amqpPersistentSend.onReactorInit(event);
+        // Assert
+        new Verifications()
+        {
+            {
+                reactor.schedule(anyInt, (Handler) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_017: [The renewal shall open a new connection with the current token of the provider,
+    // make it the connection of the next messages, retire the previous one and schedule the next renewal]
+    @Test
+    public void renewConnection_opens_new_connection_and_retires_previous(@Injectable AmqpPersistentSendHandler previousHandler)
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentSend, "amqpPersistentSendHandler", previousHandler);
+        new Expectations()
+        {
+            {
+                sasTokenProvider.getSasToken();
+                result = "renewed-token";
+            }
+        };
+        // Act
+        amqpPersistentSend.renewConnection(reactor);
+        // Assert
+        AmqpPersistentSendHandler renewedHandler = Deencapsulation.getField(amqpPersistentSend, "amqpPersistentSendHandler");
+        assertNotSame(previousHandler, renewedHandler);
+        assertEquals(renewedHandler, amqpPersistentSend.amqpSendHandler);
+        assertEquals(previousHandler, Deencapsulation.getField(amqpPersistentSend, "retiringSendHandler"));
+        new Verifications()
+        {
+            {
+                sasTokenProvider.getSasToken();
+                times = 1;
+                reactor.connection((Handler) any);
+                times = 1;
+                reactor.schedule(anyInt, (Handler) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_018: [The event handler shall drain the link replaced by a renewal, and close it once it is idle]
+    @Test
+    public void onReactorQuiesced_closes_idle_retiring_link(@Injectable AmqpPersistentSendHandler retiringHandler)
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentSend, "amqpPersistentSendHandler", amqpPersistentSendHandler);
+        Deencapsulation.setField(amqpPersistentSend, "retiringSendHandler", retiringHandler);
+        new Expectations()
+        {
+            {
+                retiringHandler.isIdle();
+                result = true;
+            }
+        };
+        // Act
+        amqpPersistentSend.onReactorQuiesced(event);
+        // Assert
+        assertNull(Deencapsulation.getField(amqpPersistentSend, "retiringSendHandler"));
+        new Verifications()
+        {
+            {
+                retiringHandler.drain();
+                times = 1;
+                retiringHandler.closeLink();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_019: [If close has been requested, the event handler shall also close the link replaced by a renewal, and cancel the next renewal]
+    @Test
+    public void onReactorQuiesced_close_requested_cancels_renewal(@Injectable AmqpPersistentSendHandler retiringHandler)
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        Deencapsulation.setField(amqpPersistentSend, "amqpPersistentSendHandler", amqpPersistentSendHandler);
+        Deencapsulation.setField(amqpPersistentSend, "retiringSendHandler", retiringHandler);
+        AmqpRenewalTimer renewalTimer = Deencapsulation.getField(amqpPersistentSend, "renewalTimer");
+        Deencapsulation.setField(renewalTimer, "task", renewalTask);
+        Deencapsulation.setField(amqpPersistentSend, "closeRequested", true);
+        // Act
+        amqpPersistentSend.onReactorQuiesced(event);
+        // Assert
+        assertNull(Deencapsulation.getField(amqpPersistentSend, "retiringSendHandler"));
+        assertNull(Deencapsulation.getField(renewalTimer, "task"));
+        new Verifications()
+        {
+            {
+                retiringHandler.closeLink();
+                times = 1;
+                renewalTask.cancel();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_020: [If the link of the next messages is lost after open() succeeded and close has not been requested,
+    // the send shall schedule a reconnection after a back-off, doubled after every reconnection up to MAX_RECONNECT_DELAY_MS]
+    @Test
+    public void link_lost_after_open_schedules_reconnection() throws Exception
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        CompletableFuture<Void> linkClosedFuture = new CompletableFuture<>();
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.getLinkOpenedFuture();
+                result = CompletableFuture.completedFuture(null);
+                amqpPersistentSendHandler.getLinkClosedFuture();
+                result = linkClosedFuture;
+            }
+        };
+        amqpPersistentSend.open();
+        // Act
+        linkClosedFuture.complete(null);
+        // Assert
+        assertNotNull(Deencapsulation.getField(amqpPersistentSend, "reconnectTask"));
+        assertEquals(2000L, (long)Deencapsulation.getField(amqpPersistentSend, "reconnectDelayMillis"));
+        new Verifications()
+        {
+            {
+                reactor.schedule(1000, (Handler) any);
+                times = 1;
+            }
+        };
+        amqpPersistentSend.close();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_020: [If the link of the next messages is lost after open() succeeded and close has not been requested,
+    // the send shall schedule a reconnection after a back-off, doubled after every reconnection up to MAX_RECONNECT_DELAY_MS]
+    @Test
+    public void link_closed_by_close_does_not_schedule_reconnection() throws Exception
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        CompletableFuture<Void> linkClosedFuture = new CompletableFuture<>();
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.getLinkOpenedFuture();
+                result = CompletableFuture.completedFuture(null);
+                amqpPersistentSendHandler.getLinkClosedFuture();
+                result = linkClosedFuture;
+            }
+        };
+        amqpPersistentSend.open();
+        amqpPersistentSend.close();
+        // Act
+        linkClosedFuture.complete(null);
+        // Assert
+        new Verifications()
+        {
+            {
+                reactor.schedule(anyInt, (Handler) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_021: [The reconnection shall open a new connection with the current SAS token and make it the connection of the next messages]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPPERSISTENTSEND_21_022: [Once the new link is open, the back-off of the next reconnection shall start again from its minimum]
+    @Test
+    public void reconnect_opens_new_connection_and_retires_lost_one()
+    {
+        // Arrange
+        AmqpPersistentSend amqpPersistentSend = new AmqpPersistentSend(hostName, userName, sasToken, IotHubServiceClientProtocol.AMQPS);
+        AmqpPersistentSendHandler lostHandler = amqpPersistentSendHandler;
+        Deencapsulation.setField(amqpPersistentSend, "amqpPersistentSendHandler", lostHandler);
+        Deencapsulation.setField(amqpPersistentSend, "reconnectTask", renewalTask);
+        Deencapsulation.setField(amqpPersistentSend, "reconnectDelayMillis", 8000L);
+        CompletableFuture<Void> linkOpenedFuture = new CompletableFuture<>();
+        new Expectations()
+        {
+            {
+                amqpPersistentSendHandler.getLinkOpenedFuture();
+                result = linkOpenedFuture;
+            }
+        };
+        // Act
+        amqpPersistentSend.reconnect(reactor);
+        linkOpenedFuture.complete(null);
+        // Assert
+        AmqpPersistentSendHandler newHandler = Deencapsulation.getField(amqpPersistentSend, "amqpPersistentSendHandler");
+        assertNotSame(lostHandler, newHandler);
+        assertEquals(newHandler, amqpPersistentSend.amqpSendHandler);
+        assertEquals(lostHandler, Deencapsulation.getField(amqpPersistentSend, "retiringSendHandler"));
+        assertNull(Deencapsulation.getField(amqpPersistentSend, "reconnectTask"));
+        assertEquals(1000L, (long)Deencapsulation.getField(amqpPersistentSend, "reconnectDelayMillis"));
+        new Verifications()
+        {
+            {
+                reactor.connection((Handler) any);
+                times = 1;
+            }
+        };
+    }
+}
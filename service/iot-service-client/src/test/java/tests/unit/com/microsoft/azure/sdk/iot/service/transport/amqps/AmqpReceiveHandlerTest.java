@@ -10,6 +10,7 @@ import com.microsoft.azure.sdk.iot.deps.ws.impl.WebSocketImpl;
 import mockit.Deencapsulation;
 import mockit.Expectations;
 import mockit.Mocked;
+import mockit.Verifications;
 import mockit.integration.junit4.JMockit;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Symbol;
@@ -90,6 +91,29 @@ public class AmqpReceiveHandlerTest
         assertEquals(amqpFeedbackReceivedEvent, _amqpFeedbackReceivedEvent);
     }
 
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPFEEDBACKRECEIVEDHANDLER_21_018: [If automatic flow control is disabled, the constructor shall not add the FlowController, so the link credit is granted by the subclass]
+    @Test
+    public void amqpReceiveHandler_without_automatic_flow_control_does_not_create_flow_controller()
+    {
+        // Arrange
+        String hostName = "aaa";
+        String userName = "bbb";
+        String sasToken = "ccc";
+        IotHubServiceClientProtocol iotHubServiceClientProtocol = IotHubServiceClientProtocol.AMQPS;
+        // Act
+        new AmqpFeedbackReceivedHandler(hostName, userName, sasToken, iotHubServiceClientProtocol, amqpFeedbackReceivedEvent, false);
+        // Assert
+        new Verifications()
+        {
+            {
+                new Handshaker();
+                times = 1;
+                new FlowController();
+                times = 0;
+            }
+        };
+    }
+
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPFEEDBACKRECEIVEDHANDLER_12_004: [The event handler shall get the Link, Receiver and Delivery (Proton) objects from the event]
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPFEEDBACKRECEIVEDHANDLER_12_005: [The event handler shall read the received buffer]            int size = delivery.pending();
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPFEEDBACKRECEIVEDHANDLER_12_006: [The event handler shall create a Message (Proton) object from the decoded buffer]
@@ -5,6 +5,7 @@
 
 package com.microsoft.azure.sdk.iot.service.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.sdk.FeedbackBatchMessage;
 import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
 import mockit.Deencapsulation;
@@ -57,6 +58,19 @@ public class AmqpReceiveTest
         assertEquals(sasToken, _sasToken);
     }
 
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_21_012: [The constructor shall copy all input parameters to private member variables for event processing]
+    @Test
+    public void amqpReceive_init_with_sasTokenProvider_ok(@Mocked IotHubServiceSasTokenProvider sasTokenProvider)
+    {
+        // Act
+        AmqpReceive amqpReceive = new AmqpReceive("aaa", "bbb", sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        // Assert
+        assertEquals("aaa", Deencapsulation.getField(amqpReceive, "hostName"));
+        assertEquals("bbb", Deencapsulation.getField(amqpReceive, "userName"));
+        assertEquals(sasTokenProvider, Deencapsulation.getField(amqpReceive, "sasTokenProvider"));
+        assertNull(Deencapsulation.getField(amqpReceive, "sasToken"));
+    }
+
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_12_002: [The event handler shall set the member AmqpsReceiveHandler object to handle the given connection events]
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_12_003: [The function shall create an AmqpsReceiveHandler object to handle reactor events]
     // Tests_SRS_SERVICE_SDK_JAVA_AMQPRECEIVE_12_004: [The function shall invalidate the member AmqpsReceiveHandler object]
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package com.microsoft.azure.sdk.iot.service.transport.amqps;
+
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.apache.qpid.proton.engine.BaseHandler;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.Handler;
+import org.apache.qpid.proton.reactor.Reactor;
+import org.apache.qpid.proton.reactor.Task;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for AmqpRenewalTimer */
+@RunWith(JMockit.class)
+public class AmqpRenewalTimerTest
+{
+    @Mocked Reactor reactor;
+    @Mocked Event event;
+    @Mocked Task task;
+    @Mocked IotHubServiceSasTokenProvider sasTokenProvider;
+
+    private final List<Reactor> renewals = new ArrayList<>();
+
+    private void expireTimer(AmqpRenewalTimer renewalTimer)
+    {
+        BaseHandler timerHandler = Deencapsulation.getField(renewalTimer, "timerHandler");
+        timerHandler.onTimerTask(event);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_001: [The function shall do nothing if there is no SAS token provider]
+    @Test
+    public void schedule_does_nothing_without_sasTokenProvider()
+    {
+        // Arrange
+        AmqpRenewalTimer renewalTimer = new AmqpRenewalTimer(null, renewals::add);
+        // Act
+        renewalTimer.schedule(reactor);
+        // Assert
+        new Verifications()
+        {
+            {
+                reactor.schedule(anyInt, (Handler) any);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_002: [The function shall schedule the timer for the time until the renewal of the token,
+    // at least MIN_RENEWAL_DELAY_MS and at most the largest delay of a reactor timer]
+    @Test
+    public void schedule_caps_delay_to_largest_reactor_timer()
+    {
+        // Arrange
+        AmqpRenewalTimer renewalTimer = new AmqpRenewalTimer(sasTokenProvider, renewals::add);
+        new Expectations()
+        {
+            {
+                sasTokenProvider.getMillisUntilRenewal();
+                returns(100L * 24 * 3600 * 1000, 0L);
+            }
+        };
+        // Act
+        renewalTimer.schedule(reactor);
+        renewalTimer.schedule(reactor);
+        // Assert
+        new Verifications()
+        {
+            {
+                reactor.schedule(Integer.MAX_VALUE, (Handler) any);
+                times = 1;
+                reactor.schedule(1000, (Handler) any);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_004: [If the timer expires at least MIN_RENEWAL_DELAY_MS before the renewal time,
+    // the timer shall be scheduled again for the remaining time, without renewing]
+    @Test
+    public void timer_expired_before_renewal_time_is_scheduled_again()
+    {
+        // Arrange
+        AmqpRenewalTimer renewalTimer = new AmqpRenewalTimer(sasTokenProvider, renewals::add);
+        new Expectations()
+        {
+            {
+                event.getReactor();
+                result = reactor;
+                sasTokenProvider.getMillisUntilRenewal();
+                returns(100L * 24 * 3600 * 1000, 75L * 24 * 3600 * 1000, 75L * 24 * 3600 * 1000);
+            }
+        };
+        renewalTimer.schedule(reactor);
+        // Act
+        expireTimer(renewalTimer);
+        // Assert
+        assertTrue(renewals.isEmpty());
+        new Verifications()
+        {
+            {
+                reactor.schedule(Integer.MAX_VALUE, (Handler) any);
+                times = 2;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_005: [Otherwise the timer shall run the renewal]
+    @Test
+    public void timer_expired_at_renewal_time_runs_renewal()
+    {
+        // Arrange
+        AmqpRenewalTimer renewalTimer = new AmqpRenewalTimer(sasTokenProvider, renewals::add);
+        new Expectations()
+        {
+            {
+                event.getReactor();
+                result = reactor;
+                sasTokenProvider.getMillisUntilRenewal();
+                returns(2700000L, 0L);
+            }
+        };
+        renewalTimer.schedule(reactor);
+        // Act
+        expireTimer(renewalTimer);
+        // Assert
+        assertEquals(1, renewals.size());
+        assertEquals(reactor, renewals.get(0));
+        assertNull(Deencapsulation.getField(renewalTimer, "task"));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPRENEWALTIMER_21_003: [The function shall cancel the scheduled timer, if any]
+    @Test
+    public void cancel_cancels_scheduled_timer()
+    {
+        // Arrange
+        AmqpRenewalTimer renewalTimer = new AmqpRenewalTimer(sasTokenProvider, renewals::add);
+        new Expectations()
+        {
+            {
+                reactor.schedule(anyInt, (Handler) any);
+                result = task;
+            }
+        };
+        renewalTimer.schedule(reactor);
+        // Act
+        renewalTimer.cancel();
+        renewalTimer.cancel();
+        // Assert
+        assertNull(Deencapsulation.getField(renewalTimer, "task"));
+        new Verifications()
+        {
+            {
+                task.cancel();
+                times = 1;
+            }
+        };
+    }
+}
@@ -5,10 +5,13 @@
 
 package com.microsoft.azure.sdk.iot.service.transport.amqps;
 
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasTokenProvider;
 import com.microsoft.azure.sdk.iot.service.sdk.IotHubServiceClientProtocol;
 import com.microsoft.azure.sdk.iot.service.sdk.Message;
 import mockit.Expectations;
 import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
 import mockit.integration.junit4.JMockit;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.engine.Connection;
@@ -21,6 +24,7 @@ import org.junit.runner.RunWith;
 import java.io.IOException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 
 /** Unit tests for AmqpSend */
@@ -272,4 +276,50 @@ public class AmqpSendTest
         // Act
         amqpSend.send(deviceId, message);
     }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPSEND_21_010: [The constructor shall throw IllegalArgumentException if the hostName or the userName is null or empty, or if the sasTokenProvider is null]
+    // Assert
+    @Test (expected = IllegalArgumentException.class)
+    public void constructor_checks_if_sasTokenProvider_null()
+    {
+        // Arrange
+        IotHubServiceSasTokenProvider sasTokenProvider = null;
+        // Act
+        new AmqpSend("aaa", "bbb", sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPSEND_21_011: [The constructor shall copy all input parameters to private member variables for event processing]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPSEND_21_012: [The function shall return the current token of the provider if there is one, or the SAS token given to the constructor]
+    // Tests_SRS_SERVICE_SDK_JAVA_AMQPSEND_21_013: [If there is a SAS token provider, the function shall create a new AmqpsSendHandler with its current token, as every send opens a new connection]
+    @Test
+    public void send_with_sasTokenProvider_uses_current_token(@Mocked IotHubServiceSasTokenProvider sasTokenProvider) throws Exception
+    {
+        // Arrange
+        String deviceId = "deviceId";
+        Message message = new Message("abcdefghijklmnopqrst");
+        new NonStrictExpectations()
+        {
+            {
+                sasTokenProvider.getSasToken();
+                returns("first-token", "second-token");
+            }
+        };
+        AmqpSend amqpSend = new AmqpSend("aaa", "bbb", sasTokenProvider, IotHubServiceClientProtocol.AMQPS);
+        amqpSend.open();
+        AmqpSendHandler openedHandler = amqpSend.amqpSendHandler;
+        // Act
+        amqpSend.send(deviceId, message);
+        // Assert
+        assertEquals(sasTokenProvider, amqpSend.sasTokenProvider);
+        assertNull(amqpSend.sasToken);
+        assertNotSame(openedHandler, amqpSend.amqpSendHandler);
+        assertEquals("second-token", amqpSend.amqpSendHandler.sasToken);
+        new Verifications()
+        {
+            {
+                sasTokenProvider.getSasToken();
+                times = 2;
+            }
+        };
+    }
 }
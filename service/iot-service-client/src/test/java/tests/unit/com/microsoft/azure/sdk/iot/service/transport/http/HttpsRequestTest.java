@@ -13,6 +13,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -20,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 /** Unit tests for HttpRequest. */
@@ -635,4 +637,126 @@ public class HttpsRequestTest
             }
         };
     }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_011: [The function shall send an HTTPS request as formatted in the constructor, and shall not read the response body.]
+    @Test
+    public void sendStreamingDoesNotReadResponseBody(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Arrange
+        final Map<String, List<String>> headerFields = new HashMap<>();
+        headerFields.put("x-ms-continuation", new LinkedList<String>());
+        headerFields.get("x-ms-continuation").add("token");
+        new NonStrictExpectations()
+        {
+            {
+                mockConn.getResponseStatus();
+                result = 200;
+                mockConn.getResponseHeaders();
+                result = headerFields;
+            }
+        };
+        HttpRequest request = new HttpRequest(mockUrl, HttpMethod.POST, new byte[0]);
+        // Act
+        HttpResponse response = request.sendStreaming();
+        // Assert
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getBody().length, is(0));
+        assertThat(response.getHeaderField("x-ms-continuation"), is("token"));
+        new Verifications()
+        {
+            {
+                mockConn.connect();
+                times = 1;
+                mockConn.readInput();
+                times = 0;
+                mockConn.getInputStream();
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_012: [If the client cannot connect to the server, the function shall throw an IOException. If an I/O exception occurs because of a bad response status code, the function shall read the error stream into the error reason of the response.]
+    @Test
+    public void sendStreamingReadsErrorReasonForBadStatus(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Arrange
+        final byte[] errorReason = { 1, 2, 3 };
+        new NonStrictExpectations()
+        {
+            {
+                mockConn.connect();
+                result = new IOException();
+                mockConn.getResponseStatus();
+                result = 404;
+                mockConn.getResponseHeaders();
+                result = new HashMap<String, List<String>>();
+                mockConn.readError();
+                result = errorReason;
+            }
+        };
+        HttpRequest request = new HttpRequest(mockUrl, HttpMethod.POST, new byte[0]);
+        // Act
+        HttpResponse response = request.sendStreaming();
+        // Assert
+        assertThat(response.getStatus(), is(404));
+        assertThat(response.getErrorReason(), is(errorReason));
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_012: [If the client cannot connect to the server, the function shall throw an IOException. If an I/O exception occurs because of a bad response status code, the function shall read the error stream into the error reason of the response.]
+    @Test(expected = IOException.class)
+    public void sendStreamingThrowsIOExceptionIfCannotConnect(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConn.connect();
+                result = new IOException();
+                mockConn.getResponseStatus();
+                result = new IOException();
+            }
+        };
+        HttpRequest request = new HttpRequest(mockUrl, HttpMethod.POST, new byte[0]);
+        // Act
+        request.sendStreaming();
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_013: [The function shall return the input stream of the connection without reading it.]
+    @Test
+    public void getResponseStreamReturnsConnectionInputStream(@Mocked final HttpConnection mockConn,
+                                                              @Mocked final InputStream mockStream) throws IOException
+    {
+        // Arrange
+        new NonStrictExpectations()
+        {
+            {
+                mockConn.getInputStream();
+                result = mockStream;
+            }
+        };
+        HttpRequest request = new HttpRequest(mockUrl, HttpMethod.POST, new byte[0]);
+        // Act
+        InputStream stream = request.getResponseStream();
+        // Assert
+        assertThat(stream, is(sameInstance(mockStream)));
+        new Verifications()
+        {
+            {
+                mockStream.read((byte[]) any, anyInt, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_HTTPREQUEST_21_014: [The function shall return the URL given in the constructor.]
+    @Test
+    public void getUrlReturnsUrl(@Mocked final HttpConnection mockConn) throws IOException
+    {
+        // Arrange
+        HttpRequest request = new HttpRequest(mockUrl, HttpMethod.GET, new byte[0]);
+        // Act
+        URL url = request.getUrl();
+        // Assert
+        assertThat(url, is(sameInstance(mockUrl)));
+    }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ */
+
+package tests.unit.com.microsoft.azure.sdk.iot.service.transport.http;
+
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpRequest;
+import com.microsoft.azure.sdk.iot.service.transport.http.HttpResponse;
+import com.microsoft.azure.sdk.iot.service.transport.http.PooledHttpEngine;
+import mockit.*;
+import mockit.integration.junit4.JMockit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Unit tests for PooledHttpEngine. */
+@RunWith(JMockit.class)
+public class PooledHttpEngineTest
+{
+    @Mocked HttpRequest mockRequest;
+    @Mocked HttpResponse mockResponse;
+    @Mocked URL mockUrl;
+
+    /** Executor which runs the tasks only when the test asks for it. */
+    private final Queue<Runnable> tasks = new LinkedList<>();
+    private final Executor queuedExecutor = tasks::add;
+
+    private void hostExpectations(final String... hosts) throws IOException
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockRequest.getUrl();
+                result = mockUrl;
+                mockUrl.getHost();
+                returns(hosts[0], (Object[]) Arrays.copyOfRange(hosts, 1, hosts.length));
+                mockRequest.send();
+                result = mockResponse;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_001: [The constructor shall throw IllegalArgumentException if maxConnectionsPerHost is less than 1]
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfMaxConnectionsPerHostIsZero()
+    {
+        new PooledHttpEngine(queuedExecutor, 0);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_003: [The function shall throw IllegalArgumentException if the request is null]
+    @Test (expected = IllegalArgumentException.class)
+    public void sendAsyncThrowsIfRequestIsNull()
+    {
+        new PooledHttpEngine(queuedExecutor, 1).sendAsync(null);
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_005: [The function shall queue the request for the host and port of its URL, and send it on the executor once less than maxConnectionsPerHost requests are being sent to that host]
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_006: [The request shall be sent with HttpRequest.send(), and its future completed with the response or the exception thrown]
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_007: [Once a request is sent, the engine shall send the next request queued for the host before completing its future]
+    @Test
+    public void sendAsyncSendsAtMostMaxConnectionsPerHostAtATime() throws Exception
+    {
+        hostExpectations("aaa.bbb.ccc");
+        PooledHttpEngine engine = new PooledHttpEngine(queuedExecutor, 2);
+
+        CompletableFuture<HttpResponse> first = engine.sendAsync(mockRequest);
+        engine.sendAsync(mockRequest);
+        CompletableFuture<HttpResponse> third = engine.sendAsync(mockRequest);
+
+        assertEquals(2, tasks.size());
+        tasks.poll().run();
+        assertSame(mockResponse, first.get());
+        assertEquals(2, tasks.size());
+        assertFalse(third.isDone());
+        tasks.poll().run();
+        tasks.poll().run();
+        assertSame(mockResponse, third.get());
+        assertTrue(tasks.isEmpty());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_005: [The function shall queue the request for the host and port of its URL, and send it on the executor once less than maxConnectionsPerHost requests are being sent to that host]
+    @Test
+    public void sendAsyncLimitsEachHostSeparately() throws IOException
+    {
+        hostExpectations("aaa.bbb.ccc", "ddd.eee.fff");
+        PooledHttpEngine engine = new PooledHttpEngine(queuedExecutor, 1);
+
+        engine.sendAsync(mockRequest);
+        engine.sendAsync(mockRequest);
+
+        assertEquals(2, tasks.size());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_006: [The request shall be sent with HttpRequest.send(), and its future completed with the response or the exception thrown]
+    @Test
+    public void sendAsyncCompletesWithIOExceptionOfSend() throws Exception
+    {
+        final IOException sendException = new IOException();
+        new NonStrictExpectations()
+        {
+            {
+                mockRequest.send();
+                result = sendException;
+            }
+        };
+        PooledHttpEngine engine = new PooledHttpEngine(queuedExecutor, 1);
+
+        CompletableFuture<HttpResponse> future = engine.sendAsync(mockRequest);
+        tasks.poll().run();
+
+        try
+        {
+            future.get();
+            fail("sendAsync shall complete exceptionally");
+        }
+        catch (ExecutionException e)
+        {
+            assertSame(sendException, e.getCause());
+        }
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_004: [If the engine is closed, the function shall return a future completed with an IOException]
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_008: [The function shall complete the queued requests with an IOException, and shut down the thread pool created by the constructor but not the executor given by the caller]
+    @Test
+    public void closeFailsQueuedAndLaterRequests() throws Exception
+    {
+        hostExpectations("aaa.bbb.ccc");
+        PooledHttpEngine engine = new PooledHttpEngine(queuedExecutor, 1);
+        CompletableFuture<HttpResponse> sending = engine.sendAsync(mockRequest);
+        CompletableFuture<HttpResponse> queued = engine.sendAsync(mockRequest);
+
+        engine.close();
+        CompletableFuture<HttpResponse> afterClose = engine.sendAsync(mockRequest);
+        tasks.poll().run();
+
+        assertSame(mockResponse, sending.get());
+        assertTrue(queued.isCompletedExceptionally());
+        assertTrue(afterClose.isCompletedExceptionally());
+        assertTrue(tasks.isEmpty());
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_002: [If the executor is null, the constructor shall create a cached thread pool to send the requests]
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_008: [The function shall complete the queued requests with an IOException, and shut down the thread pool created by the constructor but not the executor given by the caller]
+    @Test
+    public void closeShutsDownOwnedThreadPool(@Mocked final Executors mockExecutors,
+                                              @Mocked final ExecutorService mockExecutorService)
+    {
+        new NonStrictExpectations()
+        {
+            {
+                Executors.newCachedThreadPool();
+                result = mockExecutorService;
+            }
+        };
+        PooledHttpEngine engine = new PooledHttpEngine();
+
+        engine.close();
+
+        new Verifications()
+        {
+            {
+                Executors.newCachedThreadPool();
+                times = 1;
+                mockExecutorService.shutdown();
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_SERVICE_SDK_JAVA_POOLEDHTTPENGINE_21_008: [The function shall complete the queued requests with an IOException, and shut down the thread pool created by the constructor but not the executor given by the caller]
+    @Test
+    public void closeDoesNotShutDownExecutorOfCaller(@Mocked final ExecutorService mockExecutorService)
+    {
+        PooledHttpEngine engine = new PooledHttpEngine(mockExecutorService, 1);
+
+        engine.close();
+
+        new Verifications()
+        {
+            {
+                mockExecutorService.shutdown();
+                times = 0;
+                mockExecutorService.shutdownNow();
+                times = 0;
+            }
+        };
+    }
+}